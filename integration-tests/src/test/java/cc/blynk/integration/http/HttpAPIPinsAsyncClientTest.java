@@ -36,6 +36,7 @@ import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_LENGTH;
 import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_TYPE;
 import static io.netty.handler.codec.http.HttpHeaderNames.LOCATION;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
@@ -280,6 +281,30 @@ public class HttpAPIPinsAsyncClientTest extends SingleServerInstancePerTest {
         assertEquals("My-New-Label", widget.label);
     }
 
+    @Test
+    public void testChangeLabelPropertyViaGetAfterProfileIsCached() throws Exception {
+        clientPair.appClient.send("loadProfileGzipped");
+        Profile profile = clientPair.appClient.parseProfile(1);
+        Widget widget = profile.dashBoards[0].findWidgetByPin(0, (short) 4, PinType.VIRTUAL);
+        assertNotNull(widget);
+        assertNotEquals("Cached-Label", widget.label);
+
+        Future<Response> f = httpclient.prepareGet(httpsServerUrl + clientPair.token + "/update/v4?label=Cached-Label").execute();
+        Response response = f.get();
+
+        assertEquals(200, response.getStatusCode());
+        verify(clientPair.appClient.responseMock, timeout(500)).channelRead(any(), eq(setProperty(111, "1-0 4 label Cached-Label")));
+
+        clientPair.appClient.reset();
+
+        clientPair.appClient.send("loadProfileGzipped");
+        profile = clientPair.appClient.parseProfile(1);
+
+        widget = profile.dashBoards[0].findWidgetByPin(0, (short) 4, PinType.VIRTUAL);
+        assertNotNull(widget);
+        assertEquals("Cached-Label", widget.label);
+    }
+
     @Test
     public void testChangeColorPropertyViaGet() throws Exception {
         Future<Response> f = httpclient.prepareGet(httpsServerUrl + clientPair.token + "/update/v4?color=%23000000").execute();
@@ -361,6 +361,92 @@ public class HttpAPIPinsTest extends SingleServerInstancePerTest {
         }
     }
 
+    @Test
+    public void testPutBatch() throws Exception {
+        HttpPut request = new HttpPut(httpsServerUrl + "4ae3851817194e2596cf1b7103603ef8/batch");
+        request.setEntity(new StringEntity("["
+                + "{\"pin\":\"v10\", \"ts\":123, \"value\":\"1\"},"
+                + "{\"pin\":\"v10\", \"ts\":125, \"value\":\"3\"},"
+                + "{\"pin\":\"v10\", \"ts\":124, \"value\":\"2\"},"
+                + "{\"pin\":\"v12\", \"value\":\"100\"}"
+                + "]", ContentType.APPLICATION_JSON));
+
+        try (CloseableHttpResponse response = httpclient.execute(request)) {
+            assertEquals(200, response.getStatusLine().getStatusCode());
+        }
+
+        HttpGet getRequest = new HttpGet(httpsServerUrl + "4ae3851817194e2596cf1b7103603ef8/get/v10");
+        try (CloseableHttpResponse response = httpclient.execute(getRequest)) {
+            assertEquals(200, response.getStatusLine().getStatusCode());
+            List<String> values = TestUtil.consumeJsonPinValues(response);
+            assertEquals(1, values.size());
+            assertEquals("3", values.get(0));
+        }
+
+        getRequest = new HttpGet(httpsServerUrl + "4ae3851817194e2596cf1b7103603ef8/get/v12");
+        try (CloseableHttpResponse response = httpclient.execute(getRequest)) {
+            assertEquals(200, response.getStatusLine().getStatusCode());
+            List<String> values = TestUtil.consumeJsonPinValues(response);
+            assertEquals(1, values.size());
+            assertEquals("100", values.get(0));
+        }
+    }
+
+    @Test
+    public void testPutBatchIsRejectedWhenRecordIsWrong() throws Exception {
+        HttpPut request = new HttpPut(httpsServerUrl + "4ae3851817194e2596cf1b7103603ef8/batch");
+        request.setEntity(new StringEntity("["
+                + "{\"pin\":\"v11\", \"value\":\"1\"},"
+                + "{\"pin\":\"v11\", \"deviceId\":100, \"value\":\"2\"}"
+                + "]", ContentType.APPLICATION_JSON));
+
+        try (CloseableHttpResponse response = httpclient.execute(request)) {
+            assertEquals(400, response.getStatusLine().getStatusCode());
+            assertEquals("Device not found.", TestUtil.consumeText(response));
+        }
+
+        HttpGet getRequest = new HttpGet(httpsServerUrl + "4ae3851817194e2596cf1b7103603ef8/get/v11");
+        try (CloseableHttpResponse response = httpclient.execute(getRequest)) {
+            assertEquals(400, response.getStatusLine().getStatusCode());
+        }
+    }
+
+    @Test
+    public void testPutBatchAppliesAllValuesOfTerminal() throws Exception {
+        HttpPut request = new HttpPut(httpsServerUrl + "7b0a3a61322e41a5b50589cf52d775d1/batch");
+        request.setEntity(new StringEntity("["
+                + "{\"pin\":\"v17\", \"ts\":123, \"value\":\"line1\"},"
+                + "{\"pin\":\"v17\", \"ts\":124, \"value\":\"line2\"}"
+                + "]", ContentType.APPLICATION_JSON));
+
+        try (CloseableHttpResponse response = httpclient.execute(request)) {
+            assertEquals(200, response.getStatusLine().getStatusCode());
+        }
+
+        HttpGet getRequest = new HttpGet(httpsServerUrl + "7b0a3a61322e41a5b50589cf52d775d1/get/v17");
+        try (CloseableHttpResponse response = httpclient.execute(getRequest)) {
+            assertEquals(200, response.getStatusLine().getStatusCode());
+            List<String> values = TestUtil.consumeJsonPinValues(response);
+            assertEquals(2, values.size());
+            assertEquals("line1", values.get(0));
+            assertEquals("line2", values.get(1));
+        }
+    }
+
+    @Test
+    public void testPutBatchIsRejectedWhenDeviceIdIsUsedWithToken() throws Exception {
+        HttpPut request = new HttpPut(httpsServerUrl + "4ae3851817194e2596cf1b7103603ef8/batch");
+        request.setEntity(new StringEntity("["
+                + "{\"pin\":\"v11\", \"token\":\"4ae3851817194e2596cf1b7103603ef8\", "
+                + "\"deviceId\":0, \"value\":\"1\"}"
+                + "]", ContentType.APPLICATION_JSON));
+
+        try (CloseableHttpResponse response = httpclient.execute(request)) {
+            assertEquals(400, response.getStatusLine().getStatusCode());
+            assertEquals("Device id can't be used together with token.", TestUtil.consumeText(response));
+        }
+    }
+
     @Test
     public void testPutWithExistingPin() throws Exception {
         HttpPut request = new HttpPut(httpsServerUrl + "4ae3851817194e2596cf1b7103603ef8/update/a14");
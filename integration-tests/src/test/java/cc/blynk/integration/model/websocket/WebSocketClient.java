@@ -16,12 +16,9 @@
 package cc.blynk.integration.model.websocket;
 
 import cc.blynk.client.core.BaseClient;
+import cc.blynk.client.handlers.decoders.ClientMessageDecoder;
 import cc.blynk.integration.model.SimpleClientHandler;
-import cc.blynk.server.Limits;
-import cc.blynk.server.core.protocol.handlers.decoders.MessageDecoder;
 import cc.blynk.server.core.protocol.model.messages.MessageBase;
-import cc.blynk.server.core.stats.GlobalStats;
-import cc.blynk.utils.properties.ServerProperties;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.ChannelInitializer;
@@ -41,7 +38,6 @@ import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
 import org.mockito.Mockito;
 
 import java.net.URI;
-import java.util.Collections;
 import java.util.Random;
 
 public final class WebSocketClient extends BaseClient {
@@ -91,8 +87,7 @@ public final class WebSocketClient extends BaseClient {
                         new HttpClientCodec(),
                         new HttpObjectAggregator(8192),
                         handler,
-                        new MessageDecoder(new GlobalStats(),
-                                new Limits(new ServerProperties(Collections.emptyMap())))
+                        new ClientMessageDecoder()
                 );
             }
         };
@@ -0,0 +1,87 @@
+package cc.blynk.integration.tcp;
+
+import cc.blynk.integration.BaseTest;
+import cc.blynk.integration.model.tcp.ClientPair;
+import cc.blynk.server.Holder;
+import cc.blynk.server.servers.BaseServer;
+import cc.blynk.server.servers.application.MobileAndHttpsServer;
+import cc.blynk.server.servers.hardware.HardwareAndHttpAPIServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static cc.blynk.integration.TestUtil.createDefaultHolder;
+import static cc.blynk.integration.TestUtil.hardware;
+import static cc.blynk.integration.TestUtil.ok;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class AppUpdatesCoalescingTest extends BaseTest {
+
+    private BaseServer appServer;
+    private BaseServer hardwareServer;
+    private ClientPair clientPair;
+    private Holder holder;
+
+    @Before
+    public void init() throws Exception {
+        properties.setProperty("app.updates.coalescing.window", "200");
+        this.holder = createDefaultHolder(properties, "no-db.properties");
+        this.hardwareServer = new HardwareAndHttpAPIServer(holder).start();
+        this.appServer = new MobileAndHttpsServer(holder).start();
+
+        this.clientPair = initAppAndHardPair();
+    }
+
+    @After
+    public void shutdown() {
+        this.appServer.close();
+        this.hardwareServer.close();
+        this.clientPair.stop();
+        properties.setProperty("app.updates.coalescing.window", "0");
+    }
+
+    @Test
+    public void testOnlyLatestValueOfThePinIsSentToApp() throws Exception {
+        clientPair.hardwareClient.send("hardware vw 1 1");
+        clientPair.hardwareClient.send("hardware vw 1 2");
+        clientPair.hardwareClient.send("hardware vw 2 10");
+        clientPair.hardwareClient.send("hardware vw 1 3");
+
+        verify(clientPair.appClient.responseMock, timeout(1000)).channelRead(any(), eq(hardware(4, "1-0 vw 1 3")));
+        verify(clientPair.appClient.responseMock, timeout(1000)).channelRead(any(), eq(hardware(3, "1-0 vw 2 10")));
+        verify(clientPair.appClient.responseMock, after(300).never()).channelRead(any(), eq(hardware(1, "1-0 vw 1 1")));
+        verify(clientPair.appClient.responseMock, never()).channelRead(any(), eq(hardware(2, "1-0 vw 1 2")));
+
+        assertEquals(2, holder.sessionDao.appUpdatesCoalescer.getCoalesced(false));
+        assertEquals(2, holder.sessionDao.appUpdatesCoalescer.getDelivered(false));
+    }
+
+    @Test
+    public void testTerminalWritesAreNotCoalesced() throws Exception {
+        clientPair.appClient.createWidget(1, "{\"id\":102, \"width\":1, \"height\":1, \"x\":5, \"y\":0, "
+                + "\"tabId\":0, \"label\":\"Some Text\", \"type\":\"TERMINAL\", \"pinType\":\"VIRTUAL\", \"pin\":17}");
+        clientPair.appClient.verifyResult(ok(1));
+
+        clientPair.hardwareClient.send("hardware vw 17 line1");
+        clientPair.hardwareClient.send("hardware vw 17 line2");
+
+        verify(clientPair.appClient.responseMock, timeout(1000)).channelRead(any(), eq(hardware(1, "1-0 vw 17 line1")));
+        verify(clientPair.appClient.responseMock, timeout(1000)).channelRead(any(), eq(hardware(2, "1-0 vw 17 line2")));
+        assertEquals(0, holder.sessionDao.appUpdatesCoalescer.getCoalesced(false));
+    }
+
+}
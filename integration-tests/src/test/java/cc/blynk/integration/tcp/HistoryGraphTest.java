@@ -97,9 +97,7 @@ public class HistoryGraphTest extends SingleServerInstancePerTest {
 
     @Before
     public void cleanStorage() {
-        holder.reportingDiskDao.averageAggregator.getMinute().clear();
-        holder.reportingDiskDao.averageAggregator.getHourly().clear();
-        holder.reportingDiskDao.averageAggregator.getDaily().clear();
+        holder.reportingDiskDao.averageAggregator.clear();
         holder.reportingDiskDao.rawDataCacheForGraphProcessor.rawStorage.clear();
     }
 
@@ -1721,6 +1719,8 @@ public class HistoryGraphTest extends SingleServerInstancePerTest {
         clientPair.appClient.createWidget(1, "{\"id\":200000, \"deviceIds\":[0,1], \"width\":1, \"height\":1, \"x\":0, \"y\":0, \"label\":\"Some Text\", \"type\":\"DEVICE_SELECTOR\"}");
         clientPair.appClient.verifyResult(ok(1));
 
+        //files are written directly, not via reporting writer, so index has to rescan the disk
+        holder.reportingDiskDao.fileIndex.rebuild();
         cleaner.run();
 
         assertTrue(Files.exists(pinReportingDataPath1));
@@ -1782,6 +1782,7 @@ public class HistoryGraphTest extends SingleServerInstancePerTest {
         assertTrue(Files.exists(pinReportingDataPath3));
         assertTrue(Files.exists(pinReportingDataPath4));
 
+        holder.reportingDiskDao.fileIndex.rebuild();
         cleaner.run();
 
         assertTrue(Files.exists(pinReportingDataPath1));
@@ -1846,6 +1847,7 @@ public class HistoryGraphTest extends SingleServerInstancePerTest {
         assertTrue(Files.exists(pinReportingDataPath22));
 
 
+        holder.reportingDiskDao.fileIndex.rebuild();
         cleaner.run();
 
         assertTrue(Files.exists(pinReportingDataPath1));
@@ -1923,6 +1925,7 @@ public class HistoryGraphTest extends SingleServerInstancePerTest {
         assertTrue(Files.exists(pinReportingDataPath3));
         assertTrue(Files.exists(pinReportingDataPath4));
 
+        holder.reportingDiskDao.fileIndex.rebuild();
         cleaner.run();
 
         assertTrue(Files.exists(pinReportingDataPath1));
@@ -2020,6 +2023,7 @@ public class HistoryGraphTest extends SingleServerInstancePerTest {
         assertTrue(Files.exists(pinReportingDataPath40));
         assertTrue(Files.exists(pinReportingDataPath41));
 
+        holder.reportingDiskDao.fileIndex.rebuild();
         cleaner.run();
 
         //3 files for device 0
@@ -2068,6 +2072,7 @@ public class HistoryGraphTest extends SingleServerInstancePerTest {
         assertEquals((STORAGE_PERIOD * 24 * 60 + 1) * ReportingUtil.REPORTING_RECORD_SIZE, Files.size(pinReportingDataPath1));
         assertEquals(16, Files.size(pinReportingDataPath2));
         assertEquals((STORAGE_PERIOD * 24 * 60 + 1) * ReportingUtil.REPORTING_RECORD_SIZE, Files.size(pinReportingDataPath3));
+        holder.reportingDiskDao.fileIndex.rebuild();
         truncateWorker.run();
 
         //expecting truncated file here
@@ -2104,6 +2109,7 @@ public class HistoryGraphTest extends SingleServerInstancePerTest {
         assertTrue(Files.exists(csvFile));
 
         ReportingTruncateWorker truncateWorker = new ReportingTruncateWorker(holder.reportingDiskDao, 0, 0);
+        holder.reportingDiskDao.fileIndex.rebuild();
         truncateWorker.run();
         assertTrue(Files.notExists(csvFile));
     }
@@ -2129,6 +2135,7 @@ public class HistoryGraphTest extends SingleServerInstancePerTest {
         }
 
         assertEquals((7 * 24 * 60) * ReportingUtil.REPORTING_RECORD_SIZE, Files.size(pinReportingDataPath1));
+        holder.reportingDiskDao.fileIndex.rebuild();
         truncateWorker.run();
 
         //expecting truncated file here
@@ -2153,11 +2160,13 @@ public class HistoryGraphTest extends SingleServerInstancePerTest {
 
         Path userReportFolder = Paths.get(tempDir, "data", getUserName());
 
+        holder.reportingDiskDao.fileIndex.rebuild();
         truncateWorker.run();
 
         if (Files.notExists(userReportFolder)) {
             Files.createDirectories(userReportFolder);
         }
+        holder.reportingDiskDao.fileIndex.rebuild();
         truncateWorker.run();
     }
 
@@ -2172,6 +2181,7 @@ public class HistoryGraphTest extends SingleServerInstancePerTest {
         if (Files.notExists(userReportFolder)) {
             Files.createDirectories(userReportFolder);
         }
+        holder.reportingDiskDao.fileIndex.rebuild();
         truncateWorker.run();
 
         assertTrue(Files.notExists(userReportFolder));
@@ -115,8 +115,8 @@ public class LoadBalancingIntegrationTest extends BaseTest {
 
         appClient1.reset();
 
-        ProfileSaverWorker profileSaverWorker = new ProfileSaverWorker(holder.userDao, holder.fileManager, holder.dbManager);
-        ProfileSaverWorker profileSaverWorker2 = new ProfileSaverWorker(holder2.userDao, holder2.fileManager, holder2.dbManager);
+        ProfileSaverWorker profileSaverWorker = new ProfileSaverWorker(holder.userDao, holder.fileManager, holder.profileJournal, holder.dbManager);
+        ProfileSaverWorker profileSaverWorker2 = new ProfileSaverWorker(holder2.userDao, holder2.fileManager, holder2.profileJournal, holder2.dbManager);
 
         workflowForUser(appClient1, email, pass, appName);
         profileSaverWorker.run();
@@ -175,7 +175,7 @@ public class LoadBalancingIntegrationTest extends BaseTest {
 
         appClient1.reset();
 
-        ProfileSaverWorker profileSaverWorker = new ProfileSaverWorker(holder.userDao, holder.fileManager, holder.dbManager);
+        ProfileSaverWorker profileSaverWorker = new ProfileSaverWorker(holder.userDao, holder.fileManager, holder.profileJournal, holder.dbManager);
 
         workflowForUser(appClient1, email, pass, appName);
         profileSaverWorker.run();
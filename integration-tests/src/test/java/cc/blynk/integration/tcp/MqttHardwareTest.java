@@ -0,0 +1,164 @@
+package cc.blynk.integration.tcp;
+
+import cc.blynk.integration.BaseTest;
+import cc.blynk.integration.model.tcp.ClientPair;
+import cc.blynk.server.Holder;
+import cc.blynk.server.servers.BaseServer;
+import cc.blynk.server.servers.application.MobileAndHttpsServer;
+import cc.blynk.server.servers.hardware.HardwareAndHttpAPIServer;
+import cc.blynk.server.servers.hardware.MQTTHardwareServer;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.mqtt.MqttDecoder;
+import io.netty.handler.codec.mqtt.MqttEncoder;
+import io.netty.handler.codec.mqtt.MqttMessage;
+import io.netty.handler.codec.mqtt.MqttMessageBuilders;
+import io.netty.handler.codec.mqtt.MqttMessageIdVariableHeader;
+import io.netty.handler.codec.mqtt.MqttMessageType;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.netty.handler.codec.mqtt.MqttVersion;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static cc.blynk.integration.TestUtil.createDefaultHolder;
+import static cc.blynk.integration.TestUtil.hardware;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class MqttHardwareTest extends BaseTest {
+
+    private BaseServer appServer;
+    private BaseServer hardwareServer;
+    private BaseServer mqttServer;
+    private ClientPair clientPair;
+    private NioEventLoopGroup mqttGroup;
+    private Channel mqttChannel;
+    private final BlockingQueue<MqttMessage> mqttReceived = new LinkedBlockingQueue<>();
+
+    @Before
+    public void init() throws Exception {
+        Holder holder = createDefaultHolder(properties, "no-db.properties");
+        this.hardwareServer = new HardwareAndHttpAPIServer(holder).start();
+        this.appServer = new MobileAndHttpsServer(holder).start();
+        this.mqttServer = new MQTTHardwareServer(holder).start();
+
+        this.clientPair = initAppAndHardPair();
+        this.mqttGroup = new NioEventLoopGroup(1);
+        this.mqttChannel = connectMqtt(clientPair.token);
+    }
+
+    @After
+    public void shutdown() {
+        this.mqttChannel.close();
+        this.mqttGroup.shutdownGracefully();
+        this.appServer.close();
+        this.hardwareServer.close();
+        this.mqttServer.close();
+        this.clientPair.stop();
+    }
+
+    private Channel connectMqtt(String token) throws Exception {
+        Channel channel = new Bootstrap()
+                .group(mqttGroup)
+                .channel(NioSocketChannel.class)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline()
+                                .addLast(MqttEncoder.INSTANCE)
+                                .addLast(new MqttDecoder())
+                                .addLast(new SimpleChannelInboundHandler<MqttMessage>() {
+                                    @Override
+                                    protected void channelRead0(ChannelHandlerContext ctx, MqttMessage msg) {
+                                        mqttReceived.add(msg);
+                                    }
+                                });
+                    }
+                })
+                .connect("localhost", properties.getIntProperty("hardware.mqtt.port"))
+                .sync().channel();
+
+        channel.writeAndFlush(MqttMessageBuilders.connect()
+                .protocolVersion(MqttVersion.MQTT_3_1_1)
+                .clientId("test")
+                .hasUser(true)
+                .username(getUserName())
+                .hasPassword(true)
+                .password(token.getBytes(StandardCharsets.UTF_8))
+                .build());
+        assertEquals(MqttMessageType.CONNACK, nextMqttMessage().fixedHeader().messageType());
+        return channel;
+    }
+
+    private MqttMessage nextMqttMessage() throws InterruptedException {
+        return mqttReceived.poll(5, TimeUnit.SECONDS);
+    }
+
+    private void publish(String topic, String payload, MqttQoS qos, int messageId) {
+        mqttChannel.write(MqttMessageBuilders.publish()
+                .topicName(topic)
+                .qos(qos)
+                .messageId(messageId)
+                .payload(Unpooled.copiedBuffer(payload, StandardCharsets.UTF_8))
+                .build());
+    }
+
+    @Test
+    public void testHardwareTopicIsForwardedToApp() throws Exception {
+        publish("hardware", "vw 1 100", MqttQoS.AT_LEAST_ONCE, 1);
+        mqttChannel.flush();
+
+        verify(clientPair.appClient.responseMock, timeout(1000)).channelRead(any(), eq(hardware(1, "1-0 vw 1 100")));
+    }
+
+    @Test
+    public void testPinTopicIsForwardedToApp() throws Exception {
+        publish("v/2", "200", MqttQoS.AT_LEAST_ONCE, 1);
+        publish("d/3", "1", MqttQoS.AT_LEAST_ONCE, 2);
+        mqttChannel.flush();
+
+        verify(clientPair.appClient.responseMock, timeout(1000)).channelRead(any(), eq(hardware(1, "1-0 vw 2 200")));
+        verify(clientPair.appClient.responseMock, timeout(1000)).channelRead(any(), eq(hardware(2, "1-0 dw 3 1")));
+    }
+
+    @Test
+    public void testQoS1PublishesAreAcknowledged() throws Exception {
+        publish("v/4", "1", MqttQoS.AT_LEAST_ONCE, 10);
+        publish("v/4", "2", MqttQoS.AT_LEAST_ONCE, 11);
+        mqttChannel.flush();
+
+        MqttMessage ack = nextMqttMessage();
+        assertEquals(MqttMessageType.PUBACK, ack.fixedHeader().messageType());
+        assertEquals(10, ((MqttMessageIdVariableHeader) ack.variableHeader()).messageId());
+        ack = nextMqttMessage();
+        assertEquals(MqttMessageType.PUBACK, ack.fixedHeader().messageType());
+        assertEquals(11, ((MqttMessageIdVariableHeader) ack.variableHeader()).messageId());
+
+        verify(clientPair.appClient.responseMock, timeout(1000)).channelRead(any(), eq(hardware(11, "1-0 vw 4 2")));
+    }
+
+}
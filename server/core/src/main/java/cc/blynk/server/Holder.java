@@ -2,15 +2,23 @@ package cc.blynk.server;
 
 import cc.blynk.server.core.BlockingIOProcessor;
 import cc.blynk.server.core.dao.FileManager;
+import cc.blynk.server.core.dao.ProfileJournal;
 import cc.blynk.server.core.dao.ReportingDiskDao;
 import cc.blynk.server.core.dao.SessionDao;
+import cc.blynk.server.core.dao.StartupIndex;
 import cc.blynk.server.core.dao.TokenManager;
 import cc.blynk.server.core.dao.UserDao;
 import cc.blynk.server.core.dao.UserKey;
 import cc.blynk.server.core.dao.ota.OTAManager;
+import cc.blynk.server.core.model.auth.AppUpdatesCoalescer;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.widgets.ui.reporting.ReportScheduler;
 import cc.blynk.server.core.processors.EventorProcessor;
+import cc.blynk.server.core.reporting.GraphDataCache;
+import cc.blynk.server.core.reporting.TagDataAggregator;
+import cc.blynk.server.core.reporting.disk.ReportingDiskReader;
+import cc.blynk.server.core.reporting.disk.ReportingDiskWriter;
+import cc.blynk.server.core.reporting.raw.RawDataProcessor;
 import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.server.db.DBManager;
 import cc.blynk.server.db.ReportingDBManager;
@@ -51,6 +59,8 @@ public class Holder {
 
     public final UserDao userDao;
 
+    public final ProfileJournal profileJournal;
+
     public final TokenManager tokenManager;
 
     public final ReportingDiskDao reportingDiskDao;
@@ -94,7 +104,8 @@ public class Holder {
         this.props = serverProperties;
 
         this.fileManager = new FileManager(serverProperties.getDataFolder(), serverProperties.host);
-        this.sessionDao = new SessionDao();
+        this.sessionDao = new SessionDao(new AppUpdatesCoalescer(
+                serverProperties.getIntProperty("app.updates.coalescing.window", 0)));
         this.blockingIOProcessor = new BlockingIOProcessor(
                 serverProperties.getIntProperty("blocking.processor.thread.pool.limit", 6),
                 serverProperties.getIntProperty("notifications.queue.limit", 2000)
@@ -104,23 +115,48 @@ public class Holder {
         this.dbManager = new DBManager(blockingIOProcessor, enableDB);
         this.reportingDBManager = new ReportingDBManager(blockingIOProcessor, enableDB);
 
+        //tokens, timers and reports of all users are collected while users are loaded
+        StartupIndex startupIndex;
         if (restore) {
             try {
                 ConcurrentMap<UserKey, User> allUsers = dbManager.userDBDao.getAllUsers(serverProperties.region);
                 this.userDao = new UserDao(allUsers, serverProperties.region, serverProperties.host);
+                startupIndex = StartupIndex.of(allUsers);
             } catch (Exception e) {
                 System.out.println("Error restoring data from DB!");
                 e.printStackTrace();
                 throw new RuntimeException(e);
             }
         } else {
-            this.userDao = new UserDao(fileManager.deserializeUsers(), serverProperties.region, serverProperties.host);
+            startupIndex = new StartupIndex();
+            this.userDao = new UserDao(
+                    fileManager.deserializeUsers(startupIndex, usersLoadThreads(serverProperties)),
+                    serverProperties.region, serverProperties.host);
+        }
+        this.profileJournal = new ProfileJournal(fileManager.getDataDir(),
+                serverProperties.getIntProperty("profile.journal.max.size.mb", ProfileJournal.DEFAULT_MAX_SIZE_MB));
+        if (restore) {
+            //restored profiles are newer than the journal
+            profileJournal.delete();
+        } else {
+            profileJournal.replay(userDao.users);
+            profileJournal.compact(fileManager, userDao.users);
         }
 
-        this.tokenManager = new TokenManager(this.userDao.users, dbManager, serverProperties.host);
+        this.tokenManager = new TokenManager(startupIndex, dbManager, serverProperties.host);
         this.stats = new GlobalStats();
         this.reportingDiskDao = new ReportingDiskDao(serverProperties.getReportingFolder(),
-                serverProperties.isRawDBEnabled() && reportingDBManager.isDBEnabled());
+                serverProperties.isRawDBEnabled() && reportingDBManager.isDBEnabled(),
+                serverProperties.getIntProperty("reporting.max.open.files",
+                        ReportingDiskWriter.DEFAULT_MAX_OPEN_FILES),
+                serverProperties.getIntProperty("reporting.max.mapped.files",
+                        ReportingDiskReader.DEFAULT_MAX_MAPPED_FILES),
+                serverProperties.getIntProperty("raw.db.data.max.records",
+                        RawDataProcessor.DEFAULT_MAX_RECORDS),
+                reportingRingCapacity(serverProperties),
+                serverProperties.getIntProperty("reporting.tag.threads", TagDataAggregator.DEFAULT_THREADS),
+                serverProperties.getIntProperty("reporting.graph.cache.size.mb",
+                        GraphDataCache.DEFAULT_MAX_SIZE_MB));
 
         this.transportTypeHolder = new TransportTypeHolder(serverProperties);
 
@@ -141,8 +177,8 @@ public class Holder {
 
         this.eventorProcessor = new EventorProcessor(
                 gcmWrapper, mailWrapper, twitterWrapper, blockingIOProcessor, stats);
-        this.timerWorker = new TimerWorker(userDao, sessionDao, gcmWrapper);
-        this.readingWidgetsWorker = new ReadingWidgetsWorker(sessionDao, userDao, props.getAllowWithoutActiveApp());
+        this.timerWorker = new TimerWorker(userDao, sessionDao, gcmWrapper, startupIndex);
+        this.readingWidgetsWorker = new ReadingWidgetsWorker(props.getAllowWithoutActiveApp());
         this.limits = new Limits(props);
         this.textHolder = new TextHolder(gcmProperties);
 
@@ -150,7 +186,9 @@ public class Holder {
                 props.getProperty("http.port"),
                 props.getBoolProperty("force.port.80.for.csv")
         );
-        this.reportScheduler = new ReportScheduler(1, downloadUrl, mailWrapper, reportingDiskDao, userDao.users);
+        this.reportScheduler = new ReportScheduler(1,
+                serverProperties.getIntProperty("report.generation.threads", 4),
+                downloadUrl, mailWrapper, reportingDiskDao, startupIndex);
 
         String contactEmail = serverProperties.getProperty("contact.email", mailProperties.getSMTPUsername());
         this.sslContextHolder = new SslContextHolder(props, contactEmail);
@@ -167,18 +205,36 @@ public class Holder {
         this.props = serverProperties;
 
         this.fileManager = new FileManager(serverProperties.getDataFolder(), serverProperties.host);
-        this.sessionDao = new SessionDao();
-        this.userDao = new UserDao(fileManager.deserializeUsers(), serverProperties.region, serverProperties.host);
+        this.sessionDao = new SessionDao(new AppUpdatesCoalescer(
+                serverProperties.getIntProperty("app.updates.coalescing.window", 0)));
+        StartupIndex startupIndex = new StartupIndex();
+        this.userDao = new UserDao(
+                fileManager.deserializeUsers(startupIndex, usersLoadThreads(serverProperties)),
+                serverProperties.region, serverProperties.host);
+        this.profileJournal = new ProfileJournal(fileManager.getDataDir(),
+                serverProperties.getIntProperty("profile.journal.max.size.mb", ProfileJournal.DEFAULT_MAX_SIZE_MB));
+        profileJournal.replay(userDao.users);
+        profileJournal.compact(fileManager, userDao.users);
         this.blockingIOProcessor = blockingIOProcessor;
 
         boolean enableDB = serverProperties.isDBEnabled();
         this.dbManager = new DBManager(dbFileName, blockingIOProcessor, enableDB);
         this.reportingDBManager = new ReportingDBManager(dbFileName, blockingIOProcessor, enableDB);
 
-        this.tokenManager = new TokenManager(this.userDao.users, dbManager, serverProperties.host);
+        this.tokenManager = new TokenManager(startupIndex, dbManager, serverProperties.host);
         this.stats = new GlobalStats();
         this.reportingDiskDao = new ReportingDiskDao(serverProperties.getReportingFolder(),
-                serverProperties.isRawDBEnabled() && reportingDBManager.isDBEnabled());
+                serverProperties.isRawDBEnabled() && reportingDBManager.isDBEnabled(),
+                serverProperties.getIntProperty("reporting.max.open.files",
+                        ReportingDiskWriter.DEFAULT_MAX_OPEN_FILES),
+                serverProperties.getIntProperty("reporting.max.mapped.files",
+                        ReportingDiskReader.DEFAULT_MAX_MAPPED_FILES),
+                serverProperties.getIntProperty("raw.db.data.max.records",
+                        RawDataProcessor.DEFAULT_MAX_RECORDS),
+                reportingRingCapacity(serverProperties),
+                serverProperties.getIntProperty("reporting.tag.threads", TagDataAggregator.DEFAULT_THREADS),
+                serverProperties.getIntProperty("reporting.graph.cache.size.mb",
+                        GraphDataCache.DEFAULT_MAX_SIZE_MB));
 
         this.transportTypeHolder = new TransportTypeHolder(serverProperties);
 
@@ -199,8 +255,8 @@ public class Holder {
                 .build()
         );
 
-        this.timerWorker = new TimerWorker(userDao, sessionDao, gcmWrapper);
-        this.readingWidgetsWorker = new ReadingWidgetsWorker(sessionDao, userDao, props.getAllowWithoutActiveApp());
+        this.timerWorker = new TimerWorker(userDao, sessionDao, gcmWrapper, startupIndex);
+        this.readingWidgetsWorker = new ReadingWidgetsWorker(props.getAllowWithoutActiveApp());
         this.limits = new Limits(props);
         this.textHolder = new TextHolder(new GCMProperties(Collections.emptyMap()));
 
@@ -208,7 +264,9 @@ public class Holder {
                 props.getProperty("http.port"),
                 props.getBoolProperty("force.port.80.for.csv")
         );
-        this.reportScheduler = new ReportScheduler(1, downloadUrl, mailWrapper, reportingDiskDao, userDao.users);
+        this.reportScheduler = new ReportScheduler(1,
+                serverProperties.getIntProperty("report.generation.threads", 4),
+                downloadUrl, mailWrapper, reportingDiskDao, startupIndex);
 
         this.sslContextHolder = new SslContextHolder(props, "test@blynk.cc");
         this.tokensPool = new TokensPool(serverProperties.getReportingFolder());
@@ -223,6 +281,20 @@ public class Holder {
         }
     }
 
+    private static int usersLoadThreads(ServerProperties serverProperties) {
+        return Math.max(1, serverProperties.getIntProperty("users.load.threads", FileManager.DEFAULT_LOAD_THREADS));
+    }
+
+    private static int[] reportingRingCapacity(ServerProperties serverProperties) {
+        if (!serverProperties.getBoolProperty("reporting.ring.files")) {
+            return null;
+        }
+        return ReportingDiskWriter.ringCapacity(
+                serverProperties.getIntProperty("store.minute.record.days", 10),
+                serverProperties.getIntProperty("reporting.ring.hourly.days", 365),
+                serverProperties.getIntProperty("reporting.ring.daily.days", 3650));
+    }
+
     public void close() {
         sessionDao.close();
 
@@ -14,6 +14,7 @@ import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.function.IntFunction;
 import java.util.zip.GZIPOutputStream;
 
 import static cc.blynk.utils.FileUtils.CSV_DIR;
@@ -39,6 +40,25 @@ public class CSVGenerator {
 
     public Path createCSV(User user, int dashId, int inDeviceId, PinType pinType, short pin, int... deviceIds)
             throws Exception {
+        return createCSV(user, dashId, inDeviceId, pinType, pin,
+                deviceId -> reportingDao.getByteBufferFromDisk(user, dashId, deviceId,
+                        pinType, pin, FETCH_COUNT, GraphGranularityType.MINUTE, 0),
+                deviceIds);
+    }
+
+    /**
+     * Same as above, but takes only minute points within [from, to] time window.
+     */
+    public Path createCSVForPeriod(User user, int dashId, int deviceId, PinType pinType, short pin,
+                                   long from, long to) throws Exception {
+        return createCSV(user, dashId, deviceId, pinType, pin,
+                id -> reportingDao.getByteBufferFromDisk(user, dashId, id,
+                        pinType, pin, FETCH_COUNT, GraphGranularityType.MINUTE, from, to),
+                deviceId);
+    }
+
+    private Path createCSV(User user, int dashId, int inDeviceId, PinType pinType, short pin,
+                           IntFunction<ByteBuffer> pinDataReader, int... deviceIds) throws Exception {
         if (!DataStream.isValid(pin, pinType)) {
             throw new IllegalStateException("Wrong pin format.");
         }
@@ -51,8 +71,7 @@ public class CSVGenerator {
 
             int emptyDataCounter = 0;
             for (int deviceId : deviceIds) {
-                ByteBuffer onePinData = reportingDao.getByteBufferFromDisk(user, dashId, deviceId,
-                        pinType, pin, FETCH_COUNT, GraphGranularityType.MINUTE, 0);
+                ByteBuffer onePinData = pinDataReader.apply(deviceId);
                 if (onePinData != null) {
                     writeBufToCsv(writer, onePinData, deviceId);
                 } else {
@@ -3,11 +3,14 @@ package cc.blynk.server.core.dao;
 import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.serialization.JsonParser;
+import cc.blynk.server.core.model.storage.PinStorage;
+import cc.blynk.server.core.model.storage.PinStorageFile;
 import cc.blynk.server.core.model.storage.key.DashPinPropertyStorageKey;
 import cc.blynk.server.core.model.storage.key.DashPinStorageKey;
 import cc.blynk.server.core.model.storage.key.PinPropertyStorageKey;
 import cc.blynk.server.core.model.storage.key.PinStorageKey;
 import cc.blynk.server.core.model.storage.value.PinStorageValue;
+import cc.blynk.utils.BlynkTPFactory;
 import cc.blynk.utils.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -15,10 +18,9 @@ import org.apache.logging.log4j.Logger;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.FileSystems;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.text.SimpleDateFormat;
@@ -26,12 +28,15 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static java.nio.file.Files.createDirectories;
-import static java.util.function.Function.identity;
 
 
 /**
@@ -45,6 +50,11 @@ public class FileManager {
 
     private static final Logger log = LogManager.getLogger(FileManager.class);
     private static final String USER_FILE_EXTENSION = ".user";
+    private static final String PINS_FILE_EXTENSION = ".pins";
+
+    public static final int DEFAULT_LOAD_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int QUEUED_FILES_PER_THREAD = 16;
+    private static final long PROGRESS_LOG_INTERVAL_MILLIS = 5_000;
 
     /**
      * Folder where all user profiles are stored locally.
@@ -58,6 +68,7 @@ public class FileManager {
     private Path backupDataDir;
     private String cloneDataDir;
     private final String host;
+    private volatile UsersLoadProgress usersLoadProgress;
 
     public FileManager(String dataFolder, String host) {
         if (dataFolder == null || dataFolder.isEmpty() || dataFolder.equals("/path")) {
@@ -105,6 +116,10 @@ public class FileManager {
         return Paths.get(dataDir.toString(), email + "." + appName + USER_FILE_EXTENSION);
     }
 
+    public Path generatePinsFileName(String email, String appName) {
+        return Paths.get(dataDir.toString(), email + "." + appName + PINS_FILE_EXTENSION);
+    }
+
     public Path generateBackupFileName(String email, String appName) {
         return Paths.get(backupDataDir.toString(), email + "." + appName + ".user."
                 + new SimpleDateFormat("yyyy-MM-dd").format(new Date()));
@@ -122,17 +137,58 @@ public class FileManager {
             log.debug("Failed to move file. {}", e.getMessage());
             return false;
         }
+        Path pinsFile = generatePinsFileName(email, appName);
+        if (Files.exists(pinsFile)) {
+            try {
+                FileUtils.move(pinsFile, this.deletedDataDir);
+            } catch (IOException e) {
+                log.debug("Failed to move pins file. {}", e.getMessage());
+            }
+        }
         return true;
     }
 
     public void overrideUserFile(User user) throws IOException {
         Path path = generateFileName(user.email, user.appName);
 
+        //values first, so the profile without the old pins storage is never stored without them
+        overridePinsFile(user);
         JsonParser.writeUser(path.toFile(), user);
 
         removeOldFile(user.email);
     }
 
+    //pin values are stored only when changed since the last write
+    private void overridePinsFile(User user) throws IOException {
+        PinStorage pinStorage = user.profile.pinsStorage;
+        if (!pinStorage.takeChanged()) {
+            return;
+        }
+        try {
+            PinStorageFile.write(generatePinsFileName(user.email, user.appName), pinStorage);
+        } catch (IOException e) {
+            pinStorage.markChanged();
+            throw e;
+        }
+    }
+
+    private void readPinsFile(User user) {
+        PinStorage pinStorage = user.profile.pinsStorage;
+        //values migrated from the profile json are not stored yet
+        boolean migrated = pinStorage.isChanged();
+        Path path = generatePinsFileName(user.email, user.appName);
+        if (Files.exists(path)) {
+            try {
+                PinStorageFile.read(path, pinStorage);
+            } catch (IOException e) {
+                log.error("Error reading pins file '{}'. Error : {}", path, e.getMessage());
+            }
+        }
+        if (!migrated) {
+            pinStorage.takeChanged();
+        }
+    }
+
     private void removeOldFile(String email) {
         //this oldFileName is migration code. should be removed in future versions
         Path oldFileName = generateOldFileName(email);
@@ -149,41 +205,110 @@ public class FileManager {
      * @return mapping between username and it's profile.
      */
     public ConcurrentMap<UserKey, User> deserializeUsers() {
+        return deserializeUsers(new StartupIndex(), DEFAULT_LOAD_THREADS);
+    }
+
+    /**
+     * Reads all user profiles with the given number of threads. Files are listed lazily and only a few
+     * files per thread are queued, so memory doesn't depend on the number of users.
+     * Loaded users are added to the startup index in the same pass.
+     * Files are counted while listed, so the directory is walked only once.
+     */
+    public ConcurrentMap<UserKey, User> deserializeUsers(StartupIndex index, int threads) {
         log.debug("Starting reading user DB.");
 
-        PathMatcher pathMatcher = FileSystems.getDefault().getPathMatcher("glob:**" + USER_FILE_EXTENSION);
-        ConcurrentMap<UserKey, User> temp;
-        try {
-            temp = Files.walk(dataDir, 1).parallel()
-                    .filter(path -> Files.isRegularFile(path) && pathMatcher.matches(path))
-                    .flatMap(path -> {
-                        try {
-                            User user = JsonParser.parseUserFromFile(path);
-                            makeProfileChanges(user);
-
-                            return Stream.of(user);
-                        } catch (IOException ioe) {
-                            String errorMessage = ioe.getMessage();
-                            log.error("Error parsing file '{}'. Error : {}", path, errorMessage);
-                            if (errorMessage != null
-                                    && (errorMessage.contains("end-of-input")
-                                    || errorMessage.contains("Illegal character"))) {
-                                return restoreFromBackup(path.getFileName());
+        UsersLoadProgress progress = new UsersLoadProgress();
+        this.usersLoadProgress = progress;
+        ConcurrentMap<UserKey, User> users = new ConcurrentHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, BlynkTPFactory.build("users-loader"));
+        Semaphore queued = new Semaphore(threads * QUEUED_FILES_PER_THREAD);
+        AtomicReference<Exception> error = new AtomicReference<>();
+        long lastLogAt = System.currentTimeMillis();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dataDir, "*" + USER_FILE_EXTENSION)) {
+            for (Path path : files) {
+                //blocks till some of the queued files are read
+                queued.acquire();
+                progress.listed();
+                executor.execute(() -> {
+                    try {
+                        if (Files.isRegularFile(path)) {
+                            User user = readUser(path);
+                            if (user == null) {
+                                progress.failed();
+                            } else {
+                                addUser(users, index, user);
+                                progress.loaded();
                             }
                         }
-                        return Stream.empty();
-                    })
-                    .collect(Collectors.toConcurrentMap(UserKey::new, identity()));
+                    } catch (Exception e) {
+                        error.compareAndSet(null, e);
+                    } finally {
+                        queued.release();
+                    }
+                });
+                long now = System.currentTimeMillis();
+                if (now - lastLogAt >= PROGRESS_LOG_INTERVAL_MILLIS) {
+                    log.info("Reading user DB : {}.", progress);
+                    lastLogAt = now;
+                }
+            }
+            progress.listingFinished();
+            executor.shutdown();
+            while (!executor.awaitTermination(PROGRESS_LOG_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+                log.info("Reading user DB : {}.", progress);
+            }
         } catch (Exception e) {
+            error.compareAndSet(null, e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Exception e = error.get();
+        if (e != null) {
             log.error("Error reading user profiles from disk. {}", e.getMessage());
             throw new RuntimeException(e);
         }
 
-        log.debug("Reading user DB finished.");
-        return temp;
+        progress.finished();
+        log.info("Reading user DB finished : {} in {} ms.", progress, progress.getElapsedMillis());
+        return users;
     }
 
-    private Stream<User> restoreFromBackup(Path restoreFileNamePath) {
+    //null when users were not loaded from disk
+    public UsersLoadProgress getUsersLoadProgress() {
+        return usersLoadProgress;
+    }
+
+    private static void addUser(ConcurrentMap<UserKey, User> users, StartupIndex index, User user) {
+        UserKey userKey = new UserKey(user);
+        User existing = users.putIfAbsent(userKey, user);
+        if (existing == null) {
+            index.add(userKey, user);
+        } else {
+            log.error("Duplicate user profile for {}-{}. Skipping.", user.email, user.appName);
+        }
+    }
+
+    private User readUser(Path path) {
+        try {
+            User user = JsonParser.parseUserFromFile(path);
+            makeProfileChanges(user);
+            readPinsFile(user);
+            return user;
+        } catch (IOException ioe) {
+            String errorMessage = ioe.getMessage();
+            log.error("Error parsing file '{}'. Error : {}", path, errorMessage);
+            if (errorMessage != null
+                    && (errorMessage.contains("end-of-input")
+                    || errorMessage.contains("Illegal character"))) {
+                return restoreFromBackup(path.getFileName());
+            }
+        }
+        return null;
+    }
+
+    private User restoreFromBackup(Path restoreFileNamePath) {
         log.info("Trying to recover from backup...");
         String filename = restoreFileNamePath.toString();
         try {
@@ -194,23 +319,24 @@ public class FileManager {
             File backupFile = FileUtils.getLatestFile(files);
             if (backupFile == null) {
                 log.info("Didn't find any files for recovery :(.");
-                return Stream.empty();
+                return null;
             }
             log.info("Found {}. You are lucky today :).", backupFile.getAbsoluteFile());
 
             User user = JsonParser.parseUserFromFile(backupFile);
             makeProfileChanges(user);
+            readPinsFile(user);
             //profile saver thread is launched after file manager is initialized.
             //so making sure user profile will be saved
             //this is not very important as profile will be updated by user anyway.
             user.lastModifiedTs = System.currentTimeMillis() + 10 * 1000;
             log.info("Restored.", backupFile.getAbsoluteFile());
-            return Stream.of(user);
+            return user;
         } catch (Exception e) {
             //ignore
             log.error("Restoring from backup failed. {}", e.getMessage());
         }
-        return Stream.empty();
+        return null;
     }
 
     //public is for tests only
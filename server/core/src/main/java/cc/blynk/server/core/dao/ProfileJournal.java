@@ -0,0 +1,447 @@
+package cc.blynk.server.core.dao;
+
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.Profile;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.storage.PinValueChange;
+import cc.blynk.server.core.model.storage.key.DashPinStorageKey;
+import cc.blynk.server.core.model.storage.value.MultiPinStorageValue;
+import cc.blynk.server.core.model.storage.value.PinStorageValue;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Append only journal of the pin values updated by the hardware. Value updates are the most
+ * frequent profile changes, so instead of the rewrite of the whole profile json they are appended
+ * to the journal (one record per user per saver run) and applied to the profiles on the server start.
+ * Only the last value of the pin is journaled, except pins with multi value widgets, they are journaled
+ * value by value, and multi value pin storages, they are journaled as a whole.
+ *
+ * Journal is compacted into the profile snapshots (user files) when it grows over the limit,
+ * on the server start and on the shutdown. Not thread safe, used only by the profile saver thread
+ * and on the server start.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class ProfileJournal {
+
+    private static final Logger log = LogManager.getLogger(ProfileJournal.class);
+
+    public static final String JOURNAL_FILE_NAME = "profiles.journal";
+    public static final int DEFAULT_MAX_SIZE_MB = 64;
+
+    private static final int VERSION = 2;
+
+    //value is applied as the hardware update
+    private static final byte VALUE = 0;
+    //all values of the multi value pin storage, replace the stored values
+    private static final byte SNAPSHOT = 1;
+
+    private final Path journalPath;
+    private final long maxSize;
+    //users with records in the journal, they are stored to the user files on compaction
+    private final Set<UserKey> journaledUsers = new HashSet<>();
+    private long size;
+    //incomplete record couldn't be removed after the write error, nothing is appended until the compaction
+    private boolean corrupted;
+    //changes of the users weren't journaled, they are stored with the whole profiles on the compaction
+    private boolean fullSaveRequired;
+
+    public ProfileJournal(Path dataDir, int maxSizeMb) {
+        this.journalPath = dataDir.resolve(JOURNAL_FILE_NAME);
+        this.maxSize = maxSizeMb * 1024L * 1024L;
+        this.size = sizeOf(journalPath);
+    }
+
+    private static long sizeOf(Path path) {
+        try {
+            return Files.exists(path) ? Files.size(path) : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public boolean needsCompaction() {
+        return corrupted || fullSaveRequired || size > maxSize;
+    }
+
+    /**
+     * Appends value changes of the users to the journal. Changes are removed from the profiles only
+     * when the journal is written successfully, in case of the error journal is truncated to the last
+     * complete record and users with the changes are stored with the whole profile on the compaction,
+     * so the changes don't pile up in memory while the journal can't be written.
+     *
+     * @return - users with journaled changes
+     */
+    public List<User> append(Collection<User> users) throws IOException {
+        if (corrupted) {
+            requireFullSave(users);
+            throw new IOException("Profile journal has incomplete record, it should be compacted first.");
+        }
+        var journaled = new ArrayList<UserChanges>();
+        long lastGoodSize = size;
+        DataOutputStream out = null;
+        try {
+            for (User user : users) {
+                Profile profile = user.profile;
+                if (profile.valueChanges.isEmpty() && profile.multiValueChanges.isEmpty()) {
+                    continue;
+                }
+                //new changes may be added while the record is written, they go to the next record
+                var userChanges = new UserChanges(user,
+                        new ArrayList<>(profile.valueChanges.values()),
+                        new ArrayList<>(profile.multiValueChanges));
+                if (out == null) {
+                    out = open();
+                }
+                writeRecord(out, userChanges);
+                journaled.add(userChanges);
+            }
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+        } catch (IOException e) {
+            closeQuietly(out);
+            truncate(lastGoodSize);
+            requireFullSave(users);
+            throw e;
+        }
+        size = sizeOf(journalPath);
+
+        var result = new ArrayList<User>(journaled.size());
+        for (UserChanges userChanges : journaled) {
+            userChanges.removeFromProfile();
+            journaledUsers.add(new UserKey(userChanges.user));
+            result.add(userChanges.user);
+        }
+        return result;
+    }
+
+    //values are in the pins storage already, so pending changes are dropped and the profile is stored instead
+    private void requireFullSave(Collection<User> users) {
+        for (User user : users) {
+            Profile profile = user.profile;
+            if (profile.valueChanges.isEmpty() && profile.multiValueChanges.isEmpty()) {
+                continue;
+            }
+            profile.valueChanges.clear();
+            profile.multiValueChanges.clear();
+            journaledUsers.add(new UserKey(user));
+            fullSaveRequired = true;
+        }
+    }
+
+    private DataOutputStream open() throws IOException {
+        boolean isNew = size == 0;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(journalPath, CREATE, APPEND)));
+        if (isNew) {
+            out.writeInt(VERSION);
+        }
+        return out;
+    }
+
+    private static void closeQuietly(DataOutputStream out) {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                //ignore, journal is truncated anyway
+            }
+        }
+    }
+
+    //removes the incomplete record, otherwise all the records after it can't be read
+    private void truncate(long lastGoodSize) {
+        if (Files.notExists(journalPath)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(journalPath, WRITE)) {
+            channel.truncate(lastGoodSize);
+            size = lastGoodSize;
+        } catch (IOException e) {
+            log.error("Error truncating profile journal {}.", journalPath, e);
+            corrupted = true;
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, UserChanges userChanges) throws IOException {
+        User user = userChanges.user;
+        out.writeUTF(user.email);
+        out.writeUTF(user.appName);
+        out.writeInt(userChanges.values.size() + userChanges.multiValues.size());
+        var devices = new ArrayList<Device>();
+        var devicesDashIds = new ArrayList<Integer>();
+        for (PinValueChange change : userChanges.values) {
+            //multi value storage keeps all values, so it is written as a whole and replaces the storage on replay
+            PinStorageValue storageValue = user.profile.pinsStorage.get(change.key);
+            if (storageValue instanceof MultiPinStorageValue) {
+                writeChange(out, SNAPSHOT, change, new ArrayList<>(storageValue.values()));
+            } else {
+                writeChange(out, VALUE, change, List.of(change.value));
+            }
+            addDevice(user, change.key, devices, devicesDashIds);
+        }
+        for (PinValueChange change : userChanges.multiValues) {
+            writeChange(out, VALUE, change, List.of(change.value));
+            addDevice(user, change.key, devices, devicesDashIds);
+        }
+
+        //status of the devices that sent the values, so the last activity is restored as well
+        out.writeInt(devices.size());
+        for (int i = 0; i < devices.size(); i++) {
+            Device device = devices.get(i);
+            out.writeInt(devicesDashIds.get(i));
+            out.writeInt(device.id);
+            out.writeLong(device.connectTime);
+            out.writeLong(device.disconnectTime);
+            out.writeLong(device.dataReceivedAt);
+        }
+    }
+
+    private static void writeChange(DataOutputStream out, byte type, PinValueChange change,
+                                    List<String> values) throws IOException {
+        DashPinStorageKey key = change.key;
+        out.writeByte(type);
+        out.writeInt(key.dashId);
+        out.writeInt(key.deviceId);
+        out.writeChar(key.pinTypeChar);
+        out.writeShort(key.pin);
+        out.writeLong(change.ts);
+        out.writeInt(values.size());
+        for (String value : values) {
+            //value may be longer than the writeUTF limit
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static void addDevice(User user, DashPinStorageKey key, List<Device> devices, List<Integer> dashIds) {
+        DashBoard dash = user.profile.getDashById(key.dashId);
+        if (dash == null) {
+            return;
+        }
+        //target may be the tag or the device selector
+        Device device = user.profile.getDeviceById(dash, key.deviceId);
+        if (device == null) {
+            return;
+        }
+        for (int i = 0; i < devices.size(); i++) {
+            if (devices.get(i) == device && dashIds.get(i) == key.dashId) {
+                return;
+            }
+        }
+        devices.add(device);
+        dashIds.add(key.dashId);
+    }
+
+    /**
+     * Applies journaled changes to the loaded profiles. Incomplete record at the end of the journal
+     * (crash during the write) is skipped.
+     *
+     * @return - number of applied records
+     */
+    public int replay(Map<UserKey, User> users) {
+        if (size == 0) {
+            return 0;
+        }
+        int records = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalPath)))) {
+            int version = in.readInt();
+            if (version != VERSION) {
+                log.warn("Unsupported profile journal version {}, skipping it.", version);
+                return 0;
+            }
+            while (true) {
+                String email;
+                try {
+                    email = in.readUTF();
+                } catch (EOFException eof) {
+                    break;
+                }
+                UserKey userKey = new UserKey(email, in.readUTF());
+                if (readRecord(in, users.get(userKey))) {
+                    journaledUsers.add(userKey);
+                    records++;
+                }
+            }
+        } catch (EOFException eof) {
+            log.warn("Profile journal has incomplete record at the end, skipping it.");
+        } catch (IOException e) {
+            log.error("Error reading profile journal.", e);
+        }
+        log.info("Applied {} records from the profile journal.", records);
+        return records;
+    }
+
+    //record is fully read before it is applied, so the incomplete record isn't applied partially
+    private static boolean readRecord(DataInputStream in, User user) throws IOException {
+        int changesCount = in.readInt();
+        var types = new byte[changesCount];
+        var keys = new DashPinStorageKey[changesCount];
+        var values = new String[changesCount][];
+        var timestamps = new long[changesCount];
+        for (int i = 0; i < changesCount; i++) {
+            types[i] = in.readByte();
+            keys[i] = new DashPinStorageKey(in.readInt(), in.readInt(), in.readChar(), in.readShort());
+            timestamps[i] = in.readLong();
+            values[i] = new String[in.readInt()];
+            for (int j = 0; j < values[i].length; j++) {
+                byte[] value = new byte[in.readInt()];
+                in.readFully(value);
+                values[i][j] = new String(value, StandardCharsets.UTF_8);
+            }
+        }
+        int devicesCount = in.readInt();
+        var devices = new long[devicesCount][5];
+        for (int i = 0; i < devicesCount; i++) {
+            devices[i][0] = in.readInt();
+            devices[i][1] = in.readInt();
+            devices[i][2] = in.readLong();
+            devices[i][3] = in.readLong();
+            devices[i][4] = in.readLong();
+        }
+
+        //user was removed after the journal write
+        if (user == null) {
+            return false;
+        }
+        Profile profile = user.profile;
+        for (int i = 0; i < changesCount; i++) {
+            DashPinStorageKey key = keys[i];
+            DashBoard dash = profile.getDashById(key.dashId);
+            if (dash == null) {
+                continue;
+            }
+            if (types[i] == SNAPSHOT) {
+                //replaces the stored values, so the user file stored after the journal write is not duplicated
+                PinStorageValue storageValue = dash.initStorageValueForStorageKey(key);
+                for (String value : values[i]) {
+                    storageValue.update(value);
+                }
+                profile.pinsStorage.put(key, storageValue);
+            } else {
+                for (String value : values[i]) {
+                    profile.update(dash, key.deviceId, key.pin,
+                            PinType.getPinType(key.pinTypeChar), value, timestamps[i]);
+                }
+            }
+        }
+        for (long[] deviceStatus : devices) {
+            DashBoard dash = profile.getDashById((int) deviceStatus[0]);
+            Device device = dash == null ? null : profile.getDeviceById(dash, (int) deviceStatus[1]);
+            if (device != null) {
+                device.connectTime = deviceStatus[2];
+                device.disconnectTime = deviceStatus[3];
+                device.dataReceivedAt = deviceStatus[4];
+            }
+        }
+        //changes are already in the journal
+        profile.valueChanges.clear();
+        profile.multiValueChanges.clear();
+        return true;
+    }
+
+    /**
+     * Stores all journaled users to the user files and removes the journal.
+     * Journal is kept in case any user wasn't stored.
+     */
+    public void compact(FileManager fileManager, Map<UserKey, User> users) {
+        if (size == 0 && journaledUsers.isEmpty()) {
+            return;
+        }
+        boolean allStored = true;
+        for (UserKey userKey : journaledUsers) {
+            User user = users.get(userKey);
+            if (user != null) {
+                try {
+                    fileManager.overrideUserFile(user);
+                } catch (Exception e) {
+                    allStored = false;
+                    log.error("Error saving : {}.", user, e);
+                }
+            }
+        }
+        if (!allStored) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(journalPath);
+            journaledUsers.clear();
+            size = 0;
+            corrupted = false;
+            fullSaveRequired = false;
+        } catch (IOException e) {
+            log.error("Error removing profile journal {}.", journalPath, e);
+        }
+    }
+
+    public void delete() {
+        try {
+            Files.deleteIfExists(journalPath);
+        } catch (IOException e) {
+            log.error("Error removing profile journal {}.", journalPath, e);
+        }
+        journaledUsers.clear();
+        size = 0;
+        corrupted = false;
+        fullSaveRequired = false;
+    }
+
+    //changes written to the journal, removed from the profile only after the successful write
+    private static final class UserChanges {
+
+        private final User user;
+        private final List<PinValueChange> values;
+        private final List<PinValueChange> multiValues;
+
+        UserChanges(User user, List<PinValueChange> values, List<PinValueChange> multiValues) {
+            this.user = user;
+            this.values = values;
+            this.multiValues = multiValues;
+        }
+
+        void removeFromProfile() {
+            Profile profile = user.profile;
+            for (PinValueChange change : values) {
+                profile.valueChanges.remove(change.key, change);
+            }
+            //queue is drained only by the saver thread, so the written changes are always at the head
+            for (int i = 0; i < multiValues.size(); i++) {
+                profile.multiValueChanges.poll();
+            }
+        }
+    }
+
+}
@@ -7,7 +7,6 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -21,20 +20,9 @@ class RegularTokenManager {
 
     final ConcurrentHashMap<String, TokenValue> cache;
 
-    RegularTokenManager(Collection<User> users) {
-        ///in average user has 2 devices
-        this.cache = new ConcurrentHashMap<>(users.size() == 0 ? 16 : users.size() * 2);
-        for (User user : users) {
-            if (user.profile != null) {
-                for (DashBoard dashBoard : user.profile.dashBoards) {
-                    for (Device device : dashBoard.devices) {
-                        if (device.token != null) {
-                            cache.put(device.token, new TokenValue(user, dashBoard, device));
-                        }
-                    }
-                }
-            }
-        }
+    //tokens of the loaded users, see StartupIndex
+    RegularTokenManager(ConcurrentHashMap<String, TokenValue> cache) {
+        this.cache = cache;
     }
 
     String assignToken(User user, DashBoard dash, Device device, String newToken, boolean isTemporary) {
@@ -1,16 +1,21 @@
 package cc.blynk.server.core.dao;
 
-import cc.blynk.server.core.dao.functions.GraphFunction;
 import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.model.widgets.Widget;
-import cc.blynk.server.core.model.widgets.outputs.graph.AggregationFunctionType;
 import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
 import cc.blynk.server.core.model.widgets.outputs.graph.Superchart;
 import cc.blynk.server.core.protocol.exceptions.NoDataException;
+import cc.blynk.server.core.reporting.GraphDataCache;
 import cc.blynk.server.core.reporting.GraphPinRequest;
+import cc.blynk.server.core.reporting.TagDataAggregator;
 import cc.blynk.server.core.reporting.average.AverageAggregatorProcessor;
+import cc.blynk.server.core.reporting.disk.ReportingDiskReader;
+import cc.blynk.server.core.reporting.disk.ReportingDiskReader.ChunkConsumer;
+import cc.blynk.server.core.reporting.disk.ReportingDiskWriter;
+import cc.blynk.server.core.reporting.disk.ReportingFileIndex;
+import cc.blynk.server.core.reporting.disk.RingPinFile;
 import cc.blynk.server.core.reporting.raw.BaseReportingKey;
 import cc.blynk.server.core.reporting.raw.GraphValue;
 import cc.blynk.server.core.reporting.raw.RawDataCacheForGraphProcessor;
@@ -25,12 +30,12 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 import java.util.function.Function;
 
 import static cc.blynk.server.internal.EmptyArraysUtil.EMPTY_BYTES;
@@ -51,6 +56,11 @@ public class ReportingDiskDao implements Closeable {
     public final RawDataCacheForGraphProcessor rawDataCacheForGraphProcessor;
     public final RawDataProcessor rawDataProcessor;
     public final CSVGenerator csvGenerator;
+    public final ReportingDiskReader diskReader;
+    public final ReportingDiskWriter diskWriter;
+    public final ReportingFileIndex fileIndex;
+    public final TagDataAggregator tagAggregator;
+    public final GraphDataCache graphDataCache;
 
     public final String dataFolder;
 
@@ -67,15 +77,46 @@ public class ReportingDiskDao implements Closeable {
         this.enableRawDbDataStore = isEnabled;
         this.rawDataProcessor = new RawDataProcessor(enableRawDbDataStore);
         this.csvGenerator = new CSVGenerator(this);
+        this.diskReader = new ReportingDiskReader(ReportingDiskReader.DEFAULT_MAX_MAPPED_FILES);
+        this.fileIndex = new ReportingFileIndex(reportingFolder);
+        this.diskWriter = new ReportingDiskWriter(reportingFolder,
+                ReportingDiskWriter.DEFAULT_MAX_OPEN_FILES, diskReader, fileIndex);
+        this.tagAggregator = new TagDataAggregator(TagDataAggregator.DEFAULT_THREADS);
+        this.graphDataCache = new GraphDataCache(GraphDataCache.DEFAULT_MAX_SIZE_MB);
     }
 
     public ReportingDiskDao(String reportingFolder, boolean isEnabled) {
+        this(reportingFolder, isEnabled,
+                ReportingDiskWriter.DEFAULT_MAX_OPEN_FILES, ReportingDiskReader.DEFAULT_MAX_MAPPED_FILES,
+                RawDataProcessor.DEFAULT_MAX_RECORDS);
+    }
+
+    public ReportingDiskDao(String reportingFolder, boolean isEnabled, int maxOpenFiles, int maxMappedFiles,
+                            int maxRawRecords) {
+        this(reportingFolder, isEnabled, maxOpenFiles, maxMappedFiles, maxRawRecords,
+                null, TagDataAggregator.DEFAULT_THREADS, GraphDataCache.DEFAULT_MAX_SIZE_MB);
+    }
+
+    /**
+     * @param ringCapacity - records capacity of the ring pin files per granularity,
+     *                       null for the append only pin files
+     * @param tagReadThreads - threads for the parallel reads of the tag devices data
+     * @param graphCacheSizeMb - max size of the cached superchart responses, 0 disables the cache
+     */
+    public ReportingDiskDao(String reportingFolder, boolean isEnabled, int maxOpenFiles, int maxMappedFiles,
+                            int maxRawRecords, int[] ringCapacity, int tagReadThreads, int graphCacheSizeMb) {
         this.averageAggregator = new AverageAggregatorProcessor(reportingFolder);
         this.rawDataCacheForGraphProcessor = new RawDataCacheForGraphProcessor();
         this.dataFolder = reportingFolder;
         this.enableRawDbDataStore = isEnabled;
-        this.rawDataProcessor = new RawDataProcessor(enableRawDbDataStore);
+        this.rawDataProcessor = new RawDataProcessor(enableRawDbDataStore, maxRawRecords);
         this.csvGenerator = new CSVGenerator(this);
+        this.diskReader = new ReportingDiskReader(maxMappedFiles);
+        this.fileIndex = new ReportingFileIndex(reportingFolder);
+        this.diskWriter = new ReportingDiskWriter(reportingFolder, maxOpenFiles,
+                diskReader, fileIndex, ringCapacity);
+        this.tagAggregator = new TagDataAggregator(tagReadThreads);
+        this.graphDataCache = new GraphDataCache(graphCacheSizeMb);
         createCSVFolder();
     }
 
@@ -90,20 +131,94 @@ public class ReportingDiskDao implements Closeable {
     public ByteBuffer getByteBufferFromDisk(User user, int dashId, int deviceId,
                                             PinType pinType, short pin, int count,
                                             GraphGranularityType type, int skipCount) {
-        Path userDataFile = Paths.get(
+        Path userDataFile = getUserDataFile(user, dashId, deviceId, pinType, pin, type);
+        try {
+            return diskReader.readLast(userDataFile, count, skipCount);
+        } catch (NoSuchFileException noFile) {
+            return null;
+        } catch (Exception ioe) {
+            log.error(ioe);
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns records within [from, to] time window, not more than count latest records.
+     */
+    public ByteBuffer getByteBufferFromDisk(User user, int dashId, int deviceId,
+                                            PinType pinType, short pin, int count,
+                                            GraphGranularityType type, long from, long to) {
+        Path userDataFile = getUserDataFile(user, dashId, deviceId, pinType, pin, type);
+        try {
+            return diskReader.readRange(userDataFile, from, to, count);
+        } catch (NoSuchFileException noFile) {
+            return null;
+        } catch (Exception ioe) {
+            log.error(ioe);
+        }
+
+        return null;
+    }
+
+    /**
+     * Streams count latest records with ts >= from, chunk by chunk.
+     *
+     * @return number of passed records, 0 when there is no data.
+     */
+    public int readFromDisk(User user, int dashId, int deviceId,
+                            PinType pinType, short pin, int count,
+                            GraphGranularityType type, long from,
+                            ByteBuffer chunk, ChunkConsumer consumer) throws IOException {
+        Path userDataFile = getUserDataFile(user, dashId, deviceId, pinType, pin, type);
+        try {
+            return diskReader.readChunked(userDataFile, from, count, chunk, consumer);
+        } catch (NoSuchFileException noFile) {
+            return 0;
+        }
+    }
+
+    private Path getUserDataFile(User user, int dashId, int deviceId,
+                                 PinType pinType, short pin, GraphGranularityType type) {
+        return Paths.get(
                 dataFolder,
                 FileUtils.getUserStorageDir(user.email, user.appName),
                 generateFilename(dashId, deviceId, pinType, pin, type)
         );
-        if (Files.exists(userDataFile)) {
-            try {
-                return FileUtils.read(userDataFile, count, skipCount);
-            } catch (Exception ioe) {
-                log.error(ioe);
+    }
+
+    /**
+     * Returns epoch of the pin files of the requested pins. Epoch is changed every time any of the files
+     * is written or removed.
+     *
+     * @return - epoch or -1 when data of the requested pins is not on disk.
+     */
+    public long getSeriesEpoch(User user, GraphPinRequest[] requestedPins) {
+        long epoch = 0;
+        for (GraphPinRequest graphPinRequest : requestedPins) {
+            if (graphPinRequest.isValid()) {
+                if (graphPinRequest.isLiveData()) {
+                    return -1;
+                }
+                epoch += getSeriesEpoch(user, graphPinRequest);
             }
         }
+        return epoch;
+    }
 
-        return null;
+    private long getSeriesEpoch(User user, GraphPinRequest graphPinRequest) {
+        String userFolder = FileUtils.getUserStorageDir(user.email, user.appName);
+        if (!graphPinRequest.isTag) {
+            return diskWriter.getSeriesEpoch(userFolder, generateFilename(graphPinRequest.dashId,
+                    graphPinRequest.deviceId, graphPinRequest.pinType, graphPinRequest.pin, graphPinRequest.type));
+        }
+        //epochs only grow, so the sum is changed when any of the files is changed
+        long epoch = 0;
+        for (int deviceId : graphPinRequest.deviceIds) {
+            epoch += diskWriter.getSeriesEpoch(userFolder, generateFilename(graphPinRequest.dashId,
+                    deviceId, graphPinRequest.pinType, graphPinRequest.pin, graphPinRequest.type));
+        }
+        return epoch;
     }
 
     private static boolean hasData(byte[][] data) {
@@ -116,44 +231,13 @@ public class ReportingDiskDao implements Closeable {
     }
 
     private ByteBuffer getDataForTag(User user, GraphPinRequest graphPinRequest) {
-        TreeMap<Long, GraphFunction> data = new TreeMap<>();
-        for (int deviceId : graphPinRequest.deviceIds) {
-            ByteBuffer localByteBuf = getByteBufferFromDisk(user,
-                    graphPinRequest.dashId, deviceId,
-                    graphPinRequest.pinType, graphPinRequest.pin,
-                    graphPinRequest.count, graphPinRequest.type,
-                    graphPinRequest.skipCount
-            );
-            addBufferToResult(data, graphPinRequest.functionType, localByteBuf);
-        }
-
-        return toByteBuf(data);
-    }
-
-    private static void addBufferToResult(TreeMap<Long, GraphFunction> data,
-                                          AggregationFunctionType functionType,
-                                          ByteBuffer localByteBuf) {
-        if (localByteBuf != null) {
-            while (localByteBuf.hasRemaining()) {
-                double newVal = localByteBuf.getDouble();
-                Long ts = localByteBuf.getLong();
-                GraphFunction graphFunctionObj = data.get(ts);
-                if (graphFunctionObj == null) {
-                    graphFunctionObj = functionType.produce();
-                    data.put(ts, graphFunctionObj);
-                }
-                graphFunctionObj.apply(newVal);
-            }
-        }
-    }
-
-    private static ByteBuffer toByteBuf(TreeMap<Long, GraphFunction> data) {
-        ByteBuffer result = ByteBuffer.allocate(data.size() * SIZE_OF_REPORT_ENTRY);
-        for (Map.Entry<Long, GraphFunction> entry : data.entrySet()) {
-            result.putDouble(entry.getValue().getResult())
-                    .putLong(entry.getKey());
-        }
-        return result;
+        return tagAggregator.aggregate(user, graphPinRequest, getSeriesEpoch(user, graphPinRequest),
+                deviceId -> getByteBufferFromDisk(user,
+                        graphPinRequest.dashId, deviceId,
+                        graphPinRequest.pinType, graphPinRequest.pin,
+                        graphPinRequest.count, graphPinRequest.type,
+                        graphPinRequest.skipCount
+                ));
     }
 
     private ByteBuffer getByteBufferFromDisk(User user, GraphPinRequest graphPinRequest) {
@@ -193,7 +277,7 @@ public class ReportingDiskDao implements Closeable {
                     for (Path reportingFile : reportingFolder) {
                         if (filter.apply(reportingFile)) {
                             log.trace("Removing {}", reportingFile);
-                            FileUtils.deleteQuietly(reportingFile);
+                            deleteQuietly(reportingFile);
                             removedFilesCounter++;
                         }
                     }
@@ -205,6 +289,80 @@ public class ReportingDiskDao implements Closeable {
         return removedFilesCounter;
     }
 
+    /**
+     * Same as {@link #delete(User, Function)}, but checks only files known by the index,
+     * without listing of the user folder.
+     *
+     * @param filter - receives file name, returns true for the file that should be removed
+     */
+    public int deleteIndexed(User user, Function<String, Boolean> filter) {
+        String userFolder = FileUtils.getUserStorageDir(user.email, user.appName);
+        int removedFilesCounter = 0;
+        for (String fileName : fileIndex.files(userFolder).keySet()) {
+            if (filter.apply(fileName)) {
+                log.trace("Removing {}", fileName);
+                deleteQuietly(fileIndex.path(userFolder, fileName));
+                removedFilesCounter++;
+            }
+        }
+        return removedFilesCounter;
+    }
+
+    /**
+     * Keeps only last maxRecordsCount records in the minute files.
+     * Only files that are bigger than the limit according to the index are touched.
+     * Ring files keep own capacity and are skipped. User folders without files are removed.
+     *
+     * @return - number of truncated files
+     */
+    public int truncateMinuteFiles(int maxRecordsCount) {
+        long maxSize = (long) maxRecordsCount * SIZE_OF_REPORT_ENTRY;
+        String minuteSuffix = "_" + GraphGranularityType.MINUTE.label + ".bin";
+        int truncatedFilesCounter = 0;
+        for (String userFolder : fileIndex.folders()) {
+            Map<String, ReportingFileIndex.FileEntry> files = fileIndex.files(userFolder);
+            if (files.isEmpty()) {
+                deleteEmptyFolder(userFolder);
+                continue;
+            }
+            for (Map.Entry<String, ReportingFileIndex.FileEntry> file : files.entrySet()) {
+                String fileName = file.getKey();
+                ReportingFileIndex.FileEntry entry = file.getValue();
+                if (entry.size > maxSize && !entry.ring && fileName.endsWith(minuteSuffix)) {
+                    Path reportingFile = fileIndex.path(userFolder, fileName);
+                    try {
+                        //index built from disk doesn't know the ring files, header is checked once
+                        if (RingPinFile.isRingFile(reportingFile)) {
+                            fileIndex.update(userFolder, fileName, entry.size, entry.lastWriteTs, true);
+                            continue;
+                        }
+                        if (diskReader.truncate(reportingFile, maxRecordsCount)) {
+                            diskWriter.invalidateSeries(reportingFile);
+                            truncatedFilesCounter++;
+                        }
+                        fileIndex.update(userFolder, fileName, Files.size(reportingFile), entry.lastWriteTs);
+                    } catch (NoSuchFileException noFile) {
+                        fileIndex.remove(reportingFile);
+                    } catch (Exception e) {
+                        log.error("Truncation failed for {}. Reason : {}.", reportingFile, e.getMessage());
+                    }
+                }
+            }
+        }
+        return truncatedFilesCounter;
+    }
+
+    private void deleteEmptyFolder(String userFolder) {
+        if (fileIndex.removeFolderIfEmpty(userFolder)) {
+            try {
+                Files.deleteIfExists(Paths.get(dataFolder, userFolder));
+            } catch (IOException e) {
+                //writer created the new file meanwhile, it is already in the index again
+                log.debug("Reporting folder {} is not removed. Reason : {}", userFolder, e.getMessage());
+            }
+        }
+    }
+
     private static boolean containsPrefix(List<String> prefixes, String filename) {
         for (String prefix : prefixes) {
             if (filename.startsWith(prefix)) {
@@ -226,11 +384,19 @@ public class ReportingDiskDao implements Closeable {
         return "history_" + dashId + DEVICE_SEPARATOR + deviceId + "_";
     }
 
-    private static void delete(String userReportingDir, int dashId, int deviceId, PinType pinType, short pin,
-                               GraphGranularityType reportGranularity) {
+    private void delete(String userReportingDir, int dashId, int deviceId, PinType pinType, short pin,
+                        GraphGranularityType reportGranularity) {
         Path userDataFile = Paths.get(userReportingDir,
                 generateFilename(dashId, deviceId, pinType, pin, reportGranularity));
-        FileUtils.deleteQuietly(userDataFile);
+        deleteQuietly(userDataFile);
+    }
+
+    private void deleteQuietly(Path reportingFile) {
+        //pooled channel should be closed first, otherwise writer will append to the removed file
+        diskWriter.release(reportingFile);
+        FileUtils.deleteQuietly(reportingFile);
+        fileIndex.remove(reportingFile);
+        diskWriter.invalidateSeries(reportingFile);
     }
 
     public static String generateFilename(int dashId, int deviceId,
@@ -251,7 +417,7 @@ public class ReportingDiskDao implements Closeable {
             for (Path reportingFile : userReportingFolder) {
                 String userFileName = reportingFile.getFileName().toString();
                 if (containsPrefix(prefixes, userFileName)) {
-                    FileUtils.deleteQuietly(reportingFile);
+                    deleteQuietly(reportingFile);
                     count++;
                 }
             }
@@ -269,7 +435,7 @@ public class ReportingDiskDao implements Closeable {
             try (DirectoryStream<Path> userReportingFolder = Files.newDirectoryStream(userReportingPath, "*")) {
                 for (Path reportingFile : userReportingFolder) {
                     if (reportingFile.getFileName().toString().startsWith(fileNamePrefix)) {
-                        FileUtils.deleteQuietly(reportingFile);
+                        deleteQuietly(reportingFile);
                         count++;
                     }
                 }
@@ -290,14 +456,28 @@ public class ReportingDiskDao implements Closeable {
     public void process(User user, DashBoard dash, int deviceId, short pin, PinType pinType, String value, long ts) {
         try {
             double doubleVal = NumberUtil.parseDouble(value);
-            process(user, dash, deviceId, pin, pinType, value, ts, doubleVal);
+            collect(user, dash, deviceId, pin, pinType, value, ts, doubleVal);
+        } catch (Exception e) {
+            //just in case
+            log.trace("Error collecting reporting entry.");
+        }
+    }
+
+    /**
+     * Same as above for the value already parsed by the caller,
+     * doubleVal is {@link NumberUtil#NO_RESULT} when value is not a number.
+     */
+    public void process(User user, DashBoard dash, int deviceId, short pin, PinType pinType,
+                        String value, long ts, double doubleVal) {
+        try {
+            collect(user, dash, deviceId, pin, pinType, value, ts, doubleVal);
         } catch (Exception e) {
             //just in case
             log.trace("Error collecting reporting entry.");
         }
     }
 
-    private void process(User user, DashBoard dash, int deviceId, short pin, PinType pinType,
+    private void collect(User user, DashBoard dash, int deviceId, short pin, PinType pinType,
                          String value, long ts, double doubleVal) {
         if (enableRawDbDataStore) {
             rawDataProcessor.collect(
@@ -313,10 +493,11 @@ public class ReportingDiskDao implements Closeable {
         //store history data only for the pins assigned to the superchart
         Widget widgetWithLogPins = user.profile.getWidgetWithLoggedPin(dash, deviceId, pin, pinType);
         if (widgetWithLogPins != null) {
-            BaseReportingKey key = new BaseReportingKey(user.email, user.appName, dash.id, deviceId, pinType, pin);
-            averageAggregator.collect(key, ts, doubleVal);
+            averageAggregator.collect(user.email, user.appName, dash.id, deviceId, pinType, pin, ts, doubleVal);
             if (widgetWithLogPins instanceof Superchart) {
                 if (((Superchart) widgetWithLogPins).hasLivePeriodsSelected()) {
+                    BaseReportingKey key =
+                            new BaseReportingKey(user.email, user.appName, dash.id, deviceId, pinType, pin);
                     rawDataCacheForGraphProcessor.collect(key, new GraphValue(doubleVal, ts));
                 }
             }
@@ -351,5 +532,8 @@ public class ReportingDiskDao implements Closeable {
     public void close() {
         System.out.println("Stopping aggregator...");
         this.averageAggregator.close();
+        this.tagAggregator.close();
+        this.diskWriter.close();
+        this.fileIndex.save();
     }
 }
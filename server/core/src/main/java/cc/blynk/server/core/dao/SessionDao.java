@@ -1,5 +1,6 @@
 package cc.blynk.server.core.dao;
 
+import cc.blynk.server.core.model.auth.AppUpdatesCoalescer;
 import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.model.auth.User;
 import io.netty.channel.Channel;
@@ -32,6 +33,16 @@ public class SessionDao {
 
     public final ConcurrentHashMap<UserKey, Session> userSession = new ConcurrentHashMap<>();
 
+    public final AppUpdatesCoalescer appUpdatesCoalescer;
+
+    public SessionDao() {
+        this(new AppUpdatesCoalescer(0));
+    }
+
+    public SessionDao(AppUpdatesCoalescer appUpdatesCoalescer) {
+        this.appUpdatesCoalescer = appUpdatesCoalescer;
+    }
+
     public Session get(UserKey userKey) {
         return userSession.get(userKey);
     }
@@ -41,7 +52,7 @@ public class SessionDao {
         Session group = userSession.get(key);
         //only one side came
         if (group == null) {
-            Session value = new Session(initialEventLoop);
+            Session value = new Session(initialEventLoop, appUpdatesCoalescer);
             group = userSession.putIfAbsent(key, value);
             if (group == null) {
                 log.trace("Creating unique session for user: {}", key);
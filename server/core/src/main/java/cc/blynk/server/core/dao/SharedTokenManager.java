@@ -5,7 +5,6 @@ import cc.blynk.server.core.model.auth.User;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.Collection;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -21,15 +20,9 @@ public class SharedTokenManager {
 
     final ConcurrentHashMap<String, SharedTokenValue> cache;
 
-    SharedTokenManager(Collection<User> users) {
-        this.cache = new ConcurrentHashMap<>();
-        for (User user : users) {
-            for (DashBoard dashBoard : user.profile.dashBoards) {
-                if (dashBoard.sharedToken != null) {
-                    cache.put(dashBoard.sharedToken, new SharedTokenValue(user, dashBoard.id));
-                }
-            }
-        }
+    //shared tokens of the loaded users, see StartupIndex
+    SharedTokenManager(ConcurrentHashMap<String, SharedTokenValue> cache) {
+        this.cache = cache;
     }
 
     public void assignToken(User user, DashBoard dash, String newToken) {
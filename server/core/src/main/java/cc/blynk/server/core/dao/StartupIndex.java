@@ -0,0 +1,90 @@
+package cc.blynk.server.core.dao;
+
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.server.core.model.widgets.controls.Timer;
+import cc.blynk.server.core.model.widgets.others.eventor.Eventor;
+import cc.blynk.server.core.model.widgets.ui.reporting.ReportingWidget;
+import cc.blynk.server.core.model.widgets.ui.tiles.DeviceTiles;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Everything that token manager, timer worker and report scheduler need from the user profiles on start.
+ * Filled while profiles are loaded, so the server doesn't walk over all profiles few more times after loading.
+ * Users are added concurrently by the loading threads.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class StartupIndex {
+
+    final ConcurrentHashMap<String, TokenValue> tokens;
+    final ConcurrentHashMap<String, SharedTokenValue> sharedTokens = new ConcurrentHashMap<>();
+
+    //timers, eventors and device tiles with timers
+    public final Queue<UserWidget> timerWidgets = new ConcurrentLinkedQueue<>();
+    public final Queue<UserWidget> reportingWidgets = new ConcurrentLinkedQueue<>();
+
+    public StartupIndex() {
+        this(0);
+    }
+
+    public StartupIndex(int expectedUsers) {
+        //in average user has 2 devices
+        this.tokens = new ConcurrentHashMap<>(expectedUsers == 0 ? 16 : expectedUsers * 2);
+    }
+
+    public static StartupIndex of(Map<UserKey, User> users) {
+        StartupIndex index = new StartupIndex(users.size());
+        for (Map.Entry<UserKey, User> entry : users.entrySet()) {
+            index.add(entry.getKey(), entry.getValue());
+        }
+        return index;
+    }
+
+    public void add(UserKey userKey, User user) {
+        if (user.profile == null) {
+            return;
+        }
+        for (DashBoard dash : user.profile.dashBoards) {
+            for (Device device : dash.devices) {
+                if (device.token != null) {
+                    tokens.put(device.token, new TokenValue(user, dash, device));
+                }
+            }
+            if (dash.sharedToken != null) {
+                sharedTokens.put(dash.sharedToken, new SharedTokenValue(user, dash.id));
+            }
+            for (Widget widget : dash.widgets) {
+                if (widget instanceof DeviceTiles || widget instanceof Timer || widget instanceof Eventor) {
+                    timerWidgets.add(new UserWidget(userKey, user, dash, widget));
+                } else if (widget instanceof ReportingWidget) {
+                    reportingWidgets.add(new UserWidget(userKey, user, dash, widget));
+                }
+            }
+        }
+    }
+
+    public static final class UserWidget {
+
+        public final UserKey userKey;
+        public final User user;
+        public final DashBoard dash;
+        public final Widget widget;
+
+        UserWidget(UserKey userKey, User user, DashBoard dash, Widget widget) {
+            this.userKey = userKey;
+            this.user = user;
+            this.dash = dash;
+            this.widget = widget;
+        }
+    }
+
+}
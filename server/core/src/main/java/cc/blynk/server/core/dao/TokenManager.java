@@ -6,7 +6,6 @@ import cc.blynk.server.core.model.device.Device;
 import cc.blynk.server.db.DBManager;
 import cc.blynk.utils.TokenGeneratorUtil;
 
-import java.util.Collection;
 import java.util.concurrent.ConcurrentMap;
 
 /**
@@ -22,9 +21,12 @@ public class TokenManager {
     private final String host;
 
     public TokenManager(ConcurrentMap<UserKey, User> users, DBManager dbManager, String host) {
-        Collection<User> allUsers = users.values();
-        this.regularTokenManager = new RegularTokenManager(allUsers);
-        this.sharedTokenManager = new SharedTokenManager(allUsers);
+        this(StartupIndex.of(users), dbManager, host);
+    }
+
+    public TokenManager(StartupIndex index, DBManager dbManager, String host) {
+        this.regularTokenManager = new RegularTokenManager(index.tokens);
+        this.sharedTokenManager = new SharedTokenManager(index.sharedTokens);
         this.dbManager = dbManager;
         this.host = host;
     }
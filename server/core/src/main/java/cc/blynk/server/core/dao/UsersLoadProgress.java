@@ -0,0 +1,98 @@
+package cc.blynk.server.core.dao;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Progress of the user profiles loading on server start. Rate and ETA are calculated
+ * from the profiles loaded since the start of the loading and are kept after the loading is finished.
+ * Profile files are counted while the data folder is listed, so total grows till the listing is finished
+ * and ETA is known only after that.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class UsersLoadProgress {
+
+    private final long startedAt;
+    private volatile long finishedAt;
+    //written only by the listing thread
+    private volatile int total;
+    private volatile boolean listingFinished;
+    private final LongAdder loaded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public UsersLoadProgress() {
+        this.startedAt = System.nanoTime();
+    }
+
+    void listed() {
+        total++;
+    }
+
+    void listingFinished() {
+        this.listingFinished = true;
+    }
+
+    void loaded() {
+        loaded.increment();
+    }
+
+    void failed() {
+        failed.increment();
+    }
+
+    void finished() {
+        this.finishedAt = System.nanoTime();
+    }
+
+    public boolean isFinished() {
+        return finishedAt != 0;
+    }
+
+    //files listed so far
+    public int getTotal() {
+        return total;
+    }
+
+    public boolean isListingFinished() {
+        return listingFinished;
+    }
+
+    public long getLoaded() {
+        return loaded.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getElapsedMillis() {
+        long now = isFinished() ? finishedAt : System.nanoTime();
+        return TimeUnit.NANOSECONDS.toMillis(now - startedAt);
+    }
+
+    //profiles per second
+    public long getRate() {
+        long elapsed = getElapsedMillis();
+        return elapsed == 0 ? 0 : (getLoaded() + getFailed()) * 1000 / elapsed;
+    }
+
+    //-1 when rate or total are not known yet
+    public long getEtaSeconds() {
+        long rate = getRate();
+        if (rate == 0 || !listingFinished) {
+            return -1;
+        }
+        long left = total - getLoaded() - getFailed();
+        return Math.max(0, left) / rate;
+    }
+
+    @Override
+    public String toString() {
+        return "loaded " + getLoaded() + " of " + total + (listingFinished ? "" : "+") + " users, failed " + getFailed()
+                + ", " + getRate() + " users/sec, ETA " + getEtaSeconds() + " sec";
+    }
+
+}
@@ -0,0 +1,104 @@
+package cc.blynk.server.core.model;
+
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.model.serialization.DeflatedSegment;
+import cc.blynk.server.core.model.serialization.JsonParser;
+import cc.blynk.server.core.model.widgets.Widget;
+
+import java.io.IOException;
+
+/**
+ * Compressed json of the dashboard for the app, reused by every load of the profile until
+ * the dashboard is changed.
+ *
+ * Json has the structure of the dashboard, widget values and the state of the devices.
+ * Structure changes update {@link DashBoard#updatedAt}, value changes update {@link DashBoard#valuesUpdatedAt},
+ * state of the devices is updated without any of them, so it is compared field by field.
+ * State is captured before the serialization, so any change during the serialization makes json outdated.
+ * Timestamps have millisecond precision, so json captured in the same millisecond as the change is never reused,
+ * as the next change within that millisecond wouldn't change the timestamp.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+final class CompressedDash {
+
+    //mutable fields per device that are not covered by the dashboard timestamps
+    private static final int REFS_PER_DEVICE = 5;
+    private static final int TIMES_PER_DEVICE = 4;
+
+    final DeflatedSegment json;
+
+    private final long updatedAt;
+    private final long valuesUpdatedAt;
+    private final Widget[] widgets;
+    private final Device[] devices;
+    private final Object[] deviceRefs;
+    private final long[] deviceTimes;
+    private final boolean reusable;
+
+    CompressedDash(DashBoard dash, boolean restrictive) throws IOException {
+        long capturedAt = System.currentTimeMillis();
+        this.updatedAt = dash.updatedAt;
+        this.valuesUpdatedAt = dash.valuesUpdatedAt;
+        this.widgets = dash.widgets;
+        this.devices = dash.devices;
+        this.deviceRefs = new Object[devices.length * REFS_PER_DEVICE];
+        this.deviceTimes = new long[devices.length * TIMES_PER_DEVICE];
+        for (int i = 0; i < devices.length; i++) {
+            Device device = devices[i];
+            int refs = i * REFS_PER_DEVICE;
+            deviceRefs[refs] = device.status;
+            deviceRefs[refs + 1] = device.token;
+            deviceRefs[refs + 2] = device.lastLoggedIP;
+            deviceRefs[refs + 3] = device.hardwareInfo;
+            deviceRefs[refs + 4] = device.deviceOtaInfo;
+            int times = i * TIMES_PER_DEVICE;
+            deviceTimes[times] = device.connectTime;
+            deviceTimes[times + 1] = device.disconnectTime;
+            deviceTimes[times + 2] = device.firstConnectTime;
+            deviceTimes[times + 3] = device.dataReceivedAt;
+        }
+        this.reusable = updatedAt < capturedAt && valuesUpdatedAt < capturedAt && isBefore(deviceTimes, capturedAt);
+
+        this.json = restrictive ? JsonParser.deflateDashRestrictive(dash) : JsonParser.deflateDash(dash);
+    }
+
+    private static boolean isBefore(long[] times, long capturedAt) {
+        for (long time : times) {
+            if (time >= capturedAt) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean isActual(DashBoard dash) {
+        if (!reusable) {
+            return false;
+        }
+        if (dash.updatedAt != updatedAt || dash.valuesUpdatedAt != valuesUpdatedAt
+                || dash.widgets != widgets || dash.devices != devices) {
+            return false;
+        }
+        for (int i = 0; i < devices.length; i++) {
+            Device device = devices[i];
+            int refs = i * REFS_PER_DEVICE;
+            int times = i * TIMES_PER_DEVICE;
+            if (deviceRefs[refs] != device.status
+                    || deviceRefs[refs + 1] != device.token
+                    || deviceRefs[refs + 2] != device.lastLoggedIP
+                    || deviceRefs[refs + 3] != device.hardwareInfo
+                    || deviceRefs[refs + 4] != device.deviceOtaInfo
+                    || deviceTimes[times] != device.connectTime
+                    || deviceTimes[times + 1] != device.disconnectTime
+                    || deviceTimes[times + 2] != device.firstConnectTime
+                    || deviceTimes[times + 3] != device.dataReceivedAt) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
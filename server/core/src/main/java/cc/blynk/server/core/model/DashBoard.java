@@ -6,6 +6,7 @@ import cc.blynk.server.core.model.device.Tag;
 import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.model.enums.Theme;
 import cc.blynk.server.core.model.enums.WidgetProperty;
+import cc.blynk.server.core.model.serialization.DeflatedSegment;
 import cc.blynk.server.core.model.serialization.JsonParser;
 import cc.blynk.server.core.model.serialization.View;
 import cc.blynk.server.core.model.storage.PinStorageKeyDeserializer;
@@ -16,6 +17,7 @@ import cc.blynk.server.core.model.storage.key.PinStorageKey;
 import cc.blynk.server.core.model.storage.value.PinStorageValue;
 import cc.blynk.server.core.model.storage.value.SinglePinStorageValue;
 import cc.blynk.server.core.model.widgets.DeviceCleaner;
+import cc.blynk.server.core.model.widgets.HardwareSyncWidget;
 import cc.blynk.server.core.model.widgets.MultiPinWidget;
 import cc.blynk.server.core.model.widgets.OnePinWidget;
 import cc.blynk.server.core.model.widgets.Widget;
@@ -35,6 +37,7 @@ import cc.blynk.utils.ArrayUtil;
 import com.fasterxml.jackson.annotation.JsonView;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -67,6 +70,9 @@ public class DashBoard {
 
     public volatile long updatedAt;
 
+    //last hardware value update, not a part of the profile as values are journaled separately
+    public transient volatile long valuesUpdatedAt;
+
     public volatile Widget[] widgets = EMPTY_WIDGETS;
 
     public volatile Device[] devices = EMPTY_DEVICES;
@@ -100,9 +106,72 @@ public class DashBoard {
     @Deprecated
     public Map<PinStorageKey, PinStorageValue> pinsStorage = Collections.emptyMap();
 
+    private transient volatile PinRouting pinRouting;
+
+    private transient volatile HardwareSyncIndex hardwareSyncIndex;
+
+    private transient volatile CompressedDash compressedJson;
+
+    private transient volatile CompressedDash compressedRestrictiveJson;
+
+    /**
+     * Widgets, webhook and eventor rules that depend on the hardware write to the pin.
+     * Routing table is created again after any change of the dashboard structure.
+     */
+    public PinRoute getPinRoute(int deviceId, short pin, PinType type) {
+        PinRouting routing = this.pinRouting;
+        if (routing == null || !routing.isActual(this)) {
+            routing = new PinRouting(this);
+            this.pinRouting = routing;
+        }
+        return routing.get(this, deviceId, pin, type);
+    }
+
+    /**
+     * Widgets that send own state to the device on the hardware sync, in the order of the dashboard.
+     * Index is created again after any change of the dashboard structure.
+     */
+    public HardwareSyncWidget[] getHardwareSyncWidgets(int deviceId) {
+        HardwareSyncIndex index = this.hardwareSyncIndex;
+        if (index == null || !index.isActual(this)) {
+            index = new HardwareSyncIndex(this);
+            this.hardwareSyncIndex = index;
+        }
+        return index.get(deviceId);
+    }
+
+    /**
+     * Compressed json of the dashboard, cached until the dashboard, its values or devices state is changed.
+     */
+    public DeflatedSegment getCompressedJson() throws IOException {
+        CompressedDash compressed = this.compressedJson;
+        if (compressed == null || !compressed.isActual(this)) {
+            compressed = new CompressedDash(this, false);
+            this.compressedJson = compressed;
+        }
+        return compressed.json;
+    }
+
+    /**
+     * Same as {@link #getCompressedJson()}, but without private fields, for the shared access.
+     */
+    public DeflatedSegment getCompressedRestrictiveJson() throws IOException {
+        CompressedDash compressed = this.compressedRestrictiveJson;
+        if (compressed == null || !compressed.isActual(this)) {
+            compressed = new CompressedDash(this, true);
+            this.compressedRestrictiveJson = compressed;
+        }
+        return compressed.json;
+    }
+
+    public boolean hasCompressedJson(boolean restrictive) {
+        CompressedDash compressed = restrictive ? this.compressedRestrictiveJson : this.compressedJson;
+        return compressed != null && compressed.isActual(this);
+    }
+
     public boolean updateWidgets(int deviceId, short pin, PinType type, String value) {
         boolean hasWidget = false;
-        for (Widget widget : widgets) {
+        for (Widget widget : getPinRoute(deviceId, pin, type).widgets) {
             if (widget.updateIfSame(deviceId, pin, type, value)) {
                 hasWidget = true;
             }
@@ -193,15 +262,7 @@ public class DashBoard {
     }
 
     public WebHook findWebhookByPin(int deviceId, short pin, PinType pinType) {
-        for (Widget widget : widgets) {
-            if (widget instanceof WebHook) {
-                WebHook webHook = (WebHook) widget;
-                if (webHook.isSameWebHook(deviceId, pin, pinType)) {
-                    return webHook;
-                }
-            }
-        }
-        return null;
+        return getPinRoute(deviceId, pin, pinType).webHook;
     }
 
     public static int getWidgetIndexByIdOrThrow(Widget[] widgets, long id) {
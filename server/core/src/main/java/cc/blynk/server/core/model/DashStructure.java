@@ -0,0 +1,94 @@
+package cc.blynk.server.core.model;
+
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.model.device.Tag;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.server.core.model.widgets.ui.DeviceSelector;
+import cc.blynk.server.core.model.widgets.ui.tiles.DeviceTiles;
+import cc.blynk.server.core.model.widgets.ui.tiles.Tile;
+import cc.blynk.server.core.model.widgets.ui.tiles.TileTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Remembers the structure of the dashboard : widgets, devices and tags arrays, device ids of
+ * the tags and device selectors, tiles and templates of the device tiles.
+ * Used to check whether data derived from the dashboard is still actual.
+ *
+ * Dashboard updates always replace those arrays instead of modifying them,
+ * so identity check is enough.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class DashStructure {
+
+    private final Widget[] widgets;
+    private final Device[] devices;
+    private final Tag[] tags;
+    private final List<BooleanSupplier> checks = new ArrayList<>();
+
+    public DashStructure(DashBoard dash) {
+        this.widgets = dash.widgets;
+        this.devices = dash.devices;
+        this.tags = dash.tags;
+
+        for (Tag tag : tags) {
+            int[] deviceIds = tag.deviceIds;
+            checks.add(() -> tag.deviceIds == deviceIds);
+        }
+        for (Widget widget : widgets) {
+            if (widget instanceof DeviceSelector) {
+                DeviceSelector deviceSelector = (DeviceSelector) widget;
+                int[] deviceIds = deviceSelector.deviceIds;
+                checks.add(() -> deviceSelector.deviceIds == deviceIds);
+            } else if (widget instanceof DeviceTiles) {
+                DeviceTiles deviceTiles = (DeviceTiles) widget;
+                Tile[] tiles = deviceTiles.tiles;
+                TileTemplate[] templates = deviceTiles.templates;
+                checks.add(() -> deviceTiles.tiles == tiles && deviceTiles.templates == templates);
+                for (TileTemplate template : templates) {
+                    Widget[] templateWidgets = template.widgets;
+                    int[] deviceIds = template.deviceIds;
+                    checks.add(() -> template.widgets == templateWidgets && template.deviceIds == deviceIds);
+                }
+            }
+        }
+    }
+
+    public Widget[] getWidgets() {
+        return widgets;
+    }
+
+    public Device[] getDevices() {
+        return devices;
+    }
+
+    public Tag[] getTags() {
+        return tags;
+    }
+
+    /**
+     * Adds check of the value that is not a part of the structure, but was used for building derived data.
+     * Should be called before the structure is shared with other threads.
+     */
+    public void addCheck(BooleanSupplier check) {
+        checks.add(check);
+    }
+
+    public boolean isActual(DashBoard dash) {
+        if (dash.widgets != widgets || dash.devices != devices || dash.tags != tags) {
+            return false;
+        }
+        for (BooleanSupplier check : checks) {
+            if (!check.getAsBoolean()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
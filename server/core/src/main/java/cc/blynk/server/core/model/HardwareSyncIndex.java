@@ -0,0 +1,145 @@
+package cc.blynk.server.core.model;
+
+import cc.blynk.server.core.model.widgets.HardwareSyncWidget;
+import cc.blynk.server.core.model.widgets.MultiPinWidget;
+import cc.blynk.server.core.model.widgets.OnePinWidget;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.server.core.model.widgets.others.rtc.RTC;
+import cc.blynk.server.core.model.widgets.ui.tiles.DeviceTiles;
+import cc.blynk.server.core.model.widgets.ui.tiles.Tile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Widgets of the dashboard that send own state to the device on the hardware sync, grouped by device id.
+ * So the sync of the device doesn't iterate over widgets of all other devices of the dashboard.
+ * Widgets keep the order of the dashboard.
+ *
+ * Index is never updated after the dashboard change : dashboard replaces it with the new one
+ * when its structure is changed.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+final class HardwareSyncIndex {
+
+    static final HardwareSyncWidget[] EMPTY = {};
+
+    private final DashStructure structure;
+
+    //sorted device ids and the widgets of the device with the same index
+    private final int[] deviceIds;
+    private final HardwareSyncWidget[][] widgets;
+
+    //widgets with unknown target are synced for any device
+    private final HardwareSyncWidget[] anyDeviceWidgets;
+
+    HardwareSyncIndex(DashBoard dash) {
+        this.structure = new DashStructure(dash);
+        Widget[] dashWidgets = structure.getWidgets();
+
+        int[] ids = new int[dashWidgets.length];
+        int size = 0;
+        for (Widget widget : dashWidgets) {
+            if (isSyncWidget(widget)) {
+                for (int deviceId : getDeviceIds(widget)) {
+                    if (size == ids.length) {
+                        ids = Arrays.copyOf(ids, size * 2 + 1);
+                    }
+                    ids[size++] = deviceId;
+                }
+            }
+        }
+        this.deviceIds = unique(ids, size);
+
+        @SuppressWarnings("unchecked")
+        List<HardwareSyncWidget>[] deviceWidgets = new List[deviceIds.length];
+        for (int i = 0; i < deviceIds.length; i++) {
+            deviceWidgets[i] = new ArrayList<>();
+        }
+        List<HardwareSyncWidget> anyDevice = new ArrayList<>();
+        for (Widget widget : dashWidgets) {
+            if (!isSyncWidget(widget)) {
+                continue;
+            }
+            HardwareSyncWidget syncWidget = (HardwareSyncWidget) widget;
+            if (hasKnownTarget(widget)) {
+                for (int deviceId : getDeviceIds(widget)) {
+                    List<HardwareSyncWidget> list = deviceWidgets[Arrays.binarySearch(deviceIds, deviceId)];
+                    //same device on few tiles, widget is added only once
+                    if (!isLast(list, syncWidget)) {
+                        list.add(syncWidget);
+                    }
+                }
+            } else {
+                anyDevice.add(syncWidget);
+                for (List<HardwareSyncWidget> list : deviceWidgets) {
+                    list.add(syncWidget);
+                }
+            }
+        }
+
+        this.widgets = new HardwareSyncWidget[deviceIds.length][];
+        for (int i = 0; i < deviceIds.length; i++) {
+            this.widgets[i] = deviceWidgets[i].toArray(EMPTY);
+        }
+        this.anyDeviceWidgets = anyDevice.isEmpty() ? EMPTY : anyDevice.toArray(EMPTY);
+    }
+
+    //RTC is never synced
+    private static boolean isSyncWidget(Widget widget) {
+        return widget instanceof HardwareSyncWidget && !(widget instanceof RTC);
+    }
+
+    private static boolean hasKnownTarget(Widget widget) {
+        return widget instanceof OnePinWidget || widget instanceof MultiPinWidget || widget instanceof DeviceTiles;
+    }
+
+    //widgets assigned to tags and device selectors sync nothing, as their device id is not the id of the device
+    private static int[] getDeviceIds(Widget widget) {
+        if (widget instanceof OnePinWidget) {
+            return new int[] {((OnePinWidget) widget).deviceId};
+        }
+        if (widget instanceof MultiPinWidget) {
+            return new int[] {((MultiPinWidget) widget).deviceId};
+        }
+        if (widget instanceof DeviceTiles) {
+            Tile[] tiles = ((DeviceTiles) widget).tiles;
+            int[] ids = new int[tiles.length];
+            for (int i = 0; i < tiles.length; i++) {
+                ids[i] = tiles[i].deviceId;
+            }
+            return ids;
+        }
+        return new int[0];
+    }
+
+    private static int[] unique(int[] ids, int size) {
+        Arrays.sort(ids, 0, size);
+        int uniqueSize = 0;
+        for (int i = 0; i < size; i++) {
+            if (uniqueSize == 0 || ids[uniqueSize - 1] != ids[i]) {
+                ids[uniqueSize++] = ids[i];
+            }
+        }
+        return Arrays.copyOf(ids, uniqueSize);
+    }
+
+    //widgets are added in order, so duplicate could be only the last one
+    private static boolean isLast(List<HardwareSyncWidget> list, HardwareSyncWidget widget) {
+        return !list.isEmpty() && list.get(list.size() - 1) == widget;
+    }
+
+    boolean isActual(DashBoard dash) {
+        return structure.isActual(dash);
+    }
+
+    HardwareSyncWidget[] get(int deviceId) {
+        int index = Arrays.binarySearch(deviceIds, deviceId);
+        return index < 0 ? anyDeviceWidgets : widgets[index];
+    }
+
+}
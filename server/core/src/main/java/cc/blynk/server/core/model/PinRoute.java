@@ -0,0 +1,191 @@
+package cc.blynk.server.core.model;
+
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.model.device.Tag;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.Target;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphDataStream;
+import cc.blynk.server.core.model.widgets.outputs.graph.Superchart;
+import cc.blynk.server.core.model.widgets.others.eventor.Eventor;
+import cc.blynk.server.core.model.widgets.others.eventor.Rule;
+import cc.blynk.server.core.model.widgets.others.webhook.WebHook;
+import cc.blynk.server.core.model.widgets.ui.DeviceSelector;
+import cc.blynk.server.core.model.widgets.ui.reporting.ReportingWidget;
+import cc.blynk.server.core.model.widgets.ui.tiles.DeviceTiles;
+import cc.blynk.server.core.model.widgets.ui.tiles.TileTemplate;
+import cc.blynk.utils.ArrayUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static cc.blynk.server.internal.EmptyArraysUtil.EMPTY_WIDGETS;
+
+/**
+ * Everything that depends on the hardware write to the one pin of the device :
+ * widgets that should be updated, widget that logs the pin, webhook and eventor rules.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class PinRoute {
+
+    private static final Rule[] EMPTY_RULES = {};
+
+    //widgets of the dashboard on this pin, tile widgets are updated via device tiles
+    public final Widget[] widgets;
+
+    //superchart or reporting widget that logs this pin, null when pin is not logged
+    public final Widget loggedWidget;
+
+    public final WebHook webHook;
+
+    //rules of the eventor that are triggered by this pin, they still should be checked for readiness
+    public final Rule[] eventorRules;
+
+    //true when any widget on this pin keeps all the values and not only the last one (terminal, lcd, table)
+    public final boolean multiValue;
+
+    private PinRoute(Widget[] widgets, Widget loggedWidget, WebHook webHook, Rule[] eventorRules) {
+        this.widgets = widgets;
+        this.loggedWidget = loggedWidget;
+        this.webHook = webHook;
+        this.eventorRules = eventorRules;
+        this.multiValue = hasMultiValueWidget(widgets);
+    }
+
+    private static boolean hasMultiValueWidget(Widget[] widgets) {
+        for (Widget widget : widgets) {
+            if (widget.isMultiValueWidget()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static PinRoute resolve(DashBoard dash, Widget[] dashWidgets, int deviceId, short pin, PinType pinType) {
+        List<Widget> widgets = new ArrayList<>();
+        WebHook webHook = null;
+        Eventor eventor = null;
+        for (Widget widget : dashWidgets) {
+            if (widget.isSame(deviceId, pin, pinType)) {
+                widgets.add(widget);
+            }
+            if (webHook == null && widget instanceof WebHook
+                    && ((WebHook) widget).isSameWebHook(deviceId, pin, pinType)) {
+                webHook = (WebHook) widget;
+            }
+            if (eventor == null && widget instanceof Eventor) {
+                eventor = (Eventor) widget;
+            }
+        }
+
+        return new PinRoute(
+                widgets.isEmpty() ? EMPTY_WIDGETS : widgets.toArray(EMPTY_WIDGETS),
+                findLoggedWidget(dash, dashWidgets, deviceId, pin, pinType),
+                webHook,
+                findEventorRules(eventor, deviceId, pin, pinType)
+        );
+    }
+
+    private static Rule[] findEventorRules(Eventor eventor, int deviceId, short pin, PinType pinType) {
+        if (eventor == null || eventor.rules == null || eventor.deviceId != deviceId) {
+            return EMPTY_RULES;
+        }
+        List<Rule> rules = new ArrayList<>();
+        for (Rule rule : eventor.rules) {
+            if (rule.triggerDataStream != null && rule.triggerDataStream.isSame(pin, pinType)) {
+                rules.add(rule);
+            }
+        }
+        return rules.isEmpty() ? EMPTY_RULES : rules.toArray(EMPTY_RULES);
+    }
+
+    private static Widget findLoggedWidget(DashBoard dash, Widget[] dashWidgets,
+                                           int deviceId, short pin, PinType pinType) {
+        for (Widget widget : dashWidgets) {
+            if (widget instanceof Superchart) {
+                Superchart graph = (Superchart) widget;
+                if (isWithinGraph(dash, graph, pin, pinType, deviceId)) {
+                    return graph;
+                }
+            }
+            if (widget instanceof DeviceTiles) {
+                DeviceTiles deviceTiles = (DeviceTiles) widget;
+                for (TileTemplate tileTemplate : deviceTiles.templates) {
+                    for (Widget tilesWidget : tileTemplate.widgets) {
+                        if (tilesWidget instanceof Superchart) {
+                            Superchart graph = (Superchart) tilesWidget;
+                            if (isWithinGraph(dash, graph, pin, pinType, deviceId, tileTemplate.deviceIds)) {
+                                return graph;
+                            }
+                        }
+                    }
+                }
+            }
+            if (widget instanceof ReportingWidget) {
+                ReportingWidget reportingWidget = (ReportingWidget) widget;
+                if (reportingWidget.hasPin(pin, pinType)) {
+                    return reportingWidget;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean isWithinGraph(DashBoard dash, Superchart graph,
+                                         short pin, PinType pinType, int deviceId, int... deviceIds) {
+        for (GraphDataStream graphDataStream : graph.dataStreams) {
+            if (graphDataStream != null && graphDataStream.dataStream != null
+                    && graphDataStream.dataStream.isSame(pin, pinType)) {
+
+                int graphTargetId = graphDataStream.targetId;
+
+                //this is the case when datastream assigned directly to the device
+                if (deviceId == graphTargetId) {
+                    return true;
+                }
+
+                //this is the case when graph is within deviceTiles
+                if (deviceIds != null && ArrayUtil.contains(deviceIds, deviceId)) {
+                    return true;
+                }
+
+                //this is the case when graph is within device selector or tags
+                Target target;
+                if (graphTargetId < Tag.START_TAG_ID) {
+                    target = getDeviceById(dash, graphTargetId);
+                } else if (graphTargetId < DeviceSelector.DEVICE_SELECTOR_STARTING_ID) {
+                    target = getTagById(dash, graphTargetId);
+                } else {
+                    //means widget assigned to device selector widget.
+                    target = dash.getDeviceSelector(graphTargetId);
+                }
+                if (target != null && target.contains(deviceId)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Device getDeviceById(DashBoard dash, int id) {
+        for (Device device : dash.devices) {
+            if (device.id == id) {
+                return device;
+            }
+        }
+        return null;
+    }
+
+    private static Tag getTagById(DashBoard dash, int id) {
+        for (Tag tag : dash.tags) {
+            if (tag.id == id) {
+                return tag;
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,57 @@
+package cc.blynk.server.core.model;
+
+import cc.blynk.server.core.model.enums.PinType;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Routing table of the hardware writes of one dashboard, keyed by device id, pin type and pin.
+ * Routes are resolved on first write to the pin and cached, so hardware write path does
+ * a single lookup instead of scanning all widgets for updates, logging, webhooks and eventor.
+ *
+ * Table is never updated after the dashboard change : dashboard replaces it with the new one
+ * when its structure is changed.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+final class PinRouting {
+
+    //pin type ordinal for the null pin type
+    private static final int NO_PIN_TYPE = 0xFF;
+
+    private final DashStructure structure;
+    private final ConcurrentHashMap<Long, PinRoute> routes = new ConcurrentHashMap<>();
+
+    PinRouting(DashBoard dash) {
+        this.structure = new DashStructure(dash);
+    }
+
+    static long key(int deviceId, short pin, PinType pinType) {
+        int type = pinType == null ? NO_PIN_TYPE : pinType.ordinal();
+        return ((long) deviceId << 32) | ((long) type << 16) | (pin & 0xFFFFL);
+    }
+
+    boolean isActual(DashBoard dash) {
+        return structure.isActual(dash);
+    }
+
+    PinRoute get(DashBoard dash, int deviceId, short pin, PinType pinType) {
+        long key = key(deviceId, pin, pinType);
+        PinRoute route = routes.get(key);
+        if (route == null) {
+            route = PinRoute.resolve(dash, structure.getWidgets(), deviceId, pin, pinType);
+            PinRoute existing = routes.putIfAbsent(key, route);
+            if (existing != null) {
+                return existing;
+            }
+        }
+        return route;
+    }
+
+    int size() {
+        return routes.size();
+    }
+
+}
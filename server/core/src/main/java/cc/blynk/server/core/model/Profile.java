@@ -7,9 +7,10 @@ import cc.blynk.server.core.model.device.Tag;
 import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.model.enums.WidgetProperty;
 import cc.blynk.server.core.model.serialization.JsonParser;
-import cc.blynk.server.core.model.serialization.View;
 import cc.blynk.server.core.model.storage.DashPinStorageKeyDeserializer;
+import cc.blynk.server.core.model.storage.PinStorage;
 import cc.blynk.server.core.model.storage.PinStorageValueDeserializer;
+import cc.blynk.server.core.model.storage.PinValueChange;
 import cc.blynk.server.core.model.storage.key.DashPinPropertyStorageKey;
 import cc.blynk.server.core.model.storage.key.DashPinStorageKey;
 import cc.blynk.server.core.model.storage.value.PinStorageValue;
@@ -18,23 +19,23 @@ import cc.blynk.server.core.model.widgets.MultiPinWidget;
 import cc.blynk.server.core.model.widgets.OnePinWidget;
 import cc.blynk.server.core.model.widgets.Target;
 import cc.blynk.server.core.model.widgets.Widget;
-import cc.blynk.server.core.model.widgets.outputs.graph.GraphDataStream;
-import cc.blynk.server.core.model.widgets.outputs.graph.Superchart;
 import cc.blynk.server.core.model.widgets.ui.DeviceSelector;
-import cc.blynk.server.core.model.widgets.ui.reporting.ReportingWidget;
 import cc.blynk.server.core.model.widgets.ui.tiles.DeviceTiles;
 import cc.blynk.server.core.model.widgets.ui.tiles.Tile;
 import cc.blynk.server.core.model.widgets.ui.tiles.TileTemplate;
 import cc.blynk.server.core.protocol.exceptions.IllegalCommandException;
 import cc.blynk.utils.ArrayUtil;
 import cc.blynk.utils.StringUtils;
-import com.fasterxml.jackson.annotation.JsonView;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import io.netty.channel.Channel;
 
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import static cc.blynk.server.core.model.widgets.MobileSyncWidget.ANY_TARGET;
 import static cc.blynk.server.internal.EmptyArraysUtil.EMPTY_APPS;
@@ -52,10 +53,35 @@ public class Profile {
 
     public volatile App[] apps = EMPTY_APPS;
 
-    @JsonView(View.Private.class)
+    //values are stored separately from the profile json, see PinStorageFile
+    public final transient PinStorage pinsStorage = new PinStorage();
+
+    //values updated by the hardware since the last journal write, see ProfileJournal.
+    //only the last value is kept per pin
+    public final transient Map<DashPinStorageKey, PinValueChange> valueChanges = new ConcurrentHashMap<>();
+
+    //values of the pins with multi value widgets (terminal, lcd, table), every value is kept in order of updates
+    public final transient Queue<PinValueChange> multiValueChanges = new ConcurrentLinkedQueue<>();
+
+    //pin storage is a part of the profile json in the DB and in the backups, see JsonParser.toJsonWithPins.
+    //for the user files it is migration code, pin storage was a part of the profile json.
+    @JsonProperty("pinsStorage")
     @JsonDeserialize(keyUsing = DashPinStorageKeyDeserializer.class,
                      contentUsing = PinStorageValueDeserializer.class)
-    public final Map<DashPinStorageKey, PinStorageValue> pinsStorage = new HashMap<>();
+    private void setPinsStorage(Map<DashPinStorageKey, PinStorageValue> values) {
+        for (Map.Entry<DashPinStorageKey, PinStorageValue> entry : values.entrySet()) {
+            if (entry.getValue() != null) {
+                pinsStorage.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    //not visible for the default serialization, enabled only by JsonParser.toJsonWithPins
+    private Map<DashPinStorageKey, PinStorageValue> getPinsStorageValues() {
+        Map<DashPinStorageKey, PinStorageValue> values = new HashMap<>();
+        pinsStorage.forEach(values::put);
+        return values;
+    }
 
     //todo this method is very wrong, need to something with it.
     private static final DashBoard EMPTY_DASH = new DashBoard();
@@ -131,10 +157,12 @@ public class Profile {
     public void deleteTag(DashBoard dash, int tagId) {
         int existingTagIndex = getTagIndexByIdOrThrow(dash, tagId);
         dash.tags = ArrayUtil.remove(dash.tags, existingTagIndex, Tag.class);
+        dash.updatedAt = System.currentTimeMillis();
     }
 
     public void addTag(DashBoard dash, Tag newTag) {
         dash.tags = ArrayUtil.add(dash.tags, newTag, Tag.class);
+        dash.updatedAt = System.currentTimeMillis();
     }
 
     private int getTagIndexByIdOrThrow(DashBoard dash, int id) {
@@ -235,13 +263,18 @@ public class Profile {
     }
 
     private void sendPinStorageSyncs(DashBoard dash, Channel appChannel, int targetId) {
-        for (Map.Entry<DashPinStorageKey, PinStorageValue> entry : pinsStorage.entrySet()) {
-            DashPinStorageKey key = entry.getKey();
-            if ((targetId == ANY_TARGET || targetId == key.deviceId)
-                    && dash.id == key.dashId
-                    && appChannel.isWritable()) {
-                PinStorageValue pinStorageValue = entry.getValue();
-                pinStorageValue.sendAppSync(appChannel, dash.id, key);
+        if (targetId == ANY_TARGET) {
+            pinsStorage.forEach(dash.id, (key, pinStorageValue) -> {
+                if (appChannel.isWritable()) {
+                    pinStorageValue.sendAppSync(appChannel, dash.id, key);
+                }
+            });
+        } else {
+            for (Map.Entry<DashPinStorageKey, PinStorageValue> entry
+                    : pinsStorage.getDeviceValues(dash.id, targetId).entrySet()) {
+                if (appChannel.isWritable()) {
+                    entry.getValue().sendAppSync(appChannel, dash.id, entry.getKey());
+                }
             }
         }
     }
@@ -294,7 +327,7 @@ public class Profile {
     }
 
     public void cleanPinStorageForDevice(int deviceId) {
-        pinsStorage.entrySet().removeIf(entry -> entry.getKey().deviceId == deviceId);
+        pinsStorage.removeDevice(deviceId);
     }
 
     public void update(DashBoard dash, int deviceId, short pin, PinType pinType, String value, long now) {
@@ -303,7 +336,15 @@ public class Profile {
             putPinStorageValue(dash, deviceId, pinType, pin, value);
         }
 
-        dash.updatedAt = now;
+        //value updates are journaled, so they don't trigger the rewrite of the whole profile
+        var key = new DashPinStorageKey(dash.id, deviceId, pinType, pin);
+        var change = new PinValueChange(key, value, now);
+        if (dash.getPinRoute(deviceId, pin, pinType).multiValue) {
+            multiValueChanges.add(change);
+        } else {
+            valueChanges.put(key, change);
+        }
+        dash.valuesUpdatedAt = now;
     }
 
     public void putPinPropertyStorageValue(DashBoard dash, int deviceId, PinType type, short pin,
@@ -316,79 +357,11 @@ public class Profile {
     }
 
     private void putPinStorageValue(DashBoard dash, DashPinStorageKey key, String value) {
-        PinStorageValue pinStorageValue = pinsStorage.get(key);
-        if (pinStorageValue == null) {
-            pinStorageValue = dash.initStorageValueForStorageKey(key);
-            pinsStorage.put(key, pinStorageValue);
-        }
-        pinStorageValue.update(value);
+        pinsStorage.update(dash, key, value);
     }
 
     public Widget getWidgetWithLoggedPin(DashBoard dash, int deviceId, short pin, PinType pinType) {
-        for (Widget widget : dash.widgets) {
-            if (widget instanceof Superchart) {
-                Superchart graph = (Superchart) widget;
-                if (isWithinGraph(dash, graph, pin, pinType, deviceId)) {
-                    return graph;
-                }
-            }
-            if (widget instanceof DeviceTiles) {
-                DeviceTiles deviceTiles = (DeviceTiles) widget;
-                for (TileTemplate tileTemplate : deviceTiles.templates) {
-                    for (Widget tilesWidget : tileTemplate.widgets) {
-                        if (tilesWidget instanceof Superchart) {
-                            Superchart graph = (Superchart) tilesWidget;
-                            if (isWithinGraph(dash, graph, pin, pinType, deviceId, tileTemplate.deviceIds)) {
-                                return graph;
-                            }
-                        }
-                    }
-                }
-            }
-            if (widget instanceof ReportingWidget) {
-                ReportingWidget reportingWidget = (ReportingWidget) widget;
-                if (reportingWidget.hasPin(pin, pinType)) {
-                    return reportingWidget;
-                }
-            }
-        }
-        return null;
-    }
-
-    private boolean isWithinGraph(DashBoard dash, Superchart graph,
-                                         short pin, PinType pinType, int deviceId, int... deviceIds) {
-        for (GraphDataStream graphDataStream : graph.dataStreams) {
-            if (graphDataStream != null && graphDataStream.dataStream != null
-                    && graphDataStream.dataStream.isSame(pin, pinType)) {
-
-                int graphTargetId = graphDataStream.targetId;
-
-                //this is the case when datastream assigned directly to the device
-                if (deviceId == graphTargetId) {
-                    return true;
-                }
-
-                //this is the case when graph is within deviceTiles
-                if (deviceIds != null && ArrayUtil.contains(deviceIds, deviceId)) {
-                    return true;
-                }
-
-                //this is the case when graph is within device selector or tags
-                Target target;
-                if (graphTargetId < Tag.START_TAG_ID) {
-                    target = getDeviceById(dash, graphTargetId);
-                } else if (graphTargetId < DeviceSelector.DEVICE_SELECTOR_STARTING_ID) {
-                    target = getTagById(dash, graphTargetId);
-                } else {
-                    //means widget assigned to device selector widget.
-                    target = dash.getDeviceSelector(graphTargetId);
-                }
-                if (target != null && target.contains(deviceId)) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return dash.getPinRoute(deviceId, pin, pinType).loggedWidget;
     }
 
     public int getDashIndexOrThrow(int dashId) {
@@ -0,0 +1,134 @@
+package cc.blynk.server.core.model.auth;
+
+import cc.blynk.server.core.model.storage.key.DashPinStorageKey;
+import cc.blynk.server.core.protocol.model.messages.ByteBufMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntUnaryOperator;
+
+import static cc.blynk.utils.StringUtils.BODY_SEPARATOR;
+
+/**
+ * Pending hardware updates of the one app channel, only the latest update of the every pin is kept.
+ * Updates are added from any thread and are flushed within the event loop of the channel,
+ * once per coalescing window. When channel is not writable, updates wait for the next window.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+final class AppUpdatesBuffer {
+
+    private final Channel channel;
+    private final AppUpdatesCoalescer coalescer;
+
+    //guarded by this
+    private final Map<DashPinStorageKey, ByteBufMessage> pending = new LinkedHashMap<>();
+    private boolean flushScheduled;
+
+    AppUpdatesBuffer(Channel channel, AppUpdatesCoalescer coalescer) {
+        this.channel = channel;
+        this.coalescer = coalescer;
+    }
+
+    /**
+     * @return key of the pin for the hardware write body, like "vw\01\0100",
+     *         null when body is not a write and thus shouldn't be coalesced.
+     */
+    static DashPinStorageKey key(int dashId, int deviceId, String body) {
+        return key(dashId, deviceId, body.length(), body::charAt);
+    }
+
+    static DashPinStorageKey key(int dashId, int deviceId, ByteBuf body) {
+        int start = body.readerIndex();
+        return key(dashId, deviceId, body.readableBytes(), i -> body.getByte(start + i));
+    }
+
+    private static DashPinStorageKey key(int dashId, int deviceId, int length, IntUnaryOperator charAt) {
+        if (length < 5 || charAt.applyAsInt(1) != 'w' || charAt.applyAsInt(2) != BODY_SEPARATOR) {
+            return null;
+        }
+        int pin = 0;
+        int i = 3;
+        for (; i < length; i++) {
+            int c = charAt.applyAsInt(i);
+            if (c == BODY_SEPARATOR) {
+                break;
+            }
+            if (c < '0' || c > '9' || pin > Short.MAX_VALUE / 10) {
+                return null;
+            }
+            pin = pin * 10 + c - '0';
+        }
+        //no pin or no value
+        if (i == 3 || i == length) {
+            return null;
+        }
+        return new DashPinStorageKey(dashId, deviceId, (char) charAt.applyAsInt(0), (short) pin);
+    }
+
+    /**
+     * Takes ownership of the message.
+     */
+    void add(DashPinStorageKey key, ByteBufMessage message) {
+        ByteBufMessage replaced;
+        boolean schedule;
+        synchronized (this) {
+            replaced = pending.put(key, message);
+            schedule = !flushScheduled;
+            flushScheduled = true;
+        }
+        if (replaced != null) {
+            replaced.release();
+            coalescer.coalesced.increment();
+        }
+        if (schedule) {
+            scheduleFlush();
+        }
+    }
+
+    private void scheduleFlush() {
+        channel.eventLoop().schedule(this::flush, coalescer.windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        if (!channel.isActive()) {
+            release();
+            return;
+        }
+        if (!channel.isWritable()) {
+            scheduleFlush();
+            return;
+        }
+
+        ByteBufMessage[] messages;
+        synchronized (this) {
+            messages = pending.values().toArray(new ByteBufMessage[0]);
+            pending.clear();
+            flushScheduled = false;
+        }
+        for (ByteBufMessage message : messages) {
+            channel.write(message, channel.voidPromise());
+        }
+        channel.flush();
+        coalescer.delivered.add(messages.length);
+    }
+
+    /**
+     * Drops all pending updates, used when the channel is closed.
+     */
+    void release() {
+        synchronized (this) {
+            for (ByteBufMessage message : pending.values()) {
+                message.release();
+            }
+            pending.clear();
+            flushScheduled = false;
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+package cc.blynk.server.core.model.auth;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Settings and counters of the hardware updates coalescing for the app channels.
+ * When enabled, every app channel keeps only the latest update of the every pin
+ * within the window and gets all of them with a single flush.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class AppUpdatesCoalescer {
+
+    public final int windowMillis;
+
+    final LongAdder coalesced = new LongAdder();
+    final LongAdder delivered = new LongAdder();
+
+    /**
+     * @param windowMillis - 0 disables coalescing, so every update is sent right away
+     */
+    public AppUpdatesCoalescer(int windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    public boolean isEnabled() {
+        return windowMillis > 0;
+    }
+
+    //updates that were replaced by the newer value of the same pin before sending
+    public long getCoalesced(boolean reset) {
+        return reset ? coalesced.sumThenReset() : coalesced.sum();
+    }
+
+    public long getDelivered(boolean reset) {
+        return reset ? delivered.sumThenReset() : delivered.sum();
+    }
+
+}
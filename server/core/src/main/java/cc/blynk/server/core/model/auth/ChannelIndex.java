@@ -0,0 +1,135 @@
+package cc.blynk.server.core.model.auth;
+
+import io.netty.channel.Channel;
+
+/**
+ * Maps primitive long key to the channels. Used by the session to find channels of
+ * the dash or the device without iterating over all channels of the user.
+ *
+ * Lookups are lock and allocation free. Writes happen only on login and close,
+ * so every write builds new table and publishes it via volatile field.
+ * Returned arrays are shared and should never be modified.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+final class ChannelIndex {
+
+    static final Channel[] EMPTY = {};
+
+    private static final int MIN_CAPACITY = 8;
+
+    private volatile Table table = new Table(MIN_CAPACITY);
+
+    static long key(int dashId, int deviceId) {
+        return ((long) dashId << 32) | (deviceId & 0xFFFFFFFFL);
+    }
+
+    Channel[] get(long key) {
+        return table.get(key);
+    }
+
+    synchronized void add(long key, Channel channel) {
+        Table current = table;
+        Channel[] channels = current.get(key);
+        for (Channel existing : channels) {
+            if (existing == channel) {
+                return;
+            }
+        }
+        Channel[] updated = new Channel[channels.length + 1];
+        System.arraycopy(channels, 0, updated, 0, channels.length);
+        updated[channels.length] = channel;
+        this.table = current.copyWith(key, updated, channels.length == 0 ? current.size + 1 : current.size);
+    }
+
+    synchronized void remove(long key, Channel channel) {
+        Table current = table;
+        Channel[] channels = current.get(key);
+        int index = -1;
+        for (int i = 0; i < channels.length; i++) {
+            if (channels[i] == channel) {
+                index = i;
+                break;
+            }
+        }
+        if (index == -1) {
+            return;
+        }
+        if (channels.length == 1) {
+            this.table = current.copyWith(key, EMPTY, current.size - 1);
+            return;
+        }
+        Channel[] updated = new Channel[channels.length - 1];
+        System.arraycopy(channels, 0, updated, 0, index);
+        System.arraycopy(channels, index + 1, updated, index, updated.length - index);
+        this.table = current.copyWith(key, updated, current.size);
+    }
+
+    int size() {
+        return table.size;
+    }
+
+    //immutable open addressing table with linear probing, empty slot has null value
+    private static final class Table {
+
+        private final long[] keys;
+        private final Channel[][] values;
+        private final int size;
+
+        private Table(int capacity) {
+            this(new long[capacity], new Channel[capacity][], 0);
+        }
+
+        private Table(long[] keys, Channel[][] values, int size) {
+            this.keys = keys;
+            this.values = values;
+            this.size = size;
+        }
+
+        private static int slot(long key, int mask) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+
+        Channel[] get(long key) {
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask); values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return EMPTY;
+        }
+
+        //copies all not empty entries to the new table, replacing value of the given key
+        Table copyWith(long key, Channel[] newValue, int newSize) {
+            int capacity = MIN_CAPACITY;
+            while (capacity < newSize * 2) {
+                capacity <<= 1;
+            }
+            Table result = new Table(capacity);
+            for (int i = 0; i < keys.length; i++) {
+                if (values[i] != null && keys[i] != key) {
+                    result.put(keys[i], values[i]);
+                }
+            }
+            if (newValue.length > 0) {
+                result.put(key, newValue);
+            }
+            return new Table(result.keys, result.values, newSize);
+        }
+
+        private void put(long key, Channel[] value) {
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            while (values[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+    }
+
+}
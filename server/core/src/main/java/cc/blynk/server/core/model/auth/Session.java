@@ -1,11 +1,18 @@
 package cc.blynk.server.core.model.auth;
 
 import cc.blynk.server.common.BaseSimpleChannelInboundHandler;
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.storage.key.DashPinStorageKey;
 import cc.blynk.server.core.protocol.handlers.decoders.MessageDecoder;
 import cc.blynk.server.core.protocol.handlers.decoders.MobileMessageDecoder;
-import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.protocol.model.messages.Broadcast;
+import cc.blynk.server.core.protocol.model.messages.ByteBufMessage;
 import cc.blynk.server.core.session.HardwareStateHolder;
-import cc.blynk.utils.ArrayUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
@@ -13,15 +20,15 @@ import io.netty.channel.EventLoop;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.HashSet;
+import java.nio.charset.StandardCharsets;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
-import static cc.blynk.server.internal.CommonByteBufUtil.deviceOffline;
-import static cc.blynk.server.internal.CommonByteBufUtil.makeUTF8StringMessage;
+import static cc.blynk.server.core.protocol.enums.Command.DEVICE_OFFLINE;
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
 import static cc.blynk.server.internal.StateHolderUtil.getHardState;
 import static cc.blynk.server.internal.StateHolderUtil.isSameDash;
-import static cc.blynk.server.internal.StateHolderUtil.isSameDashAndDeviceId;
+import static cc.blynk.utils.StringUtils.DEVICE_SEPARATOR;
 import static cc.blynk.utils.StringUtils.prependDashIdAndDeviceId;
 
 /**
@@ -39,11 +46,28 @@ public class Session {
     public final Set<Channel> appChannels = ConcurrentHashMap.newKeySet();
     public final Set<Channel> hardwareChannels = ConcurrentHashMap.newKeySet();
 
-    private final ChannelFutureListener appRemover = future -> appChannels.remove(future.channel());
+    //pending hardware updates of the app channels, used only when coalescing is enabled
+    private final ConcurrentHashMap<Channel, AppUpdatesBuffer> appUpdatesBuffers = new ConcurrentHashMap<>();
+
+    private final ChannelFutureListener appRemover = future -> {
+        Channel appChannel = future.channel();
+        appChannels.remove(appChannel);
+        AppUpdatesBuffer appUpdates = appUpdatesBuffers.remove(appChannel);
+        if (appUpdates != null) {
+            appUpdates.release();
+        }
+    };
     private final ChannelFutureListener hardRemover = future -> hardwareChannels.remove(future.channel());
 
-    public Session(EventLoop initialEventLoop) {
+    //hardware channels indexed by dash id and by dash and device ids, filled on login and cleared on close
+    private final ChannelIndex hardChannelsByDash = new ChannelIndex();
+    private final ChannelIndex hardChannelsByDevice = new ChannelIndex();
+
+    private final AppUpdatesCoalescer appUpdatesCoalescer;
+
+    public Session(EventLoop initialEventLoop, AppUpdatesCoalescer appUpdatesCoalescer) {
         this.initialEventLoop = initialEventLoop;
+        this.appUpdatesCoalescer = appUpdatesCoalescer;
     }
 
     public boolean isSameEventLoop(ChannelHandlerContext ctx) {
@@ -81,64 +105,163 @@ public class Session {
         }
     }
 
+    /**
+     * Hardware channel should have its pipeline already initialized with the hardware state,
+     * as dash and device of the state are used for the channel indexing.
+     */
     public void addHardChannel(Channel hardChannel) {
         if (hardwareChannels.add(hardChannel)) {
+            HardwareStateHolder hardwareState = getHardState(hardChannel);
+            if (hardwareState != null) {
+                int dashId = hardwareState.dash.id;
+                int deviceId = hardwareState.device.id;
+                hardChannelsByDash.add(dashId, hardChannel);
+                hardChannelsByDevice.add(ChannelIndex.key(dashId, deviceId), hardChannel);
+                hardChannel.closeFuture().addListener(future -> {
+                    hardChannelsByDash.remove(dashId, hardChannel);
+                    hardChannelsByDevice.remove(ChannelIndex.key(dashId, deviceId), hardChannel);
+                });
+            }
             hardChannel.closeFuture().addListener(hardRemover);
         }
     }
 
-    private Set<Channel> filter(int bodySize, int activeDashId, int[] deviceIds) {
-        Set<Channel> targetChannels = new HashSet<>();
-        for (Channel channel : hardwareChannels) {
-            HardwareStateHolder hardwareState = getHardState(channel);
-            if (hardwareState != null && hardwareState.dash.id == activeDashId
-                    && (deviceIds.length == 0 || ArrayUtil.contains(deviceIds, hardwareState.device.id))) {
-                if (hardwareState.device.fitsBufferSize(bodySize)) {
-                    targetChannels.add(channel);
-                } else {
-                    log.trace("Message is to large. Size {}.", bodySize);
-                }
+    /**
+     * Returned array is shared, it should not be modified.
+     */
+    public Channel[] getHardwareChannels(int dashId, int deviceId) {
+        return hardChannelsByDevice.get(ChannelIndex.key(dashId, deviceId));
+    }
+
+    /**
+     * Returned array is shared, it should not be modified.
+     */
+    public Channel[] getHardwareChannels(int dashId) {
+        return hardChannelsByDash.get(dashId);
+    }
+
+    public boolean sendMessageToHardware(int activeDashId, short cmd, int msgId, String body, int deviceId) {
+        try (Broadcast broadcast = new Broadcast(cmd, msgId, body)) {
+            return !send(broadcast, getHardwareChannels(activeDashId, deviceId));
+        }
+    }
+
+    public boolean sendMessageToHardware(int activeDashId, short cmd, int msgId, String body, int... deviceIds) {
+        try (Broadcast broadcast = new Broadcast(cmd, msgId, body)) {
+            return sendMessageToHardware(activeDashId, broadcast, deviceIds);
+        }
+    }
+
+    /**
+     * Same as above, but for the already encoded body. Body is not released by this method.
+     */
+    public boolean sendMessageToHardware(int activeDashId, short cmd, int msgId, ByteBuf body, int... deviceIds) {
+        try (Broadcast broadcast = new Broadcast(cmd, msgId, body)) {
+            return sendMessageToHardware(activeDashId, broadcast, deviceIds);
+        }
+    }
+
+    private boolean sendMessageToHardware(int activeDashId, Broadcast broadcast, int[] deviceIds) {
+        if (deviceIds.length == 0) {
+            return !send(broadcast, getHardwareChannels(activeDashId));
+        }
+        boolean hasTarget = false;
+        for (int i = 0; i < deviceIds.length; i++) {
+            int deviceId = deviceIds[i];
+            //skipping duplicated ids, so device doesn't get the same message twice
+            if (!containsBefore(deviceIds, i, deviceId)) {
+                hasTarget |= send(broadcast, getHardwareChannels(activeDashId, deviceId));
             }
         }
-        return targetChannels;
+        return !hasTarget;
     }
 
-    private Set<Channel> filter(int bodySize, int activeDashId, int deviceId) {
-        Set<Channel> targetChannels = new HashSet<>();
-        for (Channel channel : hardwareChannels) {
-            HardwareStateHolder hardwareState = getHardState(channel);
-            if (hardwareState != null && hardwareState.isSameDashAndDeviceId(activeDashId, deviceId)) {
-                if (hardwareState.device.fitsBufferSize(bodySize)) {
-                    targetChannels.add(channel);
-                } else {
-                    log.trace("Message is to large. Size {}.", bodySize);
+    /**
+     * Sends batch of the messages to the devices of the dashboard.
+     * Every hardware channel gets all messages of own device with a single flush.
+     *
+     * @param deviceIds - target device of the every body
+     */
+    public void sendMessagesToHardware(int activeDashId, short cmd, int msgId, int[] deviceIds, String[] bodies) {
+        Broadcast[] broadcasts = broadcasts(cmd, msgId, bodies);
+        try {
+            for (int i = 0; i < deviceIds.length; i++) {
+                int deviceId = deviceIds[i];
+                if (containsBefore(deviceIds, i, deviceId)) {
+                    continue;
+                }
+                for (Channel channel : getHardwareChannels(activeDashId, deviceId)) {
+                    HardwareStateHolder hardwareState = getHardState(channel);
+                    if (hardwareState != null && channel.isWritable()) {
+                        for (int j = i; j < deviceIds.length; j++) {
+                            if (deviceIds[j] == deviceId
+                                    && hardwareState.device.fitsBufferSize(broadcasts[j].bodySize())) {
+                                broadcasts[j].queue(channel);
+                            }
+                        }
+                        channel.flush();
+                    }
                 }
             }
+        } finally {
+            close(broadcasts);
         }
-        return targetChannels;
     }
 
-    public boolean sendMessageToHardware(int activeDashId, short cmd, int msgId, String body, int deviceId) {
-        return hardwareChannels.size() == 0
-                || sendMessageToHardware(filter(body.length(), activeDashId, deviceId), cmd, msgId, body);
+    private static Broadcast[] broadcasts(short cmd, int msgId, String[] bodies) {
+        Broadcast[] broadcasts = new Broadcast[bodies.length];
+        for (int i = 0; i < bodies.length; i++) {
+            broadcasts[i] = new Broadcast(cmd, msgId, bodies[i]);
+        }
+        return broadcasts;
     }
 
-    public boolean sendMessageToHardware(int activeDashId, short cmd, int msgId, String body, int... deviceIds) {
-        return hardwareChannels.size() == 0
-                || sendMessageToHardware(filter(body.length(), activeDashId, deviceIds), cmd, msgId, body);
+    private static void close(Broadcast[] broadcasts) {
+        for (Broadcast broadcast : broadcasts) {
+            broadcast.close();
+        }
     }
 
-    public boolean sendMessageToHardware(short cmd, int msgId, String body) {
-        return sendMessageToHardware(hardwareChannels, cmd, msgId, body);
+    private static boolean containsBefore(int[] array, int end, int val) {
+        for (int i = 0; i < end; i++) {
+            if (array[i] == val) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sends message to the hardware channels that are able to receive the body.
+     *
+     * @return - true if there was at least one target
+     */
+    private static boolean send(Broadcast broadcast, Channel[] targets) {
+        int bodySize = broadcast.bodySize();
+        boolean hasTarget = false;
+        for (Channel channel : targets) {
+            HardwareStateHolder hardwareState = getHardState(channel);
+            if (hardwareState != null) {
+                if (hardwareState.device.fitsBufferSize(bodySize)) {
+                    hasTarget = true;
+                    if (channel.isWritable()) {
+                        broadcast.write(channel);
+                    }
+                } else {
+                    log.trace("Message is to large. Size {}.", bodySize);
+                }
+            }
+        }
+        return hasTarget;
     }
 
-    private boolean sendMessageToHardware(Set<Channel> targetChannels, short cmd, int msgId, String body) {
-        int channelsNum = targetChannels.size();
+    public boolean sendMessageToHardware(short cmd, int msgId, String body) {
+        int channelsNum = hardwareChannels.size();
         if (channelsNum == 0) {
             return true; // -> no active hardware
         }
 
-        send(targetChannels, cmd, msgId, body);
+        send(hardwareChannels, cmd, msgId, body);
 
         return false; // -> there is active hardware
     }
@@ -148,21 +271,11 @@ public class Session {
     }
 
     public boolean isHardwareConnected(int dashId, int deviceId) {
-        for (Channel channel : hardwareChannels) {
-            if (isSameDashAndDeviceId(channel, dashId, deviceId)) {
-                return true;
-            }
-        }
-        return false;
+        return getHardwareChannels(dashId, deviceId).length > 0;
     }
 
     public boolean isHardwareConnected(int dashId) {
-        for (Channel channel : hardwareChannels) {
-            if (isSameDash(channel, dashId)) {
-                return true;
-            }
-        }
-        return false;
+        return getHardwareChannels(dashId).length > 0;
     }
 
     public void sendOfflineMessageToApps(int dashId, int deviceId) {
@@ -170,61 +283,177 @@ public class Session {
         if (targetsNum > 0) {
             log.trace("Sending device offline message.");
 
-            StringMessage deviceOfflineMessage = deviceOffline(dashId, deviceId);
-            sendMessageToMultipleReceivers(appChannels, deviceOfflineMessage);
+            send(appChannels, DEVICE_OFFLINE, 0, String.valueOf(dashId) + DEVICE_SEPARATOR + deviceId);
         }
     }
 
     public void sendToApps(short cmd, int msgId, int dashId, int deviceId, String body) {
         if (isAppConnected()) {
             String finalBody = prependDashIdAndDeviceId(dashId, deviceId, body);
-            sendToApps(cmd, msgId, dashId, finalBody);
+            DashPinStorageKey key = isCoalesced(cmd)
+                    ? coalescedKey(AppUpdatesBuffer.key(dashId, deviceId, body)) : null;
+            if (key == null) {
+                sendToApps(cmd, msgId, dashId, finalBody);
+            } else {
+                coalesce(key, cmd, msgId, dashId, ByteBufUtil.writeUtf8(ByteBufAllocator.DEFAULT, finalBody));
+            }
         }
     }
 
-    public void sendToApps(short cmd, int msgId, int dashId, String finalBody) {
-        Set<Channel> targetChannels = filterByDash(dashId);
+    private boolean isCoalesced(short cmd) {
+        return cmd == HARDWARE && appUpdatesCoalescer.isEnabled();
+    }
 
-        int targetsNum = targetChannels.size();
-        if (targetsNum > 0) {
-            send(targetChannels, cmd, msgId, finalBody);
+    /**
+     * Writes to the pins of terminal, table or LCD are not the latest state of the pin,
+     * but the commands that are all applied by the app, so they are never coalesced.
+     * All app channels of the session belong to the same user, so any of them has the dashboard.
+     */
+    private DashPinStorageKey coalescedKey(DashPinStorageKey key) {
+        if (key == null) {
+            return null;
+        }
+        for (Channel channel : appChannels) {
+            BaseSimpleChannelInboundHandler handler = channel.pipeline().get(BaseSimpleChannelInboundHandler.class);
+            if (handler != null) {
+                DashBoard dash = handler.getState().user.profile.getDashById(key.dashId);
+                if (dash == null) {
+                    return null;
+                }
+                try {
+                    PinType pinType = PinType.getPinType(key.pinTypeChar);
+                    return dash.getPinRoute(key.deviceId, key.pin, pinType).multiValue ? null : key;
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
         }
+        return null;
     }
 
-    private Set<Channel> filterByDash(int dashId) {
-        Set<Channel> targetChannels = new HashSet<>();
-        for (Channel channel : appChannels) {
-            if (isSameDash(channel, dashId)) {
-                targetChannels.add(channel);
+    /**
+     * Puts update into the buffers of the app channels instead of sending it right away,
+     * so the newer update of the same pin replaces it. Body is released by this method.
+     */
+    private void coalesce(DashPinStorageKey key, short cmd, int msgId, int dashId, ByteBuf finalBody) {
+        try {
+            for (Channel channel : appChannels) {
+                if (isSameDash(channel, dashId) && channel.isActive()) {
+                    AppUpdatesBuffer appUpdates = appUpdatesBuffers.computeIfAbsent(channel,
+                            ch -> new AppUpdatesBuffer(ch, appUpdatesCoalescer));
+                    appUpdates.add(key, new ByteBufMessage(msgId, cmd, finalBody.retainedDuplicate()));
+                    //channel may be closed after the check and the buffer created after appRemover was called
+                    if (!channel.isActive() && appUpdatesBuffers.remove(channel, appUpdates)) {
+                        appUpdates.release();
+                    }
+                }
             }
+        } finally {
+            finalBody.release();
         }
-        return targetChannels;
     }
 
-    private static void sendMessageToMultipleReceivers(Set<Channel> targets, StringMessage msg) {
-        for (Channel channel : targets) {
-            if (channel.isWritable()) {
-                channel.writeAndFlush(msg, channel.voidPromise());
+    /**
+     * Forwards body of the hardware message to the apps without decoding and re-encoding it.
+     * Body is not released by this method, every app channel gets own retained duplicate of it.
+     */
+    public void sendToApps(short cmd, int msgId, int dashId, int deviceId, ByteBuf body) {
+        if (isAppConnected()) {
+            DashPinStorageKey key = isCoalesced(cmd)
+                    ? coalescedKey(AppUpdatesBuffer.key(dashId, deviceId, body)) : null;
+            if (key != null) {
+                //pending update may wait for the whole window, so it shouldn't keep the inbound buffer
+                String prefix = prependDashIdAndDeviceId(dashId, deviceId, "");
+                ByteBuf finalBody = ByteBufAllocator.DEFAULT.buffer(prefix.length() + body.readableBytes());
+                finalBody.writeCharSequence(prefix, StandardCharsets.US_ASCII);
+                finalBody.writeBytes(body, body.readerIndex(), body.readableBytes());
+                coalesce(key, cmd, msgId, dashId, finalBody);
+                return;
+            }
+            ByteBuf finalBody = null;
+            try {
+                for (Channel channel : appChannels) {
+                    if (isSameDash(channel, dashId) && channel.isWritable()) {
+                        if (finalBody == null) {
+                            ByteBuf prefix = Unpooled.copiedBuffer(
+                                    prependDashIdAndDeviceId(dashId, deviceId, ""), StandardCharsets.US_ASCII);
+                            finalBody = Unpooled.wrappedBuffer(prefix, body.retainedSlice());
+                        }
+                        channel.writeAndFlush(new ByteBufMessage(msgId, cmd, finalBody.retainedDuplicate()),
+                                channel.voidPromise());
+                    }
+                }
+            } finally {
+                if (finalBody != null) {
+                    finalBody.release();
+                }
             }
         }
     }
 
-    private static void send(Set<Channel> targets, short cmd, int msgId, String body) {
-        StringMessage msg = makeUTF8StringMessage(cmd, msgId, body);
-        sendMessageToMultipleReceivers(targets, msg);
+    /**
+     * Sends batch of the hardware updates of the dashboard to the apps.
+     * Every app channel gets all of them with a single flush, or within own buffer when coalescing is enabled.
+     *
+     * @param deviceIds - device of the every body
+     */
+    public void sendToApps(short cmd, int msgId, int dashId, int[] deviceIds, String[] bodies) {
+        if (!isAppConnected()) {
+            return;
+        }
+        if (isCoalesced(cmd)) {
+            for (int i = 0; i < bodies.length; i++) {
+                sendToApps(cmd, msgId, dashId, deviceIds[i], bodies[i]);
+            }
+            return;
+        }
+        String[] finalBodies = new String[bodies.length];
+        for (int i = 0; i < bodies.length; i++) {
+            finalBodies[i] = prependDashIdAndDeviceId(dashId, deviceIds[i], bodies[i]);
+        }
+        Broadcast[] broadcasts = broadcasts(cmd, msgId, finalBodies);
+        try {
+            for (Channel channel : appChannels) {
+                if (isSameDash(channel, dashId) && channel.isWritable()) {
+                    for (Broadcast broadcast : broadcasts) {
+                        broadcast.queue(channel);
+                    }
+                    channel.flush();
+                }
+            }
+        } finally {
+            close(broadcasts);
+        }
     }
 
-    public void sendToSharedApps(Channel sendingChannel, String sharedToken, short cmd, int msgId, String body) {
-        Set<Channel> targetChannels = new HashSet<>();
-        for (Channel channel : appChannels) {
-            if (channel != sendingChannel && needSync(channel, sharedToken)) {
-                targetChannels.add(channel);
+    //app channels are not indexed, as main app works with all dashes and usually there are only few of them
+    public void sendToApps(short cmd, int msgId, int dashId, String finalBody) {
+        try (Broadcast broadcast = new Broadcast(cmd, msgId, finalBody)) {
+            for (Channel channel : appChannels) {
+                if (isSameDash(channel, dashId) && channel.isWritable()) {
+                    broadcast.write(channel);
+                }
             }
         }
+    }
+
+    private static void send(Set<Channel> targets, short cmd, int msgId, String body) {
+        try (Broadcast broadcast = new Broadcast(cmd, msgId, body)) {
+            for (Channel channel : targets) {
+                if (channel.isWritable()) {
+                    broadcast.write(channel);
+                }
+            }
+        }
+    }
 
-        int channelsNum = targetChannels.size();
-        if (channelsNum > 0) {
-            send(targetChannels, cmd, msgId, body);
+    public void sendToSharedApps(Channel sendingChannel, String sharedToken, short cmd, int msgId, String body) {
+        try (Broadcast broadcast = new Broadcast(cmd, msgId, body)) {
+            for (Channel channel : appChannels) {
+                if (channel != sendingChannel && channel.isWritable() && needSync(channel, sharedToken)) {
+                    broadcast.write(channel);
+                }
+            }
         }
     }
 
@@ -241,18 +470,14 @@ public class Session {
     }
 
     public void closeHardwareChannelByDeviceId(int dashId, int deviceId) {
-        for (Channel channel : hardwareChannels) {
-            if (isSameDashAndDeviceId(channel, dashId, deviceId)) {
-                channel.close();
-            }
+        for (Channel channel : getHardwareChannels(dashId, deviceId)) {
+            channel.close();
         }
     }
 
     public void closeHardwareChannelByDashId(int dashId) {
-        for (Channel channel : hardwareChannels) {
-            if (isSameDash(channel, dashId)) {
-                channel.close();
-            }
+        for (Channel channel : getHardwareChannels(dashId)) {
+            channel.close();
         }
     }
 
@@ -0,0 +1,115 @@
+package cc.blynk.server.core.model.serialization;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+/**
+ * Part of the json compressed separately, so it could be cached and joined with other parts
+ * into the single zlib stream without compressing it again.
+ *
+ * Every segment is raw deflate data ended with the sync flush, so segments are byte aligned and
+ * could be concatenated. Zlib stream is the header, the segments, the empty final block and
+ * adler32 of the whole data, combined from the checksums of the segments.
+ * Result is the same format {@link java.util.zip.DeflaterOutputStream} produces.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class DeflatedSegment {
+
+    private static final int ADLER_BASE = 65521;
+
+    //zlib header for the default compression level
+    private static final byte[] HEADER = {0x78, (byte) 0x9C};
+    //empty final block with the fixed huffman codes
+    private static final byte[] FINAL_BLOCK = {0x03, 0x00};
+
+    private final byte[] data;
+    private final int adler;
+    private final long length;
+
+    private DeflatedSegment(byte[] data, int adler, long length) {
+        this.data = data;
+        this.adler = adler;
+        this.length = length;
+    }
+
+    public static DeflatedSegment deflate(byte[] bytes) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(bytes);
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(bytes.length / 4 + 16);
+            byte[] buf = new byte[8192];
+            int written;
+            //in sync flush mode deflate should be called until output buffer is not filled completely
+            do {
+                written = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+                baos.write(buf, 0, written);
+            } while (written == buf.length);
+
+            Adler32 adler32 = new Adler32();
+            adler32.update(bytes);
+            return new DeflatedSegment(baos.toByteArray(), (int) adler32.getValue(), bytes.length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public int size() {
+        return data.length;
+    }
+
+    /**
+     * Joins segments into the zlib stream, that is inflated to the concatenated source data of the segments.
+     */
+    public static byte[] toZlib(DeflatedSegment... segments) {
+        int size = HEADER.length + FINAL_BLOCK.length + 4;
+        for (DeflatedSegment segment : segments) {
+            size += segment.data.length;
+        }
+
+        byte[] result = new byte[size];
+        System.arraycopy(HEADER, 0, result, 0, HEADER.length);
+        int position = HEADER.length;
+        long adler = 1;
+        for (DeflatedSegment segment : segments) {
+            System.arraycopy(segment.data, 0, result, position, segment.data.length);
+            position += segment.data.length;
+            adler = combineAdler(adler, segment.adler & 0xFFFFFFFFL, segment.length);
+        }
+        System.arraycopy(FINAL_BLOCK, 0, result, position, FINAL_BLOCK.length);
+        position += FINAL_BLOCK.length;
+
+        //adler32 is big endian
+        result[position++] = (byte) (adler >>> 24);
+        result[position++] = (byte) (adler >>> 16);
+        result[position++] = (byte) (adler >>> 8);
+        result[position] = (byte) adler;
+        return result;
+    }
+
+    //port of adler32_combine from zlib
+    static long combineAdler(long adler1, long adler2, long length2) {
+        long rem = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (rem * sum1) % ADLER_BASE;
+        sum1 += (adler2 & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + ADLER_BASE - rem;
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum2 >= (ADLER_BASE << 1)) {
+            sum2 -= (ADLER_BASE << 1);
+        }
+        if (sum2 >= ADLER_BASE) {
+            sum2 -= ADLER_BASE;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+}
@@ -8,6 +8,8 @@ import cc.blynk.server.core.model.auth.FacebookTokenResponse;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.device.Device;
 import cc.blynk.server.core.model.device.Tag;
+import cc.blynk.server.core.model.storage.key.DashPinStorageKey;
+import cc.blynk.server.core.model.storage.value.PinStorageValue;
 import cc.blynk.server.core.model.storage.value.SinglePinStorageValue;
 import cc.blynk.server.core.model.widgets.Widget;
 import cc.blynk.server.core.model.widgets.ui.reporting.Report;
@@ -15,7 +17,9 @@ import cc.blynk.server.core.model.widgets.ui.tiles.TileTemplate;
 import cc.blynk.server.core.protocol.exceptions.IllegalCommandBodyException;
 import cc.blynk.server.core.stats.model.Stat;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -29,9 +33,11 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collection;
+import java.util.Map;
 import java.util.StringJoiner;
 import java.util.zip.DeflaterOutputStream;
 
@@ -80,6 +86,23 @@ public final class JsonParser {
     private static final ObjectWriter restrictiveProfileWriter = init()
             .writerFor(Profile.class).withView(View.PublicOnly.class);
 
+    //dashboards of the profile are compressed and cached separately, see DeflatedSegment
+    private static final ObjectWriter profileWithoutDashesWriter = init()
+            .addMixIn(Profile.class, ProfileWithPinsWithoutDashes.class).writerFor(Profile.class);
+
+    private static final ObjectWriter restrictiveProfileWithoutDashesWriter = init()
+            .addMixIn(Profile.class, ProfileWithoutDashes.class).writerFor(Profile.class)
+            .withView(View.PublicOnly.class);
+
+    //pin values are stored separately from the user files, but the DB and the backups keep them in the profile
+    private static final ObjectMapper pinsMapper = init().addMixIn(Profile.class, ProfileWithPins.class);
+    private static final ObjectWriter userWithPinsWriter = pinsMapper.writerFor(User.class);
+    //app gets pin values within the profile, same as before they were moved out of the user files
+    private static final ObjectWriter profileWithPinsWriter = pinsMapper.writerFor(Profile.class);
+
+    private static final DeflatedSegment DASHES_START = deflate("{\"dashBoards\":[");
+    private static final DeflatedSegment COMMA = deflate(",");
+
     private static final ObjectWriter restrictiveWidgetWriter = init()
             .writerFor(Widget.class).withView(View.PublicOnly.class);
 
@@ -119,7 +142,72 @@ public final class JsonParser {
     }
 
     public static byte[] gzipProfile(Profile profile) {
-        return writeJsonAsCompressedBytes(profileWriter, profile);
+        return writeJsonAsCompressedBytes(profileWithPinsWriter, profile);
+    }
+
+    /**
+     * Same json as {@link #gzipProfile(Profile)}, but dashboards are taken from the dashboard cache.
+     * So only the changed dashboards are serialized and compressed.
+     */
+    public static byte[] gzipProfileCached(Profile profile, DashBoard[] dashes, boolean restrictive) {
+        if (dashes.length == 0) {
+            return restrictive ? gzipProfileRestrictive(profile) : gzipProfile(profile);
+        }
+        try {
+            String rest = (restrictive ? restrictiveProfileWithoutDashesWriter : profileWithoutDashesWriter)
+                    .writeValueAsString(profile);
+            DeflatedSegment[] segments = new DeflatedSegment[dashes.length * 2 + 1];
+            int i = 0;
+            segments[i++] = DASHES_START;
+            for (DashBoard dash : dashes) {
+                if (i > 1) {
+                    segments[i++] = COMMA;
+                }
+                segments[i++] = restrictive ? dash.getCompressedRestrictiveJson() : dash.getCompressedJson();
+            }
+            //rest of the profile fields, empty object in case there are none
+            segments[i] = deflate(rest.length() > 2 ? "]," + rest.substring(1) : "]}");
+            return DeflatedSegment.toZlib(segments);
+        } catch (Exception e) {
+            log.error("Error compressing data.", e);
+            return null;
+        }
+    }
+
+    public static byte[] gzipDashCached(DashBoard dash, boolean restrictive) {
+        try {
+            return DeflatedSegment.toZlib(restrictive ? dash.getCompressedRestrictiveJson() : dash.getCompressedJson());
+        } catch (Exception e) {
+            log.error("Error compressing data.", e);
+            return null;
+        }
+    }
+
+    public static DeflatedSegment deflateDash(DashBoard dash) throws IOException {
+        return DeflatedSegment.deflate(dashboardWriter.writeValueAsBytes(dash));
+    }
+
+    public static DeflatedSegment deflateDashRestrictive(DashBoard dash) throws IOException {
+        return DeflatedSegment.deflate(restrictiveDashWriter.writeValueAsBytes(dash));
+    }
+
+    private static DeflatedSegment deflate(String json) {
+        return DeflatedSegment.deflate(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @JsonIgnoreProperties("dashBoards")
+    private abstract static class ProfileWithoutDashes {
+    }
+
+    private abstract static class ProfileWithPins {
+        @JsonProperty("pinsStorage")
+        abstract Map<DashPinStorageKey, PinStorageValue> getPinsStorageValues();
+    }
+
+    @JsonIgnoreProperties("dashBoards")
+    private abstract static class ProfileWithPinsWithoutDashes {
+        @JsonProperty("pinsStorage")
+        abstract Map<DashPinStorageKey, PinStorageValue> getPinsStorageValues();
     }
 
     private static byte[] writeJsonAsCompressedBytes(ObjectWriter objectWriter, Object o) {
@@ -161,6 +249,14 @@ public final class JsonParser {
         userWriter.writeValue(file, user);
     }
 
+    public static void writeUserWithPins(File file, User user) throws IOException {
+        userWithPinsWriter.writeValue(file, user);
+    }
+
+    public static String toJsonWithPins(Profile profile) {
+        return toJson(profileWithPinsWriter, profile);
+    }
+
     private static String toJson(ObjectWriter writer, Object o) {
         try {
             return writer.writeValueAsString(o);
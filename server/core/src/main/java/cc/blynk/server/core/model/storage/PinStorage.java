@@ -0,0 +1,232 @@
+package cc.blynk.server.core.model.storage;
+
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.storage.key.DashPinStorageKey;
+import cc.blynk.server.core.model.storage.value.PinStorageValue;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Values of the pins without widgets and widget properties set by the hardware.
+ * Not a part of the profile json, stored in the separate file, see {@link PinStorageFile}.
+ *
+ * Values are grouped per device. Devices are indexed by the primitive (dashId, deviceId) key,
+ * lookups are lock and allocation free. New devices are added rarely, so every device add
+ * builds new table and publishes it via volatile field. Values of the device are kept in
+ * the concurrent map, as they are updated from the different event loops.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class PinStorage {
+
+    private static final int MIN_CAPACITY = 8;
+
+    private volatile Table table = new Table(MIN_CAPACITY);
+
+    //true when values were changed since the last snapshot
+    private volatile boolean changed;
+
+    private static long key(int dashId, int deviceId) {
+        return ((long) dashId << 32) | (deviceId & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return - values of the device, empty map in case device has no values. Map is live, should not be modified.
+     */
+    public Map<DashPinStorageKey, PinStorageValue> getDeviceValues(int dashId, int deviceId) {
+        DeviceValues deviceValues = table.get(key(dashId, deviceId));
+        return deviceValues == null ? Collections.emptyMap() : deviceValues.values;
+    }
+
+    public PinStorageValue get(DashPinStorageKey key) {
+        DeviceValues deviceValues = table.get(key(key.dashId, key.deviceId));
+        return deviceValues == null ? null : deviceValues.values.get(key);
+    }
+
+    public void put(DashPinStorageKey key, PinStorageValue value) {
+        getOrCreate(key.dashId, key.deviceId).values.put(key, value);
+        changed = true;
+    }
+
+    public void update(DashBoard dash, DashPinStorageKey key, String value) {
+        Map<DashPinStorageKey, PinStorageValue> values = getOrCreate(key.dashId, key.deviceId).values;
+        PinStorageValue pinStorageValue = values.get(key);
+        if (pinStorageValue == null) {
+            pinStorageValue = dash.initStorageValueForStorageKey(key);
+            PinStorageValue existing = values.putIfAbsent(key, pinStorageValue);
+            if (existing != null) {
+                pinStorageValue = existing;
+            }
+        }
+        pinStorageValue.update(value);
+        changed = true;
+    }
+
+    public void remove(DashPinStorageKey key) {
+        DeviceValues deviceValues = table.get(key(key.dashId, key.deviceId));
+        if (deviceValues != null && deviceValues.values.remove(key) != null) {
+            changed = true;
+        }
+    }
+
+    //removes values of the device from all dashboards
+    public synchronized void removeDevice(int deviceId) {
+        Table current = table;
+        Table result = new Table(current.keys.length);
+        boolean removed = false;
+        for (int i = 0; i < current.keys.length; i++) {
+            DeviceValues deviceValues = current.values[i];
+            if (deviceValues != null) {
+                if (deviceValues.deviceId == deviceId) {
+                    removed = true;
+                } else {
+                    result.put(current.keys[i], deviceValues);
+                }
+            }
+        }
+        if (removed) {
+            this.table = result;
+            changed = true;
+        }
+    }
+
+    public void forEach(int dashId, BiConsumer<DashPinStorageKey, PinStorageValue> consumer) {
+        for (DeviceValues deviceValues : table.values) {
+            if (deviceValues != null && deviceValues.dashId == dashId) {
+                deviceValues.values.forEach(consumer);
+            }
+        }
+    }
+
+    public void forEach(BiConsumer<DashPinStorageKey, PinStorageValue> consumer) {
+        for (DeviceValues deviceValues : table.values) {
+            if (deviceValues != null) {
+                deviceValues.values.forEach(consumer);
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (DeviceValues deviceValues : table.values) {
+            if (deviceValues != null) {
+                size += deviceValues.values.size();
+            }
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean isChanged() {
+        return changed;
+    }
+
+    /**
+     * Resets the changed flag before the snapshot, so changes made during the snapshot are not lost.
+     *
+     * @return - true in case values were changed since the last snapshot
+     */
+    public boolean takeChanged() {
+        if (!changed) {
+            return false;
+        }
+        changed = false;
+        return true;
+    }
+
+    public void markChanged() {
+        changed = true;
+    }
+
+    private DeviceValues getOrCreate(int dashId, int deviceId) {
+        long key = key(dashId, deviceId);
+        DeviceValues deviceValues = table.get(key);
+        if (deviceValues == null) {
+            deviceValues = add(key, dashId, deviceId);
+        }
+        return deviceValues;
+    }
+
+    private synchronized DeviceValues add(long key, int dashId, int deviceId) {
+        Table current = table;
+        DeviceValues deviceValues = current.get(key);
+        if (deviceValues != null) {
+            return deviceValues;
+        }
+        deviceValues = new DeviceValues(dashId, deviceId);
+        int capacity = current.keys.length;
+        if ((current.size + 1) * 2 > capacity) {
+            capacity <<= 1;
+        }
+        Table result = new Table(capacity);
+        for (int i = 0; i < current.keys.length; i++) {
+            if (current.values[i] != null) {
+                result.put(current.keys[i], current.values[i]);
+            }
+        }
+        result.put(key, deviceValues);
+        this.table = result;
+        return deviceValues;
+    }
+
+    private static final class DeviceValues {
+
+        private final int dashId;
+        private final int deviceId;
+        private final Map<DashPinStorageKey, PinStorageValue> values = new ConcurrentHashMap<>();
+
+        private DeviceValues(int dashId, int deviceId) {
+            this.dashId = dashId;
+            this.deviceId = deviceId;
+        }
+    }
+
+    //open addressing table with linear probing, empty slot has null value.
+    //table is filled only before it is published
+    private static final class Table {
+
+        private final long[] keys;
+        private final DeviceValues[] values;
+        private int size;
+
+        private Table(int capacity) {
+            this.keys = new long[capacity];
+            this.values = new DeviceValues[capacity];
+        }
+
+        private static int slot(long key, int mask) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+
+        DeviceValues get(long key) {
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask); values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+
+        private void put(long key, DeviceValues value) {
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            while (values[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+            size++;
+        }
+    }
+
+}
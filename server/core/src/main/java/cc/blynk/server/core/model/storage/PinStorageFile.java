@@ -0,0 +1,187 @@
+package cc.blynk.server.core.model.storage;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.enums.WidgetProperty;
+import cc.blynk.server.core.model.storage.key.DashPinPropertyStorageKey;
+import cc.blynk.server.core.model.storage.key.DashPinStorageKey;
+import cc.blynk.server.core.model.storage.value.MultiPinStorageValue;
+import cc.blynk.server.core.model.storage.value.MultiPinStorageValueType;
+import cc.blynk.server.core.model.storage.value.PinStorageValue;
+import cc.blynk.server.core.model.storage.value.SinglePinStorageValue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Binary file with the values of the {@link PinStorage} of one user.
+ *
+ * Format : magic (int), version (byte), records, end marker.
+ * Every record is tag byte (single value, multi value or property), dashId (int), deviceId (int),
+ * pin type (char), pin (short), property ordinal for property records, and the value.
+ * Multi value has type ordinal (byte), number of values (int) and values.
+ * Values are length prefixed utf-8 strings, null single value has -1 length.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class PinStorageFile {
+
+    private static final int MAGIC = 0x424C5053;
+    private static final byte VERSION = 1;
+
+    private static final byte END = 0;
+    private static final byte SINGLE = 1;
+    private static final byte MULTI = 2;
+    private static final byte PROPERTY = 3;
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private PinStorageFile() {
+    }
+
+    /**
+     * File is written to the temp file first and moved to the target only when completely written,
+     * so crash in the middle doesn't leave broken file.
+     */
+    public static void write(Path path, PinStorage pinStorage) throws IOException {
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tempPath), BUFFER_SIZE))) {
+            dos.writeInt(MAGIC);
+            dos.writeByte(VERSION);
+            pinStorage.forEach((key, value) -> {
+                try {
+                    writeRecord(dos, key, value);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            dos.writeByte(END);
+        } catch (UncheckedIOException e) {
+            Files.deleteIfExists(tempPath);
+            throw e.getCause();
+        } catch (IOException e) {
+            Files.deleteIfExists(tempPath);
+            throw e;
+        }
+        Files.move(tempPath, path, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    private static void writeRecord(DataOutputStream dos,
+                                    DashPinStorageKey key, PinStorageValue value) throws IOException {
+        if (key instanceof DashPinPropertyStorageKey) {
+            //properties are always single values
+            dos.writeByte(PROPERTY);
+            writeKey(dos, key);
+            dos.writeByte(((DashPinPropertyStorageKey) key).property.ordinal());
+            writeString(dos, value.toString());
+        } else if (value instanceof MultiPinStorageValue) {
+            MultiPinStorageValue multiPinStorageValue = (MultiPinStorageValue) value;
+            //copy, as values may be updated concurrently
+            String[] values = multiPinStorageValue.values.toArray(new String[0]);
+            dos.writeByte(MULTI);
+            writeKey(dos, key);
+            dos.writeByte(multiPinStorageValue.type.ordinal());
+            dos.writeInt(values.length);
+            for (String val : values) {
+                writeString(dos, val);
+            }
+        } else {
+            dos.writeByte(SINGLE);
+            writeKey(dos, key);
+            writeString(dos, ((SinglePinStorageValue) value).value);
+        }
+    }
+
+    private static void writeKey(DataOutputStream dos, DashPinStorageKey key) throws IOException {
+        dos.writeInt(key.dashId);
+        dos.writeInt(key.deviceId);
+        dos.writeChar(key.pinTypeChar);
+        dos.writeShort(key.pin);
+    }
+
+    /**
+     * Reads all values of the file to the storage.
+     *
+     * @return - number of values read
+     */
+    public static int read(Path path, PinStorage pinStorage) throws IOException {
+        try (DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE))) {
+            if (dis.readInt() != MAGIC) {
+                throw new IOException("Not a pin storage file " + path);
+            }
+            int version = dis.readByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported pin storage file version " + version + " in " + path);
+            }
+
+            WidgetProperty[] properties = WidgetProperty.getValues();
+            MultiPinStorageValueType[] multiTypes = MultiPinStorageValueType.values();
+            int records = 0;
+            byte tag;
+            while ((tag = dis.readByte()) != END) {
+                int dashId = dis.readInt();
+                int deviceId = dis.readInt();
+                PinType pinType = PinType.getPinType(dis.readChar());
+                short pin = dis.readShort();
+                switch (tag) {
+                    case SINGLE :
+                        pinStorage.put(new DashPinStorageKey(dashId, deviceId, pinType, pin),
+                                new SinglePinStorageValue(readString(dis)));
+                        break;
+                    case PROPERTY :
+                        WidgetProperty property = properties[dis.readByte()];
+                        pinStorage.put(new DashPinPropertyStorageKey(dashId, deviceId, pinType, pin, property),
+                                new SinglePinStorageValue(readString(dis)));
+                        break;
+                    case MULTI :
+                        MultiPinStorageValue value = new MultiPinStorageValue(multiTypes[dis.readByte()]);
+                        int size = dis.readInt();
+                        for (int i = 0; i < size; i++) {
+                            value.update(readString(dis));
+                        }
+                        pinStorage.put(new DashPinStorageKey(dashId, deviceId, pinType, pin), value);
+                        break;
+                    default :
+                        throw new IOException("Corrupted pin storage file " + path);
+                }
+                records++;
+            }
+            return records;
+        }
+    }
+
+    //values may be longer than the writeUTF limit
+    private static void writeString(DataOutputStream dos, String value) throws IOException {
+        if (value == null) {
+            dos.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        dos.writeInt(bytes.length);
+        dos.write(bytes);
+    }
+
+    private static String readString(DataInputStream dis) throws IOException {
+        int length = dis.readInt();
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        dis.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
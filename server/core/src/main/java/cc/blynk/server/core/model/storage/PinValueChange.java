@@ -0,0 +1,23 @@
+package cc.blynk.server.core.model.storage;
+
+import cc.blynk.server.core.model.storage.key.DashPinStorageKey;
+
+/**
+ * Pin value updated by the hardware that is not yet written to the profile journal.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class PinValueChange {
+
+    public final DashPinStorageKey key;
+    public final String value;
+    public final long ts;
+
+    public PinValueChange(DashPinStorageKey key, String value, long ts) {
+        this.key = key;
+        this.value = value;
+        this.ts = ts;
+    }
+}
@@ -14,7 +14,7 @@ import static cc.blynk.server.core.protocol.enums.Command.SET_WIDGET_PROPERTY;
  */
 public final class DashPinPropertyStorageKey extends DashPinStorageKey {
 
-    private final WidgetProperty property;
+    public final WidgetProperty property;
 
     private DashPinPropertyStorageKey(int dashId, int deviceId, char pinTypeChar, short pin, WidgetProperty property) {
         super(dashId, deviceId, pinTypeChar, pin);
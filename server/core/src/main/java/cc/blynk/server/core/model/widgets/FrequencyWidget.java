@@ -15,7 +15,7 @@ public interface FrequencyWidget {
 
     int getDeviceId();
 
-    boolean isTicked(long now);
+    int getFrequency();
 
     boolean hasReadingInterval();
 
@@ -1,6 +1,6 @@
 package cc.blynk.server.core.model.widgets;
 
-import io.netty.channel.ChannelHandlerContext;
+import cc.blynk.server.core.protocol.model.messages.MessageBatch;
 
 /**
  * Marker interface. Used in order to define if pin value from this widget should be sent back
@@ -12,6 +12,6 @@ import io.netty.channel.ChannelHandlerContext;
  */
 public interface HardwareSyncWidget {
 
-    void sendHardSync(ChannelHandlerContext ctx, int msgId, int deviceId);
+    void sendHardSync(MessageBatch batch, int msgId, int deviceId);
 
 }
@@ -5,8 +5,8 @@ import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.model.enums.WidgetProperty;
 import cc.blynk.server.core.model.serialization.JsonParser;
 import cc.blynk.server.core.model.widgets.ui.DeviceSelector;
+import cc.blynk.server.core.protocol.model.messages.MessageBatch;
 import io.netty.channel.Channel;
-import io.netty.channel.ChannelHandlerContext;
 
 import java.util.Iterator;
 
@@ -106,11 +106,11 @@ public abstract class OnePinWidget extends Widget implements MobileSyncWidget, H
     }
 
     @Override
-    public void sendHardSync(ChannelHandlerContext ctx, int msgId, int deviceId) {
+    public void sendHardSync(MessageBatch batch, int msgId, int deviceId) {
         if (this.deviceId == deviceId) {
             String body = makeHardwareBody();
             if (body != null) {
-                ctx.write(makeUTF8StringMessage(HARDWARE, msgId, body), ctx.voidPromise());
+                batch.add(HARDWARE, msgId, body);
             }
         }
     }
@@ -4,8 +4,8 @@ import cc.blynk.server.core.model.DataStream;
 import cc.blynk.server.core.model.enums.PinMode;
 import cc.blynk.server.core.model.widgets.HardwareSyncWidget;
 import cc.blynk.server.core.model.widgets.MultiPinWidget;
+import cc.blynk.server.core.protocol.model.messages.MessageBatch;
 import io.netty.channel.Channel;
-import io.netty.channel.ChannelHandlerContext;
 
 import static cc.blynk.server.core.protocol.enums.Command.APP_SYNC;
 import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
@@ -26,21 +26,19 @@ public class RGB extends MultiPinWidget implements HardwareSyncWidget {
     public int frequency;
 
     @Override
-    public void sendHardSync(ChannelHandlerContext ctx, int msgId, int deviceId) {
+    public void sendHardSync(MessageBatch batch, int msgId, int deviceId) {
         if (dataStreams == null || this.deviceId != deviceId) {
             return;
         }
         if (isSplitMode()) {
             for (DataStream dataStream : dataStreams) {
                 if (dataStream.notEmptyAndIsValid()) {
-                    ctx.write(makeUTF8StringMessage(HARDWARE, msgId,
-                            dataStream.makeHardwareBody()), ctx.voidPromise());
+                    batch.add(HARDWARE, msgId, dataStream.makeHardwareBody());
                 }
             }
         } else {
             if (dataStreams[0].notEmptyAndIsValid()) {
-                ctx.write(makeUTF8StringMessage(HARDWARE, msgId,
-                        dataStreams[0].makeHardwareBody()), ctx.voidPromise());
+                batch.add(HARDWARE, msgId, dataStreams[0].makeHardwareBody());
             }
         }
     }
@@ -10,9 +10,8 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
-import java.time.LocalDate;
+import java.time.Instant;
 import java.time.ZoneId;
-import java.time.ZonedDateTime;
 import java.util.Arrays;
 
 /**
@@ -23,6 +22,7 @@ import java.util.Arrays;
 public class TimerTime {
 
     private static final int[] ALL_DAYS = new int[] {1, 2, 3, 4, 5, 6, 7};
+    private static final int SECONDS_IN_DAY = 86400;
 
     public final int id;
 
@@ -49,10 +49,31 @@ public class TimerTime {
         this(0, ALL_DAYS, time, DateTimeUtils.UTC);
     }
 
-    public boolean isTickTime(ZonedDateTime currentDateTime) {
-        LocalDate userDate = currentDateTime.withZoneSameInstant(tzName).toLocalDate();
-        int dayOfWeek = userDate.getDayOfWeek().getValue();
-        return ArrayUtil.contains(days, dayOfWeek);
+    /**
+     * Time is UTC second of the day, while days are checked in the user timezone.
+     *
+     * @param fromEpochSecond - lower bound, inclusive.
+     * @return - first epoch second not before the given one when timer should be triggered,
+     *           or -1 when timer never triggers.
+     */
+    public long nextTickTime(long fromEpochSecond) {
+        if (time < 0 || time >= SECONDS_IN_DAY || days.length == 0) {
+            return -1;
+        }
+        ZoneId zoneId = tzName == null ? DateTimeUtils.UTC : tzName;
+        long tickTime = Math.floorDiv(fromEpochSecond, SECONDS_IN_DAY) * SECONDS_IN_DAY + time;
+        if (tickTime < fromEpochSecond) {
+            tickTime += SECONDS_IN_DAY;
+        }
+        //checking one week ahead is enough, as days repeat every week
+        for (int i = 0; i < 7; i++) {
+            int dayOfWeek = Instant.ofEpochSecond(tickTime).atZone(zoneId).getDayOfWeek().getValue();
+            if (ArrayUtil.contains(days, dayOfWeek)) {
+                return tickTime;
+            }
+            tickTime += SECONDS_IN_DAY;
+        }
+        return -1;
     }
 
     @Override
@@ -3,8 +3,8 @@ package cc.blynk.server.core.model.widgets.others.webhook;
 import cc.blynk.server.core.model.enums.PinMode;
 import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.model.widgets.OnePinWidget;
+import cc.blynk.server.core.protocol.model.messages.MessageBatch;
 import io.netty.channel.Channel;
-import io.netty.channel.ChannelHandlerContext;
 
 /**
  * The Blynk Project.
@@ -42,7 +42,7 @@ public class WebHook extends OnePinWidget {
     }
 
     @Override
-    public void sendHardSync(ChannelHandlerContext ctx, int msgId, int deviceId) {
+    public void sendHardSync(MessageBatch batch, int msgId, int deviceId) {
     }
 
     @Override
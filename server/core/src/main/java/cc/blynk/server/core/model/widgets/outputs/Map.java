@@ -4,9 +4,9 @@ import cc.blynk.server.core.model.enums.PinMode;
 import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.model.serialization.JsonParser;
 import cc.blynk.server.core.model.widgets.OnePinWidget;
+import cc.blynk.server.core.protocol.model.messages.MessageBatch;
 import cc.blynk.utils.structure.MapLimitedQueue;
 import io.netty.channel.Channel;
-import io.netty.channel.ChannelHandlerContext;
 
 import static cc.blynk.server.core.protocol.enums.Command.APP_SYNC;
 import static cc.blynk.server.internal.CommonByteBufUtil.makeUTF8StringMessage;
@@ -68,7 +68,7 @@ public class Map extends OnePinWidget {
     }
 
     @Override
-    public void sendHardSync(ChannelHandlerContext ctx, int msgId, int deviceId) {
+    public void sendHardSync(MessageBatch batch, int msgId, int deviceId) {
     }
 
     @Override
@@ -2,7 +2,7 @@ package cc.blynk.server.core.model.widgets.sensors;
 
 import cc.blynk.server.core.model.enums.PinMode;
 import cc.blynk.server.core.model.widgets.OnePinWidget;
-import io.netty.channel.ChannelHandlerContext;
+import cc.blynk.server.core.protocol.model.messages.MessageBatch;
 
 /**
  * The Blynk Project.
@@ -19,7 +19,7 @@ public class Barometer extends OnePinWidget {
     }
 
     @Override
-    public void sendHardSync(ChannelHandlerContext ctx, int msgId, int deviceId) {
+    public void sendHardSync(MessageBatch batch, int msgId, int deviceId) {
     }
 
     @Override
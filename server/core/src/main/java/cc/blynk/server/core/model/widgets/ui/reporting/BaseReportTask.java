@@ -12,22 +12,24 @@ import cc.blynk.utils.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipOutputStream;
 
 import static cc.blynk.utils.StringUtils.truncateFileName;
-import static java.nio.charset.StandardCharsets.UTF_16;
 
 /**
  * The Blynk Project.
@@ -49,17 +51,21 @@ public abstract class BaseReportTask implements Runnable {
 
     private final String downloadUrl;
 
-    private static final Charset REPORT_ENCODING = UTF_16;
-    private static final int size = 64 * 1024;
+    private final ExecutorService partsExecutor;
 
-    protected BaseReportTask(User user, int dashId, Report report,
-                             MailWrapper mailWrapper, ReportingDiskDao reportingDiskDao,
-                             String downloadUrl) {
+    private final int partsThreads;
+
+    //parts are encoded without BOM, so it is written once at the beginning of the every entry
+    private static final byte[] BYTE_ORDER_MARK = {(byte) 0xFE, (byte) 0xFF};
+
+    protected BaseReportTask(User user, int dashId, Report report, ReportScheduler reportScheduler) {
         this.key = new ReportTaskKey(user, dashId, report.id);
         this.report = report;
-        this.mailWrapper = mailWrapper;
-        this.reportingDiskDao = reportingDiskDao;
-        this.downloadUrl = downloadUrl;
+        this.mailWrapper = reportScheduler.mailWrapper;
+        this.reportingDiskDao = reportScheduler.reportingDao;
+        this.downloadUrl = reportScheduler.downloadUrl;
+        this.partsExecutor = reportScheduler.partsExecutor;
+        this.partsThreads = reportScheduler.partsThreads;
     }
 
     private static String deviceAndPinFileName(String deviceName, int deviceId, ReportDataStream reportDataStream) {
@@ -75,12 +81,21 @@ public abstract class BaseReportTask implements Runnable {
     public void run() {
         try {
             report.lastReportAt = generateReport();
+            reportUpdated();
             log.debug(report);
         } catch (Exception e) {
             log.debug("Error generating report {} for {}.", report, key.user.email, e);
         }
     }
 
+    //report state is a part of the dashboard json, so cached json of the dashboard is outdated
+    protected void reportUpdated() {
+        DashBoard dash = key.user.profile.getDashById(key.dashId);
+        if (dash != null) {
+            dash.updatedAt = System.currentTimeMillis();
+        }
+    }
+
     private void sendEmail(Path output) throws Exception {
         String durationLabel = report.reportType.getDurationLabel().toLowerCase();
         String subj = "Your " + durationLabel + " " + report.getReportName() + " is ready";
@@ -150,119 +165,156 @@ public abstract class BaseReportTask implements Runnable {
 
     private boolean merged(Path output, Profile profile, DashBoard dash,
                            int fetchCount, long startFrom) throws Exception {
-        boolean atLeastOne = false;
-        try (ZipOutputStream zipStream = new ZipOutputStream(Files.newOutputStream(output));
-             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(zipStream, REPORT_ENCODING), size)) {
-            String fileName = truncateFileName(report.getReportName()) + ".csv";
-            ZipEntry zipEntry = new ZipEntry(fileName);
-            zipStream.putNextEntry(zipEntry);
-            for (ReportSource reportSource : report.reportSources) {
-                if (reportSource.isValid()) {
-                    for (int deviceId : reportSource.getDeviceIds()) {
-                        String deviceName = profile.getCSVDeviceName(dash, deviceId);
-                        for (ReportDataStream reportDataStream : reportSource.reportDataStreams) {
-                            if (reportDataStream.isValid()) {
-                                ByteBuffer onePinData = reportingDiskDao.getByteBufferFromDisk(key.user,
-                                        key.dashId, deviceId, reportDataStream.pinType,
-                                        reportDataStream.pin, fetchCount, report.granularityType, 0);
-
-                                if (onePinData != null) {
-                                    String pin = reportDataStream.formatAndEscapePin();
-                                    atLeastOne = FileUtils.writeBufToCsvFilterAndFormat(writer,
-                                            onePinData, pin, deviceName, startFrom, report.makeFormatter());
-                                }
-                            }
+        String fileName = truncateFileName(report.getReportName()) + ".csv";
+        List<ReportPart> parts = new ArrayList<>();
+        for (ReportSource reportSource : report.reportSources) {
+            if (reportSource.isValid()) {
+                for (int deviceId : reportSource.getDeviceIds()) {
+                    String deviceName = profile.getCSVDeviceName(dash, deviceId);
+                    for (ReportDataStream reportDataStream : reportSource.reportDataStreams) {
+                        if (reportDataStream.isValid()) {
+                            parts.add(new ReportPart(fileName, deviceId, reportDataStream,
+                                    reportDataStream.formatAndEscapePin(), deviceName));
                         }
                     }
                 }
             }
-            zipStream.closeEntry();
         }
-        return atLeastOne;
+        //merged report always has the one entry, even when it is empty
+        return writeParts(output, parts, false, fetchCount, startFrom);
     }
 
     private boolean filePerDevice(Path output, Profile profile,
                                   DashBoard dash, int fetchCount, long startFrom) throws Exception {
-        boolean atLeastOne = false;
-        try (ZipOutputStream zipStream = new ZipOutputStream(Files.newOutputStream(output));
-             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(zipStream, REPORT_ENCODING), size)) {
-            for (ReportSource reportSource : report.reportSources) {
-                if (reportSource.isValid()) {
-                    for (int deviceId : reportSource.getDeviceIds()) {
-                        String deviceName = profile.getDeviceName(dash, deviceId);
-                        String deviceFileName = deviceFileName(deviceName, deviceId);
-                        ZipEntry zipEntry = new ZipEntry(deviceFileName);
-                        zipStream.putNextEntry(zipEntry);
-                        for (ReportDataStream reportDataStream : reportSource.reportDataStreams) {
-                            if (reportDataStream.isValid()) {
-                                ByteBuffer onePinData = reportingDiskDao.getByteBufferFromDisk(key.user,
-                                        key.dashId, deviceId, reportDataStream.pinType,
-                                        reportDataStream.pin, fetchCount, report.granularityType, 0);
-
-                                if (onePinData != null) {
-                                    String pin = reportDataStream.formatAndEscapePin();
-                                    atLeastOne = FileUtils.writeBufToCsvFilterAndFormat(writer,
-                                            onePinData, pin, startFrom, report.makeFormatter());
-                                }
-                            }
+        List<ReportPart> parts = new ArrayList<>();
+        for (ReportSource reportSource : report.reportSources) {
+            if (reportSource.isValid()) {
+                for (int deviceId : reportSource.getDeviceIds()) {
+                    String deviceName = profile.getDeviceName(dash, deviceId);
+                    String deviceFileName = deviceFileName(deviceName, deviceId);
+                    for (ReportDataStream reportDataStream : reportSource.reportDataStreams) {
+                        if (reportDataStream.isValid()) {
+                            parts.add(new ReportPart(deviceFileName, deviceId, reportDataStream,
+                                    reportDataStream.formatAndEscapePin(), null));
                         }
-                        zipStream.closeEntry();
                     }
                 }
             }
         }
-        return atLeastOne;
+        return writeParts(output, parts, false, fetchCount, startFrom);
     }
 
     private boolean filePerDevicePerPin(Path output, Profile profile,
                                         DashBoard dash, int fetchCount, long startFrom) throws Exception {
+        List<ReportPart> parts = new ArrayList<>();
+        for (ReportSource reportSource : report.reportSources) {
+            if (reportSource.isValid()) {
+                for (int deviceId : reportSource.getDeviceIds()) {
+                    String deviceName = profile.getDeviceName(dash, deviceId);
+                    for (ReportDataStream reportDataStream : reportSource.reportDataStreams) {
+                        if (reportDataStream.isValid()) {
+                            String onePinFileName = deviceAndPinFileName(deviceName, deviceId, reportDataStream);
+                            parts.add(new ReportPart(onePinFileName, deviceId, reportDataStream, null, null));
+                        }
+                    }
+                }
+            }
+        }
+        return writeParts(output, parts, true, fetchCount, startFrom);
+    }
+
+    /**
+     * Parts are generated in parallel, not more than 2 parts per generation thread at once,
+     * so memory is bounded for the big reports. Zip stream is sequential, so parts are compressed
+     * in the report order by the current thread. Consecutive parts with the same entry name go to one entry,
+     * unless every part has own entry, in that case empty parts are skipped.
+     */
+    private boolean writeParts(Path output, List<ReportPart> parts, boolean entryPerPart,
+                               int fetchCount, long startFrom) throws Exception {
+        long start = System.currentTimeMillis();
+        DateTimeFormatter formatter = report.makeFormatter();
+        int maxInFlight = partsThreads * 2;
+        ArrayDeque<Future<byte[]>> inFlight = new ArrayDeque<>(maxInFlight);
+
         boolean atLeastOne = false;
+        int entries = 0;
+        long csvBytes = 0;
         try (ZipOutputStream zipStream = new ZipOutputStream(Files.newOutputStream(output))) {
-            for (ReportSource reportSource : report.reportSources) {
-                if (reportSource.isValid()) {
-                    for (int deviceId : reportSource.getDeviceIds()) {
-                        String deviceName = profile.getDeviceName(dash, deviceId);
-                        for (ReportDataStream reportDataStream : reportSource.reportDataStreams) {
-                            if (reportDataStream.isValid()) {
-                                ByteBuffer onePinData = reportingDiskDao.getByteBufferFromDisk(key.user,
-                                        key.dashId, deviceId, reportDataStream.pinType,
-                                        reportDataStream.pin, fetchCount, report.granularityType, 0);
-
-                                if (onePinData != null) {
-                                    String onePinDataCsv = FileUtils.writeBufToCsvFilterAndFormat(onePinData,
-                                            startFrom, report.makeFormatter());
-                                    if (onePinDataCsv.length() > 0) {
-                                        String onePinFileName =
-                                                deviceAndPinFileName(deviceName, deviceId, reportDataStream);
-                                        addZipEntryAndWrite(zipStream, onePinFileName,
-                                                onePinDataCsv.getBytes(REPORT_ENCODING));
-                                        atLeastOne = true;
-                                    }
-                                }
-                            }
-                        }
+            int submitted = 0;
+            String entryName = null;
+            boolean entryOpened = false;
+            for (ReportPart part : parts) {
+                while (submitted < parts.size() && inFlight.size() < maxInFlight) {
+                    ReportPart next = parts.get(submitted++);
+                    inFlight.add(partsExecutor.submit(() ->
+                            next.generate(reportingDiskDao, key, fetchCount,
+                                    report.granularityType, startFrom, formatter)));
+                }
+                byte[] data = getPart(inFlight.poll());
+
+                if (entryPerPart || !part.entryName.equals(entryName)) {
+                    if (entryOpened) {
+                        zipStream.closeEntry();
+                        entryOpened = false;
                     }
+                    entryName = part.entryName;
+                    if (entryPerPart && data.length == 0) {
+                        continue;
+                    }
+                    entryOpened = putNextEntry(zipStream, entryName);
+                    if (entryOpened) {
+                        zipStream.write(BYTE_ORDER_MARK);
+                        csvBytes += BYTE_ORDER_MARK.length;
+                        entries++;
+                    }
+                }
+
+                if (entryOpened && data.length > 0) {
+                    zipStream.write(data);
+                    csvBytes += data.length;
+                    atLeastOne = true;
                 }
             }
+            if (entryOpened) {
+                zipStream.closeEntry();
+            }
+        } finally {
+            for (Future<byte[]> future : inFlight) {
+                future.cancel(true);
+            }
         }
+
+        log.debug("Report {} for {} generated in {} ms. Entries : {}, csv size : {}, zip size : {}.",
+                report.id, key.user.email, System.currentTimeMillis() - start,
+                entries, csvBytes, Files.size(output));
         return atLeastOne;
     }
 
-    private void addZipEntryAndWrite(ZipOutputStream zipStream,
-                                        String onePinFileName, byte[] onePinDataCsv) throws IOException {
-        ZipEntry zipEntry = new ZipEntry(onePinFileName);
+    private static byte[] getPart(Future<byte[]> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    private boolean putNextEntry(ZipOutputStream zipStream, String fileName) throws IOException {
+        ZipEntry zipEntry = new ZipEntry(fileName);
         try {
             zipStream.putNextEntry(zipEntry);
-            zipStream.write(onePinDataCsv);
-            zipStream.closeEntry();
+            return true;
         } catch (ZipException zipException) {
             String message = zipException.getMessage();
             if (message != null && message.contains("duplicate")) {
-                log.warn("Duplicate zip entry {}. Wrong report configuration.", onePinFileName);
-            } else {
-                log.error("Error compressing report file.", message);
-                throw zipException;
+                log.warn("Duplicate zip entry {}. Wrong report configuration.", fileName);
+                return false;
             }
+            log.error("Error compressing report file.", message);
+            throw zipException;
         } catch (IOException e) {
             log.error("Error compressing report file.", e.getMessage());
             throw e;
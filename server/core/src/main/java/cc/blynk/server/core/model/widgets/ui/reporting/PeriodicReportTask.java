@@ -16,9 +16,7 @@ public class PeriodicReportTask extends BaseReportTask {
     private final ReportScheduler reportScheduler;
 
     PeriodicReportTask(User user, int dashId, Report report, ReportScheduler reportScheduler) {
-        super(user, dashId, report,
-                reportScheduler.mailWrapper, reportScheduler.reportingDao,
-                reportScheduler.downloadUrl);
+        super(user, dashId, report, reportScheduler);
         this.reportScheduler = reportScheduler;
     }
 
@@ -28,10 +26,12 @@ public class PeriodicReportTask extends BaseReportTask {
             long finishedAt = generateReport();
             report.lastReportAt = finishedAt;
             reschedule(finishedAt);
+            reportUpdated();
             log.debug("After rescheduling: {}", report);
         } catch (IllegalCommandBodyException ice) {
             log.info("Seems like report is expired for {}.", key.user.email);
             report.lastRunResult = ReportResult.EXPIRED;
+            reportUpdated();
         } catch (Exception e) {
             log.debug("Error generating report {} for {}.", report, key.user.email, e);
         }
@@ -0,0 +1,96 @@
+package cc.blynk.server.core.model.widgets.ui.reporting;
+
+import cc.blynk.server.core.dao.ReportingDiskDao;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.model.widgets.ui.reporting.source.ReportDataStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+import static java.nio.charset.StandardCharsets.UTF_16BE;
+
+/**
+ * Data of the one pin of the one device within the report.
+ * Part is generated independently from others, so parts of the report are generated in parallel
+ * and are written to the zip entries in the report order.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+final class ReportPart {
+
+    //parts are concatenated within the entry, so byte order mark is written once per entry
+    static final Charset PART_ENCODING = UTF_16BE;
+
+    private static final int CHUNK_RECORDS = 4096;
+
+    final String entryName;
+    private final int deviceId;
+    private final ReportDataStream reportDataStream;
+    //null when column is not part of the output
+    private final String pinColumn;
+    private final String deviceColumn;
+
+    ReportPart(String entryName, int deviceId, ReportDataStream reportDataStream,
+               String pinColumn, String deviceColumn) {
+        this.entryName = entryName;
+        this.deviceId = deviceId;
+        this.reportDataStream = reportDataStream;
+        this.pinColumn = pinColumn;
+        this.deviceColumn = deviceColumn;
+    }
+
+    /**
+     * Reads pin file chunk by chunk and formats records into csv rows.
+     *
+     * @return - encoded csv rows, empty array when there is no data.
+     */
+    byte[] generate(ReportingDiskDao reportingDiskDao, ReportTaskKey key, int fetchCount,
+                    GraphGranularityType granularityType, long startFrom,
+                    DateTimeFormatter formatter) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter(out, PART_ENCODING);
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_RECORDS * SIZE_OF_REPORT_ENTRY);
+        StringBuilder rows = new StringBuilder(CHUNK_RECORDS * 32);
+
+        reportingDiskDao.readFromDisk(key.user, key.dashId, deviceId,
+                reportDataStream.pinType, reportDataStream.pin, fetchCount, granularityType, startFrom,
+                chunk, records -> {
+                    rows.setLength(0);
+                    while (records.remaining() > 0) {
+                        double value = records.getDouble();
+                        long ts = records.getLong();
+                        appendRow(rows, formatter, ts, value);
+                    }
+                    writer.append(rows);
+                });
+
+        writer.flush();
+        return out.toByteArray();
+    }
+
+    private void appendRow(StringBuilder rows, DateTimeFormatter formatter, long ts, double value) {
+        if (formatter == null) {
+            rows.append(ts);
+        } else {
+            formatter.formatTo(Instant.ofEpochMilli(ts), rows);
+        }
+        rows.append(',');
+        if (pinColumn != null) {
+            rows.append(pinColumn).append(',');
+        }
+        if (deviceColumn != null) {
+            rows.append(deviceColumn).append(',');
+        }
+        rows.append(value).append('\n');
+    }
+
+}
@@ -1,10 +1,10 @@
 package cc.blynk.server.core.model.widgets.ui.reporting;
 
 import cc.blynk.server.core.dao.ReportingDiskDao;
+import cc.blynk.server.core.dao.StartupIndex;
 import cc.blynk.server.core.dao.UserKey;
 import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.auth.User;
-import cc.blynk.server.core.model.widgets.Widget;
 import cc.blynk.server.core.protocol.exceptions.IllegalCommandBodyException;
 import cc.blynk.server.notifications.mail.MailWrapper;
 import cc.blynk.utils.BlynkTPFactory;
@@ -12,8 +12,11 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -35,8 +38,22 @@ public class ReportScheduler extends ScheduledThreadPoolExecutor {
     public final ReportingDiskDao reportingDao;
     public final String downloadUrl;
 
+    //report parts (one device pin each) are read and formatted in parallel within this pool
+    public final ExecutorService partsExecutor;
+    public final int partsThreads;
+
     public ReportScheduler(int corePoolSize, String downloadUrl,
                            MailWrapper mailWrapper, ReportingDiskDao reportingDao, Map<UserKey, User> users) {
+        this(corePoolSize, 1, downloadUrl, mailWrapper, reportingDao, users);
+    }
+
+    public ReportScheduler(int corePoolSize, int partsThreads, String downloadUrl,
+                           MailWrapper mailWrapper, ReportingDiskDao reportingDao, Map<UserKey, User> users) {
+        this(corePoolSize, partsThreads, downloadUrl, mailWrapper, reportingDao, StartupIndex.of(users));
+    }
+
+    public ReportScheduler(int corePoolSize, int partsThreads, String downloadUrl,
+                           MailWrapper mailWrapper, ReportingDiskDao reportingDao, StartupIndex index) {
         super(corePoolSize,  BlynkTPFactory.build("report"));
         setRemoveOnCancelPolicy(true);
         setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
@@ -44,46 +61,43 @@ public class ReportScheduler extends ScheduledThreadPoolExecutor {
         this.downloadUrl = downloadUrl;
         this.mailWrapper = mailWrapper;
         this.reportingDao = reportingDao;
-        init(users);
+        this.partsThreads = Math.max(1, partsThreads);
+        this.partsExecutor = Executors.newFixedThreadPool(this.partsThreads, BlynkTPFactory.build("report-parts"));
+        init(index);
     }
 
-    private void init(Map<UserKey, User> users) {
+    private void init(StartupIndex index) {
         int counter = 0;
-        for (Map.Entry<UserKey, User> entry : users.entrySet()) {
-            User user = entry.getValue();
-            for (DashBoard dashBoard : user.profile.dashBoards) {
-                for (Widget widget : dashBoard.widgets) {
-                    if (widget instanceof ReportingWidget) {
-                        ReportingWidget reportingWidget = (ReportingWidget) widget;
-                        for (Report report : reportingWidget.reports) {
-                            if (report.isValid() && report.isPeriodic() && report.isActive) {
-                                try {
-                                    long now = System.currentTimeMillis();
-                                    long initialDelaySeconds;
-
-                                    if (report.nextReportAt < now && report.lastRunResult != EXPIRED) {
-                                        //this is special case, when we restart server we may miss some reports
-                                        //while the server is down, so we perform checks and run those reports,
-                                        //so we are sure we didn't miss any report.
-                                        log.warn("Rescheduling missed report {} for {}.", report, user.email);
-                                        initialDelaySeconds = 0;
-                                    } else {
-                                        initialDelaySeconds = report.calculateDelayInSeconds();
-                                        log.trace("Adding periodic report for user {} with delay {} to scheduler.",
-                                                user.email, initialDelaySeconds);
-                                        report.nextReportAt = now + initialDelaySeconds * 1000;
-                                    }
-                                    schedule(user, dashBoard.id, report, initialDelaySeconds);
-                                    counter++;
-                                } catch (IllegalCommandBodyException e) {
-                                    report.lastRunResult = EXPIRED;
-                                    log.debug("Report is expired for {}, {}", user.email, report.id);
-                                } catch (Exception e) {
-                                    report.lastRunResult = ReportResult.ERROR;
-                                    log.debug("Error scheduling report for {}, {}", user.email, report.id);
-                                }
-                            }
+        for (StartupIndex.UserWidget userWidget : index.reportingWidgets) {
+            User user = userWidget.user;
+            DashBoard dashBoard = userWidget.dash;
+            ReportingWidget reportingWidget = (ReportingWidget) userWidget.widget;
+            for (Report report : reportingWidget.reports) {
+                if (report.isValid() && report.isPeriodic() && report.isActive) {
+                    try {
+                        long now = System.currentTimeMillis();
+                        long initialDelaySeconds;
+
+                        if (report.nextReportAt < now && report.lastRunResult != EXPIRED) {
+                            //this is special case, when we restart server we may miss some reports
+                            //while the server is down, so we perform checks and run those reports,
+                            //so we are sure we didn't miss any report.
+                            log.warn("Rescheduling missed report {} for {}.", report, user.email);
+                            initialDelaySeconds = 0;
+                        } else {
+                            initialDelaySeconds = report.calculateDelayInSeconds();
+                            log.trace("Adding periodic report for user {} with delay {} to scheduler.",
+                                    user.email, initialDelaySeconds);
+                            report.nextReportAt = now + initialDelaySeconds * 1000;
                         }
+                        schedule(user, dashBoard.id, report, initialDelaySeconds);
+                        counter++;
+                    } catch (IllegalCommandBodyException e) {
+                        report.lastRunResult = EXPIRED;
+                        log.debug("Report is expired for {}, {}", user.email, report.id);
+                    } catch (Exception e) {
+                        report.lastRunResult = ReportResult.ERROR;
+                        log.debug("Error scheduling report for {}, {}", user.email, report.id);
                     }
                 }
             }
@@ -109,6 +123,20 @@ public class ReportScheduler extends ScheduledThreadPoolExecutor {
         return scheduledFuture;
     }
 
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        partsExecutor.shutdown();
+    }
+
+    //parts of the interrupted reports are not needed anymore, so they are dropped as well
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> notStarted = super.shutdownNow();
+        partsExecutor.shutdownNow();
+        return notStarted;
+    }
+
     public void cancelStoredFuture(User user, int dashId) {
         Iterator<Map.Entry<ReportTaskKey, ScheduledFuture<?>>> iter = map.entrySet().iterator();
         while (iter.hasNext()) {
@@ -6,9 +6,9 @@ import cc.blynk.server.core.model.storage.value.MultiPinStorageValue;
 import cc.blynk.server.core.model.storage.value.MultiPinStorageValueType;
 import cc.blynk.server.core.model.storage.value.PinStorageValue;
 import cc.blynk.server.core.model.widgets.OnePinWidget;
+import cc.blynk.server.core.protocol.model.messages.MessageBatch;
 import cc.blynk.utils.structure.TableLimitedQueue;
 import io.netty.channel.Channel;
-import io.netty.channel.ChannelHandlerContext;
 
 import java.util.Iterator;
 
@@ -35,7 +35,7 @@ public class Table extends OnePinWidget {
     public boolean isClickableRows;
 
     @Override
-    public void sendHardSync(ChannelHandlerContext ctx, int msgId, int deviceId) {
+    public void sendHardSync(MessageBatch batch, int msgId, int deviceId) {
     }
 
     @Override
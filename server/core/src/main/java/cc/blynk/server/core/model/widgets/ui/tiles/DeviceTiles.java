@@ -9,9 +9,9 @@ import cc.blynk.server.core.model.widgets.MobileSyncWidget;
 import cc.blynk.server.core.model.widgets.Widget;
 import cc.blynk.server.core.model.widgets.outputs.TextAlignment;
 import cc.blynk.server.core.protocol.exceptions.IllegalCommandException;
+import cc.blynk.server.core.protocol.model.messages.MessageBatch;
 import cc.blynk.utils.ArrayUtil;
 import io.netty.channel.Channel;
-import io.netty.channel.ChannelHandlerContext;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -178,12 +178,12 @@ public class DeviceTiles extends Widget implements MobileSyncWidget, HardwareSyn
     }
 
     @Override
-    public void sendHardSync(ChannelHandlerContext ctx, int msgId, int deviceId) {
+    public void sendHardSync(MessageBatch batch, int msgId, int deviceId) {
         for (Tile tile : tiles) {
             if (tile.deviceId == deviceId && tile.isValidDataStream() && tile.dataStream.isNotEmpty()) {
                 String body = tile.dataStream.makeHardwareBody();
                 if (body != null) {
-                    ctx.write(makeUTF8StringMessage(HARDWARE, msgId, body), ctx.voidPromise());
+                    batch.add(HARDWARE, msgId, body);
                 }
             }
         }
@@ -21,8 +21,6 @@ public class Tile {
     @JsonProperty("pin")
     public final DataStream dataStream;
 
-    private transient long lastRequestTS;
-
     @JsonCreator
     public Tile(@JsonProperty("deviceId") int deviceId,
                 @JsonProperty("templateId") long templateId,
@@ -62,13 +60,4 @@ public class Tile {
             dataStream.value = null;
         }
     }
-
-    public boolean isTicked(long now) {
-        //todo 1000 is hardcoded for now
-        if (now >= lastRequestTS + 1000) {
-            this.lastRequestTS = now;
-            return true;
-        }
-        return false;
-    }
 }
@@ -4,6 +4,7 @@ import cc.blynk.server.Limits;
 import cc.blynk.server.core.protocol.enums.Command;
 import cc.blynk.server.core.protocol.model.messages.MessageBase;
 import cc.blynk.server.core.protocol.model.messages.ResponseMessage;
+import cc.blynk.server.core.protocol.model.messages.common.HardwareByteBufMessage;
 import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.server.core.stats.metrics.InstanceLoadMeter;
 import cc.blynk.server.internal.QuotaLimitChecker;
@@ -29,6 +30,8 @@ public class MessageDecoder extends ByteToMessageDecoder {
 
     private static final Logger log = LogManager.getLogger(MessageDecoder.class);
 
+    public static final int PROTOCOL_HEADER_SIZE = 5;
+
     private final GlobalStats stats;
     private final QuotaLimitChecker limitChecker;
 
@@ -39,7 +42,7 @@ public class MessageDecoder extends ByteToMessageDecoder {
 
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
-        if (in.readableBytes() < 5) {
+        if (in.readableBytes() < PROTOCOL_HEADER_SIZE) {
             return;
         }
 
@@ -62,7 +65,13 @@ public class MessageDecoder extends ByteToMessageDecoder {
                 return;
             }
 
-            message = produce(messageId, command, (String) in.readCharSequence(codeOrLength, CharsetUtil.UTF_8));
+            if (command == Command.HARDWARE) {
+                //hardware commands are the most frequent ones, so body is kept in the buffer
+                //and forwarded to the apps as is
+                message = new HardwareByteBufMessage(messageId, in.readRetainedSlice(codeOrLength));
+            } else {
+                message = produce(messageId, command, (String) in.readCharSequence(codeOrLength, CharsetUtil.UTF_8));
+            }
         }
 
         log.trace("Incoming {}", message);
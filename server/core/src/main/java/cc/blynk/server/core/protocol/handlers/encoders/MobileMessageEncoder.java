@@ -1,11 +1,14 @@
 package cc.blynk.server.core.protocol.handlers.encoders;
 
+import cc.blynk.server.core.protocol.handlers.decoders.MobileMessageDecoder;
+import cc.blynk.server.core.protocol.model.messages.ByteBufMessage;
 import cc.blynk.server.core.protocol.model.messages.MessageBase;
 import cc.blynk.server.core.protocol.model.messages.ResponseMessage;
 import cc.blynk.server.core.stats.GlobalStats;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.MessageToByteEncoder;
 
 /**
@@ -24,6 +27,23 @@ public class MobileMessageEncoder extends MessageToByteEncoder<MessageBase> {
         this.stats = stats;
     }
 
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof ByteBufMessage) {
+            ByteBufMessage message = (ByteBufMessage) msg;
+            stats.mark(message.command);
+
+            ByteBuf header = ctx.alloc().buffer(MobileMessageDecoder.PROTOCOL_APP_HEADER_SIZE);
+            header.writeByte(message.command);
+            header.writeShort(message.id);
+            header.writeInt(message.body.readableBytes());
+            //body ownership is transferred to the composite buffer, so no copy here
+            ctx.write(ctx.alloc().compositeBuffer(2).addComponents(true, header, message.body), promise);
+        } else {
+            super.write(ctx, msg, promise);
+        }
+    }
+
     @Override
     protected void encode(ChannelHandlerContext ctx, MessageBase message, ByteBuf out) {
         out.writeByte(message.command);
@@ -1,5 +1,6 @@
 package cc.blynk.server.core.protocol.handlers.encoders;
 
+import cc.blynk.server.core.protocol.model.messages.ByteBufMessage;
 import cc.blynk.server.core.protocol.model.messages.MessageBase;
 import cc.blynk.server.core.protocol.model.messages.ResponseMessage;
 import io.netty.buffer.ByteBuf;
@@ -27,7 +28,15 @@ public class WSMessageEncoder extends ChannelOutboundHandlerAdapter {
     @Override
     public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
         log.debug("In webapp socket encoder {}", msg);
-        if (msg instanceof MessageBase) {
+        if (msg instanceof ByteBufMessage) {
+            ByteBufMessage message = (ByteBufMessage) msg;
+            ByteBuf header = ctx.alloc().buffer(3);
+            header.writeByte(message.command);
+            header.writeShort(message.id);
+            //body ownership is transferred to the composite buffer, so no copy here
+            ByteBuf out = ctx.alloc().compositeBuffer(2).addComponents(true, header, message.body);
+            super.write(ctx, new BinaryWebSocketFrame(out), promise);
+        } else if (msg instanceof MessageBase) {
             MessageBase message = (MessageBase) msg;
             ByteBuf out = ByteBufAllocator.DEFAULT.buffer();
             out.writeByte(message.command);
@@ -0,0 +1,72 @@
+package cc.blynk.server.core.protocol.model.messages;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.Channel;
+
+/**
+ * Same message for many receivers. Body is encoded only once, on first write, into the pooled buffer
+ * and every receiver gets {@link ByteBufMessage} with own retained duplicate of it,
+ * so encoders just prepend the header instead of encoding the body for every channel.
+ *
+ * Should be closed after all writes in order to release the body.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class Broadcast implements AutoCloseable {
+
+    private final short command;
+    private final int id;
+    private final String body;
+    private ByteBuf encodedBody;
+
+    public Broadcast(short command, int id, String body) {
+        this.command = command;
+        this.id = id;
+        this.body = body;
+    }
+
+    /**
+     * @param encodedBody - already encoded body, is not released by the broadcast.
+     */
+    public Broadcast(short command, int id, ByteBuf encodedBody) {
+        this.command = command;
+        this.id = id;
+        this.body = null;
+        this.encodedBody = encodedBody.retainedSlice();
+    }
+
+    public int bodySize() {
+        return body == null ? encodedBody.readableBytes() : body.length();
+    }
+
+    public void write(Channel channel) {
+        channel.writeAndFlush(message(), channel.voidPromise());
+    }
+
+    /**
+     * Same as {@link #write(Channel)}, but without flush, so few messages could be flushed at once.
+     */
+    public void queue(Channel channel) {
+        channel.write(message(), channel.voidPromise());
+    }
+
+    private ByteBufMessage message() {
+        if (encodedBody == null) {
+            encodedBody = ByteBufUtil.writeUtf8(ByteBufAllocator.DEFAULT, body);
+        }
+        return new ByteBufMessage(id, command, encodedBody.retainedDuplicate());
+    }
+
+    @Override
+    public void close() {
+        if (encodedBody != null) {
+            encodedBody.release();
+            encodedBody = null;
+        }
+    }
+
+}
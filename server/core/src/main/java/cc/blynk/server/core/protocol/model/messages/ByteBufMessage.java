@@ -0,0 +1,78 @@
+package cc.blynk.server.core.protocol.model.messages;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.ReferenceCounted;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Message that holds body as is, in the netty buffer, without decoding it into the java string.
+ * Used to forward messages between channels without re-encoding.
+ *
+ * Message owns one reference of the body. Encoders that support this message
+ * transfer body ownership to the outbound buffer, others just copy body bytes.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class ByteBufMessage extends MessageBase implements ReferenceCounted {
+
+    public final ByteBuf body;
+
+    public ByteBufMessage(int messageId, short command, ByteBuf body) {
+        super(messageId, command);
+        this.body = body;
+    }
+
+    @Override
+    public byte[] getBytes() {
+        return ByteBufUtil.getBytes(body);
+    }
+
+    @Override
+    public int refCnt() {
+        return body.refCnt();
+    }
+
+    @Override
+    public ByteBufMessage retain() {
+        body.retain();
+        return this;
+    }
+
+    @Override
+    public ByteBufMessage retain(int increment) {
+        body.retain(increment);
+        return this;
+    }
+
+    @Override
+    public ByteBufMessage touch() {
+        body.touch();
+        return this;
+    }
+
+    @Override
+    public ByteBufMessage touch(Object hint) {
+        body.touch(hint);
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return body.release();
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        return body.release(decrement);
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + ", body='" + body.toString(StandardCharsets.UTF_8) + "'";
+    }
+
+}
@@ -0,0 +1,65 @@
+package cc.blynk.server.core.protocol.model.messages;
+
+import cc.blynk.server.core.stats.GlobalStats;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelHandlerContext;
+
+/**
+ * Sequence of messages to the one channel encoded into the single pooled buffer, in the same
+ * format as {@link cc.blynk.server.core.protocol.handlers.encoders.MessageEncoder} does.
+ * So sequence is written with one write instead of the message object and the buffer per message.
+ * Encoders pass the buffer as is.
+ *
+ * Not thread safe, should be used within the event loop of the channel.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class MessageBatch {
+
+    private final ChannelHandlerContext ctx;
+    private final GlobalStats stats;
+    private ByteBuf buf;
+    private int size;
+
+    public MessageBatch(ChannelHandlerContext ctx, GlobalStats stats) {
+        this.ctx = ctx;
+        this.stats = stats;
+    }
+
+    public void add(short command, int id, String body) {
+        if (buf == null) {
+            buf = ctx.alloc().buffer();
+        }
+        buf.writeByte(command);
+        buf.writeShort(id);
+        int lengthIndex = buf.writerIndex();
+        buf.writeShort(0);
+        int length = ByteBufUtil.writeUtf8(buf, body);
+        buf.setShort(lengthIndex, length);
+        stats.mark(command);
+        size++;
+    }
+
+    public boolean isWritable() {
+        return ctx.channel().isWritable();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Writes and flushes all added messages. Batch could be reused after that.
+     */
+    public void flush() {
+        if (buf != null) {
+            ctx.writeAndFlush(buf, ctx.voidPromise());
+            buf = null;
+            size = 0;
+        }
+    }
+
+}
@@ -0,0 +1,177 @@
+package cc.blynk.server.core.protocol.model.messages.common;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.protocol.model.messages.ByteBufMessage;
+import cc.blynk.utils.NumberUtil;
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
+import static cc.blynk.utils.StringUtils.BODY_SEPARATOR;
+
+/**
+ * Hardware command that keeps the body in the inbound buffer.
+ * Body is "pinType operation, pin, value" separated with {@link cc.blynk.utils.StringUtils#BODY_SEPARATOR},
+ * fields are parsed lazily right from the buffer, so only the value is converted to the string.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class HardwareByteBufMessage extends ByteBufMessage {
+
+    private static final int NOT_PARSED = -2;
+
+    //separator indexes relative to body reader index, -1 when separator is missing
+    private int pinIndex = NOT_PARSED;
+    private int valueIndex = NOT_PARSED;
+
+    public HardwareByteBufMessage(int messageId, ByteBuf body) {
+        super(messageId, HARDWARE, body);
+    }
+
+    public int length() {
+        return body.readableBytes();
+    }
+
+    public boolean isWriteOperation() {
+        return length() > 1 && body.getByte(body.readerIndex() + 1) == 'w';
+    }
+
+    /**
+     * Same rules as for the split3 of the string body : pin type operation, pin and not empty value.
+     */
+    public boolean isValidWrite() {
+        parse();
+        return valueIndex != -1 && valueIndex + 1 < length();
+    }
+
+    public PinType getPinType() {
+        return PinType.getPinType((char) body.getByte(body.readerIndex()));
+    }
+
+    public short getPin() {
+        parse();
+        int start = body.readerIndex() + pinIndex + 1;
+        int end = body.readerIndex() + (valueIndex == -1 ? length() : valueIndex);
+        if (start < end && body.getByte(start) == '+') {
+            start++;
+        }
+        if (start == end || end - start > 3) {
+            throw new NumberFormatException("Invalid pin.");
+        }
+        int pin = 0;
+        for (int i = start; i < end; i++) {
+            int digit = body.getByte(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid pin.");
+            }
+            pin = pin * 10 + digit;
+        }
+        if (pin > 255) {
+            throw new NumberFormatException("Invalid pin.");
+        }
+        return (short) pin;
+    }
+
+    public String getValue() {
+        parse();
+        int start = valueIndex + 1;
+        return body.toString(body.readerIndex() + start, length() - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Same as {@link NumberUtil#parseDouble(String)} for the readable bytes of the buffer,
+     * so numeric values are not converted to the string just to be parsed.
+     */
+    public static double parseDouble(ByteBuf buf) {
+        int off = buf.readerIndex();
+        int end = buf.writerIndex();
+        if (off == end) {
+            return NumberUtil.NO_RESULT;
+        }
+
+        boolean negative = false;
+        byte ch = buf.getByte(off);
+        if (ch == '+') {
+            off++;
+        } else if (ch == '-') {
+            negative = true;
+            off++;
+        }
+
+        double number = 0d;
+        int start = off;
+        for (; off < end && (ch = buf.getByte(off)) >= '0' && ch <= '9'; off++) {
+            number = number * 10d + (ch - '0');
+        }
+        boolean hasDigits = off > start;
+
+        if (off < end && buf.getByte(off) == '.') {
+            off++;
+            start = off;
+            double fraction = 0d;
+            for (; off < end && (ch = buf.getByte(off)) >= '0' && ch <= '9'; off++) {
+                fraction = fraction * 10d + (ch - '0');
+            }
+            if (off > start) {
+                number += NumberUtil.getPow10(start - off) * fraction;
+                hasDigits = true;
+            }
+        }
+
+        if (!hasDigits) {
+            return NumberUtil.NO_RESULT;
+        }
+
+        if (off < end && ((ch = buf.getByte(off)) == 'e' || ch == 'E')) {
+            off++;
+            boolean negativeExp = false;
+            if (off < end) {
+                ch = buf.getByte(off);
+                if (ch == '+') {
+                    off++;
+                } else if (ch == '-') {
+                    negativeExp = true;
+                    off++;
+                }
+            }
+            int exponent = 0;
+            for (; off < end && (ch = buf.getByte(off)) >= '0' && ch <= '9'; off++) {
+                exponent = exponent * 10 + (ch - '0');
+            }
+            if (negativeExp) {
+                exponent = -exponent;
+            }
+            //for very small numbers minimizes effects of denormalization, like NumberUtil does
+            if (exponent > -300) {
+                number *= NumberUtil.getPow10(exponent);
+            } else {
+                number = 1.0E-300 * (number * NumberUtil.getPow10(exponent + 300));
+            }
+        }
+
+        if (off < end) {
+            return NumberUtil.NO_RESULT;
+        }
+        return negative ? -number : number;
+    }
+
+    private void parse() {
+        if (pinIndex != NOT_PARSED) {
+            return;
+        }
+        int start = body.readerIndex();
+        int end = body.writerIndex();
+        int i1 = start + 1 < end ? body.indexOf(start + 1, end, (byte) BODY_SEPARATOR) : -1;
+        int i2 = i1 == -1 ? -1 : body.indexOf(i1 + 1, end, (byte) BODY_SEPARATOR);
+        this.pinIndex = i1 == -1 ? -1 : i1 - start;
+        this.valueIndex = i2 == -1 ? -1 : i2 - start;
+    }
+
+    @Override
+    public String toString() {
+        return "HardwareMessage{" + super.toString() + "}";
+    }
+}
@@ -0,0 +1,196 @@
+package cc.blynk.server.core.reporting;
+
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphPeriod;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of the compressed superchart responses. Pin files are changed only by the reporting worker,
+ * so the same graph opened by many apps (shared dashboards) is read and compressed once per flush.
+ *
+ * Entry is valid only for the epoch of the pin files it was read from. Cache is bounded by the total size
+ * of the cached payloads, least recently used entries are evicted first.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class GraphDataCache {
+
+    public static final int DEFAULT_MAX_SIZE_MB = 32;
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key, Entry> entries;
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public GraphDataCache(int maxSizeMb) {
+        this.maxBytes = maxSizeMb * 1024L * 1024L;
+        this.entries = new LinkedHashMap<>(16, 0.75F, true);
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * @return - compressed response or null if there is no entry for the key or epoch is changed.
+     */
+    public byte[] get(Key key, long epoch) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.epoch == epoch) {
+                    hits.increment();
+                    return entry.data;
+                }
+                remove(key);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    public void put(Key key, long epoch, byte[] data) {
+        //single huge response shouldn't wipe out the whole cache
+        if (data.length > maxBytes / 8) {
+            return;
+        }
+        synchronized (entries) {
+            Entry previous = entries.put(key, new Entry(epoch, data));
+            if (previous != null) {
+                bytes -= previous.data.length;
+            }
+            bytes += data.length;
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().data.length;
+                eldest.remove();
+            }
+        }
+    }
+
+    private void remove(Key key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            bytes -= removed.data.length;
+        }
+    }
+
+    public long getHits(boolean reset) {
+        return reset ? hits.sumThenReset() : hits.sum();
+    }
+
+    public long getMisses(boolean reset) {
+        return reset ? misses.sumThenReset() : misses.sum();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long sizeInBytes() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    private static final class Entry {
+
+        final long epoch;
+        final byte[] data;
+
+        Entry(long epoch, byte[] data) {
+            this.epoch = epoch;
+            this.data = data;
+        }
+    }
+
+    public static final class Key {
+
+        private final User user;
+        private final int dashId;
+        private final long widgetId;
+        private final GraphPeriod period;
+        private final int page;
+        private final int targetId;
+        //widget streams may be changed by the app, so requested pins are part of the key
+        private final GraphPinRequest[] requestedPins;
+        //tag devices may be changed while response is cached
+        private final int[][] deviceIds;
+        private final int hashCode;
+
+        public Key(User user, int dashId, long widgetId, GraphPeriod period, int page, int targetId,
+                   GraphPinRequest[] requestedPins) {
+            this.user = user;
+            this.dashId = dashId;
+            this.widgetId = widgetId;
+            this.period = period;
+            this.page = page;
+            this.targetId = targetId;
+            this.requestedPins = requestedPins;
+            this.deviceIds = new int[requestedPins.length][];
+            for (int i = 0; i < requestedPins.length; i++) {
+                this.deviceIds[i] = requestedPins[i].deviceIds.clone();
+            }
+            int result = user.hashCode();
+            result = 31 * result + dashId;
+            result = 31 * result + Long.hashCode(widgetId);
+            result = 31 * result + period.hashCode();
+            result = 31 * result + page;
+            result = 31 * result + targetId;
+            this.hashCode = result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key that = (Key) o;
+            return dashId == that.dashId
+                    && widgetId == that.widgetId
+                    && page == that.page
+                    && targetId == that.targetId
+                    && period == that.period
+                    && user.equals(that.user)
+                    && samePins(requestedPins, that.requestedPins)
+                    && Arrays.deepEquals(deviceIds, that.deviceIds);
+        }
+
+        private static boolean samePins(GraphPinRequest[] pins, GraphPinRequest[] thatPins) {
+            if (pins.length != thatPins.length) {
+                return false;
+            }
+            for (int i = 0; i < pins.length; i++) {
+                GraphPinRequest pin = pins[i];
+                GraphPinRequest thatPin = thatPins[i];
+                if (pin.isTag != thatPin.isTag
+                        || pin.deviceId != thatPin.deviceId
+                        || pin.pinType != thatPin.pinType
+                        || pin.pin != thatPin.pin
+                        || pin.functionType != thatPin.functionType) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+}
@@ -0,0 +1,347 @@
+package cc.blynk.server.core.reporting;
+
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.AggregationFunctionType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.utils.BlynkTPFactory;
+import cc.blynk.utils.structure.LRUCache;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+
+/**
+ * Aggregates pin data of all devices of the tag for the superchart.
+ * Device files are read in parallel by shards of devices, sorted device records are merged
+ * with the k-way merge and aggregation function is applied in place to the primitive arrays.
+ *
+ * Result is cached till any device file of the tag is changed (series epoch of the files is changed),
+ * so all apps that show the same tag graph during the minute get the result without disk reads.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class TagDataAggregator implements Closeable {
+
+    private static final Logger log = LogManager.getLogger(TagDataAggregator.class);
+
+    public static final int DEFAULT_THREADS = 4;
+
+    //for the small tags hand off to other threads costs more than reads
+    private static final int MIN_DEVICES_PER_SHARD = 32;
+    private static final int CACHE_SIZE = 1000;
+    private static final int TS_OFFSET = 8;
+
+    @FunctionalInterface
+    public interface DeviceReader {
+        //returns records of the device sorted by ts or null if there is no data
+        ByteBuffer read(int deviceId);
+    }
+
+    private final ExecutorService readExecutor;
+    private final int threads;
+    private final LRUCache<TagDataKey, CachedTagData> cache;
+
+    public TagDataAggregator(int threads) {
+        this.threads = Math.max(1, threads);
+        this.readExecutor = Executors.newFixedThreadPool(this.threads, BlynkTPFactory.build("tag-reads"));
+        this.cache = new LRUCache<>(CACHE_SIZE);
+    }
+
+    public ByteBuffer aggregate(User user, GraphPinRequest request, long epoch, DeviceReader reader) {
+        TagDataKey key = new TagDataKey(user, request);
+        synchronized (cache) {
+            CachedTagData cached = cache.get(key);
+            if (cached != null && cached.epoch == epoch) {
+                return ByteBuffer.wrap(cached.data);
+            }
+        }
+
+        ByteBuffer[] devicesData = read(request.deviceIds, reader);
+        AggregationFunctionType functionType = request.functionType == null
+                ? AggregationFunctionType.AVG
+                : request.functionType;
+        byte[] result = merge(devicesData, functionType);
+
+        synchronized (cache) {
+            cache.put(key, new CachedTagData(epoch, result));
+        }
+        return ByteBuffer.wrap(result);
+    }
+
+    private ByteBuffer[] read(int[] deviceIds, DeviceReader reader) {
+        ByteBuffer[] devicesData = new ByteBuffer[deviceIds.length];
+        int shards = Math.min(threads, deviceIds.length / MIN_DEVICES_PER_SHARD);
+        if (shards <= 1) {
+            readShard(deviceIds, 0, deviceIds.length, reader, devicesData);
+            return devicesData;
+        }
+
+        int shardSize = (deviceIds.length + shards - 1) / shards;
+        List<Future<?>> futures = new ArrayList<>(shards);
+        for (int from = shardSize; from < deviceIds.length; from += shardSize) {
+            int start = from;
+            int end = Math.min(deviceIds.length, from + shardSize);
+            futures.add(readExecutor.submit(() -> readShard(deviceIds, start, end, reader, devicesData)));
+        }
+        //first shard is read by the current thread
+        readShard(deviceIds, 0, Math.min(deviceIds.length, shardSize), reader, devicesData);
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                log.error("Error reading tag data.", e.getCause());
+            }
+        }
+        return devicesData;
+    }
+
+    private static void readShard(int[] deviceIds, int from, int to,
+                                  DeviceReader reader, ByteBuffer[] devicesData) {
+        for (int i = from; i < to; i++) {
+            devicesData[i] = reader.read(deviceIds[i]);
+        }
+    }
+
+    /**
+     * K-way merge of the device records sorted by ts. Records with the same ts
+     * are aggregated into the single record.
+     */
+    static byte[] merge(ByteBuffer[] devicesData, AggregationFunctionType functionType) {
+        int streams = 0;
+        int totalRecords = 0;
+        ByteBuffer[] data = new ByteBuffer[devicesData.length];
+        for (ByteBuffer deviceData : devicesData) {
+            if (deviceData != null && deviceData.limit() >= SIZE_OF_REPORT_ENTRY) {
+                data[streams++] = deviceData;
+                totalRecords += deviceData.limit() / SIZE_OF_REPORT_ENTRY;
+            }
+        }
+
+        //heap of the stream indexes ordered by the ts of the current record of the stream
+        int[] heap = new int[streams];
+        int[] positions = new int[streams];
+        int heapSize = 0;
+        for (int stream = 0; stream < streams; stream++) {
+            heap[heapSize++] = stream;
+            siftUp(heap, heapSize - 1, data, positions);
+        }
+
+        long[] timestamps = new long[totalRecords];
+        double[] results = new double[totalRecords];
+        //values with the same ts, needed only for median
+        double[] sameTsValues = functionType == AggregationFunctionType.MED ? new double[streams] : null;
+        int resultSize = 0;
+
+        while (heapSize > 0) {
+            long ts = ts(data, positions, heap[0]);
+            double result = 0;
+            int count = 0;
+            while (heapSize > 0 && ts(data, positions, heap[0]) == ts) {
+                int stream = heap[0];
+                double value = data[stream].getDouble(positions[stream]);
+                result = count == 0 ? value : apply(functionType, result, value);
+                if (sameTsValues != null) {
+                    sameTsValues = ensureCapacity(sameTsValues, count);
+                    sameTsValues[count] = value;
+                }
+                count++;
+
+                positions[stream] += SIZE_OF_REPORT_ENTRY;
+                if (positions[stream] >= data[stream].limit()) {
+                    heap[0] = heap[--heapSize];
+                }
+                siftDown(heap, heapSize, data, positions);
+            }
+
+            if (functionType == AggregationFunctionType.AVG) {
+                result = result / count;
+            } else if (sameTsValues != null) {
+                result = median(sameTsValues, count);
+            }
+            timestamps[resultSize] = ts;
+            results[resultSize] = result;
+            resultSize++;
+        }
+
+        ByteBuffer merged = ByteBuffer.allocate(resultSize * SIZE_OF_REPORT_ENTRY);
+        for (int i = 0; i < resultSize; i++) {
+            merged.putDouble(results[i])
+                  .putLong(timestamps[i]);
+        }
+        return merged.array();
+    }
+
+    //for avg the sum is accumulated and divided when all values of the ts are applied
+    private static double apply(AggregationFunctionType functionType, double result, double value) {
+        switch (functionType) {
+            case MIN:
+                return Math.min(result, value);
+            case MAX:
+                return Math.max(result, value);
+            case MED:
+                return result;
+            default:
+                return result + value;
+        }
+    }
+
+    //single device file may have few records with the same ts
+    private static double[] ensureCapacity(double[] values, int index) {
+        if (index < values.length) {
+            return values;
+        }
+        return Arrays.copyOf(values, values.length * 2);
+    }
+
+    private static double median(double[] values, int count) {
+        Arrays.sort(values, 0, count);
+        int middle = count / 2;
+        if (count % 2 == 0) {
+            return (values[middle] + values[middle - 1]) / 2;
+        }
+        return values[middle];
+    }
+
+    private static long ts(ByteBuffer[] data, int[] positions, int stream) {
+        return data[stream].getLong(positions[stream] + TS_OFFSET);
+    }
+
+    private static void siftUp(int[] heap, int index, ByteBuffer[] data, int[] positions) {
+        int stream = heap[index];
+        long ts = ts(data, positions, stream);
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (ts(data, positions, heap[parent]) <= ts) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = stream;
+    }
+
+    private static void siftDown(int[] heap, int heapSize, ByteBuffer[] data, int[] positions) {
+        if (heapSize == 0) {
+            return;
+        }
+        int index = 0;
+        int stream = heap[0];
+        long ts = ts(data, positions, stream);
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && ts(data, positions, heap[child + 1]) < ts(data, positions, heap[child])) {
+                child++;
+            }
+            if (ts <= ts(data, positions, heap[child])) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = stream;
+    }
+
+    public int cacheSize() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    @Override
+    public void close() {
+        readExecutor.shutdown();
+    }
+
+    private static final class TagDataKey {
+
+        private final User user;
+        private final int dashId;
+        private final int[] deviceIds;
+        private final PinType pinType;
+        private final short pin;
+        private final GraphGranularityType type;
+        private final int count;
+        private final int skipCount;
+        private final AggregationFunctionType functionType;
+        private final int hashCode;
+
+        TagDataKey(User user, GraphPinRequest request) {
+            this.user = user;
+            this.dashId = request.dashId;
+            //tag devices may be changed while result is cached
+            this.deviceIds = request.deviceIds.clone();
+            this.pinType = request.pinType;
+            this.pin = request.pin;
+            this.type = request.type;
+            this.count = request.count;
+            this.skipCount = request.skipCount;
+            this.functionType = request.functionType;
+            int result = user.hashCode();
+            result = 31 * result + dashId;
+            result = 31 * result + Arrays.hashCode(deviceIds);
+            result = 31 * result + pinType.hashCode();
+            result = 31 * result + pin;
+            result = 31 * result + type.hashCode();
+            result = 31 * result + count;
+            result = 31 * result + skipCount;
+            this.hashCode = result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            TagDataKey that = (TagDataKey) o;
+            return dashId == that.dashId
+                    && pin == that.pin
+                    && count == that.count
+                    && skipCount == that.skipCount
+                    && pinType == that.pinType
+                    && type == that.type
+                    && functionType == that.functionType
+                    && user.equals(that.user)
+                    && Arrays.equals(deviceIds, that.deviceIds);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final class CachedTagData {
+
+        final long epoch;
+        final byte[] data;
+
+        CachedTagData(long epoch, byte[] data) {
+            this.epoch = epoch;
+            this.data = data;
+        }
+    }
+
+}
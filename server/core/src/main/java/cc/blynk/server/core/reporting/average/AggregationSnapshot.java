@@ -0,0 +1,237 @@
+package cc.blynk.server.core.reporting.average;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Binary snapshot of the aggregator buckets of one granularity. Used to keep aggregates between restarts.
+ *
+ * Format : magic (int), version (byte), granularity (byte), records, end marker.
+ * Every record is tag byte, series reference, bucket (varint), sum (double), count (varint).
+ * Series and strings (emails, app names) are written only once, on first use,
+ * later records refer them by the index in the dictionary.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+final class AggregationSnapshot {
+
+    private static final int MAGIC = 0x424C4147;
+    private static final byte VERSION = 1;
+
+    private static final byte RECORD = 1;
+    private static final byte END = 0;
+
+    //reference values, dictionary index is shifted by these values
+    private static final int NULL_REF = 0;
+    private static final int NEW_REF = 1;
+    private static final int FIRST_REF = 2;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private AggregationSnapshot() {
+    }
+
+    interface BucketConsumer {
+        void accept(BaseReportingKey key, long bucket, double sum, long count) throws IOException;
+    }
+
+    /**
+     * Streams records to the file. File is written to the temp file first and moved
+     * to the target only when completely written, so crash in the middle doesn't leave broken snapshot.
+     */
+    static final class Writer implements BucketConsumer, AutoCloseable {
+
+        private final Path path;
+        private final Path tempPath;
+        private final DataOutputStream dos;
+        private final Map<BaseReportingKey, Integer> seriesRefs = new IdentityHashMap<>();
+        private final Map<String, Integer> stringRefs = new HashMap<>();
+        private int records;
+        private boolean completed;
+
+        Writer(Path path, GraphGranularityType type) throws IOException {
+            this.path = path;
+            this.tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+            this.dos = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath), BUFFER_SIZE));
+            dos.writeInt(MAGIC);
+            dos.writeByte(VERSION);
+            dos.writeByte(type.ordinal());
+        }
+
+        @Override
+        public void accept(BaseReportingKey key, long bucket, double sum, long count) throws IOException {
+            dos.writeByte(RECORD);
+            writeSeries(key);
+            writeVarLong(dos, bucket);
+            dos.writeDouble(sum);
+            writeVarLong(dos, count);
+            records++;
+        }
+
+        private void writeSeries(BaseReportingKey key) throws IOException {
+            Integer ref = seriesRefs.get(key);
+            if (ref != null) {
+                writeVarLong(dos, ref + FIRST_REF);
+                return;
+            }
+            seriesRefs.put(key, seriesRefs.size());
+            writeVarLong(dos, NEW_REF);
+            writeString(key.email);
+            writeString(key.appName);
+            writeVarLong(dos, zigZag(key.dashId));
+            writeVarLong(dos, zigZag(key.deviceId));
+            dos.writeByte(key.pinType.ordinal());
+            dos.writeShort(key.pin);
+        }
+
+        private void writeString(String value) throws IOException {
+            if (value == null) {
+                writeVarLong(dos, NULL_REF);
+                return;
+            }
+            Integer ref = stringRefs.get(value);
+            if (ref != null) {
+                writeVarLong(dos, ref + FIRST_REF);
+                return;
+            }
+            stringRefs.put(value, stringRefs.size());
+            writeVarLong(dos, NEW_REF);
+            dos.writeUTF(value);
+        }
+
+        int getRecords() {
+            return records;
+        }
+
+        void complete() throws IOException {
+            dos.writeByte(END);
+            dos.close();
+            Files.move(tempPath, path, REPLACE_EXISTING, ATOMIC_MOVE);
+            completed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!completed) {
+                dos.close();
+                Files.deleteIfExists(tempPath);
+            }
+        }
+    }
+
+    /**
+     * Reads all records of the snapshot.
+     *
+     * @return - number of records read
+     */
+    static int read(Path path, GraphGranularityType type, BucketConsumer consumer) throws IOException {
+        try (DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE))) {
+            if (dis.readInt() != MAGIC) {
+                throw new IOException("Not an aggregation snapshot " + path);
+            }
+            int version = dis.readByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported aggregation snapshot version " + version + " in " + path);
+            }
+            int granularity = dis.readByte();
+            if (granularity != type.ordinal()) {
+                throw new IOException("Snapshot " + path + " contains wrong granularity " + granularity);
+            }
+
+            PinType[] pinTypes = PinType.values();
+            List<BaseReportingKey> series = new ArrayList<>();
+            List<String> strings = new ArrayList<>();
+            int records = 0;
+            byte tag;
+            while ((tag = dis.readByte()) == RECORD) {
+                BaseReportingKey key;
+                int ref = (int) readVarLong(dis);
+                if (ref == NEW_REF) {
+                    String email = readString(dis, strings);
+                    String appName = readString(dis, strings);
+                    int dashId = unZigZag(readVarLong(dis));
+                    int deviceId = unZigZag(readVarLong(dis));
+                    PinType pinType = pinTypes[dis.readByte()];
+                    short pin = dis.readShort();
+                    key = new BaseReportingKey(email, appName, dashId, deviceId, pinType, pin);
+                    series.add(key);
+                } else {
+                    key = series.get(ref - FIRST_REF);
+                }
+                long bucket = readVarLong(dis);
+                double sum = dis.readDouble();
+                long count = readVarLong(dis);
+                consumer.accept(key, bucket, sum, count);
+                records++;
+            }
+            if (tag != END) {
+                throw new IOException("Corrupted aggregation snapshot " + path);
+            }
+            return records;
+        }
+    }
+
+    private static String readString(DataInputStream dis, List<String> strings) throws IOException {
+        int ref = (int) readVarLong(dis);
+        if (ref == NULL_REF) {
+            return null;
+        }
+        if (ref == NEW_REF) {
+            String value = dis.readUTF();
+            strings.add(value);
+            return value;
+        }
+        return strings.get(ref - FIRST_REF);
+    }
+
+    private static long zigZag(int value) {
+        return ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL;
+    }
+
+    private static int unZigZag(long value) {
+        int v = (int) value;
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    //unsigned LEB128, 7 bits per byte
+    private static void writeVarLong(DataOutputStream dos, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            dos.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        dos.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream dis) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = dis.readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint in aggregation snapshot.");
+    }
+
+}
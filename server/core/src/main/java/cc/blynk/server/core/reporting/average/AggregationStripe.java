@@ -0,0 +1,339 @@
+package cc.blynk.server.core.reporting.average;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * One stripe of the average aggregator. Holds 2 open addressing tables :
+ * series table that interns (email, appName, dashId, deviceId, pinType, pin) into int series id
+ * and bucket table keyed by packed (series id, granularity, period) with sums and counts in primitive arrays.
+ * So after warm-up collecting of the value doesn't allocate anything.
+ *
+ * All methods are guarded by the stripe monitor. Stripes are selected by series hash,
+ * so concurrent writes from different event loops rarely hit the same stripe.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+final class AggregationStripe {
+
+    private static final int GRANULARITY_SHIFT = 30;
+    private static final long MAX_BUCKET = (1L << GRANULARITY_SHIFT) - 1;
+    private static final int GRANULARITIES = GraphGranularityType.getValues().length;
+
+    //series table, slot contains series id, 0 means empty slot
+    private int[] seriesSlots;
+    private int seriesSize;
+
+    //series data by id
+    private BaseReportingKey[] series;
+    private int[] seriesHashes;
+    private int[] seriesBuckets;
+    private int[] freeIds;
+    private int freeIdsSize;
+    private int nextId = 1;
+
+    //bucket table, key contains packed series id, granularity and period, 0 means empty slot
+    private long[] keys;
+    private double[] sums;
+    private long[] counts;
+    private int size;
+    private final int[] sizes = new int[GRANULARITIES];
+
+    AggregationStripe() {
+        this.seriesSlots = new int[64];
+        this.series = new BaseReportingKey[32];
+        this.seriesHashes = new int[32];
+        this.seriesBuckets = new int[32];
+        this.freeIds = new int[16];
+        this.keys = new long[256];
+        this.sums = new double[256];
+        this.counts = new long[256];
+    }
+
+    /**
+     * Stripes are selected by the highest bits of the hash, while tables within the stripe use the lowest ones.
+     */
+    static int hash(String email, String appName, int dashId, int deviceId, PinType pinType, short pin) {
+        int h = email.hashCode();
+        h = 31 * h + (appName == null ? 0 : appName.hashCode());
+        h = 31 * h + dashId;
+        h = 31 * h + deviceId;
+        h = 31 * h + pinType.ordinal();
+        h = 31 * h + pin;
+        return mix(h);
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+
+    private static int mix(long key) {
+        return mix((int) (key ^ (key >>> 32)));
+    }
+
+    private static long packKey(int seriesId, int granularity, long bucket) {
+        return ((long) seriesId << 32) | ((long) granularity << GRANULARITY_SHIFT) | bucket;
+    }
+
+    private static int seriesId(long key) {
+        return (int) (key >>> 32);
+    }
+
+    private static int granularity(long key) {
+        return (int) ((key >>> GRANULARITY_SHIFT) & 0x3);
+    }
+
+    private static long bucket(long key) {
+        return key & MAX_BUCKET;
+    }
+
+    synchronized void collect(int hash, String email, String appName, int dashId, int deviceId,
+                              PinType pinType, short pin, long ts, double value) {
+        int id = getOrCreateSeries(hash, email, appName, dashId, deviceId, pinType, pin);
+        for (GraphGranularityType type : GraphGranularityType.getValues()) {
+            add(id, type.ordinal(), ts / type.period, value, 1);
+        }
+    }
+
+    synchronized void restore(int hash, BaseReportingKey key, GraphGranularityType type,
+                              long bucket, double sum, long count) {
+        int id = getOrCreateSeries(hash, key.email, key.appName, key.dashId, key.deviceId, key.pinType, key.pin);
+        add(id, type.ordinal(), bucket, sum, count);
+    }
+
+    /**
+     * Removes all buckets of given granularity that are older than nowTruncatedToPeriod
+     * and puts them to the result map.
+     */
+    synchronized void drainOutdated(GraphGranularityType type, long nowTruncatedToPeriod,
+                                    Map<AggregationKey, AggregationValue> result) {
+        int granularity = type.ordinal();
+        int i = 0;
+        while (i < keys.length) {
+            long key = keys[i];
+            if (key != 0 && granularity(key) == granularity && bucket(key) < nowTruncatedToPeriod) {
+                int id = seriesId(key);
+                result.put(new AggregationKey(series[id], bucket(key)), new AggregationValue(sums[i], counts[i]));
+                removeBucketAt(i);
+                //slot may be filled with shifted entry, so checking it again
+            } else {
+                i++;
+            }
+        }
+    }
+
+    synchronized void copyTo(GraphGranularityType type, Map<AggregationKey, AggregationValue> result) {
+        int granularity = type.ordinal();
+        for (int i = 0; i < keys.length; i++) {
+            long key = keys[i];
+            if (key != 0 && granularity(key) == granularity) {
+                result.put(new AggregationKey(series[seriesId(key)], bucket(key)),
+                        new AggregationValue(sums[i], counts[i]));
+            }
+        }
+    }
+
+    synchronized void writeTo(GraphGranularityType type, AggregationSnapshot.BucketConsumer consumer)
+            throws IOException {
+        int granularity = type.ordinal();
+        for (int i = 0; i < keys.length; i++) {
+            long key = keys[i];
+            if (key != 0 && granularity(key) == granularity) {
+                consumer.accept(series[seriesId(key)], bucket(key), sums[i], counts[i]);
+            }
+        }
+    }
+
+    synchronized int size(GraphGranularityType type) {
+        return sizes[type.ordinal()];
+    }
+
+    synchronized void clear() {
+        Arrays.fill(seriesSlots, 0);
+        Arrays.fill(series, null);
+        Arrays.fill(seriesBuckets, 0);
+        Arrays.fill(keys, 0);
+        Arrays.fill(sizes, 0);
+        seriesSize = 0;
+        size = 0;
+        freeIdsSize = 0;
+        nextId = 1;
+    }
+
+    private void add(int id, int granularity, long bucket, double sum, long count) {
+        if (bucket < 0 || bucket > MAX_BUCKET) {
+            //timestamp is way out of range, nothing to aggregate
+            return;
+        }
+        long key = packKey(id, granularity, bucket);
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        long slotKey;
+        while ((slotKey = keys[i]) != 0) {
+            if (slotKey == key) {
+                sums[i] += sum;
+                counts[i] += count;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        sums[i] = sum;
+        counts[i] = count;
+        size++;
+        sizes[granularity]++;
+        seriesBuckets[id]++;
+        if (size > keys.length >> 1) {
+            resizeBuckets();
+        }
+    }
+
+    //backward shift deletion, keeps linear probing chains valid without tombstones
+    private void removeBucketAt(int slot) {
+        long key = keys[slot];
+        int id = seriesId(key);
+        size--;
+        sizes[granularity(key)]--;
+        if (--seriesBuckets[id] == 0) {
+            removeSeries(id);
+        }
+
+        int mask = keys.length - 1;
+        int hole = slot;
+        int i = (slot + 1) & mask;
+        long current;
+        while ((current = keys[i]) != 0) {
+            int home = mix(current) & mask;
+            //entry may fill the hole only if its home slot is not within (hole, i]
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = current;
+                sums[hole] = sums[i];
+                counts[hole] = counts[i];
+                hole = i;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[hole] = 0;
+    }
+
+    private void resizeBuckets() {
+        long[] oldKeys = keys;
+        double[] oldSums = sums;
+        long[] oldCounts = counts;
+        int newCapacity = oldKeys.length << 1;
+        this.keys = new long[newCapacity];
+        this.sums = new double[newCapacity];
+        this.counts = new long[newCapacity];
+        int mask = newCapacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            long key = oldKeys[j];
+            if (key != 0) {
+                int i = mix(key) & mask;
+                while (keys[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+                sums[i] = oldSums[j];
+                counts[i] = oldCounts[j];
+            }
+        }
+    }
+
+    private int getOrCreateSeries(int hash, String email, String appName, int dashId, int deviceId,
+                                  PinType pinType, short pin) {
+        int mask = seriesSlots.length - 1;
+        int i = hash & mask;
+        int id;
+        while ((id = seriesSlots[i]) != 0) {
+            BaseReportingKey key = series[id];
+            if (seriesHashes[id] == hash && key.dashId == dashId && key.deviceId == deviceId
+                    && key.pin == pin && key.pinType == pinType
+                    && key.email.equals(email) && Objects.equals(key.appName, appName)) {
+                return id;
+            }
+            i = (i + 1) & mask;
+        }
+
+        id = nextSeriesId();
+        series[id] = new BaseReportingKey(email, appName, dashId, deviceId, pinType, pin);
+        seriesHashes[id] = hash;
+        seriesBuckets[id] = 0;
+        seriesSlots[i] = id;
+        seriesSize++;
+        if (seriesSize > seriesSlots.length >> 1) {
+            resizeSeries();
+        }
+        return id;
+    }
+
+    private int nextSeriesId() {
+        if (freeIdsSize > 0) {
+            return freeIds[--freeIdsSize];
+        }
+        int id = nextId++;
+        if (id == series.length) {
+            int newCapacity = series.length << 1;
+            this.series = Arrays.copyOf(series, newCapacity);
+            this.seriesHashes = Arrays.copyOf(seriesHashes, newCapacity);
+            this.seriesBuckets = Arrays.copyOf(seriesBuckets, newCapacity);
+        }
+        return id;
+    }
+
+    //series without buckets is not needed anymore, so it is removed to avoid leaking removed devices/pins
+    private void removeSeries(int id) {
+        int mask = seriesSlots.length - 1;
+        int slot = seriesHashes[id] & mask;
+        while (seriesSlots[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+
+        int hole = slot;
+        int i = (slot + 1) & mask;
+        int current;
+        while ((current = seriesSlots[i]) != 0) {
+            int home = seriesHashes[current] & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                seriesSlots[hole] = current;
+                hole = i;
+            }
+            i = (i + 1) & mask;
+        }
+        seriesSlots[hole] = 0;
+        seriesSize--;
+
+        series[id] = null;
+        if (freeIdsSize == freeIds.length) {
+            this.freeIds = Arrays.copyOf(freeIds, freeIds.length << 1);
+        }
+        freeIds[freeIdsSize++] = id;
+    }
+
+    private void resizeSeries() {
+        int[] oldSlots = seriesSlots;
+        this.seriesSlots = new int[oldSlots.length << 1];
+        int mask = seriesSlots.length - 1;
+        for (int id : oldSlots) {
+            if (id != 0) {
+                int i = seriesHashes[id] & mask;
+                while (seriesSlots[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                seriesSlots[i] = id;
+            }
+        }
+    }
+
+}
@@ -9,6 +9,9 @@ import java.io.Serializable;
  */
 public class AggregationValue implements Serializable {
 
+    //pinned, so aggregator state stored with previous versions could still be restored
+    private static final long serialVersionUID = 2165743203609644899L;
+
     private double values = 0;
     private long count = 0;
 
@@ -20,6 +23,11 @@ public class AggregationValue implements Serializable {
         this.count = 1;
     }
 
+    AggregationValue(double values, long count) {
+        this.values = values;
+        this.count = count;
+    }
+
     public void update(double val) {
         values += val;
         count++;
@@ -28,4 +36,12 @@ public class AggregationValue implements Serializable {
     public double calcAverage() {
         return values / count;
     }
+
+    double getSum() {
+        return values;
+    }
+
+    long getCount() {
+        return count;
+    }
 }
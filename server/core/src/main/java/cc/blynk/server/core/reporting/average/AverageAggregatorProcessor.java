@@ -1,20 +1,27 @@
 package cc.blynk.server.core.reporting.average;
 
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
 import cc.blynk.server.core.reporting.raw.BaseReportingKey;
 import cc.blynk.utils.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.Closeable;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import static cc.blynk.server.internal.SerializationUtil.deserialize;
-import static cc.blynk.server.internal.SerializationUtil.serialize;
 
 /**
+ * Aggregates all incoming values of the logged pins into minute, hourly and daily averages.
+ * Aggregates are kept in striped primitive tables, see {@link AggregationStripe}.
+ * On shutdown aggregates are stored to binary snapshots, see {@link AggregationSnapshot}.
+ *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
  * Created on 10.08.15.
@@ -29,70 +36,181 @@ public class AverageAggregatorProcessor implements Closeable {
     static final String MINUTE_TEMP_FILENAME = "minute_temp.bin";
     static final String HOURLY_TEMP_FILENAME = "hourly_temp.bin";
     static final String DAILY_TEMP_FILENAME = "daily_temp.bin";
+    static final String SNAPSHOT_SUFFIX = "_aggregates.snapshot";
+
+    private static final int STRIPE_BITS = 6;
+
     private final String dataFolder;
-    private final ConcurrentHashMap<AggregationKey, AggregationValue> minute;
-    private final ConcurrentHashMap<AggregationKey, AggregationValue> hourly;
-    private final ConcurrentHashMap<AggregationKey, AggregationValue> daily;
+    private final AggregationStripe[] stripes;
 
-    @SuppressWarnings("unchecked")
     public AverageAggregatorProcessor(String dataFolder) {
         this.dataFolder = dataFolder;
+        this.stripes = new AggregationStripe[1 << STRIPE_BITS];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new AggregationStripe();
+        }
 
-        Path path;
-
-        path = Paths.get(dataFolder, MINUTE_TEMP_FILENAME);
-        this.minute = (ConcurrentHashMap<AggregationKey, AggregationValue>) deserialize(path);
-        FileUtils.deleteQuietly(path);
+        //stripes are synchronized, so all granularities are loaded concurrently
+        Arrays.stream(GraphGranularityType.getValues()).parallel().forEach(this::load);
+    }
 
-        path = Paths.get(dataFolder, HOURLY_TEMP_FILENAME);
-        this.hourly = (ConcurrentHashMap<AggregationKey, AggregationValue>) deserialize(path);
-        FileUtils.deleteQuietly(path);
+    static String snapshotFileName(GraphGranularityType type) {
+        return type.name().toLowerCase() + SNAPSHOT_SUFFIX;
+    }
 
-        path = Paths.get(dataFolder, DAILY_TEMP_FILENAME);
-        this.daily = (ConcurrentHashMap<AggregationKey, AggregationValue>) deserialize(path);
-        FileUtils.deleteQuietly(path);
+    private static String legacyFileName(GraphGranularityType type) {
+        switch (type) {
+            case MINUTE :
+                return MINUTE_TEMP_FILENAME;
+            case HOURLY :
+                return HOURLY_TEMP_FILENAME;
+            default :
+                return DAILY_TEMP_FILENAME;
+        }
     }
 
-    private static void aggregate(Map<AggregationKey, AggregationValue> map, AggregationKey key, double value) {
-        AggregationValue aggregationValue = map.get(key);
-        if (aggregationValue == null) {
-            aggregationValue = map.putIfAbsent(key, new AggregationValue(value));
-            if (aggregationValue == null) {
-                return;
+    private void load(GraphGranularityType type) {
+        restoreLegacy(Paths.get(dataFolder, legacyFileName(type)), type);
+
+        Path path = Paths.get(dataFolder, snapshotFileName(type));
+        if (Files.exists(path)) {
+            long start = System.currentTimeMillis();
+            try {
+                int records = AggregationSnapshot.read(path, type,
+                        (key, bucket, sum, count) -> restore(key, type, bucket, sum, count));
+                log.info("Restored {} {} aggregates in {} ms.",
+                        records, type, System.currentTimeMillis() - start);
+            } catch (Exception e) {
+                log.error("Error restoring {} aggregates from {}.", type, path, e);
             }
+            FileUtils.deleteQuietly(path);
         }
+    }
+
+    //migration code for the java serialized state of the previous versions, should be removed in future versions
+    @SuppressWarnings("unchecked")
+    private void restoreLegacy(Path path, GraphGranularityType type) {
+        if (Files.notExists(path)) {
+            return;
+        }
+        var map = (Map<AggregationKey, AggregationValue>) deserialize(path);
+        FileUtils.deleteQuietly(path);
+        for (Map.Entry<AggregationKey, AggregationValue> entry : map.entrySet()) {
+            AggregationKey key = entry.getKey();
+            AggregationValue value = entry.getValue();
+            restore(key.getBaseReportingKey(), type, key.ts, value.getSum(), value.getCount());
+        }
+    }
+
+    private void restore(BaseReportingKey key, GraphGranularityType type, long bucket, double sum, long count) {
+        int hash = hash(key.email, key.appName, key.dashId, key.deviceId, key.pinType, key.pin);
+        stripe(hash).restore(hash, key, type, bucket, sum, count);
+    }
+
+    private static int hash(String email, String appName, int dashId, int deviceId, PinType pinType, short pin) {
+        return AggregationStripe.hash(email, appName, dashId, deviceId, pinType, pin);
+    }
 
-        aggregationValue.update(value);
+    private AggregationStripe stripe(int hash) {
+        return stripes[hash >>> (Integer.SIZE - STRIPE_BITS)];
     }
 
     public void collect(BaseReportingKey baseReportingKey, long ts, double val) {
-        aggregate(minute, new AggregationKey(baseReportingKey, ts / MINUTE), val);
-        aggregate(hourly, new AggregationKey(baseReportingKey, ts / HOUR), val);
-        aggregate(daily, new AggregationKey(baseReportingKey, ts / DAY), val);
+        collect(baseReportingKey.email, baseReportingKey.appName,
+                baseReportingKey.dashId, baseReportingKey.deviceId,
+                baseReportingKey.pinType, baseReportingKey.pin, ts, val);
     }
 
-    public ConcurrentHashMap<AggregationKey, AggregationValue> getMinute() {
-        return minute;
+    public void collect(String email, String appName, int dashId, int deviceId,
+                        PinType pinType, short pin, long ts, double val) {
+        int hash = hash(email, appName, dashId, deviceId, pinType, pin);
+        stripe(hash).collect(hash, email, appName, dashId, deviceId, pinType, pin, ts, val);
     }
 
-    public ConcurrentHashMap<AggregationKey, AggregationValue> getHourly() {
-        return hourly;
+    /**
+     * Removes all aggregates of the previous periods.
+     *
+     * @param type - type of reporting. Could be minute, hourly, daily.
+     * @return - removed aggregates.
+     */
+    public Map<AggregationKey, AggregationValue> drainOutdated(GraphGranularityType type) {
+        return drainOutdated(type, 0, 1);
     }
 
-    public ConcurrentHashMap<AggregationKey, AggregationValue> getDaily() {
-        return daily;
+    /**
+     * Removes aggregates of the previous periods from the stripes of the shard.
+     * Stripes are selected by the hash of the pin, so different shards never write to the same pin file.
+     *
+     * @param shard - index of the shard, from 0 to shards - 1
+     * @param shards - total number of shards
+     */
+    public Map<AggregationKey, AggregationValue> drainOutdated(GraphGranularityType type, int shard, int shards) {
+        long nowTruncatedToPeriod = System.currentTimeMillis() / type.period;
+        Map<AggregationKey, AggregationValue> result = new HashMap<>();
+        for (int i = shard; i < stripes.length; i += shards) {
+            stripes[i].drainOutdated(type, nowTruncatedToPeriod, result);
+        }
+        return result;
+    }
+
+    /**
+     * Snapshot of the current aggregates. Creates objects for every aggregate, so not for the hot path.
+     */
+    public Map<AggregationKey, AggregationValue> getSnapshot(GraphGranularityType type) {
+        Map<AggregationKey, AggregationValue> result = new HashMap<>();
+        for (AggregationStripe stripe : stripes) {
+            stripe.copyTo(type, result);
+        }
+        return result;
+    }
+
+    public Map<AggregationKey, AggregationValue> getMinute() {
+        return getSnapshot(GraphGranularityType.MINUTE);
+    }
+
+    public Map<AggregationKey, AggregationValue> getHourly() {
+        return getSnapshot(GraphGranularityType.HOURLY);
+    }
+
+    public Map<AggregationKey, AggregationValue> getDaily() {
+        return getSnapshot(GraphGranularityType.DAILY);
+    }
+
+    public int size(GraphGranularityType type) {
+        int size = 0;
+        for (AggregationStripe stripe : stripes) {
+            size += stripe.size(type);
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (AggregationStripe stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    private void store(GraphGranularityType type) {
+        if (size(type) == 0) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        Path path = Paths.get(dataFolder, snapshotFileName(type));
+        try (var writer = new AggregationSnapshot.Writer(path, type)) {
+            for (AggregationStripe stripe : stripes) {
+                stripe.writeTo(type, writer);
+            }
+            writer.complete();
+            log.info("Stored {} {} aggregates in {} ms.",
+                    writer.getRecords(), type, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("Error storing {} aggregates to {}.", type, path, e);
+        }
     }
 
     @Override
     public void close() {
-        if (minute.size() > 100_000) {
-            log.info("Too many minute records ({}). "
-                    + "This may cause performance issues on server start. Skipping.", minute.size());
-        } else {
-            serialize(Paths.get(dataFolder, MINUTE_TEMP_FILENAME), minute);
-        }
-        serialize(Paths.get(dataFolder, HOURLY_TEMP_FILENAME), hourly);
-        serialize(Paths.get(dataFolder, DAILY_TEMP_FILENAME), daily);
+        Arrays.stream(GraphGranularityType.getValues()).parallel().forEach(this::store);
     }
 
 }
@@ -0,0 +1,409 @@
+package cc.blynk.server.core.reporting.disk;
+
+import cc.blynk.utils.structure.LRUCache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+
+/**
+ * Reads reporting pin files via cached memory mappings.
+ * Every record is value (double) and timestamp (long). Records are usually sorted by timestamp,
+ * but late values are appended after the newer ones, so file is checked once per mapping.
+ * Time windows of the sorted files are found with the binary search, other files are scanned.
+ * Only requested window is copied to heap.
+ *
+ * Mapping covers file size at the moment of mapping and is kept while the file is appended,
+ * file is mapped again only when its size or identity doesn't match the mapping anymore.
+ * Mappings are not unmapped explicitly and are released by GC.
+ * Ring pin files ({@link RingPinFile}) are read the same way, starting from the oldest slot.
+ * They are preallocated and written in place, so the mapping sees the writes without remapping.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class ReportingDiskReader {
+
+    public static final int DEFAULT_MAX_MAPPED_FILES = 512;
+
+    private static final int TS_OFFSET = 8;
+
+    public interface ChunkConsumer {
+        void accept(ByteBuffer chunk) throws IOException;
+    }
+
+    private final LRUCache<Path, Mapping> mappings;
+
+    //file shrinking (truncation) while other thread reads the mapping ends up with SIGBUS,
+    //ring file records are overwritten in place, so reads are shared and truncation and ring writes are exclusive
+    private final ReadWriteLock truncationLock = new ReentrantReadWriteLock();
+
+    public ReportingDiskReader(int maxMappedFiles) {
+        this.mappings = new LRUCache<>(maxMappedFiles);
+    }
+
+    /**
+     * Read bunch of last records from file.
+     *
+     * @param file  - file to read
+     * @param count - number of records to read
+     * @param skip  - number of entries to skip from the end
+     * @return - heap byte buffer with data or null if there is no data
+     */
+    public ByteBuffer readLast(Path file, int count, int skip) throws IOException {
+        truncationLock.readLock().lock();
+        try {
+            Records records = new Records(getMapping(file).buffer);
+            int end = records.count - skip;
+            int start = Math.max(0, end - count);
+            if (end - start <= 0) {
+                return null;
+            }
+            return records.copy(start, end - start);
+        } finally {
+            truncationLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Read records within [from, to] time window.
+     *
+     * @param file     - file to read
+     * @param from     - start of the window, inclusive
+     * @param to       - end of the window, inclusive
+     * @param maxCount - maximum number of records to return, the latest records are taken
+     * @return - heap byte buffer with data or null if there is no data
+     */
+    public ByteBuffer readRange(Path file, long from, long to, int maxCount) throws IOException {
+        truncationLock.readLock().lock();
+        try {
+            Mapping mapping = getMapping(file);
+            Records records = new Records(mapping.buffer);
+            if (!mapping.isSorted(records)) {
+                return records.copyWithin(from, to, maxCount);
+            }
+            int start = records.firstRecordAfter(from - 1);
+            int end = records.firstRecordAfter(to);
+            int count = Math.min(end - start, maxCount);
+            if (count <= 0) {
+                return null;
+            }
+            return records.copy(end - count, count);
+        } finally {
+            truncationLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Passes maxCount latest records with ts >= from to the consumer chunk by chunk.
+     * Lock is held only while the chunk is copied, so slow consumers don't block truncation.
+     * Next chunk starts after the last read record, it is looked up again in case older records were
+     * removed by the truncation or overwritten in the ring file between the chunks.
+     *
+     * @param chunk - reused buffer, its capacity defines the chunk size
+     * @return - number of passed records
+     */
+    public int readChunked(Path file, long from, int maxCount,
+                           ByteBuffer chunk, ChunkConsumer consumer) throws IOException {
+        int chunkRecords = chunk.capacity() / SIZE_OF_REPORT_ENTRY;
+        int passed = 0;
+        int read = 0;
+        int next = -1;
+        long lastValueBits = 0;
+        long lastTs = 0;
+        while (read < maxCount) {
+            chunk.clear();
+            int kept;
+            truncationLock.readLock().lock();
+            try {
+                Records records = new Records(getMapping(file).buffer);
+                next = next == -1
+                        ? Math.max(0, records.count - maxCount)
+                        : records.indexAfter(next, lastValueBits, lastTs);
+                int count = Math.min(Math.min(records.count - next, maxCount - read), chunkRecords);
+                if (count <= 0) {
+                    break;
+                }
+                records.copyTo(next, count, chunk);
+                int last = (count - 1) * SIZE_OF_REPORT_ENTRY;
+                lastValueBits = chunk.getLong(last);
+                lastTs = chunk.getLong(last + TS_OFFSET);
+                next += count;
+                read += count;
+                kept = keepFrom(chunk, count, from);
+            } finally {
+                truncationLock.readLock().unlock();
+            }
+            if (kept > 0) {
+                chunk.position(kept * SIZE_OF_REPORT_ENTRY).flip();
+                consumer.accept(chunk);
+                passed += kept;
+            }
+        }
+        return passed;
+    }
+
+    //records are not always sorted by timestamp, late values are appended after the newer ones,
+    //so every record is checked. returns number of records left at the start of the chunk
+    private static int keepFrom(ByteBuffer chunk, int count, long from) {
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            int offset = i * SIZE_OF_REPORT_ENTRY;
+            long ts = chunk.getLong(offset + TS_OFFSET);
+            if (ts >= from) {
+                if (kept != i) {
+                    int keptOffset = kept * SIZE_OF_REPORT_ENTRY;
+                    chunk.putLong(keptOffset, chunk.getLong(offset));
+                    chunk.putLong(keptOffset + TS_OFFSET, ts);
+                }
+                kept++;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Keeps only last records in the file.
+     *
+     * @return - true in case file was truncated
+     */
+    public boolean truncate(Path file, int maxRecordsCount) throws IOException {
+        truncationLock.writeLock().lock();
+        try {
+            invalidate(file);
+            if (Files.size(file) <= (long) maxRecordsCount * SIZE_OF_REPORT_ENTRY) {
+                return false;
+            }
+            //ring file keeps fixed number of records by itself
+            if (RingPinFile.isRingFile(file)) {
+                return false;
+            }
+            ByteBuffer lastRecords = readLast(file, maxRecordsCount, 0);
+            //we don't want to keep mapping of the file that is going to be rewritten
+            invalidate(file);
+            try (OutputStream os = Files.newOutputStream(file, TRUNCATE_EXISTING)) {
+                os.write(lastRecords.array());
+            }
+            return true;
+        } finally {
+            truncationLock.writeLock().unlock();
+        }
+    }
+
+    Lock exclusiveLock() {
+        return truncationLock.writeLock();
+    }
+
+    public void invalidate(Path file) {
+        synchronized (mappings) {
+            mappings.remove(file);
+        }
+    }
+
+    public int size() {
+        synchronized (mappings) {
+            return mappings.size();
+        }
+    }
+
+    //mapping is created under the lock, so invalidation from writer can't be overtaken by stale mapping.
+    //appended file is bigger than its mapping, converted ring file is the new file
+    private Mapping getMapping(Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        synchronized (mappings) {
+            Mapping mapping = mappings.get(file);
+            if (mapping == null || !mapping.isActual(attributes)) {
+                try (FileChannel channel = FileChannel.open(file, READ)) {
+                    mapping = new Mapping(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()),
+                            attributes.fileKey());
+                }
+                mappings.put(file, mapping);
+            }
+            return mapping;
+        }
+    }
+
+    private static final class Mapping {
+
+        private static final int UNKNOWN = 0;
+        private static final int SORTED = 1;
+        private static final int NOT_SORTED = 2;
+
+        final MappedByteBuffer buffer;
+        private final Object fileKey;
+
+        //order is known for the records view it was checked for, guarded by this.
+        //appended records are checked only from the last known one, moved ring start or
+        //overwritten last known record (ring file wrapped around) requires full check
+        private int order = UNKNOWN;
+        private int checkedFirst;
+        private int checkedCount;
+        private long checkedLastTs;
+
+        Mapping(MappedByteBuffer buffer, Object fileKey) {
+            this.buffer = buffer;
+            this.fileKey = fileKey;
+        }
+
+        //file key is null on file systems that don't support it, so only the size is compared there
+        boolean isActual(BasicFileAttributes attributes) {
+            return attributes.size() == buffer.capacity() && Objects.equals(attributes.fileKey(), fileKey);
+        }
+
+        synchronized boolean isSorted(Records records) {
+            if (order == UNKNOWN || records.first != checkedFirst || records.count < checkedCount
+                    || (checkedCount > 0 && records.ts(checkedCount - 1) != checkedLastTs)) {
+                order = records.isSorted(1) ? SORTED : NOT_SORTED;
+            } else if (order == SORTED && records.count > checkedCount) {
+                order = records.isSorted(Math.max(1, checkedCount)) ? SORTED : NOT_SORTED;
+            }
+            checkedFirst = records.first;
+            checkedCount = records.count;
+            checkedLastTs = records.count > 0 ? records.ts(records.count - 1) : 0;
+            return order == SORTED;
+        }
+    }
+
+    /**
+     * Logical view over the records of the mapped pin file, oldest record first.
+     * Records of the append only file start at 0, records of the ring file start after the oldest slot.
+     */
+    private static final class Records {
+
+        private final ByteBuffer mapped;
+        private final int base;
+        private final int capacity;
+        final int first;
+        final int count;
+
+        Records(MappedByteBuffer mapped) {
+            this.mapped = mapped;
+            if (RingPinFile.isRing(mapped)) {
+                this.base = RingPinFile.HEADER_SIZE;
+                int ringCapacity = mapped.getInt(RingPinFile.CAPACITY_OFFSET);
+                //file with the broken header is read as empty
+                this.capacity = Math.max(1, ringCapacity);
+                this.count = ringCapacity > 0 ? mapped.getInt(RingPinFile.COUNT_OFFSET) : 0;
+                int head = mapped.getInt(RingPinFile.HEAD_OFFSET);
+                this.first = Math.floorMod(head - count, capacity);
+            } else {
+                this.base = 0;
+                this.capacity = mapped.capacity() / SIZE_OF_REPORT_ENTRY;
+                this.count = capacity;
+                this.first = 0;
+            }
+        }
+
+        private int offset(int index) {
+            return base + ((first + index) % capacity) * SIZE_OF_REPORT_ENTRY;
+        }
+
+        long ts(int index) {
+            return mapped.getLong(offset(index) + TS_OFFSET);
+        }
+
+        long valueBits(int index) {
+            return mapped.getLong(offset(index));
+        }
+
+        //index after the given record, record is never moved to the higher index, only older records are removed
+        int indexAfter(int expected, long valueBits, long ts) {
+            for (int i = Math.min(expected, count) - 1; i >= 0; i--) {
+                if (ts(i) == ts && valueBits(i) == valueBits) {
+                    return i + 1;
+                }
+            }
+            //record itself was removed, so all the records left are newer
+            return 0;
+        }
+
+        //true when records starting from the given one are not older than previous ones
+        boolean isSorted(int from) {
+            for (int i = from; i < count; i++) {
+                if (ts(i) < ts(i - 1)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        //index of the first record with ts > given ts, records should be sorted
+        int firstRecordAfter(long ts) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (ts(mid) <= ts) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        //maxCount latest records within [from, to], in the order of the file
+        ByteBuffer copyWithin(long from, long to, int maxCount) {
+            int start = count;
+            int matched = 0;
+            for (int i = count - 1; i >= 0 && matched < maxCount; i--) {
+                long ts = ts(i);
+                if (ts >= from && ts <= to) {
+                    start = i;
+                    matched++;
+                }
+            }
+            if (matched == 0) {
+                return null;
+            }
+            ByteBuffer result = ByteBuffer.allocate(matched * SIZE_OF_REPORT_ENTRY);
+            for (int i = start; i < count && result.hasRemaining(); i++) {
+                long ts = ts(i);
+                if (ts >= from && ts <= to) {
+                    result.putLong(valueBits(i));
+                    result.putLong(ts);
+                }
+            }
+            result.flip();
+            return result;
+        }
+
+        ByteBuffer copy(int start, int length) {
+            ByteBuffer result = ByteBuffer.allocate(length * SIZE_OF_REPORT_ENTRY);
+            copyTo(start, length, result);
+            result.flip();
+            return result;
+        }
+
+        //ring records may wrap around the end of the file, so copied with 2 parts at most
+        void copyTo(int start, int length, ByteBuffer dst) {
+            int physical = (first + start) % capacity;
+            int tillEnd = Math.min(length, capacity - physical);
+            put(dst, offset(start), tillEnd);
+            if (length > tillEnd) {
+                put(dst, base, length - tillEnd);
+            }
+        }
+
+        private void put(ByteBuffer dst, int offset, int records) {
+            ByteBuffer window = mapped.duplicate();
+            window.position(offset).limit(offset + records * SIZE_OF_REPORT_ENTRY);
+            dst.put(window);
+        }
+    }
+
+}
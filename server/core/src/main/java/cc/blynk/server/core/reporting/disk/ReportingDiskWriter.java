@@ -0,0 +1,281 @@
+package cc.blynk.server.core.reporting.disk;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.reporting.average.AggregationKey;
+import cc.blynk.server.core.reporting.average.AggregationValue;
+import cc.blynk.utils.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static cc.blynk.server.core.dao.ReportingDiskDao.generateFilename;
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+
+/**
+ * Flushes aggregated reporting entries to the pin files.
+ * Entries are grouped by user folder and pin file, so every file
+ * receives all its entries with a single write via pooled channel.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class ReportingDiskWriter implements Closeable {
+
+    private static final Logger log = LogManager.getLogger(ReportingDiskWriter.class);
+
+    public static final int DEFAULT_MAX_OPEN_FILES = 1024;
+
+    private static final int SERIES_EPOCH_STRIPES = 4096;
+    //reporting flush writes from few threads, so channels pool is striped to avoid the single lock
+    private static final int CHANNEL_STRIPES = 16;
+
+    private final String dataFolder;
+    private final ReportingFileChannels[] channels;
+    private final ReportingDiskReader diskReader;
+    private final ReportingFileIndex fileIndex;
+    //records capacity of the ring files per granularity, null when append only files are used
+    private final int[] ringCapacity;
+
+    private volatile long runStartTs;
+    //files and entries of the shards finished since the last completed run. shards count their own
+    //files and entries and add them when done, so the shard finished after the deadline goes to the next run
+    private final AtomicInteger flushedFiles = new AtomicInteger();
+    private final AtomicInteger flushedEntries = new AtomicInteger();
+
+    //epochs of the pin files, striped by the file name. Epoch is changed every time the file is changed,
+    //so cached reads of the file could be invalidated. Epochs only grow, so sum of them identifies the state.
+    private final AtomicLongArray seriesEpochs = new AtomicLongArray(SERIES_EPOCH_STRIPES);
+
+    private volatile long lastFlushDuration;
+    private volatile int lastFlushFiles;
+    private volatile int lastFlushEntries;
+    private volatile long lastFlushLag;
+    private volatile int lastSkippedShards;
+
+    public ReportingDiskWriter(String dataFolder, int maxOpenFiles,
+                               ReportingDiskReader diskReader, ReportingFileIndex fileIndex) {
+        this(dataFolder, maxOpenFiles, diskReader, fileIndex, null);
+    }
+
+    public ReportingDiskWriter(String dataFolder, int maxOpenFiles,
+                               ReportingDiskReader diskReader, ReportingFileIndex fileIndex,
+                               int[] ringCapacity) {
+        this.dataFolder = dataFolder;
+        this.channels = new ReportingFileChannels[CHANNEL_STRIPES];
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = new ReportingFileChannels(Math.max(1, maxOpenFiles / CHANNEL_STRIPES));
+        }
+        this.diskReader = diskReader;
+        this.fileIndex = fileIndex;
+        this.ringCapacity = ringCapacity;
+    }
+
+    /**
+     * @return - records capacity of the ring files, indexed by {@link GraphGranularityType#ordinal()}
+     * @throws IllegalArgumentException - when any of the periods is not positive, ring file can't be empty
+     */
+    public static int[] ringCapacity(int minuteDays, int hourlyDays, int dailyDays) {
+        if (minuteDays <= 0 || hourlyDays <= 0 || dailyDays <= 0) {
+            throw new IllegalArgumentException("Ring files should keep at least 1 day of data. Minute days : "
+                    + minuteDays + ", hourly days : " + hourlyDays + ", daily days : " + dailyDays + ".");
+        }
+        int[] capacity = new int[GraphGranularityType.getValues().length];
+        capacity[GraphGranularityType.MINUTE.ordinal()] = (int) TimeUnit.DAYS.toMinutes(minuteDays);
+        capacity[GraphGranularityType.HOURLY.ordinal()] = (int) TimeUnit.DAYS.toHours(hourlyDays);
+        capacity[GraphGranularityType.DAILY.ordinal()] = dailyDays;
+        return capacity;
+    }
+
+    public void beginFlush() {
+        this.runStartTs = System.currentTimeMillis();
+    }
+
+    /**
+     * Adds files and entries flushed by the shard to the stats of the run.
+     */
+    public void shardFlushed(FlushCounters counters) {
+        flushedFiles.addAndGet(counters.files);
+        flushedEntries.addAndGet(counters.entries);
+    }
+
+    /**
+     * @param flushLag - millis between the minute the flush was scheduled for and the flush completion
+     * @param skippedShards - shards that were not flushed during the run, their data is kept till the next run
+     */
+    public void completeFlush(long flushLag, int skippedShards) {
+        this.lastFlushDuration = System.currentTimeMillis() - runStartTs;
+        this.lastFlushFiles = flushedFiles.getAndSet(0);
+        this.lastFlushEntries = flushedEntries.getAndSet(0);
+        this.lastFlushLag = flushLag;
+        this.lastSkippedShards = skippedShards;
+        log.debug("Reporting flush took {} ms. Files : {}, entries : {}, lag : {} ms.",
+                lastFlushDuration, lastFlushFiles, lastFlushEntries, flushLag);
+    }
+
+    /**
+     * Removes all outdated entries from the map and stores them to disk.
+     *
+     * @param map - reporting entries that were created during last period.
+     * @param type - type of reporting. Could be minute, hourly, daily.
+     * @param counters - counters of the flushing shard, written files and entries are added to them.
+     * @return - entries that were successfully flushed to disk.
+     */
+    public Map<AggregationKey, AggregationValue> flush(Map<AggregationKey, AggregationValue> map,
+                                                       GraphGranularityType type, FlushCounters counters) {
+        if (map.size() == 0) {
+            return Collections.emptyMap();
+        }
+
+        AggregationKey[] keys = map.keySet().toArray(new AggregationKey[0]);
+        Arrays.sort(keys, AggregationKey.AGGREGATION_KEY_COMPARATOR);
+
+        //user folder -> pin file -> entries sorted by ts
+        Map<String, Map<String, List<AggregationKey>>> userFolders = new HashMap<>();
+        Map<AggregationKey, AggregationValue> outdated = new HashMap<>();
+
+        long now = System.currentTimeMillis();
+        long nowTruncatedToPeriod = now / type.period;
+        for (AggregationKey key : keys) {
+            if (key.isOutdated(nowTruncatedToPeriod)) {
+                AggregationValue value = map.remove(key);
+                if (value != null) {
+                    outdated.put(key, value);
+                    String userFolder = FileUtils.getUserStorageDir(key.getEmail(), key.getAppName());
+                    String fileName = generateFilename(key.getDashId(),
+                            key.getDeviceId(), key.getPinType(), key.getPin(), type);
+                    userFolders.computeIfAbsent(userFolder, k -> new LinkedHashMap<>())
+                            .computeIfAbsent(fileName, k -> new ArrayList<>())
+                            .add(key);
+                }
+            }
+        }
+
+        var removedKeys = new HashMap<AggregationKey, AggregationValue>(outdated.size());
+        for (Map.Entry<String, Map<String, List<AggregationKey>>> userFolder : userFolders.entrySet()) {
+            for (Map.Entry<String, List<AggregationKey>> pinFile : userFolder.getValue().entrySet()) {
+                List<AggregationKey> fileKeys = pinFile.getValue();
+                ByteBuffer buf = ByteBuffer.allocate(fileKeys.size() * SIZE_OF_REPORT_ENTRY);
+                for (AggregationKey key : fileKeys) {
+                    buf.putDouble(outdated.get(key).calcAverage())
+                       .putLong(key.getTs(type));
+                }
+                buf.flip();
+
+                try {
+                    Path pinFilePath = Paths.get(dataFolder, userFolder.getKey(), pinFile.getKey());
+                    ReportingFileChannels fileChannels = channels(pinFilePath);
+                    long size = ringCapacity == null
+                            ? fileChannels.append(pinFilePath, buf)
+                            : fileChannels.appendRing(pinFilePath, buf, type, ringCapacity[type.ordinal()],
+                                                      diskReader.exclusiveLock());
+                    fileIndex.update(userFolder.getKey(), pinFile.getKey(), size, now, ringCapacity != null);
+                    seriesEpochs.incrementAndGet(stripe(userFolder.getKey(), pinFile.getKey()));
+                    for (AggregationKey key : fileKeys) {
+                        removedKeys.put(key, outdated.get(key));
+                    }
+                    counters.files++;
+                    counters.entries += fileKeys.size();
+                } catch (Exception ioe) {
+                    log.error("Error writing reporting file. Reason : {}", ioe.getMessage());
+                }
+            }
+        }
+
+        return removedKeys;
+    }
+
+    /**
+     * Releases pooled channel of the file. Should be called before the file removal.
+     */
+    public void release(Path reportingFile) {
+        channels(reportingFile).close(reportingFile);
+        diskReader.invalidate(reportingFile);
+    }
+
+    /**
+     * Should be called after the file was removed or truncated.
+     */
+    public void invalidateSeries(Path reportingFile) {
+        Path userFolder = reportingFile.getParent();
+        if (userFolder != null) {
+            seriesEpochs.incrementAndGet(
+                    stripe(userFolder.getFileName().toString(), reportingFile.getFileName().toString()));
+        }
+    }
+
+    /**
+     * Epoch should be taken before the file is read, so records written after the read always change it.
+     */
+    public long getSeriesEpoch(String userFolder, String fileName) {
+        return seriesEpochs.get(stripe(userFolder, fileName));
+    }
+
+    private ReportingFileChannels channels(Path reportingFile) {
+        return channels[(reportingFile.hashCode() & Integer.MAX_VALUE) % CHANNEL_STRIPES];
+    }
+
+    private static int stripe(String userFolder, String fileName) {
+        return (31 * userFolder.hashCode() + fileName.hashCode()) & (SERIES_EPOCH_STRIPES - 1);
+    }
+
+    public long getLastFlushDuration() {
+        return lastFlushDuration;
+    }
+
+    public int getLastFlushFiles() {
+        return lastFlushFiles;
+    }
+
+    public int getLastFlushEntries() {
+        return lastFlushEntries;
+    }
+
+    public long getLastFlushLag() {
+        return lastFlushLag;
+    }
+
+    public int getLastSkippedShards() {
+        return lastSkippedShards;
+    }
+
+    public int getOpenFiles() {
+        int openFiles = 0;
+        for (ReportingFileChannels stripe : channels) {
+            openFiles += stripe.size();
+        }
+        return openFiles;
+    }
+
+    @Override
+    public void close() {
+        for (ReportingFileChannels stripe : channels) {
+            stripe.close();
+        }
+    }
+
+    /**
+     * Files and entries written by the one flushing shard, not thread safe.
+     */
+    public static final class FlushCounters {
+
+        private int files;
+        private int entries;
+
+    }
+
+}
@@ -0,0 +1,180 @@
+package cc.blynk.server.core.reporting.disk;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * LRU pool of channels for the reporting files.
+ * Keeps most recently written pin files open between reporting runs,
+ * so we don't pay for open/close syscalls on every flush.
+ *
+ * All operations are synchronized, as files may be removed from
+ * other threads (history cleaners, user removal) while the reporting worker writes.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+final class ReportingFileChannels implements Closeable {
+
+    private static final Logger log = LogManager.getLogger(ReportingFileChannels.class);
+
+    private final LinkedHashMap<Path, FileChannel> channels;
+
+    ReportingFileChannels(int maxOpenFiles) {
+        this.channels = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, FileChannel> eldest) {
+                if (size() > maxOpenFiles) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Appends whole buffer to the end of the file with a single write call.
+     * Creates file and all parent folders in case they are missing.
+     *
+     * @return - size of the file after the append
+     */
+    synchronized long append(Path file, ByteBuffer buf) throws IOException {
+        FileChannel channel = getOrOpen(file);
+        try {
+            RingPinFile.writeFully(channel, buf, channel.size());
+            return channel.size();
+        } catch (IOException e) {
+            channels.remove(file);
+            closeQuietly(channel);
+            throw e;
+        }
+    }
+
+    /**
+     * Writes records to the ring file. New file is created as the ring file,
+     * existing append only file is converted to the ring file with its latest records.
+     *
+     * @param exclusive - lock that excludes readers while records are overwritten in place
+     * @return - size of the records stored in the file after the append
+     */
+    synchronized long appendRing(Path file, ByteBuffer buf, GraphGranularityType type,
+                                 int capacity, Lock exclusive) throws IOException {
+        FileChannel channel = getOrOpen(file);
+        //readers shouldn't see the file without header or partially overwritten records
+        exclusive.lock();
+        try {
+            if (channel.size() == 0) {
+                RingPinFile.init(channel, type, capacity);
+            } else if (!RingPinFile.isRing(channel)) {
+                channel = convert(file, channel, type, capacity);
+            }
+            return (long) RingPinFile.append(channel, buf) * SIZE_OF_REPORT_ENTRY;
+        } catch (IOException e) {
+            channels.remove(file);
+            closeQuietly(channel);
+            throw e;
+        } finally {
+            exclusive.unlock();
+        }
+    }
+
+    //ring file is built aside and replaces append only file, readers keep old mapping till invalidation
+    private FileChannel convert(Path file, FileChannel legacy, GraphGranularityType type,
+                                int capacity) throws IOException {
+        long legacySize = legacy.size() - legacy.size() % SIZE_OF_REPORT_ENTRY;
+        long start = Math.max(0, legacySize - (long) capacity * SIZE_OF_REPORT_ENTRY);
+        ByteBuffer latest = ByteBuffer.allocate((int) (legacySize - start));
+        while (latest.hasRemaining()) {
+            if (legacy.read(latest, start + latest.position()) < 0) {
+                break;
+            }
+        }
+        latest.flip();
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        FileChannel ring = FileChannel.open(tmp, CREATE, READ, WRITE, TRUNCATE_EXISTING);
+        try {
+            RingPinFile.init(ring, type, capacity);
+            RingPinFile.append(ring, latest);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            closeQuietly(ring);
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        closeQuietly(legacy);
+        channels.put(file, ring);
+        log.debug("Converted {} to the ring file.", file);
+        return ring;
+    }
+
+    private FileChannel getOrOpen(Path file) throws IOException {
+        FileChannel channel = channels.get(file);
+        if (channel == null) {
+            channel = open(file);
+            channels.put(file, channel);
+        }
+        return channel;
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        try {
+            return FileChannel.open(file, CREATE, READ, WRITE);
+        } catch (NoSuchFileException noFolder) {
+            Files.createDirectories(file.getParent());
+            return FileChannel.open(file, CREATE, READ, WRITE);
+        }
+    }
+
+    /**
+     * Should be called before file removal, otherwise pooled channel
+     * will continue writing to the unlinked file.
+     */
+    synchronized void close(Path file) {
+        FileChannel channel = channels.remove(file);
+        if (channel != null) {
+            closeQuietly(channel);
+        }
+    }
+
+    synchronized int size() {
+        return channels.size();
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug("Error closing reporting file channel.", e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        for (FileChannel channel : channels.values()) {
+            closeQuietly(channel);
+        }
+        channels.clear();
+    }
+}
@@ -0,0 +1,346 @@
+package cc.blynk.server.core.reporting.disk;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Index of the reporting pin files : user folder -> pin file name -> size and last write.
+ * Writer updates index on every append, so daily cleanup and truncation jobs
+ * work only with files that need it and don't walk millions of files on disk.
+ *
+ * Index is stored to disk on server stop and removed on load, so after the crash
+ * or on the first start it is rebuilt with a single walk over the reporting folder.
+ * Stored index is verified on load : user folders modified since the store (files copied
+ * or removed while server was stopped) are rescanned, so index doesn't miss files not
+ * written by the writer.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class ReportingFileIndex {
+
+    private static final Logger log = LogManager.getLogger(ReportingFileIndex.class);
+
+    private static final String INDEX_FILE_NAME = "reporting_files.idx";
+    private static final int VERSION = 2;
+
+    public static final class FileEntry {
+
+        public volatile long size;
+        public volatile long lastWriteTs;
+        //ring files keep own capacity, so they are never truncated
+        public volatile boolean ring;
+
+        FileEntry(long size, long lastWriteTs, boolean ring) {
+            this.size = size;
+            this.lastWriteTs = lastWriteTs;
+            this.ring = ring;
+        }
+    }
+
+    private final Path dataFolder;
+    private final Path indexFile;
+    private final ConcurrentHashMap<String, Map<String, FileEntry>> folders;
+
+    private volatile boolean loaded;
+
+    public ReportingFileIndex(String dataFolder) {
+        this.dataFolder = Paths.get(dataFolder);
+        this.indexFile = this.dataFolder.resolve(INDEX_FILE_NAME);
+        this.folders = new ConcurrentHashMap<>();
+    }
+
+    public void update(String userFolder, String fileName, long size, long lastWriteTs) {
+        update(userFolder, fileName, size, lastWriteTs, false);
+    }
+
+    /**
+     * Called by the writer after every append, so entry is created for the new files.
+     */
+    public void update(String userFolder, String fileName, long size, long lastWriteTs, boolean ring) {
+        //compute is atomic per folder, so update can't be lost with concurrent empty folder removal
+        folders.compute(userFolder, (key, files) -> {
+            if (files == null) {
+                files = new ConcurrentHashMap<>();
+            }
+            FileEntry entry = files.get(fileName);
+            if (entry == null) {
+                files.put(fileName, new FileEntry(size, lastWriteTs, ring));
+            } else {
+                entry.size = size;
+                entry.lastWriteTs = lastWriteTs;
+                entry.ring = ring;
+            }
+            return files;
+        });
+    }
+
+    public void remove(Path reportingFile) {
+        Path userFolder = reportingFile.getParent();
+        if (userFolder != null) {
+            Map<String, FileEntry> files = folders.get(userFolder.getFileName().toString());
+            if (files != null) {
+                files.remove(reportingFile.getFileName().toString());
+            }
+        }
+    }
+
+    /**
+     * @return - true in case folder had no files and was removed from the index.
+     */
+    public boolean removeFolderIfEmpty(String userFolder) {
+        boolean[] removed = {false};
+        folders.computeIfPresent(userFolder, (key, files) -> {
+            if (files.isEmpty()) {
+                removed[0] = true;
+                return null;
+            }
+            return files;
+        });
+        return removed[0];
+    }
+
+    public Set<String> folders() {
+        ensureLoaded();
+        return folders.keySet();
+    }
+
+    public Map<String, FileEntry> files(String userFolder) {
+        ensureLoaded();
+        Map<String, FileEntry> files = folders.get(userFolder);
+        return files == null ? Collections.emptyMap() : files;
+    }
+
+    public Path path(String userFolder, String fileName) {
+        return dataFolder.resolve(userFolder).resolve(fileName);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Map<String, FileEntry> files : folders.values()) {
+            size += files.size();
+        }
+        return size;
+    }
+
+    private void ensureLoaded() {
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) {
+                    if (!load()) {
+                        rebuild();
+                    }
+                    loaded = true;
+                }
+            }
+        }
+    }
+
+    private boolean load() {
+        if (Files.notExists(indexFile)) {
+            return false;
+        }
+        long start = System.currentTimeMillis();
+        Map<String, Map<String, FileEntry>> loadedFolders = new HashMap<>();
+        Map<String, Long> foldersModifiedTs = new HashMap<>();
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (dis.readInt() != VERSION) {
+                log.warn("Unsupported reporting index version. Rebuilding.");
+                return false;
+            }
+            while (dis.readBoolean()) {
+                String userFolder = dis.readUTF();
+                foldersModifiedTs.put(userFolder, dis.readLong());
+                int filesCount = dis.readInt();
+                Map<String, FileEntry> files = new ConcurrentHashMap<>(filesCount);
+                for (int i = 0; i < filesCount; i++) {
+                    files.put(dis.readUTF(), new FileEntry(dis.readLong(), dis.readLong(), dis.readBoolean()));
+                }
+                loadedFolders.put(userFolder, files);
+            }
+        } catch (IOException e) {
+            log.error("Error reading reporting index. Rebuilding. Reason : {}", e.getMessage());
+            return false;
+        } finally {
+            //index is valid only till the next start, crash leaves no index and it is rebuilt
+            deleteIndexFile();
+        }
+        int rescanned;
+        try {
+            rescanned = verify(loadedFolders, foldersModifiedTs);
+        } catch (IOException e) {
+            log.error("Error verifying reporting index. Rebuilding. Reason : {}", e.getMessage());
+            return false;
+        }
+        mergeLoaded(loadedFolders);
+        log.info("Loaded reporting index with {} files in {} ms. Rescanned {} folders.",
+                size(), System.currentTimeMillis() - start, rescanned);
+        return true;
+    }
+
+    //only user folders are listed, files of the folder are listed only when the folder was modified after the store
+    private int verify(Map<String, Map<String, FileEntry>> loadedFolders,
+                       Map<String, Long> foldersModifiedTs) throws IOException {
+        if (Files.notExists(dataFolder)) {
+            loadedFolders.clear();
+            return 0;
+        }
+        int rescanned = 0;
+        Map<String, Map<String, FileEntry>> verified = new HashMap<>();
+        try (DirectoryStream<Path> userFolders = Files.newDirectoryStream(dataFolder)) {
+            for (Path userFolder : userFolders) {
+                BasicFileAttributes attrs = Files.readAttributes(userFolder, BasicFileAttributes.class);
+                if (!attrs.isDirectory()) {
+                    continue;
+                }
+                String folderName = userFolder.getFileName().toString();
+                Map<String, FileEntry> files = loadedFolders.get(folderName);
+                Long modifiedTs = foldersModifiedTs.get(folderName);
+                if (files == null || modifiedTs == null || modifiedTs != modifiedTs(attrs)) {
+                    files = scan(userFolder);
+                    rescanned++;
+                }
+                verified.put(folderName, files);
+            }
+        }
+        loadedFolders.clear();
+        loadedFolders.putAll(verified);
+        return rescanned;
+    }
+
+    private static long modifiedTs(BasicFileAttributes attrs) {
+        //millis are not enough for the files written right after the store
+        return attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    //writer may have updated entries while index was loaded, those entries are more recent
+    private void mergeLoaded(Map<String, Map<String, FileEntry>> loadedFolders) {
+        for (Map.Entry<String, Map<String, FileEntry>> loadedFolder : loadedFolders.entrySet()) {
+            folders.merge(loadedFolder.getKey(), loadedFolder.getValue(), (current, fromDisk) -> {
+                fromDisk.putAll(current);
+                return fromDisk;
+            });
+        }
+    }
+
+    /**
+     * Walks over the reporting folder and replaces the index with files that are on disk.
+     * Empty user folders are removed.
+     */
+    public synchronized void rebuild() {
+        long start = System.currentTimeMillis();
+        Map<String, Map<String, FileEntry>> scanned = new HashMap<>();
+        if (Files.exists(dataFolder)) {
+            try (DirectoryStream<Path> userFolders = Files.newDirectoryStream(dataFolder)) {
+                for (Path userFolder : userFolders) {
+                    if (Files.isDirectory(userFolder)) {
+                        scanned.put(userFolder.getFileName().toString(), scan(userFolder));
+                    }
+                }
+            } catch (IOException e) {
+                log.error("Error rebuilding reporting index. Reason : {}", e.getMessage());
+            }
+        }
+
+        folders.keySet().retainAll(scanned.keySet());
+        folders.putAll(scanned);
+        loaded = true;
+        log.info("Rebuilt reporting index with {} files in {} ms.", size(), System.currentTimeMillis() - start);
+    }
+
+    private static Map<String, FileEntry> scan(Path userFolder) throws IOException {
+        Map<String, FileEntry> files = new ConcurrentHashMap<>();
+        try (DirectoryStream<Path> reportingFiles = Files.newDirectoryStream(userFolder)) {
+            for (Path reportingFile : reportingFiles) {
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(reportingFile, BasicFileAttributes.class);
+                    if (attrs.isRegularFile()) {
+                        //ring flag is checked by the truncation only for the big files
+                        files.put(reportingFile.getFileName().toString(),
+                                new FileEntry(attrs.size(), attrs.lastModifiedTime().toMillis(), false));
+                    }
+                } catch (NoSuchFileException removed) {
+                    log.trace("Reporting file {} removed during index rebuild.", reportingFile);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Stores index to disk. Index that wasn't loaded contains only files written
+     * since the start, so it is not stored and is rebuilt on the next start.
+     */
+    public synchronized void save() {
+        if (!loaded) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        Path tmp = dataFolder.resolve(INDEX_FILE_NAME + ".tmp");
+        try {
+            Files.createDirectories(dataFolder);
+            try (DataOutputStream dos = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                dos.writeInt(VERSION);
+                for (Map.Entry<String, Map<String, FileEntry>> folder : folders.entrySet()) {
+                    //snapshot of the folder, as it may be modified concurrently
+                    Map<String, FileEntry> files = new HashMap<>(folder.getValue());
+                    dos.writeBoolean(true);
+                    dos.writeUTF(folder.getKey());
+                    dos.writeLong(folderModifiedTs(folder.getKey()));
+                    dos.writeInt(files.size());
+                    for (Map.Entry<String, FileEntry> file : files.entrySet()) {
+                        FileEntry entry = file.getValue();
+                        dos.writeUTF(file.getKey());
+                        dos.writeLong(entry.size);
+                        dos.writeLong(entry.lastWriteTs);
+                        dos.writeBoolean(entry.ring);
+                    }
+                }
+                dos.writeBoolean(false);
+            }
+            Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("Stored reporting index with {} files in {} ms.", size(), System.currentTimeMillis() - start);
+        } catch (IOException e) {
+            log.error("Error storing reporting index. Reason : {}", e.getMessage());
+        }
+    }
+
+    //-1 for the folder that is not on disk, so it is rescanned on load
+    private long folderModifiedTs(String userFolder) {
+        try {
+            return modifiedTs(Files.readAttributes(dataFolder.resolve(userFolder), BasicFileAttributes.class));
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private void deleteIndexFile() {
+        try {
+            Files.deleteIfExists(indexFile);
+        } catch (IOException e) {
+            log.error("Error removing reporting index file. Reason : {}", e.getMessage());
+        }
+    }
+
+}
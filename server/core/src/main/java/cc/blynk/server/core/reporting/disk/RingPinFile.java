@@ -0,0 +1,141 @@
+package cc.blynk.server.core.reporting.disk;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Fixed capacity pin file. File is preallocated for all records, new records overwrite the oldest ones,
+ * so append is a positioned write and retention doesn't require truncation.
+ *
+ * Header :
+ * magic (long), capacity (int), head - slot of the next record (int), count (int), granularity (byte).
+ * Records go after the header in the same format as in the append only pin files : value (double), ts (long).
+ *
+ * Magic is the signaling NaN, that is never written as the value of the first record of the append only file,
+ * so both formats are kept under the same file names.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class RingPinFile {
+
+    public static final int HEADER_SIZE = 32;
+
+    static final long MAGIC = 0x7FF4_B1E0_0000_0001L;
+
+    static final int CAPACITY_OFFSET = 8;
+    static final int HEAD_OFFSET = 12;
+    static final int COUNT_OFFSET = 16;
+    private static final int GRANULARITY_OFFSET = 20;
+
+    private RingPinFile() {
+    }
+
+    public static boolean isRing(ByteBuffer fileStart) {
+        return fileStart.capacity() >= HEADER_SIZE && fileStart.getLong(0) == MAGIC;
+    }
+
+    static boolean isRing(FileChannel channel) throws IOException {
+        if (channel.size() < HEADER_SIZE) {
+            return false;
+        }
+        ByteBuffer magic = ByteBuffer.allocate(Long.BYTES);
+        readFully(channel, magic, 0);
+        return magic.getLong(0) == MAGIC;
+    }
+
+    public static boolean isRingFile(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            return isRing(channel);
+        }
+    }
+
+    /**
+     * Writes header of the empty file and preallocates space for all records.
+     */
+    static void init(FileChannel channel, GraphGranularityType type, int capacity) throws IOException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Ring pin file capacity should be positive.");
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putLong(0, MAGIC)
+              .putInt(CAPACITY_OFFSET, capacity)
+              .putInt(HEAD_OFFSET, 0)
+              .putInt(COUNT_OFFSET, 0)
+              .put(GRANULARITY_OFFSET, (byte) type.type);
+        writeFully(channel, header, 0);
+        //file system doesn't allocate blocks of the sparse file till records are written
+        writeFully(channel, ByteBuffer.allocate(1), HEADER_SIZE + (long) capacity * SIZE_OF_REPORT_ENTRY - 1);
+    }
+
+    /**
+     * Writes records sorted by ts after the latest record, overwriting the oldest ones.
+     *
+     * @return - number of records in the file after the append
+     */
+    static int append(FileChannel channel, ByteBuffer records) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, 0);
+        int capacity = header.getInt(CAPACITY_OFFSET);
+        int head = header.getInt(HEAD_OFFSET);
+        int count = header.getInt(COUNT_OFFSET);
+        if (capacity <= 0) {
+            throw new IOException("Wrong capacity of the ring pin file.");
+        }
+
+        int newRecords = records.remaining() / SIZE_OF_REPORT_ENTRY;
+        if (newRecords > capacity) {
+            //only the latest records fit
+            records.position(records.position() + (newRecords - capacity) * SIZE_OF_REPORT_ENTRY);
+            newRecords = capacity;
+        }
+
+        int tillEnd = Math.min(newRecords, capacity - head);
+        ByteBuffer firstPart = records.duplicate();
+        firstPart.limit(firstPart.position() + tillEnd * SIZE_OF_REPORT_ENTRY);
+        writeFully(channel, firstPart, recordPosition(head));
+        if (newRecords > tillEnd) {
+            ByteBuffer wrapped = records.duplicate();
+            wrapped.position(wrapped.position() + tillEnd * SIZE_OF_REPORT_ENTRY);
+            writeFully(channel, wrapped, recordPosition(0));
+        }
+        records.position(records.limit());
+
+        head = (head + newRecords) % capacity;
+        count = Math.min(capacity, count + newRecords);
+        ByteBuffer headAndCount = ByteBuffer.allocate(8).putInt(head).putInt(count);
+        headAndCount.flip();
+        writeFully(channel, headAndCount, HEAD_OFFSET);
+        return count;
+    }
+
+    private static long recordPosition(int slot) {
+        return HEADER_SIZE + (long) slot * SIZE_OF_REPORT_ENTRY;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, position + buf.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of the ring pin file.");
+            }
+        }
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        long start = position - buf.position();
+        while (buf.hasRemaining()) {
+            channel.write(buf, start + buf.position());
+        }
+    }
+
+}
@@ -6,11 +6,12 @@ import cc.blynk.utils.NumberUtil;
 import java.util.Collections;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Simply stores every record in memory that should be stored in reporting DB lately.
- * Could cause OOM at high request rate. However we don't use it very high loads.
- * So this is fine for now.
+ * Storage is bounded, when DB doesn't keep up with the incoming data new records
+ * are dropped instead of growing the storage until OOM.
  *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
@@ -18,9 +19,18 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class RawDataProcessor {
 
+    public static final int DEFAULT_MAX_RECORDS = 1_000_000;
+
     public final Map<AggregationKey, Object> rawStorage;
+    private final int maxRecords;
+    private final LongAdder dropped = new LongAdder();
 
     public RawDataProcessor(boolean enable) {
+        this(enable, DEFAULT_MAX_RECORDS);
+    }
+
+    public RawDataProcessor(boolean enable, int maxRecords) {
+        this.maxRecords = maxRecords;
         if (enable) {
             rawStorage = new ConcurrentHashMap<>();
         } else {
@@ -30,6 +40,10 @@ public class RawDataProcessor {
 
     //todo 2 millis is minimum allowed interval for data pushing.
     public void collect(BaseReportingKey key, long ts, String stringValue, double doubleValue) {
+        if (rawStorage.size() >= maxRecords) {
+            dropped.increment();
+            return;
+        }
         final AggregationKey aggregationKey = new AggregationKey(key, ts);
         if (doubleValue == NumberUtil.NO_RESULT) {
             rawStorage.put(aggregationKey, stringValue);
@@ -38,4 +52,11 @@ public class RawDataProcessor {
         }
     }
 
+    /**
+     * @return number of records dropped since the previous call, because storage was full
+     */
+    public long getAndResetDropped() {
+        return dropped.sumThenReset();
+    }
+
 }
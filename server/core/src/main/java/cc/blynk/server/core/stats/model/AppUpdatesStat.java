@@ -0,0 +1,20 @@
+package cc.blynk.server.core.stats.model;
+
+import cc.blynk.server.core.model.auth.AppUpdatesCoalescer;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class AppUpdatesStat {
+
+    public final long coalesced;
+
+    public final long delivered;
+
+    public AppUpdatesStat(AppUpdatesCoalescer appUpdatesCoalescer, boolean reset) {
+        this.coalesced = appUpdatesCoalescer.getCoalesced(reset);
+        this.delivered = appUpdatesCoalescer.getDelivered(reset);
+    }
+}
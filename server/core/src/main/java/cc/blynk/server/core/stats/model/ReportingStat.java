@@ -0,0 +1,49 @@
+package cc.blynk.server.core.stats.model;
+
+import cc.blynk.server.core.dao.ReportingDiskDao;
+import cc.blynk.server.core.reporting.GraphDataCache;
+import cc.blynk.server.core.reporting.disk.ReportingDiskWriter;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class ReportingStat {
+
+    public final long flushDuration;
+
+    public final int flushFiles;
+
+    public final int flushEntries;
+
+    public final long flushLag;
+
+    public final int skippedShards;
+
+    public final int openFiles;
+
+    public final long graphCacheHits;
+
+    public final long graphCacheMisses;
+
+    public final int graphCacheEntries;
+
+    public final long graphCacheBytes;
+
+    public ReportingStat(ReportingDiskDao reportingDiskDao, boolean reset) {
+        ReportingDiskWriter diskWriter = reportingDiskDao.diskWriter;
+        this.flushDuration = diskWriter.getLastFlushDuration();
+        this.flushFiles = diskWriter.getLastFlushFiles();
+        this.flushEntries = diskWriter.getLastFlushEntries();
+        this.flushLag = diskWriter.getLastFlushLag();
+        this.skippedShards = diskWriter.getLastSkippedShards();
+        this.openFiles = diskWriter.getOpenFiles();
+
+        GraphDataCache graphDataCache = reportingDiskDao.graphDataCache;
+        this.graphCacheHits = graphDataCache.getHits(reset);
+        this.graphCacheMisses = graphDataCache.getMisses(reset);
+        this.graphCacheEntries = graphDataCache.size();
+        this.graphCacheBytes = graphDataCache.sizeInBytes();
+    }
+}
@@ -1,9 +1,11 @@
 package cc.blynk.server.core.stats.model;
 
 import cc.blynk.server.core.BlockingIOProcessor;
+import cc.blynk.server.core.dao.ReportingDiskDao;
 import cc.blynk.server.core.dao.SessionDao;
 import cc.blynk.server.core.dao.UserDao;
 import cc.blynk.server.core.dao.UserKey;
+import cc.blynk.server.core.dao.UsersLoadProgress;
 import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.model.auth.User;
@@ -11,6 +13,7 @@ import cc.blynk.server.core.model.serialization.JsonParser;
 import cc.blynk.server.core.model.widgets.ui.reporting.ReportScheduler;
 import cc.blynk.server.core.protocol.enums.Command;
 import cc.blynk.server.core.stats.GlobalStats;
+import cc.blynk.server.workers.timer.TimerWorker;
 import io.netty.buffer.ByteBufAllocator;
 
 import java.util.Map;
@@ -31,6 +34,10 @@ public class Stat {
     public final HttpStat http = new HttpStat();
     public final BlockingIOStat ioStat;
     public final MemoryStat memoryStat;
+    public final ReportingStat reportingStat;
+    public final TimerStat timerStat;
+    public final AppUpdatesStat appUpdatesStat;
+    public final UsersLoadStat usersLoadStat;
 
     public final int oneMinRate;
     public final int registrations;
@@ -45,7 +52,9 @@ public class Stat {
     public final transient long ts;
 
     public Stat(SessionDao sessionDao, UserDao userDao, BlockingIOProcessor blockingIOProcessor,
-                GlobalStats globalStats, ReportScheduler reportScheduler, boolean reset) {
+                GlobalStats globalStats, ReportScheduler reportScheduler,
+                ReportingDiskDao reportingDiskDao, TimerWorker timerWorker,
+                UsersLoadProgress usersLoadProgress, boolean reset) {
         //yeap, some stats updates may be lost (because of sumThenReset()),
         //but we don't care, cause this is just for general monitoring
         for (Short command : Command.VALUES_NAME.keySet()) {
@@ -121,11 +130,16 @@ public class Stat {
 
         this.ioStat = new BlockingIOStat(blockingIOProcessor, reportScheduler);
         this.memoryStat = new MemoryStat(ByteBufAllocator.DEFAULT);
+        this.reportingStat = new ReportingStat(reportingDiskDao, reset);
+        this.timerStat = new TimerStat(timerWorker, reset);
+        this.appUpdatesStat = new AppUpdatesStat(sessionDao.appUpdatesCoalescer, reset);
+        //users are not loaded from disk when restored from DB
+        this.usersLoadStat = usersLoadProgress == null ? null : new UsersLoadStat(usersLoadProgress);
     }
 
     private boolean dashUpdated(User user, long now, long period) {
         for (DashBoard dash : user.profile.dashBoards) {
-            if (now - dash.updatedAt < period) {
+            if (now - Math.max(dash.updatedAt, dash.valuesUpdatedAt) < period) {
                 return true;
             }
         }
@@ -0,0 +1,29 @@
+package cc.blynk.server.core.stats.model;
+
+import cc.blynk.server.workers.timer.TimerWorker;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class TimerStat {
+
+    public final int scheduled;
+
+    public final long fired;
+
+    public final long late;
+
+    public final long skipped;
+
+    public final long sent;
+
+    public TimerStat(TimerWorker timerWorker, boolean reset) {
+        this.scheduled = timerWorker.getScheduledTimers();
+        this.fired = timerWorker.getFired(reset);
+        this.late = timerWorker.getLate(reset);
+        this.skipped = timerWorker.getSkipped(reset);
+        this.sent = timerWorker.getSent(reset);
+    }
+}
@@ -0,0 +1,35 @@
+package cc.blynk.server.core.stats.model;
+
+import cc.blynk.server.core.dao.UsersLoadProgress;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class UsersLoadStat {
+
+    public final int total;
+
+    public final long loaded;
+
+    public final long failed;
+
+    public final boolean finished;
+
+    public final long elapsedMillis;
+
+    public final long rate;
+
+    public final long etaSeconds;
+
+    public UsersLoadStat(UsersLoadProgress usersLoadProgress) {
+        this.total = usersLoadProgress.getTotal();
+        this.loaded = usersLoadProgress.getLoaded();
+        this.failed = usersLoadProgress.getFailed();
+        this.finished = usersLoadProgress.isFinished();
+        this.elapsedMillis = usersLoadProgress.getElapsedMillis();
+        this.rate = usersLoadProgress.getRate();
+        this.etaSeconds = usersLoadProgress.getEtaSeconds();
+    }
+}
@@ -4,6 +4,7 @@ import cc.blynk.server.core.BlockingIOProcessor;
 import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
 import cc.blynk.server.core.reporting.average.AggregationKey;
 import cc.blynk.server.core.reporting.average.AggregationValue;
+import cc.blynk.server.core.reporting.raw.RawDataProcessor;
 import cc.blynk.server.core.stats.model.Stat;
 import cc.blynk.server.db.dao.ReportingDBDao;
 import cc.blynk.utils.properties.BaseProperties;
@@ -18,6 +19,8 @@ import java.sql.Connection;
 import java.sql.Statement;
 import java.time.Instant;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static cc.blynk.utils.properties.DBProperties.DB_PROPERTIES_FILENAME;
 
@@ -33,6 +36,7 @@ public class ReportingDBManager implements Closeable {
 
     private final BlockingIOProcessor blockingIOProcessor;
     private final boolean cleanOldReporting;
+    private final AtomicBoolean rawStoreInProgress = new AtomicBoolean();
 
     public ReportingDBDao reportingDBDao;
 
@@ -68,7 +72,8 @@ public class ReportingDBManager implements Closeable {
         }
 
         this.ds = hikariDataSource;
-        this.reportingDBDao = new ReportingDBDao(hikariDataSource);
+        this.reportingDBDao = new ReportingDBDao(hikariDataSource,
+                dbProperties.getIntProperty("reporting.copy.chunk.rows", ReportingDBDao.DEFAULT_COPY_CHUNK_ROWS));
         this.cleanOldReporting = dbProperties.cleanReporting();
 
         log.info("Connected to reporting database successfully.");
@@ -100,9 +105,26 @@ public class ReportingDBManager implements Closeable {
         }
     }
 
-    public void insertReportingRaw(Map<AggregationKey, Object> rawData) {
-        if (isDBEnabled() && rawData.size() > 0) {
-            blockingIOProcessor.executeReportingDB(() -> reportingDBDao.insertRawData(rawData));
+    public void insertReportingRaw(RawDataProcessor rawDataProcessor) {
+        long dropped = rawDataProcessor.getAndResetDropped();
+        if (dropped > 0) {
+            log.warn("Raw data storage is full. Dropped {} records.", dropped);
+        }
+        Map<AggregationKey, Object> rawData = rawDataProcessor.rawStorage;
+        //storage is drained by the previous store, so there is no need to queue one more
+        if (isDBEnabled() && rawData.size() > 0 && rawStoreInProgress.compareAndSet(false, true)) {
+            try {
+                blockingIOProcessor.executeReportingDB(() -> {
+                    try {
+                        reportingDBDao.insertRawData(rawData);
+                    } finally {
+                        rawStoreInProgress.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                rawStoreInProgress.set(false);
+                throw e;
+            }
         }
     }
 
@@ -0,0 +1,134 @@
+package cc.blynk.server.db.dao;
+
+import org.postgresql.copy.CopyIn;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+
+/**
+ * Encodes rows into the PostgreSQL binary COPY format, so rows are streamed
+ * with "COPY ... FROM STDIN (FORMAT binary)" without binding of the parameters
+ * and creating objects per every value.
+ *
+ * Values should be written exactly in the types of the table columns,
+ * as binary format has no type conversions.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+final class BinaryCopyWriter {
+
+    private static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+
+    //2000-01-01T00:00:00Z, timestamps are stored as microseconds from this date
+    private static final long POSTGRES_EPOCH_MILLIS = 946_684_800_000L;
+
+    private ByteBuffer buffer;
+
+    BinaryCopyWriter(int initialCapacity) {
+        this.buffer = ByteBuffer.allocate(initialCapacity);
+    }
+
+    void writeHeader() {
+        ensureCapacity(SIGNATURE.length + 8);
+        buffer.put(SIGNATURE);
+        //flags
+        buffer.putInt(0);
+        //header extension length
+        buffer.putInt(0);
+    }
+
+    void writeTrailer() {
+        ensureCapacity(2);
+        buffer.putShort((short) -1);
+    }
+
+    void startRow(int fieldsCount) {
+        ensureCapacity(2);
+        buffer.putShort((short) fieldsCount);
+    }
+
+    void writeNull() {
+        ensureCapacity(4);
+        buffer.putInt(-1);
+    }
+
+    void writeText(String value) {
+        if (value == null) {
+            writeNull();
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensureCapacity(4 + bytes.length);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    void writeInt2(short value) {
+        ensureCapacity(6);
+        buffer.putInt(2);
+        buffer.putShort(value);
+    }
+
+    void writeInt4(int value) {
+        ensureCapacity(8);
+        buffer.putInt(4);
+        buffer.putInt(value);
+    }
+
+    void writeInt8(long value) {
+        ensureCapacity(12);
+        buffer.putInt(8);
+        buffer.putLong(value);
+    }
+
+    void writeFloat8(double value) {
+        ensureCapacity(12);
+        buffer.putInt(8);
+        buffer.putDouble(value);
+    }
+
+    /**
+     * Same value for the "timestamp" and "timestamp with time zone" columns,
+     * as all timestamps are stored in UTC.
+     */
+    void writeTimestamp(long epochMillis) {
+        writeInt8((epochMillis - POSTGRES_EPOCH_MILLIS) * 1000);
+    }
+
+    int size() {
+        return buffer.position();
+    }
+
+    byte[] toByteArray() {
+        byte[] result = new byte[buffer.position()];
+        System.arraycopy(buffer.array(), 0, result, 0, result.length);
+        return result;
+    }
+
+    /**
+     * Sends all written bytes to the copy stream and clears the buffer.
+     */
+    void writeTo(CopyIn copyIn) throws SQLException {
+        if (buffer.position() > 0) {
+            copyIn.writeToCopy(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+    }
+
+    void clear() {
+        buffer.clear();
+    }
+
+    private void ensureCapacity(int length) {
+        if (buffer.remaining() < length) {
+            ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length));
+            buffer.flip();
+            newBuffer.put(buffer);
+            this.buffer = newBuffer;
+        }
+    }
+
+}
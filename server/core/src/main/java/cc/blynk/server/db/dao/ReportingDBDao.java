@@ -13,16 +13,19 @@ import cc.blynk.utils.DateTimeUtils;
 import com.zaxxer.hikari.HikariDataSource;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Timestamp;
-import java.sql.Types;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.function.BiConsumer;
 
 /**
  * The Blynk Project.
@@ -34,17 +37,19 @@ public class ReportingDBDao {
     public static final String insertMinute =
             "INSERT INTO reporting_average_minute (email, project_id, device_id, pin, pin_type, ts, value) "
                     + "VALUES (?, ?, ?, ?, ?, ?, ?)";
-    private static final String insertHourly =
-            "INSERT INTO reporting_average_hourly (email, project_id, device_id, pin, pin_type, ts, value) "
-                    + "VALUES (?, ?, ?, ?, ?, ?, ?)";
-    private static final String insertDaily =
-            "INSERT INTO reporting_average_daily (email, project_id, device_id, pin, pin_type, ts, value) "
-                    + "VALUES (?, ?, ?, ?, ?, ?, ?)";
-
-    private static final String insertRawData =
-            "INSERT INTO reporting_raw_data (email, project_id, device_id, pin, pinType, ts, "
-                    + "stringValue, doubleValue) "
-                    + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String copyMinute =
+            "COPY reporting_average_minute (email, project_id, device_id, pin, pin_type, ts, value) "
+                    + "FROM STDIN (FORMAT binary)";
+    private static final String copyHourly =
+            "COPY reporting_average_hourly (email, project_id, device_id, pin, pin_type, ts, value) "
+                    + "FROM STDIN (FORMAT binary)";
+    private static final String copyDaily =
+            "COPY reporting_average_daily (email, project_id, device_id, pin, pin_type, ts, value) "
+                    + "FROM STDIN (FORMAT binary)";
+
+    private static final String copyRawData =
+            "COPY reporting_raw_data (email, project_id, device_id, pin, pinType, ts, stringValue, doubleValue) "
+                    + "FROM STDIN (FORMAT binary)";
 
     public static final String selectMinute =
             "SELECT ts, value FROM reporting_average_minute WHERE ts > ? ORDER BY ts DESC limit ?";
@@ -84,10 +89,20 @@ public class ReportingDBDao {
 
     private static final Logger log = LogManager.getLogger(ReportingDBDao.class);
 
+    public static final int DEFAULT_COPY_CHUNK_ROWS = 10_000;
+    //copy buffer is sent to the DB every time it reaches this size
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
     private final HikariDataSource ds;
+    private final int copyChunkRows;
 
     public ReportingDBDao(HikariDataSource ds) {
+        this(ds, DEFAULT_COPY_CHUNK_ROWS);
+    }
+
+    public ReportingDBDao(HikariDataSource ds, int copyChunkRows) {
         this.ds = ds;
+        this.copyChunkRows = copyChunkRows;
     }
 
     public static void prepareReportingSelect(PreparedStatement ps, long ts, int limit) throws SQLException {
@@ -95,15 +110,6 @@ public class ReportingDBDao {
         ps.setInt(2, limit);
     }
 
-    private static void prepareReportingInsert(PreparedStatement ps,
-                                               Map.Entry<AggregationKey, AggregationValue> entry,
-                                               GraphGranularityType type) throws SQLException {
-        AggregationKey key = entry.getKey();
-        AggregationValue value = entry.getValue();
-        prepareReportingInsert(ps, key.getEmail(), key.getDashId(), key.getDeviceId(),
-                key.getPin(), key.getPinType(), key.getTs(type), value.calcAverage());
-    }
-
     public static void prepareReportingInsert(PreparedStatement ps,
                                                  String email,
                                                  int dashId,
@@ -124,51 +130,128 @@ public class ReportingDBDao {
     private static String getTableByGraphType(GraphGranularityType graphGranularityType) {
         switch (graphGranularityType) {
             case MINUTE :
-                return insertMinute;
+                return copyMinute;
             case HOURLY :
-                return insertHourly;
+                return copyHourly;
             default :
-                return insertDaily;
+                return copyDaily;
         }
     }
 
+    private static void writeRawData(BinaryCopyWriter writer, Map.Entry<AggregationKey, Object> entry) {
+        AggregationKey key = entry.getKey();
+        Object value = entry.getValue();
+
+        writer.startRow(8);
+        writer.writeText(key.getEmail());
+        writer.writeInt4(key.getDashId());
+        writer.writeInt4(key.getDeviceId());
+        writer.writeInt2(key.getPin());
+        writer.writeText(key.getPinType().pinTypeString);
+        writer.writeTimestamp(key.ts);
+        if (value instanceof String) {
+            writer.writeText((String) value);
+            writer.writeNull();
+        } else {
+            writer.writeNull();
+            writer.writeFloat8((Double) value);
+        }
+    }
+
+    private static void writeAverage(BinaryCopyWriter writer, Map.Entry<AggregationKey, AggregationValue> entry,
+                                     GraphGranularityType type) {
+        AggregationKey key = entry.getKey();
+
+        writer.startRow(7);
+        writer.writeText(key.getEmail());
+        writer.writeInt4(key.getDashId());
+        writer.writeInt8(key.getDeviceId());
+        writer.writeInt2(key.getPin());
+        writer.writeInt2((short) key.getPinType().ordinal());
+        writer.writeTimestamp(key.getTs(type));
+        writer.writeFloat8(entry.getValue().calcAverage());
+    }
+
+    /**
+     * Streams all rows of the iterator to the DB with COPY. Every chunk of rows is separate COPY
+     * in own transaction, so failed chunk doesn't affect others and memory usage is bounded.
+     *
+     * @return number of copied rows
+     */
+    private <T> int copy(String copySQL, Iterator<T> rows, BiConsumer<BinaryCopyWriter, T> rowWriter,
+                         String name) throws SQLException {
+        int copiedRows = 0;
+        int chunks = 0;
+        long maxChunkTime = 0;
+        BinaryCopyWriter writer = new BinaryCopyWriter(COPY_BUFFER_SIZE);
+
+        try (Connection connection = ds.getConnection()) {
+            CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+
+            while (rows.hasNext()) {
+                long chunkStart = System.currentTimeMillis();
+                int chunkRows = 0;
+                CopyIn copyIn = copyManager.copyIn(copySQL);
+                try {
+                    writer.clear();
+                    writer.writeHeader();
+                    while (chunkRows < copyChunkRows && rows.hasNext()) {
+                        rowWriter.accept(writer, rows.next());
+                        chunkRows++;
+                        if (writer.size() >= COPY_BUFFER_SIZE) {
+                            writer.writeTo(copyIn);
+                        }
+                    }
+                    writer.writeTrailer();
+                    writer.writeTo(copyIn);
+                    copyIn.endCopy();
+                    connection.commit();
+                    copiedRows += chunkRows;
+                } catch (Exception e) {
+                    log.error("Error copying chunk of {} {} rows to DB.", chunkRows, name, e);
+                    if (copyIn.isActive()) {
+                        copyIn.cancelCopy();
+                    }
+                    connection.rollback();
+                }
+
+                long chunkTime = System.currentTimeMillis() - chunkStart;
+                maxChunkTime = Math.max(maxChunkTime, chunkTime);
+                chunks++;
+                log.debug("Copied chunk of {} {} rows. Time {}.", chunkRows, name, chunkTime);
+            }
+        }
+
+        if (chunks > 0) {
+            log.info("Copied {} {} rows in {} chunks. Max chunk time {}.", copiedRows, name, chunks, maxChunkTime);
+        }
+        return copiedRows;
+    }
+
     public void insertRawData(Map<AggregationKey, Object> rawData) {
         long start = System.currentTimeMillis();
 
         log.info("Storing raw reporting...");
         int counter = 0;
 
-        try (Connection connection = ds.getConnection();
-             PreparedStatement ps = connection.prepareStatement(insertRawData)) {
+        //entries are removed right after they are written, so new entries are stored next time
+        Iterator<Map.Entry<AggregationKey, Object>> iter = rawData.entrySet().iterator();
+        Iterator<Map.Entry<AggregationKey, Object>> removingIter = new Iterator<Map.Entry<AggregationKey, Object>>() {
+            @Override
+            public boolean hasNext() {
+                return iter.hasNext();
+            }
 
-            for (Iterator<Map.Entry<AggregationKey, Object>> iter = rawData.entrySet().iterator(); iter.hasNext();) {
+            @Override
+            public Map.Entry<AggregationKey, Object> next() {
                 Map.Entry<AggregationKey, Object> entry = iter.next();
-
-                final AggregationKey key = entry.getKey();
-                final Object value = entry.getValue();
-
-                ps.setString(1, key.getEmail());
-                ps.setInt(2, key.getDashId());
-                ps.setInt(3, key.getDeviceId());
-                ps.setShort(4, key.getPin());
-                ps.setString(5, key.getPinType().pinTypeString);
-                ps.setTimestamp(6, new Timestamp(key.ts), DateTimeUtils.UTC_CALENDAR);
-
-                if (value instanceof String) {
-                    ps.setString(7, (String) value);
-                    ps.setNull(8, Types.DOUBLE);
-                } else {
-                    ps.setNull(7, Types.VARCHAR);
-                    ps.setDouble(8, (Double) value);
-                }
-
-                ps.addBatch();
-                counter++;
                 iter.remove();
+                return entry;
             }
+        };
 
-            ps.executeBatch();
-            connection.commit();
+        try {
+            counter = copy(copyRawData, removingIter, ReportingDBDao::writeRawData, "raw");
         } catch (Exception e) {
             log.error("Error inserting raw reporting data in DB.", e);
         }
@@ -282,24 +365,19 @@ public class ReportingDBDao {
 
         log.info("Storing {} reporting...", graphGranularityType.name());
 
-        String insertSQL = getTableByGraphType(graphGranularityType);
-
-        try (Connection connection = ds.getConnection();
-             PreparedStatement ps = connection.prepareStatement(insertSQL)) {
-
-            for (Map.Entry<AggregationKey, AggregationValue> entry : map.entrySet()) {
-                prepareReportingInsert(ps, entry, graphGranularityType);
-                ps.addBatch();
-            }
+        String copySQL = getTableByGraphType(graphGranularityType);
+        int counter = 0;
 
-            ps.executeBatch();
-            connection.commit();
+        try {
+            counter = copy(copySQL, map.entrySet().iterator(),
+                    (writer, entry) -> writeAverage(writer, entry, graphGranularityType),
+                    graphGranularityType.name());
         } catch (Exception e) {
             log.error("Error inserting reporting data in DB.", e);
         }
 
         log.info("Storing {} reporting finished. Time {}. Records saved {}",
-                graphGranularityType.name(), System.currentTimeMillis() - start, map.size());
+                graphGranularityType.name(), System.currentTimeMillis() - start, counter);
     }
 
     public void cleanOldReportingRecords(Instant now) {
@@ -143,7 +143,7 @@ public class UserDBDao {
                 ps.setBoolean(10, user.isFacebookUser);
                 ps.setBoolean(11, user.isSuperAdmin);
                 ps.setInt(12, user.energy);
-                ps.setString(13, user.profile.toString());
+                ps.setString(13, JsonParser.toJsonWithPins(user.profile));
                 ps.addBatch();
             }
 
@@ -0,0 +1,220 @@
+package cc.blynk.server.workers;
+
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.DashStructure;
+import cc.blynk.server.core.model.auth.Session;
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.model.device.Tag;
+import cc.blynk.server.core.model.widgets.FrequencyWidget;
+import cc.blynk.server.core.model.widgets.Target;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.server.core.model.widgets.ui.DeviceSelector;
+import cc.blynk.server.core.model.widgets.ui.tiles.DeviceTiles;
+import cc.blynk.server.core.model.widgets.ui.tiles.Tile;
+import cc.blynk.server.core.model.widgets.ui.tiles.TileTemplate;
+import cc.blynk.server.core.session.HardwareStateHolder;
+import io.netty.channel.Channel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reading schedule of one hardware channel. Holds only the widgets that read from the device
+ * of the channel together with the time of their next read, so the worker doesn't scan
+ * all widgets of the dashboard for every channel on every tick.
+ *
+ * Schedule is rebuilt on first processing after the dashboard structure or selected device
+ * of the device selectors is changed. Processed only within the event loop of the channel.
+ * Schedules are woken up by the apps changes, other changes of the dashboard (http api, admin)
+ * are picked up within {@link #IDLE_CHECK_INTERVAL}.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+final class ReadingSchedule {
+
+    //tile templates have no reading frequency, so tiles are read on every tick of the worker
+    static final int TILE_READING_INTERVAL = 1000;
+    static final int IDLE_CHECK_INTERVAL = 5000;
+
+    private static final Entry[] EMPTY_ENTRIES = {};
+
+    final Channel channel;
+    private final Session session;
+    private final DashBoard dash;
+    private final int deviceId;
+    private DashStructure structure;
+    private Entry[] entries = EMPTY_ENTRIES;
+    //new schedule is processed on the first tick
+    long nextReadTime;
+    //position in the due queue of the event loop, replaced on wake up
+    ReadingWidgetsWorker.Due due;
+
+    ReadingSchedule(Channel channel, Session session, HardwareStateHolder state) {
+        this.channel = channel;
+        this.session = session;
+        this.dash = state.dash;
+        this.deviceId = state.device.id;
+    }
+
+    /**
+     * Writes reading commands of all due widgets to the channel and moves the schedule
+     * to the time of the next read. Doesn't flush.
+     *
+     * @return number of written reading commands
+     */
+    int process(long now, boolean allowRunWithoutApp) {
+        //for now checking widgets for active app only
+        if (!dash.isActive || !(allowRunWithoutApp || session.isAppConnected())) {
+            this.nextReadTime = now + IDLE_CHECK_INTERVAL;
+            return 0;
+        }
+
+        DashStructure structure = this.structure;
+        if (structure == null || !structure.isActual(dash)) {
+            rebuild(dash);
+        }
+
+        int ticked = 0;
+        long next = now + IDLE_CHECK_INTERVAL;
+        for (Entry entry : entries) {
+            if (now >= entry.nextReadTime && channel.isWritable()) {
+                for (FrequencyWidget widget : entry.widgets) {
+                    widget.writeReadingCommand(channel);
+                }
+                ticked += entry.widgets.length;
+                entry.nextReadTime = now + entry.interval;
+            }
+            next = Math.min(next, entry.nextReadTime);
+        }
+        //reads skipped for not writable channel are retried on the next tick
+        this.nextReadTime = Math.max(next, now + 1);
+        return ticked;
+    }
+
+    int size() {
+        return entries.length;
+    }
+
+    private void rebuild(DashBoard dash) {
+        DashStructure structure = new DashStructure(dash);
+        List<Entry> result = new ArrayList<>();
+
+        for (Widget widget : structure.getWidgets()) {
+            if (widget instanceof FrequencyWidget) {
+                FrequencyWidget frequencyWidget = (FrequencyWidget) widget;
+                if (frequencyWidget.hasReadingInterval()
+                        && isTarget(dash, frequencyWidget.getDeviceId(), structure)) {
+                    result.add(new Entry(widget.id, -1, frequencyWidget.getFrequency(),
+                            new FrequencyWidget[] {frequencyWidget}));
+                }
+            } else if (widget instanceof DeviceTiles) {
+                addTiles((DeviceTiles) widget, result);
+            }
+        }
+
+        Entry[] newEntries = result.toArray(EMPTY_ENTRIES);
+        //keeps reading times of the widgets that are still in schedule, so updates don't trigger reads
+        for (Entry newEntry : newEntries) {
+            for (Entry oldEntry : entries) {
+                if (newEntry.isSame(oldEntry)) {
+                    newEntry.nextReadTime = oldEntry.nextReadTime;
+                    break;
+                }
+            }
+        }
+        this.entries = newEntries;
+        this.structure = structure;
+    }
+
+    private void addTiles(DeviceTiles deviceTiles, List<Entry> result) {
+        Tile[] tiles = deviceTiles.tiles;
+        TileTemplate[] templates = deviceTiles.templates;
+        for (Tile tile : tiles) {
+            if (tile.deviceId == deviceId) {
+                TileTemplate template = findTemplate(templates, tile.templateId);
+                if (template != null) {
+                    List<FrequencyWidget> readingWidgets = new ArrayList<>();
+                    for (Widget tileWidget : template.widgets) {
+                        if (tileWidget instanceof FrequencyWidget
+                                && ((FrequencyWidget) tileWidget).hasReadingInterval()) {
+                            readingWidgets.add((FrequencyWidget) tileWidget);
+                        }
+                    }
+                    if (readingWidgets.size() > 0) {
+                        result.add(new Entry(deviceTiles.id, tile.templateId, TILE_READING_INTERVAL,
+                                readingWidgets.toArray(new FrequencyWidget[0])));
+                    }
+                }
+            }
+        }
+    }
+
+    private static TileTemplate findTemplate(TileTemplate[] templates, long templateId) {
+        for (TileTemplate template : templates) {
+            if (template.id == templateId) {
+                return template;
+            }
+        }
+        return null;
+    }
+
+    private boolean isTarget(DashBoard dash, int targetId, DashStructure structure) {
+        Target target;
+        if (targetId < Tag.START_TAG_ID) {
+            target = getDeviceById(structure.getDevices(), targetId);
+        } else if (targetId < DeviceSelector.DEVICE_SELECTOR_STARTING_ID) {
+            target = getTagById(structure.getTags(), targetId);
+        } else {
+            //means widget assigned to device selector widget.
+            DeviceSelector deviceSelector = dash.getDeviceSelector(targetId);
+            if (deviceSelector != null) {
+                int selectedDeviceId = deviceSelector.value;
+                structure.addCheck(() -> deviceSelector.value == selectedDeviceId);
+            }
+            target = deviceSelector;
+        }
+        return target != null && target.isSelected(deviceId);
+    }
+
+    private static Device getDeviceById(Device[] devices, int id) {
+        for (Device device : devices) {
+            if (device.id == id) {
+                return device;
+            }
+        }
+        return null;
+    }
+
+    private static Tag getTagById(Tag[] tags, int id) {
+        for (Tag tag : tags) {
+            if (tag.id == id) {
+                return tag;
+            }
+        }
+        return null;
+    }
+
+    private static final class Entry {
+
+        //widget id for dashboard widgets or device tiles id with template id for tiles
+        private final long widgetId;
+        private final long templateId;
+        private final int interval;
+        private final FrequencyWidget[] widgets;
+        private long nextReadTime;
+
+        Entry(long widgetId, long templateId, int interval, FrequencyWidget[] widgets) {
+            this.widgetId = widgetId;
+            this.templateId = templateId;
+            this.interval = interval;
+            this.widgets = widgets;
+        }
+
+        boolean isSame(Entry entry) {
+            return widgetId == entry.widgetId && templateId == entry.templateId;
+        }
+    }
+
+}
@@ -1,29 +1,26 @@
 package cc.blynk.server.workers;
 
-import cc.blynk.server.core.dao.SessionDao;
-import cc.blynk.server.core.dao.UserDao;
-import cc.blynk.server.core.dao.UserKey;
-import cc.blynk.server.core.model.DashBoard;
-import cc.blynk.server.core.model.Profile;
 import cc.blynk.server.core.model.auth.Session;
-import cc.blynk.server.core.model.auth.User;
-import cc.blynk.server.core.model.device.Tag;
-import cc.blynk.server.core.model.widgets.FrequencyWidget;
-import cc.blynk.server.core.model.widgets.Target;
-import cc.blynk.server.core.model.widgets.Widget;
-import cc.blynk.server.core.model.widgets.ui.DeviceSelector;
-import cc.blynk.server.core.model.widgets.ui.tiles.DeviceTiles;
-import cc.blynk.server.core.model.widgets.ui.tiles.Tile;
-import cc.blynk.server.core.model.widgets.ui.tiles.TileTemplate;
 import cc.blynk.server.core.session.HardwareStateHolder;
 import cc.blynk.server.internal.StateHolderUtil;
 import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.ArrayList;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
+ * Sends reading commands of the widgets with reading interval to the hardware.
+ * Every hardware channel has own {@link ReadingSchedule}, schedules are kept in the queue of the event loop
+ * of the channel ordered by the time of the next read. Tick only submits the event loops with due schedules
+ * and those process only due schedules, so channels without reads are not touched on every tick.
+ *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
  * Created on 02.02.17.
@@ -32,113 +29,166 @@ public class ReadingWidgetsWorker implements Runnable {
 
     private static final Logger log = LogManager.getLogger(ReadingWidgetsWorker.class);
 
-    private final SessionDao sessionDao;
-    private final UserDao userDao;
     private final boolean allowRunWithoutApp;
 
-    private int tickedWidgets = 0;
+    private final Map<Channel, ReadingSchedule> schedules = new ConcurrentHashMap<>();
+    private final Map<EventLoop, DueQueue> queues = new ConcurrentHashMap<>();
+
+    private final LongAdder tickedWidgets = new LongAdder();
+    private final LongAdder totalTime = new LongAdder();
     private int counter = 0;
-    private long totalTime = 0;
 
-    public ReadingWidgetsWorker(SessionDao sessionDao, UserDao userDao, boolean allowRunWithoutApp) {
-        this.sessionDao = sessionDao;
-        this.userDao = userDao;
+    public ReadingWidgetsWorker(boolean allowRunWithoutApp) {
         this.allowRunWithoutApp = allowRunWithoutApp;
     }
 
+    /**
+     * Adds the schedule of the logged in hardware channel. Called within the event loop of the channel.
+     */
+    public void register(Channel channel, Session session) {
+        HardwareStateHolder state = StateHolderUtil.getHardState(channel);
+        if (state == null) {
+            return;
+        }
+        ReadingSchedule schedule = new ReadingSchedule(channel, session, state);
+        DueQueue queue = queues.computeIfAbsent(channel.eventLoop(), DueQueue::new);
+        schedules.put(channel, schedule);
+        channel.closeFuture().addListener(future -> schedules.remove(channel));
+        queue.execute(() -> queue.add(schedule));
+    }
+
+    /**
+     * Makes the schedules of the session hardware due on the next tick, so changes of the dashboards
+     * and the connected apps are applied without waiting for the idle check.
+     */
+    public void wakeUp(Session session) {
+        for (Channel channel : session.hardwareChannels) {
+            ReadingSchedule schedule = schedules.get(channel);
+            DueQueue queue = queues.get(channel.eventLoop());
+            if (schedule != null && queue != null) {
+                queue.execute(() -> queue.wakeUp(schedule));
+            }
+        }
+    }
+
     @Override
     public void run() {
-        long now = System.currentTimeMillis();
         try {
-            process(now);
-            totalTime += System.currentTimeMillis() - now;
+            long now = System.currentTimeMillis();
+            for (DueQueue queue : queues.values()) {
+                if (now >= queue.nextReadTime && queue.submitted.compareAndSet(false, true)) {
+                    queue.eventLoop.execute(queue);
+                }
+            }
         } catch (Exception e) {
             log.error("Error processing reading widgets. ", e);
         }
 
         counter++;
         if (counter == 60) {
-            log.info("Ticked widgets for 1 minute : {}. Per second : {}, total time : {} ms",
-                    tickedWidgets, tickedWidgets / 60, totalTime);
-            tickedWidgets = 0;
+            long ticked = tickedWidgets.sumThenReset();
+            log.info("Ticked widgets for 1 minute : {}. Per second : {}, total time : {} ms. Schedules : {}",
+                    ticked, ticked / 60, totalTime.sumThenReset(), schedules.size());
             counter = 0;
-            totalTime = 0;
         }
     }
 
-    private void process(long now) {
-        for (Map.Entry<UserKey, Session> entry : sessionDao.userSession.entrySet()) {
-            Session session = entry.getValue();
-            //for now checking widgets for active app only
-            if ((allowRunWithoutApp || session.isAppConnected()) && session.isHardwareConnected()) {
-                UserKey userKey = entry.getKey();
-                User user = userDao.users.get(userKey);
-                if (user != null) {
-                    Profile profile = user.profile;
-                    for (DashBoard dashBoard : profile.dashBoards) {
-                        if (dashBoard.isActive) {
-                            for (Channel channel : session.hardwareChannels) {
-                                HardwareStateHolder stateHolder = StateHolderUtil.getHardState(channel);
-                                if (stateHolder != null && stateHolder.dash.id == dashBoard.id) {
-                                    int deviceId = stateHolder.device.id;
-                                    for (Widget widget : dashBoard.widgets) {
-                                        if (widget instanceof FrequencyWidget) {
-                                            process(channel, (FrequencyWidget) widget,
-                                                    profile, dashBoard, deviceId, now);
-                                        } else if (widget instanceof DeviceTiles) {
-                                            processDeviceTile(channel, (DeviceTiles) widget, deviceId, now);
-                                        }
-                                    }
-                                    channel.flush();
-                                }
-                            }
-                        }
-                    }
-                }
-            }
+    //queue node, schedule is processed only by its current node, so nodes replaced on wake up are skipped
+    static final class Due implements Comparable<Due> {
+
+        private final long time;
+        private final ReadingSchedule schedule;
+
+        Due(long time, ReadingSchedule schedule) {
+            this.time = time;
+            this.schedule = schedule;
+        }
+
+        @Override
+        public int compareTo(Due o) {
+            return Long.compare(time, o.time);
         }
     }
 
-    private void processDeviceTile(Channel channel,  DeviceTiles deviceTiles, int deviceId, long now) {
-        for (Tile tile : deviceTiles.tiles) {
-            if (tile.deviceId == deviceId && tile.isTicked(now)) {
-                TileTemplate tileTemplate = deviceTiles.getTileTemplateById(tile.templateId);
-                if (tileTemplate != null) {
-                    for (Widget tileWidget : tileTemplate.widgets) {
-                        if (tileWidget instanceof FrequencyWidget) {
-                            FrequencyWidget frequencyWidget = (FrequencyWidget) tileWidget;
-                            if (frequencyWidget.hasReadingInterval() && channel.isWritable()) {
-                                frequencyWidget.writeReadingCommand(channel);
-                                tickedWidgets++;
-                            }
-                        }
-                    }
-                }
+    //schedules of the channels of one event loop, accessed only within that event loop
+    private final class DueQueue implements Runnable {
+
+        private final EventLoop eventLoop;
+        private final PriorityQueue<Due> queue = new PriorityQueue<>();
+        private final ArrayList<ReadingSchedule> processed = new ArrayList<>();
+        private final AtomicBoolean submitted = new AtomicBoolean();
+        //time of the earliest node, read by the worker thread
+        private volatile long nextReadTime = Long.MAX_VALUE;
+
+        DueQueue(EventLoop eventLoop) {
+            this.eventLoop = eventLoop;
+        }
+
+        void execute(Runnable task) {
+            if (eventLoop.inEventLoop()) {
+                task.run();
+            } else {
+                eventLoop.execute(task);
             }
         }
-    }
 
-    private void process(Channel channel, FrequencyWidget frequencyWidget,
-                         Profile profile, DashBoard dashBoard, int deviceId, long now) {
-        if (channel.isWritable()
-                && sameDeviceId(profile, dashBoard, frequencyWidget.getDeviceId(), deviceId)
-                && frequencyWidget.isTicked(now)) {
-            frequencyWidget.writeReadingCommand(channel);
-            tickedWidgets++;
+        void add(ReadingSchedule schedule) {
+            Due due = new Due(schedule.nextReadTime, schedule);
+            schedule.due = due;
+            queue.add(due);
+            if (due.time < nextReadTime) {
+                nextReadTime = due.time;
+            }
         }
-    }
 
-    private boolean sameDeviceId(Profile profile, DashBoard dash, int targetId, int channelDeviceId) {
-        Target target;
-        if (targetId < Tag.START_TAG_ID) {
-            target = profile.getDeviceById(dash, targetId);
-        } else if (targetId < DeviceSelector.DEVICE_SELECTOR_STARTING_ID) {
-            target = profile.getTagById(dash, targetId);
-        } else {
-            //means widget assigned to device selector widget.
-            target = dash.getDeviceSelector(targetId);
+        void wakeUp(ReadingSchedule schedule) {
+            //not queued schedules are already removed, woken up schedules are already due
+            if (schedule.due != null && schedule.due.time > 0) {
+                schedule.nextReadTime = 0;
+                add(schedule);
+            }
+        }
+
+        @Override
+        public void run() {
+            long now = System.currentTimeMillis();
+            int ticked = 0;
+            try {
+                Due due;
+                while ((due = queue.peek()) != null && due.time <= now) {
+                    queue.poll();
+                    ReadingSchedule schedule = due.schedule;
+                    if (schedule.due != due) {
+                        continue;
+                    }
+                    if (!schedule.channel.isActive()) {
+                        schedule.due = null;
+                        continue;
+                    }
+                    try {
+                        int scheduleTicked = schedule.process(now, allowRunWithoutApp);
+                        if (scheduleTicked > 0) {
+                            ticked += scheduleTicked;
+                            schedule.channel.flush();
+                        }
+                    } catch (Exception e) {
+                        log.error("Error processing reading widgets. ", e);
+                        schedule.nextReadTime = now + ReadingSchedule.IDLE_CHECK_INTERVAL;
+                    }
+                    processed.add(schedule);
+                }
+                for (ReadingSchedule schedule : processed) {
+                    add(schedule);
+                }
+            } finally {
+                processed.clear();
+                Due head = queue.peek();
+                nextReadTime = head == null ? Long.MAX_VALUE : head.time;
+                tickedWidgets.add(ticked);
+                totalTime.add(System.currentTimeMillis() - now);
+                submitted.set(false);
+            }
         }
-        return target != null && target.isSelected(channelDeviceId);
     }
 
 }
@@ -0,0 +1,39 @@
+package cc.blynk.server.workers.timer;
+
+import cc.blynk.server.core.model.widgets.others.eventor.model.action.BaseAction;
+
+/**
+ * Timer with precomputed next trigger time, stored in the {@link TimerQueue}.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+final class ScheduledTimer {
+
+    final TimerKey key;
+
+    final BaseAction[] actions;
+
+    //epoch second, guarded by the queue
+    long tickTime;
+
+    //position in the queue heap, -1 when timer is not in the queue, guarded by the queue
+    int index = -1;
+
+    private volatile boolean cancelled;
+
+    ScheduledTimer(TimerKey key, BaseAction[] actions) {
+        this.key = key;
+        this.actions = actions;
+    }
+
+    void cancel() {
+        this.cancelled = true;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+}
@@ -0,0 +1,116 @@
+package cc.blynk.server.workers.timer;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary min heap of the timers ordered by the next trigger time.
+ * Every timer knows its position in the heap, so removal of the deleted timer is O(log n)
+ * and cancelled timers don't stay in the queue till their trigger time.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+final class TimerQueue {
+
+    private ScheduledTimer[] heap = new ScheduledTimer[64];
+    private int size;
+
+    /**
+     * Cancelled timer is never added, so timer removed concurrently with the add can't stay in the queue.
+     */
+    synchronized void add(ScheduledTimer timer, long tickTime) {
+        if (timer.isCancelled() || timer.index != -1) {
+            return;
+        }
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+        timer.tickTime = tickTime;
+        timer.index = size;
+        heap[size++] = timer;
+        siftUp(timer.index);
+    }
+
+    synchronized void remove(ScheduledTimer timer) {
+        int index = timer.index;
+        if (index == -1) {
+            return;
+        }
+        removeAt(index);
+    }
+
+    /**
+     * Moves all timers with trigger time not after the given one to the output list.
+     *
+     * @return - number of polled timers
+     */
+    synchronized int pollDue(long now, List<ScheduledTimer> out) {
+        int polled = 0;
+        while (size > 0 && heap[0].tickTime <= now) {
+            out.add(removeAt(0));
+            polled++;
+        }
+        return polled;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    private ScheduledTimer removeAt(int index) {
+        ScheduledTimer removed = heap[index];
+        removed.index = -1;
+        int last = --size;
+        if (index != last) {
+            heap[index] = heap[last];
+            heap[index].index = index;
+            heap[last] = null;
+            siftDown(index);
+            siftUp(index);
+        } else {
+            heap[last] = null;
+        }
+        return removed;
+    }
+
+    private void siftUp(int index) {
+        ScheduledTimer timer = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heap[parent].tickTime <= timer.tickTime) {
+                break;
+            }
+            move(parent, index);
+            index = parent;
+        }
+        heap[index] = timer;
+        timer.index = index;
+    }
+
+    private void siftDown(int index) {
+        ScheduledTimer timer = heap[index];
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < size && heap[right].tickTime < heap[child].tickTime) {
+                child = right;
+            }
+            if (timer.tickTime <= heap[child].tickTime) {
+                break;
+            }
+            move(child, index);
+            index = child;
+        }
+        heap[index] = timer;
+        timer.index = index;
+    }
+
+    private void move(int from, int to) {
+        heap[to] = heap[from];
+        heap[to].index = to;
+    }
+
+}
@@ -1,6 +1,7 @@
 package cc.blynk.server.workers.timer;
 
 import cc.blynk.server.core.dao.SessionDao;
+import cc.blynk.server.core.dao.StartupIndex;
 import cc.blynk.server.core.dao.UserDao;
 import cc.blynk.server.core.dao.UserKey;
 import cc.blynk.server.core.model.DashBoard;
@@ -23,29 +24,35 @@ import cc.blynk.server.core.model.widgets.ui.tiles.Tile;
 import cc.blynk.server.core.model.widgets.ui.tiles.TileTemplate;
 import cc.blynk.server.core.processors.EventorProcessor;
 import cc.blynk.server.notifications.push.GCMWrapper;
-import cc.blynk.utils.DateTimeUtils;
 import cc.blynk.utils.IntArray;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.EventLoop;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
 import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
 import static cc.blynk.server.internal.EmptyArraysUtil.EMPTY_INTS;
 
 /**
  * Timer worker class responsible for triggering all timers at specified time.
- * Current implementation is some kind of Hashed Wheel Timer.
  * In general idea is very simple :
  *
- * Select timers at specified cell timer[secondsOfDayNow]
- * and run it one by one, instead of naive implementation
- * with iteration over all profiles every second
+ * For every timer next trigger time (UTC epoch second) is calculated upfront,
+ * with the timezone and days of week already taken into account.
+ * Timers are kept in the queue ordered by that time, so every tick polls only
+ * the due timers, instead of the naive implementation with iteration over all profiles every second.
+ * Fired timer is scheduled again for the next trigger time.
+ *
+ * Due timers are grouped by the event loop of the user session and executed
+ * there in batches, so writes to the user channels happen within own event loop.
  *
  * + Concurrency around it as timerWorker may be accessed from different threads.
  *
@@ -62,39 +69,47 @@ public class TimerWorker implements Runnable {
     private final UserDao userDao;
     private final SessionDao sessionDao;
     private final GCMWrapper gcmWrapper;
-    private final AtomicReferenceArray<ConcurrentHashMap<TimerKey, BaseAction[]>> timerExecutors;
-    private final static int size = 86400;
+    //all timers, used to find the timer on update and delete
+    private final ConcurrentHashMap<TimerKey, ScheduledTimer> timers = new ConcurrentHashMap<>();
+    private final TimerQueue queue = new TimerQueue();
+    //timers added after the tick are scheduled starting from the next second, so they don't fire twice
+    private volatile long lastTickSecond = -1;
+
+    private final ArrayList<ScheduledTimer> dueTimers = new ArrayList<>();
+    private final Map<EventLoop, ArrayList<Runnable>> batches = new HashMap<>();
+
+    private final LongAdder fired = new LongAdder();
+    private final LongAdder late = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder sent = new LongAdder();
 
-    @SuppressWarnings("unchecked")
     public TimerWorker(UserDao userDao, SessionDao sessionDao, GCMWrapper gcmWrapper) {
+        this(userDao, sessionDao, gcmWrapper, StartupIndex.of(userDao.users));
+    }
+
+    public TimerWorker(UserDao userDao, SessionDao sessionDao, GCMWrapper gcmWrapper, StartupIndex index) {
         this.userDao = userDao;
         this.sessionDao = sessionDao;
         this.gcmWrapper = gcmWrapper;
-        //array cell for every second in a day,
-        //yes, it costs a bit of memory, but still cheap :)
-        this.timerExecutors = new AtomicReferenceArray<>(size);
-        init(userDao.users);
+        init(index);
     }
 
-    private void init(ConcurrentMap<UserKey, User> users) {
+    private void init(StartupIndex index) {
         int counter = 0;
-        for (Map.Entry<UserKey, User> entry : users.entrySet()) {
-            for (DashBoard dash : entry.getValue().profile.dashBoards) {
-                int dashId = dash.id;
-                for (Widget widget : dash.widgets) {
-                    if (widget instanceof DeviceTiles) {
-                        DeviceTiles deviceTiles = (DeviceTiles) widget;
-                        counter += add(entry.getKey(), deviceTiles, dashId);
-                    } else if (widget instanceof Timer) {
-                        Timer timer = (Timer) widget;
-                        add(entry.getKey(), timer, dashId, -1, -1);
-                        counter++;
-                    } else if (widget instanceof Eventor) {
-                        Eventor eventor = (Eventor) widget;
-                        add(entry.getKey(), eventor, dashId);
-                        counter++;
-                    }
-                }
+        for (StartupIndex.UserWidget userWidget : index.timerWidgets) {
+            Widget widget = userWidget.widget;
+            int dashId = userWidget.dash.id;
+            if (widget instanceof DeviceTiles) {
+                DeviceTiles deviceTiles = (DeviceTiles) widget;
+                counter += add(userWidget.userKey, deviceTiles, dashId);
+            } else if (widget instanceof Timer) {
+                Timer timer = (Timer) widget;
+                add(userWidget.userKey, timer, dashId, -1, -1);
+                counter++;
+            } else if (widget instanceof Eventor) {
+                Eventor eventor = (Eventor) widget;
+                add(userWidget.userKey, eventor, dashId);
+                counter++;
             }
         }
         log.info("Timers : {}", counter);
@@ -131,14 +146,14 @@ public class TimerWorker implements Runnable {
                 SetPinAction action = new SetPinAction(timer.pin, timer.pinType, timer.startValue);
                 TimerKey timerKey = new TimerKey(userKey, dashId, timer.deviceId, timer.id, 0,
                         deviceTilesId, templateId, timerTime);
-                getExecutorOrCreate(timerTime.time).put(timerKey, new BaseAction[]{action});
+                schedule(timerKey, new BaseAction[]{action});
             }
             if (timer.isValidStop()) {
                 TimerTime timerTime = new TimerTime(timer.stopTime);
                 SetPinAction action = new SetPinAction(timer.pin, timer.pinType, timer.stopValue);
                 TimerKey timerKey = new TimerKey(userKey, dashId, timer.deviceId, timer.id, 1,
                         deviceTilesId, templateId, timerTime);
-                getExecutorOrCreate(timerTime.time).put(timerKey, new BaseAction[]{action});
+                schedule(timerKey, new BaseAction[]{action});
             }
         }
     }
@@ -152,8 +167,7 @@ public class TimerWorker implements Runnable {
             }
         }
         if (!validActions.isEmpty()) {
-            getExecutorOrCreate(time.time).put(
-                    new TimerKey(userKey, dashId, deviceId, widgetId, additionalId,
+            schedule(new TimerKey(userKey, dashId, deviceId, widgetId, additionalId,
                             -1L, -1L, time),
                     validActions.toArray(new BaseAction[0]));
         }
@@ -183,75 +197,124 @@ public class TimerWorker implements Runnable {
 
     private void delete(UserKey userKey, int dashId, int deviceId, long widgetId, int additionalId,
                         long deviceTilesId, long templateId, TimerTime time) {
-        ConcurrentHashMap<TimerKey, BaseAction[]> secondExecutor = timerExecutors.get(time.time);
-        if (secondExecutor != null) {
-            secondExecutor.remove(new TimerKey(userKey, dashId, deviceId,
+        ScheduledTimer timer = timers.remove(new TimerKey(userKey, dashId, deviceId,
                     widgetId, additionalId,
                     deviceTilesId, templateId, time));
+        if (timer != null) {
+            timer.cancel();
+            queue.remove(timer);
         }
     }
 
-    //may be improved in Java9 with compareAndExchange
-    private ConcurrentHashMap<TimerKey, BaseAction[]> getExecutorOrCreate(int seconds) {
-        ConcurrentHashMap<TimerKey, BaseAction[]> secondExecutor = timerExecutors.get(seconds);
-        if (secondExecutor != null) {
-            return secondExecutor;
+    private void schedule(TimerKey key, BaseAction[] actions) {
+        ScheduledTimer timer = new ScheduledTimer(key, actions);
+        ScheduledTimer previous = timers.put(key, timer);
+        if (previous != null) {
+            previous.cancel();
+            queue.remove(previous);
         }
-        ConcurrentHashMap<TimerKey, BaseAction[]> newSecondExecutorMap = new ConcurrentHashMap<>();
-        if (timerExecutors.compareAndSet(seconds, null, newSecondExecutorMap)) {
-            return newSecondExecutorMap;
+        long from = Math.max(System.currentTimeMillis() / 1000, lastTickSecond + 1);
+        long tickTime = key.time.nextTickTime(from);
+        if (tickTime != -1) {
+            queue.add(timer, tickTime);
         }
-        return timerExecutors.get(seconds);
     }
 
-    private int actuallySendTimers;
-    private int activeTimers;
+    public int getScheduledTimers() {
+        return queue.size();
+    }
+
+    public long getFired(boolean reset) {
+        return reset ? fired.sumThenReset() : fired.sum();
+    }
+
+    public long getLate(boolean reset) {
+        return reset ? late.sumThenReset() : late.sum();
+    }
+
+    public long getSkipped(boolean reset) {
+        return reset ? skipped.sumThenReset() : skipped.sum();
+    }
+
+    public long getSent(boolean reset) {
+        return reset ? sent.sumThenReset() : sent.sum();
+    }
 
     @Override
     public void run() {
         log.trace("Starting timer...");
 
         long now = System.currentTimeMillis();
-        ConcurrentMap<TimerKey, BaseAction[]> tickedExecutors = timerExecutors.get((int) ((now / 1000) % 86400));
-
-        if (tickedExecutors == null) {
-            return;
-        }
+        long nowSecond = now / 1000;
 
         try {
-            this.activeTimers = 0;
-            this.actuallySendTimers = 0;
-            send(tickedExecutors, now);
+            queue.pollDue(nowSecond, dueTimers);
+            lastTickSecond = nowSecond;
+            if (dueTimers.isEmpty()) {
+                return;
+            }
+            int activeTimers = dispatch(dueTimers, nowSecond, now);
+            log.info("Timer finished. Ready {}, Active {}. Processing time : {} ms",
+                    dueTimers.size(), activeTimers, System.currentTimeMillis() - now);
         } catch (Exception e) {
             log.error("Error running timers. ", e);
+        } finally {
+            dueTimers.clear();
+            batches.clear();
         }
+    }
+
+    private int dispatch(ArrayList<ScheduledTimer> dueTimers, long nowSecond, long now) {
+        int activeTimers = 0;
+        for (ScheduledTimer timer : dueTimers) {
+            if (timer.isCancelled()) {
+                continue;
+            }
+            TimerKey key = timer.key;
+            if (timer.tickTime < nowSecond) {
+                //tick was delayed, timer is triggered anyway, but later than planned
+                late.increment();
+            }
+            long nextTickTime = key.time.nextTickTime(nowSecond + 1);
+            if (nextTickTime != -1) {
+                queue.add(timer, nextTickTime);
+            }
 
-        if (activeTimers > 0) {
-            log.info("Timer finished. Ready {}, Active {}, Actual {}. Processing time : {} ms",
-                    tickedExecutors.size(), activeTimers, actuallySendTimers, System.currentTimeMillis() - now);
+            User user = userDao.users.get(key.userKey);
+            DashBoard dash = user == null ? null : user.profile.getDashById(key.dashId);
+            if (dash == null || !dash.isActive) {
+                skipped.increment();
+                continue;
+            }
+            activeTimers++;
+            fired.increment();
+
+            Session session = sessionDao.get(key.userKey);
+            Runnable task = () -> process(user.profile, dash, key, timer.actions, session, now);
+            if (session == null) {
+                task.run();
+            } else {
+                batches.computeIfAbsent(session.initialEventLoop, k -> new ArrayList<>()).add(task);
+            }
         }
-    }
 
-    private void send(ConcurrentMap<TimerKey, BaseAction[]> tickedExecutors, long now) {
-        ZonedDateTime currentDateTime = ZonedDateTime.now(DateTimeUtils.UTC);
-
-        for (Map.Entry<TimerKey, BaseAction[]> entry : tickedExecutors.entrySet()) {
-            TimerKey key = entry.getKey();
-            BaseAction[] actions = entry.getValue();
-            if (key.time.isTickTime(currentDateTime)) {
-                User user = userDao.users.get(key.userKey);
-                if (user != null) {
-                    DashBoard dash = user.profile.getDashById(key.dashId);
-                    if (dash != null && dash.isActive) {
-                        activeTimers++;
-                        process(user.profile, dash, key, actions, now);
+        for (Map.Entry<EventLoop, ArrayList<Runnable>> entry : batches.entrySet()) {
+            ArrayList<Runnable> batch = entry.getValue();
+            entry.getKey().execute(() -> {
+                for (Runnable task : batch) {
+                    try {
+                        task.run();
+                    } catch (Exception e) {
+                        log.error("Error processing timer.", e);
                     }
                 }
-            }
+            });
         }
+        return activeTimers;
     }
 
-    private void process(Profile profile, DashBoard dash, TimerKey key, BaseAction[] actions, long now) {
+    private void process(Profile profile, DashBoard dash, TimerKey key, BaseAction[] actions,
+                         Session session, long now) {
         for (BaseAction action : actions) {
             if (action instanceof SetPinAction) {
                 SetPinAction setPinAction = (SetPinAction) action;
@@ -296,7 +359,9 @@ public class TimerWorker implements Runnable {
                             setPinAction.dataStream.pinType, setPinAction.value, now);
                 }
 
-                triggerTimer(sessionDao, key.userKey, setPinAction.makeHardwareBody(), key.dashId, deviceIds);
+                if (session != null) {
+                    triggerTimer(session, setPinAction.makeHardwareBody(), key.dashId, deviceIds);
+                }
             } else if (action instanceof NotifyAction) {
                 NotifyAction notifyAction = (NotifyAction) action;
                 EventorProcessor.push(gcmWrapper, dash, notifyAction.message);
@@ -304,15 +369,18 @@ public class TimerWorker implements Runnable {
         }
     }
 
-    private void triggerTimer(SessionDao sessionDao, UserKey userKey, String value, int dashId, int[] deviceIds) {
-        Session session = sessionDao.get(userKey);
-        if (session != null) {
-            if (!session.sendMessageToHardware(dashId, HARDWARE, TIMER_MSG_ID, value, deviceIds)) {
-                actuallySendTimers++;
+    private void triggerTimer(Session session, String value, int dashId, int[] deviceIds) {
+        //value is encoded once and shared between all hardware and app receivers
+        ByteBuf body = ByteBufUtil.writeUtf8(ByteBufAllocator.DEFAULT, value);
+        try {
+            if (!session.sendMessageToHardware(dashId, HARDWARE, TIMER_MSG_ID, body, deviceIds)) {
+                sent.increment();
             }
             for (int deviceId : deviceIds) {
-                session.sendToApps(HARDWARE, TIMER_MSG_ID, dashId, deviceId, value);
+                session.sendToApps(HARDWARE, TIMER_MSG_ID, dashId, deviceId, body);
             }
+        } finally {
+            body.release();
         }
     }
 
@@ -60,6 +60,7 @@ module cc.blynk.core {
     requires io.netty.codec.http;
     requires async.http.client;
     requires com.zaxxer.hikari;
+    requires org.postgresql.jdbc;
     requires java.sql;
     requires com.fasterxml.jackson.databind;
     requires com.fasterxml.jackson.annotation;
@@ -0,0 +1,206 @@
+package cc.blynk.server.core.dao;
+
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.device.BoardType;
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.serialization.JsonParser;
+import cc.blynk.server.core.model.storage.key.DashPinStorageKey;
+import cc.blynk.server.core.model.storage.value.MultiPinStorageValue;
+import cc.blynk.server.core.model.storage.value.MultiPinStorageValueType;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.server.core.model.widgets.controls.Terminal;
+import cc.blynk.utils.AppNameUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class ProfileJournalTest {
+
+    private Path dataDir;
+
+    @Before
+    public void init() throws Exception {
+        dataDir = Files.createTempDirectory("profile_journal_");
+    }
+
+    private static User user(String email) {
+        User user = new User(email, "", AppNameUtil.BLYNK, "local", "127.0.0.1", false, false);
+        DashBoard dash = new DashBoard();
+        dash.id = 1;
+        dash.devices = new Device[] {new Device(0, "0", BoardType.ESP8266)};
+        user.profile.dashBoards = new DashBoard[] {dash};
+        return user;
+    }
+
+    private static String value(User user, int pin) {
+        var storageValue = user.profile.pinsStorage.get(new DashPinStorageKey(1, 0, PinType.VIRTUAL, (short) pin));
+        return storageValue == null ? null : storageValue.toString();
+    }
+
+    @Test
+    public void testValueChangesAreReplayed() throws Exception {
+        User user = user("1");
+        User notChanged = user("2");
+        DashBoard dash = user.profile.dashBoards[0];
+        user.profile.update(dash, 0, (short) 1, PinType.VIRTUAL, "1", 1000);
+        user.profile.update(dash, 0, (short) 2, PinType.VIRTUAL, "a\0b", 1000);
+        dash.devices[0].dataReceivedAt = 1000;
+        assertEquals(0, dash.updatedAt);
+        assertFalse(JsonParser.toJson(user).contains("valuesUpdatedAt"));
+        assertFalse(JsonParser.toJson(user).contains("valueChanges"));
+
+        ProfileJournal journal = new ProfileJournal(dataDir, 1);
+        List<User> journaled = journal.append(List.of(user, notChanged));
+        assertEquals(List.of(user), journaled);
+        assertTrue(user.profile.valueChanges.isEmpty());
+
+        user.profile.update(dash, 0, (short) 1, PinType.VIRTUAL, "2", 2000);
+        journal.append(List.of(user, notChanged));
+        assertTrue(journal.append(List.of(user, notChanged)).isEmpty());
+
+        //profiles loaded from the user files without the values
+        User loaded = user("1");
+        ProfileJournal restarted = new ProfileJournal(dataDir, 1);
+        assertEquals(2, restarted.replay(Map.of(new UserKey(loaded), loaded)));
+        assertEquals("2", value(loaded, 1));
+        assertEquals("a\0b", value(loaded, 2));
+        assertEquals(1000, loaded.profile.dashBoards[0].devices[0].dataReceivedAt);
+        assertTrue(loaded.profile.valueChanges.isEmpty());
+    }
+
+    private static Terminal terminal(User user) {
+        Terminal terminal = new Terminal();
+        terminal.id = 1;
+        terminal.deviceId = 0;
+        terminal.pinType = PinType.VIRTUAL;
+        terminal.pin = 3;
+        user.profile.dashBoards[0].widgets = new Widget[] {terminal};
+        return terminal;
+    }
+
+    @Test
+    public void testMultiValuesAreReplayedWithoutDuplicates() throws Exception {
+        User user = user("1");
+        DashBoard dash = user.profile.dashBoards[0];
+        terminal(user);
+        var storageKey = new DashPinStorageKey(1, 0, PinType.VIRTUAL, (short) 4);
+        user.profile.pinsStorage.put(storageKey, new MultiPinStorageValue(MultiPinStorageValueType.TERMINAL));
+        user.profile.update(dash, 0, (short) 3, PinType.VIRTUAL, "a", 1000);
+        user.profile.update(dash, 0, (short) 3, PinType.VIRTUAL, "b", 1000);
+        user.profile.update(dash, 0, (short) 4, PinType.VIRTUAL, "x", 1000);
+        user.profile.update(dash, 0, (short) 4, PinType.VIRTUAL, "y", 1000);
+
+        ProfileJournal journal = new ProfileJournal(dataDir, 1);
+        journal.append(List.of(user));
+        assertTrue(user.profile.valueChanges.isEmpty());
+        assertTrue(user.profile.multiValueChanges.isEmpty());
+
+        //pins storage was stored after the journal write
+        User loaded = user("1");
+        Terminal loadedTerminal = terminal(loaded);
+        var storedValue = new MultiPinStorageValue(MultiPinStorageValueType.TERMINAL);
+        storedValue.update("x");
+        storedValue.update("y");
+        loaded.profile.pinsStorage.put(storageKey, storedValue);
+
+        assertEquals(1, new ProfileJournal(dataDir, 1).replay(Map.of(new UserKey(loaded), loaded)));
+        assertEquals("[\"a\",\"b\"]", loadedTerminal.getJsonValue());
+        assertEquals(List.of("x", "y"), new ArrayList<>(loaded.profile.pinsStorage.get(storageKey).values()));
+        assertTrue(loaded.profile.multiValueChanges.isEmpty());
+    }
+
+    @Test
+    public void testIncompleteRecordIsSkipped() throws Exception {
+        User user = user("1");
+        DashBoard dash = user.profile.dashBoards[0];
+        ProfileJournal journal = new ProfileJournal(dataDir, 1);
+        user.profile.update(dash, 0, (short) 1, PinType.VIRTUAL, "1", 1000);
+        journal.append(List.of(user));
+        long completeSize = journal.size();
+        user.profile.update(dash, 0, (short) 1, PinType.VIRTUAL, "2", 2000);
+        journal.append(List.of(user));
+
+        try (FileChannel channel = FileChannel.open(dataDir.resolve(ProfileJournal.JOURNAL_FILE_NAME),
+                StandardOpenOption.WRITE)) {
+            channel.truncate(journal.size() - 3);
+        }
+
+        User loaded = user("1");
+        ProfileJournal restarted = new ProfileJournal(dataDir, 1);
+        assertEquals(1, restarted.replay(Map.of(new UserKey(loaded), loaded)));
+        assertEquals("1", value(loaded, 1));
+        assertTrue(completeSize < restarted.size());
+    }
+
+    @Test
+    public void testCompactionStoresJournaledUsers() throws Exception {
+        FileManager fileManager = new FileManager(dataDir.toString(), "127.0.0.1");
+        User user = user("1");
+        DashBoard dash = user.profile.dashBoards[0];
+        ProfileJournal journal = new ProfileJournal(dataDir, 1);
+        user.profile.update(dash, 0, (short) 1, PinType.VIRTUAL, "1", 1000);
+        journal.append(List.of(user));
+        assertFalse(journal.needsCompaction());
+
+        journal.compact(fileManager, Map.of(new UserKey(user), user));
+        assertEquals(0, journal.size());
+        assertFalse(Files.exists(dataDir.resolve(ProfileJournal.JOURNAL_FILE_NAME)));
+
+        User loaded = fileManager.deserializeUsers().get(new UserKey(user));
+        assertEquals("1", value(loaded, 1));
+        assertNull(value(loaded, 2));
+        assertEquals(0, new ProfileJournal(dataDir, 1).replay(Map.of(new UserKey(loaded), loaded)));
+    }
+
+    @Test
+    public void testChangesAreStoredWithProfileWhenJournalIsNotWritten() throws Exception {
+        FileManager fileManager = new FileManager(dataDir.toString(), "127.0.0.1");
+        User user = user("1");
+        DashBoard dash = user.profile.dashBoards[0];
+        terminal(user);
+        //journal can't be opened for the write
+        Files.createDirectory(dataDir.resolve(ProfileJournal.JOURNAL_FILE_NAME));
+        ProfileJournal journal = new ProfileJournal(dataDir, 1);
+        user.profile.update(dash, 0, (short) 1, PinType.VIRTUAL, "1", 1000);
+        user.profile.update(dash, 0, (short) 3, PinType.VIRTUAL, "a", 1000);
+
+        try {
+            journal.append(List.of(user));
+            fail();
+        } catch (IOException e) {
+            //expected
+        }
+        assertTrue(user.profile.valueChanges.isEmpty());
+        assertTrue(user.profile.multiValueChanges.isEmpty());
+        assertTrue(journal.needsCompaction());
+
+        journal.compact(fileManager, Map.of(new UserKey(user), user));
+        assertFalse(journal.needsCompaction());
+        assertFalse(Files.exists(dataDir.resolve(ProfileJournal.JOURNAL_FILE_NAME)));
+
+        User loaded = fileManager.deserializeUsers().get(new UserKey(user));
+        assertEquals("1", value(loaded, 1));
+    }
+
+}
@@ -0,0 +1,88 @@
+package cc.blynk.server.core.model;
+
+import cc.blynk.server.core.model.device.BoardType;
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.serialization.JsonParser;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.server.core.model.widgets.outputs.ValueDisplay;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class CompressedDashTest {
+
+    private static DashBoard dash(int id) {
+        ValueDisplay valueDisplay = new ValueDisplay();
+        valueDisplay.id = 1;
+        valueDisplay.deviceId = 0;
+        valueDisplay.pinType = PinType.VIRTUAL;
+        valueDisplay.pin = 1;
+        valueDisplay.value = "10";
+
+        DashBoard dash = new DashBoard();
+        dash.id = id;
+        dash.name = "Dash " + id;
+        dash.devices = new Device[] {new Device(0, "0", BoardType.ESP8266)};
+        dash.widgets = new Widget[] {valueDisplay};
+        return dash;
+    }
+
+    private static String inflate(byte[] data) throws Exception {
+        try (InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(data))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void testCachedProfileIsTheSameAsSerialized() throws Exception {
+        Profile profile = new Profile();
+        profile.dashBoards = new DashBoard[] {dash(1), dash(2)};
+        //pin without widget goes to the pins storage
+        profile.update(profile.dashBoards[0], 0, (short) 5, PinType.VIRTUAL, "7", 1);
+
+        String expected = inflate(JsonParser.gzipProfile(profile));
+        assertTrue(expected.contains("\"pinsStorage\""));
+        assertEquals(expected, inflate(JsonParser.gzipProfileCached(profile, profile.dashBoards, false)));
+        //second time from the cache
+        assertEquals(expected, inflate(JsonParser.gzipProfileCached(profile, profile.dashBoards, false)));
+        String restrictive = inflate(JsonParser.gzipProfileRestrictive(profile));
+        assertFalse(restrictive.contains("\"pinsStorage\""));
+        assertEquals(restrictive, inflate(JsonParser.gzipProfileCached(profile, profile.dashBoards, true)));
+        assertEquals(inflate(JsonParser.gzipDash(profile.dashBoards[0])),
+                inflate(JsonParser.gzipDashCached(profile.dashBoards[0], false)));
+    }
+
+    @Test
+    public void testCacheIsOutdatedAfterChange() throws Exception {
+        DashBoard dash = dash(1);
+        assertFalse(dash.hasCompressedJson(false));
+
+        var json = dash.getCompressedJson();
+        assertTrue(dash.hasCompressedJson(false));
+        assertFalse(dash.hasCompressedJson(true));
+        assertSame(json, dash.getCompressedJson());
+
+        dash.valuesUpdatedAt = 1;
+        assertFalse(dash.hasCompressedJson(false));
+        json = dash.getCompressedJson();
+
+        dash.devices[0].connected();
+        assertFalse(dash.hasCompressedJson(false));
+        assertNotSame(json, dash.getCompressedJson());
+    }
+
+}
@@ -5,6 +5,8 @@ import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.model.enums.WidgetProperty;
 import cc.blynk.server.core.model.serialization.JsonParser;
+import cc.blynk.server.core.model.storage.PinStorage;
+import cc.blynk.server.core.model.storage.PinStorageFile;
 import cc.blynk.server.core.model.storage.key.DashPinPropertyStorageKey;
 import cc.blynk.server.core.model.storage.key.DashPinStorageKey;
 import cc.blynk.server.core.model.storage.value.MultiPinStorageValue;
@@ -14,11 +16,16 @@ import cc.blynk.server.core.model.storage.value.SinglePinStorageValue;
 import org.junit.Test;
 
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 import static cc.blynk.server.core.model.DataStreamValuesUpdateCorrectTest.parseProfile;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertNull;
 
 /**
  * The Blynk Project.
@@ -27,6 +34,15 @@ import static org.junit.Assert.assertTrue;
  */
 public class DataStreamStorageSerializationTest {
 
+    private static PinStorage writeAndRead(PinStorage pinStorage) throws Exception {
+        Path path = Files.createTempFile("pins_", ".pins");
+        PinStorageFile.write(path, pinStorage);
+        PinStorage restored = new PinStorage();
+        PinStorageFile.read(path, restored);
+        Files.delete(path);
+        return restored;
+    }
+
     @Test
     public void testMigrationOfOldDataIsCorrect() {
         InputStream is = this.getClass().getResourceAsStream("/json_test/user_profile_json_old_pinstorage.txt");
@@ -50,7 +66,7 @@ public class DataStreamStorageSerializationTest {
     }
 
     @Test
-    public void testSerializeSingleEmptyValue() {
+    public void testSerializeSingleEmptyValue() throws Exception {
         User user = new User();
         user.email = "123";
         user.profile = new Profile();
@@ -61,12 +77,13 @@ public class DataStreamStorageSerializationTest {
         DashPinStorageKey pinStorageKey = new DashPinStorageKey(1, 0, PinType.VIRTUAL, (short) 0);
         user.profile.pinsStorage.put(pinStorageKey, new SinglePinStorageValue());
 
-        String result = user.toString();
-        assertTrue(result.contains("\"1-0-v0\":\"\""));
+        assertFalse(user.toString().contains("pinsStorage"));
+        PinStorage restored = writeAndRead(user.profile.pinsStorage);
+        assertNull(((SinglePinStorageValue) restored.get(pinStorageKey)).value);
     }
 
     @Test
-    public void testSerializeSingleValue() {
+    public void testSerializeSingleValue() throws Exception {
         User user = new User();
         user.email = "123";
         user.profile = new Profile();
@@ -81,14 +98,16 @@ public class DataStreamStorageSerializationTest {
         user.profile.pinsStorage.put(pinStorageKey2,new SinglePinStorageValue("2"));
         user.profile.pinsStorage.put(pinStorageKey3, new SinglePinStorageValue("3"));
 
-        String result = user.toString();
-        assertTrue(result.contains("\"1-0-v0\":\"1\""));
-        assertTrue(result.contains("\"1-0-d1\":\"2\""));
-        assertTrue(result.contains("\"1-0-v0-label\":\"3\""));
+        assertFalse(user.toString().contains("pinsStorage"));
+        PinStorage restored = writeAndRead(user.profile.pinsStorage);
+        assertEquals(3, restored.size());
+        assertEquals("1", ((SinglePinStorageValue) restored.get(pinStorageKey)).value);
+        assertEquals("2", ((SinglePinStorageValue) restored.get(pinStorageKey2)).value);
+        assertEquals("3", ((SinglePinStorageValue) restored.get(pinStorageKey3)).value);
     }
 
     @Test
-    public void testSerializeMultiValueEmpty() {
+    public void testSerializeMultiValueEmpty() throws Exception {
         User user = new User();
         user.email = "123";
         user.profile = new Profile();
@@ -100,12 +119,13 @@ public class DataStreamStorageSerializationTest {
         PinStorageValue pinStorageValue = new MultiPinStorageValue(MultiPinStorageValueType.LCD);
         user.profile.pinsStorage.put(pinStorageKey, pinStorageValue);
 
-        String result = user.toString();
-        assertTrue(result.contains("\"1-0-v0\":{\"type\":\"LCD\"}"));
+        PinStorage restored = writeAndRead(user.profile.pinsStorage);
+        assertEquals(MultiPinStorageValueType.LCD, ((MultiPinStorageValue) restored.get(pinStorageKey)).type);
+        assertEquals(0, restored.get(pinStorageKey).values().size());
     }
 
     @Test
-    public void testSerializeMultiValueWithSingleValue() {
+    public void testSerializeMultiValueWithSingleValue() throws Exception {
         User user = new User();
         user.email = "123";
         user.profile = new Profile();
@@ -118,12 +138,12 @@ public class DataStreamStorageSerializationTest {
         pinStorageValue.update("1");
         user.profile.pinsStorage.put(pinStorageKey, pinStorageValue);
 
-        String result = user.toString();
-        assertTrue(result.contains("\"1-0-v0\":{\"type\":\"LCD\",\"values\":[\"1\"]}"));
+        PinStorage restored = writeAndRead(user.profile.pinsStorage);
+        assertEquals(List.of("1"), new ArrayList<>(restored.get(pinStorageKey).values()));
     }
 
     @Test
-    public void testSerializeMultiValueWithMultipleValues() {
+    public void testSerializeMultiValueWithMultipleValues() throws Exception {
         User user = new User();
         user.email = "123";
         user.profile = new Profile();
@@ -137,12 +157,12 @@ public class DataStreamStorageSerializationTest {
         pinStorageValue.update("2");
         user.profile.pinsStorage.put(pinStorageKey, pinStorageValue);
 
-        String result = user.toString();
-        assertTrue(result.contains("\"1-0-v0\":{\"type\":\"LCD\",\"values\":[\"1\",\"2\"]}"));
+        PinStorage restored = writeAndRead(user.profile.pinsStorage);
+        assertEquals(List.of("1", "2"), new ArrayList<>(restored.get(pinStorageKey).values()));
     }
 
     @Test
-    public void testSerializeMultiValueWithMultipleValuesAndLimit() {
+    public void testSerializeMultiValueWithMultipleValuesAndLimit() throws Exception {
         User user = new User();
         user.email = "123";
         user.profile = new Profile();
@@ -161,12 +181,12 @@ public class DataStreamStorageSerializationTest {
         pinStorageValue.update("7");
         user.profile.pinsStorage.put(pinStorageKey, pinStorageValue);
 
-        String result = user.toString();
-        assertTrue(result.contains("\"1-0-v0\":{\"type\":\"LCD\",\"values\":[\"2\",\"3\",\"4\",\"5\",\"6\",\"7\"]}"));
+        PinStorage restored = writeAndRead(user.profile.pinsStorage);
+        assertEquals(List.of("2", "3", "4", "5", "6", "7"), new ArrayList<>(restored.get(pinStorageKey).values()));
     }
 
     @Test
-    public void testSerializeMultiValueWithNilValue() {
+    public void testSerializeMultiValueWithNilValue() throws Exception {
         User user = new User();
         user.email = "123";
         user.profile = new Profile();
@@ -179,8 +199,29 @@ public class DataStreamStorageSerializationTest {
         pinStorageValue.update("\0");
         user.profile.pinsStorage.put(pinStorageKey, pinStorageValue);
 
-        String result = user.toString();
-        assertTrue(result.contains("\"1-0-v0\":{\"type\":\"LCD\",\"values\":[\"\\u0000\"]}"));
+        PinStorage restored = writeAndRead(user.profile.pinsStorage);
+        assertEquals(List.of("\0"), new ArrayList<>(restored.get(pinStorageKey).values()));
+    }
+
+    @Test
+    public void testProfileWithPinsForDB() throws Exception {
+        Profile profile = new Profile();
+        profile.dashBoards = new DashBoard[] {
+                new DashBoard()
+        };
+        DashPinStorageKey pinStorageKey = new DashPinStorageKey(1, 0, PinType.VIRTUAL, (short) 0);
+        DashPinStorageKey pinStorageKey2 = new DashPinStorageKey(1, 0, PinType.VIRTUAL, (short) 1);
+        PinStorageValue pinStorageValue = new MultiPinStorageValue(MultiPinStorageValueType.LCD);
+        pinStorageValue.update("1");
+        pinStorageValue.update("2");
+        profile.pinsStorage.put(pinStorageKey, new SinglePinStorageValue("1"));
+        profile.pinsStorage.put(pinStorageKey2, pinStorageValue);
+
+        assertFalse(profile.toString().contains("pinsStorage"));
+        Profile restored = JsonParser.parseProfileFromString(JsonParser.toJsonWithPins(profile));
+        assertEquals(2, restored.pinsStorage.size());
+        assertEquals("1", ((SinglePinStorageValue) restored.pinsStorage.get(pinStorageKey)).value);
+        assertEquals(List.of("1", "2"), new ArrayList<>(restored.pinsStorage.get(pinStorageKey2).values()));
     }
 
     @Test
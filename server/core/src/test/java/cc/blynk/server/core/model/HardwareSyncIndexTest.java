@@ -0,0 +1,71 @@
+package cc.blynk.server.core.model;
+
+import cc.blynk.server.core.model.device.BoardType;
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.HardwareSyncWidget;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.server.core.model.widgets.others.rtc.RTC;
+import cc.blynk.server.core.model.widgets.outputs.ValueDisplay;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class HardwareSyncIndexTest {
+
+    private static ValueDisplay valueDisplay(long id, int deviceId, int pin) {
+        ValueDisplay valueDisplay = new ValueDisplay();
+        valueDisplay.id = id;
+        valueDisplay.deviceId = deviceId;
+        valueDisplay.pinType = PinType.VIRTUAL;
+        valueDisplay.pin = (short) pin;
+        return valueDisplay;
+    }
+
+    private static DashBoard dash(Widget... widgets) {
+        DashBoard dash = new DashBoard();
+        dash.devices = new Device[] {new Device(0, "0", BoardType.ESP8266), new Device(1, "1", BoardType.ESP8266)};
+        dash.widgets = widgets;
+        return dash;
+    }
+
+    @Test
+    public void testWidgetsAreGroupedPerDeviceInDashOrder() {
+        ValueDisplay valueDisplay1 = valueDisplay(1, 0, 1);
+        ValueDisplay valueDisplay2 = valueDisplay(2, 1, 1);
+        ValueDisplay valueDisplay3 = valueDisplay(3, 0, 2);
+        DashBoard dash = dash(valueDisplay1, valueDisplay2, valueDisplay3);
+
+        assertArrayEquals(new HardwareSyncWidget[] {valueDisplay1, valueDisplay3}, dash.getHardwareSyncWidgets(0));
+        assertArrayEquals(new HardwareSyncWidget[] {valueDisplay2}, dash.getHardwareSyncWidgets(1));
+        assertSame(dash.getHardwareSyncWidgets(0), dash.getHardwareSyncWidgets(0));
+        assertEquals(0, dash.getHardwareSyncWidgets(2).length);
+    }
+
+    @Test
+    public void testRTCIsNotSynced() {
+        RTC rtc = new RTC();
+        rtc.id = 2;
+        ValueDisplay valueDisplay = valueDisplay(1, 0, 1);
+        DashBoard dash = dash(valueDisplay, rtc);
+
+        assertArrayEquals(new HardwareSyncWidget[] {valueDisplay}, dash.getHardwareSyncWidgets(0));
+    }
+
+    @Test
+    public void testIndexIsBuiltAgainAfterWidgetsChange() {
+        DashBoard dash = dash(valueDisplay(1, 0, 1));
+        assertEquals(1, dash.getHardwareSyncWidgets(0).length);
+
+        dash.widgets = new Widget[] {valueDisplay(1, 0, 1), valueDisplay(2, 0, 2)};
+        assertEquals(2, dash.getHardwareSyncWidgets(0).length);
+    }
+
+}
@@ -0,0 +1,89 @@
+package cc.blynk.server.core.model;
+
+import cc.blynk.server.core.model.device.BoardType;
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.model.device.Tag;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.server.core.model.widgets.outputs.ValueDisplay;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphDataStream;
+import cc.blynk.server.core.model.widgets.outputs.graph.Superchart;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class PinRoutingTest {
+
+    private static ValueDisplay valueDisplay(long id, int deviceId, int pin) {
+        ValueDisplay valueDisplay = new ValueDisplay();
+        valueDisplay.id = id;
+        valueDisplay.deviceId = deviceId;
+        valueDisplay.pinType = PinType.VIRTUAL;
+        valueDisplay.pin = (short) pin;
+        return valueDisplay;
+    }
+
+    private static Superchart superchart(int targetId, int pin) {
+        Superchart superchart = new Superchart();
+        superchart.dataStreams = new GraphDataStream[] {
+                new GraphDataStream(null, null, 0, targetId, new DataStream((short) pin, PinType.VIRTUAL),
+                        null, 0, null, null, null, 0, 0, false, null, false, false, false, null, 0, false, 0)
+        };
+        return superchart;
+    }
+
+    private static DashBoard dash(Widget... widgets) {
+        DashBoard dash = new DashBoard();
+        dash.devices = new Device[] {new Device(0, "0", BoardType.ESP8266), new Device(1, "1", BoardType.ESP8266)};
+        dash.widgets = widgets;
+        return dash;
+    }
+
+    @Test
+    public void testRouteContainsOnlyWidgetsOfThePin() {
+        ValueDisplay valueDisplay1 = valueDisplay(1, 0, 1);
+        ValueDisplay valueDisplay2 = valueDisplay(2, 0, 1);
+        DashBoard dash = dash(valueDisplay1, valueDisplay(3, 1, 1), valueDisplay(4, 0, 2), valueDisplay2);
+
+        PinRoute route = dash.getPinRoute(0, (short) 1, PinType.VIRTUAL);
+        assertArrayEquals(new Widget[] {valueDisplay1, valueDisplay2}, route.widgets);
+        assertSame(route, dash.getPinRoute(0, (short) 1, PinType.VIRTUAL));
+        assertEquals(0, dash.getPinRoute(0, (short) 1, PinType.DIGITAL).widgets.length);
+
+        assertEquals(true, dash.updateWidgets(0, (short) 1, PinType.VIRTUAL, "10"));
+        assertEquals("10", valueDisplay1.value);
+        assertEquals("10", valueDisplay2.value);
+    }
+
+    @Test
+    public void testRouteIsResolvedAgainAfterWidgetsChange() {
+        DashBoard dash = dash(valueDisplay(1, 0, 1));
+        assertEquals(1, dash.getPinRoute(0, (short) 1, PinType.VIRTUAL).widgets.length);
+
+        dash.widgets = new Widget[] {valueDisplay(1, 0, 1), valueDisplay(2, 0, 1)};
+        assertEquals(2, dash.getPinRoute(0, (short) 1, PinType.VIRTUAL).widgets.length);
+    }
+
+    @Test
+    public void testLoggedPinFollowsTagDevices() {
+        Tag tag = new Tag(Tag.START_TAG_ID, "tag");
+        Superchart superchart = superchart(tag.id, 5);
+        DashBoard dash = dash(superchart);
+        dash.tags = new Tag[] {tag};
+
+        assertNull(dash.getPinRoute(1, (short) 5, PinType.VIRTUAL).loggedWidget);
+
+        tag.deviceIds = new int[] {1};
+        assertSame(superchart, dash.getPinRoute(1, (short) 5, PinType.VIRTUAL).loggedWidget);
+        assertNull(dash.getPinRoute(1, (short) 6, PinType.VIRTUAL).loggedWidget);
+    }
+
+}
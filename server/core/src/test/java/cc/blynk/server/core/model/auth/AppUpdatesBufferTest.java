@@ -0,0 +1,101 @@
+package cc.blynk.server.core.model.auth;
+
+import cc.blynk.server.core.model.storage.key.DashPinStorageKey;
+import cc.blynk.server.core.protocol.model.messages.ByteBufMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class AppUpdatesBufferTest {
+
+    private static ByteBufMessage message(String body) {
+        return new ByteBufMessage(1, HARDWARE, Unpooled.copiedBuffer(body, StandardCharsets.UTF_8));
+    }
+
+    private static String readBody(EmbeddedChannel channel) {
+        ByteBufMessage message = channel.readOutbound();
+        if (message == null) {
+            return null;
+        }
+        try {
+            return message.body.toString(StandardCharsets.UTF_8);
+        } finally {
+            message.release();
+        }
+    }
+
+    private static void runFlush(EmbeddedChannel channel) throws Exception {
+        Thread.sleep(20);
+        channel.runPendingTasks();
+    }
+
+    @Test
+    public void testKeyIsParsedOnlyForWrites() {
+        assertEquals(new DashPinStorageKey(1, 2, 'v', (short) 44), AppUpdatesBuffer.key(1, 2, "vw\u000044\u0000123"));
+        assertEquals(new DashPinStorageKey(1, 2, 'd', (short) 3), AppUpdatesBuffer.key(1, 2, "dw\u00003\u00001"));
+        assertNull(AppUpdatesBuffer.key(1, 2, "vr\u000044"));
+        assertNull(AppUpdatesBuffer.key(1, 2, "vw\u000044"));
+        assertNull(AppUpdatesBuffer.key(1, 2, "vw\u0000x\u00001"));
+
+        ByteBuf body = Unpooled.copiedBuffer("xxvw\u000044\u0000123", StandardCharsets.UTF_8);
+        body.skipBytes(2);
+        assertEquals(new DashPinStorageKey(1, 2, 'v', (short) 44), AppUpdatesBuffer.key(1, 2, body));
+        body.release();
+    }
+
+    @Test
+    public void testOnlyLatestUpdateOfThePinIsSent() throws Exception {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        AppUpdatesCoalescer coalescer = new AppUpdatesCoalescer(10);
+        AppUpdatesBuffer buffer = new AppUpdatesBuffer(channel, coalescer);
+
+        DashPinStorageKey pin1 = new DashPinStorageKey(1, 0, 'v', (short) 1);
+        DashPinStorageKey pin2 = new DashPinStorageKey(1, 0, 'v', (short) 2);
+        buffer.add(pin1, message("1"));
+        buffer.add(pin2, message("a"));
+        buffer.add(pin1, message("2"));
+        buffer.add(pin1, message("3"));
+        assertNull(channel.readOutbound());
+
+        runFlush(channel);
+        assertEquals("3", readBody(channel));
+        assertEquals("a", readBody(channel));
+        assertNull(readBody(channel));
+        assertEquals(2, coalescer.getCoalesced(false));
+        assertEquals(2, coalescer.getDelivered(false));
+
+        buffer.add(pin1, message("4"));
+        runFlush(channel);
+        assertEquals("4", readBody(channel));
+        assertEquals(3, coalescer.getDelivered(true));
+        assertEquals(0, coalescer.getDelivered(false));
+    }
+
+    @Test
+    public void testPendingUpdatesAreReleasedOnClose() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        AppUpdatesBuffer buffer = new AppUpdatesBuffer(channel, new AppUpdatesCoalescer(10));
+
+        ByteBufMessage message = message("1");
+        buffer.add(new DashPinStorageKey(1, 0, 'v', (short) 1), message);
+        //same as close listener of the session does
+        channel.close();
+        buffer.release();
+
+        assertEquals(0, message.refCnt());
+        assertNull(channel.readOutbound());
+    }
+
+}
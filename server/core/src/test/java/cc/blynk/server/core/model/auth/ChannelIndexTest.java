@@ -0,0 +1,64 @@
+package cc.blynk.server.core.model.auth;
+
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class ChannelIndexTest {
+
+    @Test
+    public void testAddAndRemove() {
+        ChannelIndex index = new ChannelIndex();
+        Channel channel1 = new EmbeddedChannel();
+        Channel channel2 = new EmbeddedChannel();
+
+        index.add(ChannelIndex.key(1, 0), channel1);
+        index.add(ChannelIndex.key(1, 0), channel2);
+        index.add(ChannelIndex.key(1, 0), channel2);
+        index.add(ChannelIndex.key(0, 1), channel1);
+
+        assertArrayEquals(new Channel[] {channel1, channel2}, index.get(ChannelIndex.key(1, 0)));
+        assertArrayEquals(new Channel[] {channel1}, index.get(ChannelIndex.key(0, 1)));
+        assertSame(ChannelIndex.EMPTY, index.get(ChannelIndex.key(1, 1)));
+        assertEquals(2, index.size());
+
+        index.remove(ChannelIndex.key(1, 0), channel1);
+        assertArrayEquals(new Channel[] {channel2}, index.get(ChannelIndex.key(1, 0)));
+        index.remove(ChannelIndex.key(1, 0), channel2);
+        assertSame(ChannelIndex.EMPTY, index.get(ChannelIndex.key(1, 0)));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testManyKeys() {
+        ChannelIndex index = new ChannelIndex();
+        Channel[] channels = new Channel[1000];
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = new EmbeddedChannel();
+            index.add(ChannelIndex.key(i % 3, i), channels[i]);
+        }
+        assertEquals(channels.length, index.size());
+        for (int i = 0; i < channels.length; i += 2) {
+            index.remove(ChannelIndex.key(i % 3, i), channels[i]);
+        }
+        assertEquals(channels.length / 2, index.size());
+        for (int i = 0; i < channels.length; i++) {
+            Channel[] result = index.get(ChannelIndex.key(i % 3, i));
+            if (i % 2 == 0) {
+                assertEquals(0, result.length);
+            } else {
+                assertArrayEquals(new Channel[] {channels[i]}, result);
+            }
+        }
+    }
+
+}
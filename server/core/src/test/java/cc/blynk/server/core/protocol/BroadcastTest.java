@@ -0,0 +1,71 @@
+package cc.blynk.server.core.protocol;
+
+import cc.blynk.server.core.protocol.handlers.encoders.MessageEncoder;
+import cc.blynk.server.core.protocol.handlers.encoders.MobileMessageEncoder;
+import cc.blynk.server.core.protocol.model.messages.Broadcast;
+import cc.blynk.server.core.stats.GlobalStats;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class BroadcastTest {
+
+    private static byte[] readFrame(EmbeddedChannel channel) {
+        ByteBuf frame = channel.readOutbound();
+        try {
+            return ByteBufUtil.getBytes(frame);
+        } finally {
+            frame.release();
+        }
+    }
+
+    @Test
+    public void testSameBodyForDifferentProtocols() {
+        GlobalStats stats = new GlobalStats();
+        EmbeddedChannel hardChannel = new EmbeddedChannel(new MessageEncoder(stats));
+        EmbeddedChannel appChannel = new EmbeddedChannel(new MobileMessageEncoder(stats));
+
+        try (Broadcast broadcast = new Broadcast(HARDWARE, 7, "vw\u00001\u0000привіт")) {
+            broadcast.write(hardChannel);
+            broadcast.write(appChannel);
+        }
+
+        byte[] body = "vw\u00001\u0000привіт".getBytes(StandardCharsets.UTF_8);
+        ByteBuf expectedHard = Unpooled.buffer()
+                .writeByte(HARDWARE).writeShort(7).writeShort(body.length).writeBytes(body);
+        ByteBuf expectedApp = Unpooled.buffer()
+                .writeByte(HARDWARE).writeShort(7).writeInt(body.length).writeBytes(body);
+        assertArrayEquals(ByteBufUtil.getBytes(expectedHard), readFrame(hardChannel));
+        assertArrayEquals(ByteBufUtil.getBytes(expectedApp), readFrame(appChannel));
+    }
+
+    @Test
+    public void testEncodedBodyIsNotReleased() {
+        EmbeddedChannel hardChannel = new EmbeddedChannel(new MessageEncoder(new GlobalStats()));
+        ByteBuf body = Unpooled.copiedBuffer("vw\u00001\u00001", StandardCharsets.UTF_8);
+
+        try (Broadcast broadcast = new Broadcast(HARDWARE, 1, body)) {
+            broadcast.write(hardChannel);
+            broadcast.write(hardChannel);
+        }
+        readFrame(hardChannel);
+        readFrame(hardChannel);
+
+        assertEquals(1, body.refCnt());
+        body.release();
+    }
+
+}
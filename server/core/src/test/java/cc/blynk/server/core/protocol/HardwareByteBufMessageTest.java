@@ -0,0 +1,83 @@
+package cc.blynk.server.core.protocol;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.protocol.model.messages.common.HardwareByteBufMessage;
+import cc.blynk.utils.NumberUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class HardwareByteBufMessageTest {
+
+    private static HardwareByteBufMessage message(String body) {
+        //body is placed in the middle of the buffer, like retained slice of the inbound buffer
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeBytes(new byte[] {20, 0, 1, 0, 10});
+        buf.writeCharSequence(body.replaceAll(" ", "\0"), StandardCharsets.UTF_8);
+        buf.writeByte(7);
+        return new HardwareByteBufMessage(1, buf.slice(5, buf.readableBytes() - 6));
+    }
+
+    @Test
+    public void testParseWrite() {
+        HardwareByteBufMessage message = message("vw 88 100 200");
+        assertTrue(message.isWriteOperation());
+        assertTrue(message.isValidWrite());
+        assertEquals(PinType.VIRTUAL, message.getPinType());
+        assertEquals(88, message.getPin());
+        assertEquals("100\0" + "200", message.getValue());
+        assertArrayEquals("vw 88 100 200".replace(' ', '\0').getBytes(StandardCharsets.UTF_8), message.getBytes());
+    }
+
+    @Test
+    public void testParseUTF8Value() {
+        HardwareByteBufMessage message = message("aw 1 привіт");
+        assertEquals(PinType.ANALOG, message.getPinType());
+        assertEquals(1, message.getPin());
+        assertEquals("привіт", message.getValue());
+    }
+
+    @Test
+    public void testInvalidWrites() {
+        assertFalse(message("vr 1").isWriteOperation());
+        assertFalse(message("vw 1").isValidWrite());
+        assertFalse(message("vw 1 ").isValidWrite());
+        assertFalse(message("vw1").isValidWrite());
+    }
+
+    @Test
+    public void testParseDoubleSameAsForString() {
+        String[] values = {"0", "100", "-1", "+2.5", "1.", ".5", "3.14159", "1e3", "1.5E-3", "2e+", "1e-320",
+                "", "-", ".", "e5", "1,5", "1 2", "abc", "12a", "привіт"};
+        for (String value : values) {
+            ByteBuf buf = Unpooled.buffer();
+            buf.writeByte(7);
+            buf.writeCharSequence(value, StandardCharsets.UTF_8);
+            buf.readByte();
+            assertEquals(value, NumberUtil.parseDouble(value), HardwareByteBufMessage.parseDouble(buf), 0);
+        }
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testWrongPin() {
+        message("vw 256 1").getPin();
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testNotNumericPin() {
+        message("vw a1 1").getPin();
+    }
+
+}
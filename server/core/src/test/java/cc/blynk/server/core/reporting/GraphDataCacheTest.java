@@ -0,0 +1,97 @@
+package cc.blynk.server.core.reporting;
+
+import cc.blynk.server.core.model.DataStream;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.AggregationFunctionType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphPeriod;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class GraphDataCacheTest {
+
+    private static final User USER = new User();
+
+    static {
+        USER.email = "test@blynk.cc";
+    }
+
+    private static GraphDataCache.Key key(long widgetId, int... tagDevices) {
+        GraphPinRequest[] requestedPins = {
+                new GraphPinRequest(1, 0, new DataStream((short) 1, PinType.VIRTUAL),
+                        GraphPeriod.ONE_HOUR, 0, AggregationFunctionType.AVG),
+                new GraphPinRequest(1, tagDevices, new DataStream((short) 2, PinType.VIRTUAL),
+                        GraphPeriod.ONE_HOUR, 0, AggregationFunctionType.SUM)
+        };
+        return new GraphDataCache.Key(USER, 1, widgetId, GraphPeriod.ONE_HOUR, 0, -1, requestedPins);
+    }
+
+    @Test
+    public void testEntryIsValidOnlyForItsEpoch() {
+        GraphDataCache cache = new GraphDataCache(1);
+        byte[] data = {1, 2, 3};
+
+        assertNull(cache.get(key(1, 0, 1), 5));
+        cache.put(key(1, 0, 1), 5, data);
+        assertArrayEquals(data, cache.get(key(1, 0, 1), 5));
+        assertEquals(1, cache.getHits(false));
+        assertEquals(1, cache.getMisses(false));
+
+        //file was written, entry is removed
+        assertNull(cache.get(key(1, 0, 1), 6));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.sizeInBytes());
+        assertEquals(1, cache.getHits(true));
+        assertEquals(2, cache.getMisses(true));
+        assertEquals(0, cache.getMisses(false));
+    }
+
+    @Test
+    public void testTagDevicesArePartOfTheKey() {
+        GraphDataCache cache = new GraphDataCache(1);
+        int[] tagDevices = {0, 1};
+        cache.put(key(1, tagDevices), 0, new byte[] {1});
+
+        tagDevices[1] = 2;
+        assertNull(cache.get(key(1, tagDevices), 0));
+        assertNull(cache.get(key(2, 0, 1), 0));
+        assertArrayEquals(new byte[] {1}, cache.get(key(1, 0, 1), 0));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvictedBySize() {
+        GraphDataCache cache = new GraphDataCache(1);
+        int entrySize = 100 * 1024;
+        for (int widgetId = 0; widgetId < 10; widgetId++) {
+            cache.put(key(widgetId), 0, new byte[entrySize]);
+            //first entry is used, so it is kept
+            cache.get(key(0), 0);
+        }
+
+        assertEquals(10, cache.size());
+        cache.put(key(10), 0, new byte[entrySize]);
+        assertEquals(10, cache.size());
+        assertEquals(10 * entrySize, cache.sizeInBytes());
+        assertNull(cache.get(key(1), 0));
+        assertEquals(entrySize, cache.get(key(0), 0).length);
+
+        //too big responses are not cached
+        cache.put(key(11), 0, new byte[200 * 1024]);
+        assertNull(cache.get(key(11), 0));
+    }
+
+    @Test
+    public void testDisabledCache() {
+        assertFalse(new GraphDataCache(0).isEnabled());
+    }
+
+}
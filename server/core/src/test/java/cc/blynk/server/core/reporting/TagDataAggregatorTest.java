@@ -0,0 +1,127 @@
+package cc.blynk.server.core.reporting;
+
+import cc.blynk.server.core.model.DataStream;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.AggregationFunctionType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphPeriod;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class TagDataAggregatorTest {
+
+    private final TagDataAggregator aggregator = new TagDataAggregator(2);
+
+    @After
+    public void close() {
+        aggregator.close();
+    }
+
+    //pairs of value and ts
+    private static ByteBuffer records(double... valueAndTs) {
+        ByteBuffer buf = ByteBuffer.allocate(valueAndTs.length / 2 * SIZE_OF_REPORT_ENTRY);
+        for (int i = 0; i < valueAndTs.length; i += 2) {
+            buf.putDouble(valueAndTs[i]).putLong((long) valueAndTs[i + 1]);
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static ByteBuffer[] devices() {
+        return new ByteBuffer[] {
+                records(1, 1000, 2, 2000, 3, 4000),
+                null,
+                records(10, 2000, 20, 3000),
+                records(4, 1000, 6, 2000, 8, 4000)
+        };
+    }
+
+    private static void assertMerged(byte[] merged, double[] values, long[] timestamps) {
+        ByteBuffer buf = ByteBuffer.wrap(merged);
+        assertEquals(timestamps.length * SIZE_OF_REPORT_ENTRY, merged.length);
+        double[] mergedValues = new double[timestamps.length];
+        long[] mergedTimestamps = new long[timestamps.length];
+        for (int i = 0; i < timestamps.length; i++) {
+            mergedValues[i] = buf.getDouble();
+            mergedTimestamps[i] = buf.getLong();
+        }
+        assertArrayEquals(values, mergedValues, 0.0001);
+        assertArrayEquals(timestamps, mergedTimestamps);
+    }
+
+    @Test
+    public void testMergeAppliesFunctionPerTs() {
+        long[] timestamps = {1000, 2000, 3000, 4000};
+        assertMerged(TagDataAggregator.merge(devices(), AggregationFunctionType.AVG),
+                new double[] {2.5, 6, 20, 5.5}, timestamps);
+        assertMerged(TagDataAggregator.merge(devices(), AggregationFunctionType.MIN),
+                new double[] {1, 2, 20, 3}, timestamps);
+        assertMerged(TagDataAggregator.merge(devices(), AggregationFunctionType.MAX),
+                new double[] {4, 10, 20, 8}, timestamps);
+        assertMerged(TagDataAggregator.merge(devices(), AggregationFunctionType.SUM),
+                new double[] {5, 18, 20, 11}, timestamps);
+        assertMerged(TagDataAggregator.merge(devices(), AggregationFunctionType.MED),
+                new double[] {2.5, 6, 20, 5.5}, timestamps);
+    }
+
+    @Test
+    public void testSameTsWithinSingleDevice() {
+        ByteBuffer[] devices = {
+                records(1, 1000, 5, 1000, 9, 1000),
+                records(3, 1000)
+        };
+        assertMerged(TagDataAggregator.merge(devices, AggregationFunctionType.MED),
+                new double[] {4}, new long[] {1000});
+        assertMerged(TagDataAggregator.merge(devices, AggregationFunctionType.AVG),
+                new double[] {4.5}, new long[] {1000});
+    }
+
+    @Test
+    public void testNoData() {
+        assertEquals(0, TagDataAggregator.merge(new ByteBuffer[] {null, null}, AggregationFunctionType.AVG).length);
+    }
+
+    @Test
+    public void testResultIsCachedTillEpochChanged() {
+        User user = new User();
+        user.email = "test@blynk.cc";
+        int[] deviceIds = new int[100];
+        for (int i = 0; i < deviceIds.length; i++) {
+            deviceIds[i] = i;
+        }
+        GraphPinRequest request = new GraphPinRequest(1, deviceIds, new DataStream((short) 1, PinType.VIRTUAL),
+                GraphPeriod.ONE_HOUR, 0, AggregationFunctionType.SUM);
+        AtomicInteger reads = new AtomicInteger();
+        TagDataAggregator.DeviceReader reader = deviceId -> {
+            reads.incrementAndGet();
+            return records(deviceId, 1000);
+        };
+
+        ByteBuffer result = aggregator.aggregate(user, request, 1, reader);
+        assertEquals(100, reads.get());
+        assertEquals(4950, result.getDouble(), 0.0001);
+        assertEquals(GraphGranularityType.MINUTE, request.type);
+
+        aggregator.aggregate(user, request, 1, reader);
+        assertEquals(100, reads.get());
+        assertEquals(1, aggregator.cacheSize());
+
+        result = aggregator.aggregate(user, request, 2, reader);
+        assertEquals(200, reads.get());
+        assertEquals(4950, result.getDouble(), 0.0001);
+    }
+
+}
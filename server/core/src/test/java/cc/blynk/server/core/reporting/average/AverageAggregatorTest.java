@@ -3,6 +3,7 @@ package cc.blynk.server.core.reporting.average;
 import cc.blynk.server.core.dao.ReportingDiskDao;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
 import cc.blynk.server.core.reporting.raw.BaseReportingKey;
 import cc.blynk.utils.AppNameUtil;
 import org.junit.Test;
@@ -13,9 +14,11 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.util.Map;
 
 import static cc.blynk.server.core.reporting.average.AverageAggregatorProcessor.DAY;
 import static cc.blynk.server.core.reporting.average.AverageAggregatorProcessor.HOUR;
+import static cc.blynk.server.core.reporting.average.AverageAggregatorProcessor.snapshotFileName;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -142,8 +145,8 @@ public class AverageAggregatorTest {
 
         averageAggregator.close();
 
-        assertTrue(Files.exists(Paths.get(reportingFolder, AverageAggregatorProcessor.HOURLY_TEMP_FILENAME)));
-        assertTrue(Files.exists(Paths.get(reportingFolder, AverageAggregatorProcessor.DAILY_TEMP_FILENAME)));
+        assertTrue(Files.exists(Paths.get(reportingFolder, snapshotFileName(GraphGranularityType.HOURLY))));
+        assertTrue(Files.exists(Paths.get(reportingFolder, snapshotFileName(GraphGranularityType.DAILY))));
 
         averageAggregator = new AverageAggregatorProcessor(reportingFolder);
 
@@ -151,14 +154,84 @@ public class AverageAggregatorTest {
         assertEquals(1, averageAggregator.getDaily().size());
         assertEquals(expectedDailyAverage, averageAggregator.getDaily().get(new AggregationKey(new BaseReportingKey(user.email, user.appName, dashId, 0, pinType, pin), getMillis(2015, 8, 1, 0, 0) / DAY)).calcAverage(), 0);
 
-        assertTrue(Files.notExists(Paths.get(reportingFolder, AverageAggregatorProcessor.HOURLY_TEMP_FILENAME)));
-        assertTrue(Files.notExists(Paths.get(reportingFolder, AverageAggregatorProcessor.DAILY_TEMP_FILENAME)));
+        assertTrue(Files.notExists(Paths.get(reportingFolder, snapshotFileName(GraphGranularityType.HOURLY))));
+        assertTrue(Files.notExists(Paths.get(reportingFolder, snapshotFileName(GraphGranularityType.DAILY))));
 
         ReportingDiskDao reportingDao = new ReportingDiskDao(reportingFolder, true);
 
         reportingDao.delete(user, dashId, 0, PinType.VIRTUAL, pin);
-        assertTrue(Files.notExists(Paths.get(reportingFolder, AverageAggregatorProcessor.HOURLY_TEMP_FILENAME)));
-        assertTrue(Files.notExists(Paths.get(reportingFolder, AverageAggregatorProcessor.DAILY_TEMP_FILENAME)));
+        assertTrue(Files.notExists(Paths.get(reportingFolder, snapshotFileName(GraphGranularityType.HOURLY))));
+        assertTrue(Files.notExists(Paths.get(reportingFolder, snapshotFileName(GraphGranularityType.DAILY))));
+    }
+
+    @Test
+    public void testDrainOutdatedForManyPins() {
+        AverageAggregatorProcessor averageAggregator = new AverageAggregatorProcessor("");
+
+        long ts = getMillis(2015, 8, 1, 0, 0);
+        int PINS = 5000;
+        for (short pin = 0; pin < PINS; pin++) {
+            averageAggregator.collect("test@test.com", AppNameUtil.BLYNK, 1, 0, PinType.VIRTUAL, pin, ts, pin);
+            averageAggregator.collect("test@test.com", AppNameUtil.BLYNK, 1, 0, PinType.VIRTUAL, pin, ts, pin + 2);
+        }
+        //current hour entry is not outdated
+        averageAggregator.collect("test@test.com", AppNameUtil.BLYNK, 1, 0,
+                PinType.VIRTUAL, (short) 0, System.currentTimeMillis(), 1);
+
+        assertEquals(PINS + 1, averageAggregator.size(GraphGranularityType.HOURLY));
+
+        Map<AggregationKey, AggregationValue> drained = averageAggregator.drainOutdated(GraphGranularityType.HOURLY);
+        assertEquals(PINS, drained.size());
+        for (short pin = 0; pin < PINS; pin++) {
+            AggregationValue value = drained.get(
+                    new AggregationKey("test@test.com", AppNameUtil.BLYNK, 1, 0, PinType.VIRTUAL, pin, ts / HOUR));
+            assertEquals(pin + 1, value.calcAverage(), 0);
+        }
+
+        assertEquals(1, averageAggregator.size(GraphGranularityType.HOURLY));
+        assertEquals(PINS + 1, averageAggregator.size(GraphGranularityType.DAILY));
+        assertTrue(averageAggregator.drainOutdated(GraphGranularityType.HOURLY).isEmpty());
+
+        averageAggregator.clear();
+        assertEquals(0, averageAggregator.size(GraphGranularityType.MINUTE));
+        assertEquals(0, averageAggregator.size(GraphGranularityType.DAILY));
+    }
+
+    @Test
+    public void testSnapshotRestoresAllGranularities() throws IOException {
+        Path dir = Files.createTempDirectory("aggregates");
+        AverageAggregatorProcessor averageAggregator = new AverageAggregatorProcessor(dir.toString());
+
+        long ts = getMillis(2015, 8, 1, 0, 0);
+        for (int user = 0; user < 100; user++) {
+            for (short pin = 0; pin < 10; pin++) {
+                averageAggregator.collect("test" + user + "@test.com", user % 2 == 0 ? AppNameUtil.BLYNK : null,
+                        user, -user, PinType.values()[pin % 3], pin, ts + pin * 60_000L, user * 0.5 + pin);
+            }
+        }
+        Map<AggregationKey, AggregationValue> minute = averageAggregator.getMinute();
+        Map<AggregationKey, AggregationValue> hourly = averageAggregator.getHourly();
+        Map<AggregationKey, AggregationValue> daily = averageAggregator.getDaily();
+        assertEquals(1000, minute.size());
+
+        averageAggregator.close();
+        assertTrue(Files.exists(dir.resolve(snapshotFileName(GraphGranularityType.MINUTE))));
+
+        averageAggregator = new AverageAggregatorProcessor(dir.toString());
+        assertMapsEqual(minute, averageAggregator.getMinute());
+        assertMapsEqual(hourly, averageAggregator.getHourly());
+        assertMapsEqual(daily, averageAggregator.getDaily());
+        assertTrue(Files.notExists(dir.resolve(snapshotFileName(GraphGranularityType.MINUTE))));
+    }
+
+    private static void assertMapsEqual(Map<AggregationKey, AggregationValue> expected,
+                                        Map<AggregationKey, AggregationValue> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (Map.Entry<AggregationKey, AggregationValue> entry : expected.entrySet()) {
+            AggregationValue value = actual.get(entry.getKey());
+            assertEquals(entry.getValue().getSum(), value.getSum(), 0);
+            assertEquals(entry.getValue().getCount(), value.getCount());
+        }
     }
 
 }
@@ -0,0 +1,210 @@
+package cc.blynk.server.core.reporting.disk;
+
+import cc.blynk.utils.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class ReportingDiskReaderTest {
+
+    private Path file;
+    private ReportingDiskReader reader;
+
+    @Before
+    public void init() throws Exception {
+        file = Files.createTempFile("history_", ".bin");
+        reader = new ReportingDiskReader(2);
+        for (int i = 1; i <= 10; i++) {
+            FileUtils.write(file, i, i * 1000L);
+        }
+    }
+
+    @After
+    public void cleanup() {
+        FileUtils.deleteQuietly(file);
+    }
+
+    @Test
+    public void testReadLast() throws Exception {
+        ByteBuffer data = reader.readLast(file, 3, 0);
+        assertNotNull(data);
+        assertEquals(48, data.capacity());
+        assertEquals(8, data.getDouble(), 0.0001);
+        assertEquals(8000, data.getLong());
+
+        data = reader.readLast(file, 3, 8);
+        assertNotNull(data);
+        assertEquals(32, data.capacity());
+        assertEquals(1, data.getDouble(), 0.0001);
+        assertEquals(1000, data.getLong());
+
+        assertNull(reader.readLast(file, 3, 10));
+    }
+
+    @Test
+    public void testReadRange() throws Exception {
+        ByteBuffer data = reader.readRange(file, 2500, 5000, 100);
+        assertNotNull(data);
+        assertEquals(48, data.capacity());
+        assertEquals(3, data.getDouble(), 0.0001);
+        assertEquals(3000, data.getLong());
+        data.position(32);
+        assertEquals(5, data.getDouble(), 0.0001);
+        assertEquals(5000, data.getLong());
+
+        //latest records are taken when limit is reached
+        data = reader.readRange(file, 0, Long.MAX_VALUE, 2);
+        assertNotNull(data);
+        assertEquals(32, data.capacity());
+        assertEquals(9, data.getDouble(), 0.0001);
+        assertEquals(9000, data.getLong());
+
+        assertNull(reader.readRange(file, 10001, 20000, 100));
+    }
+
+    @Test
+    public void testReadRangeNotSortedRecords() throws Exception {
+        //late records of the old periods
+        FileUtils.write(file, 11, 3500L);
+        FileUtils.write(file, 12, 9500L);
+        reader.invalidate(file);
+
+        ByteBuffer data = reader.readRange(file, 2500, 5000, 100);
+        assertNotNull(data);
+        assertEquals(64, data.capacity());
+        assertEquals(3000, data.getLong(8));
+        assertEquals(5000, data.getLong(40));
+        assertEquals(11, data.getDouble(48), 0.0001);
+        assertEquals(3500, data.getLong(56));
+
+        //latest records in the order of the file
+        data = reader.readRange(file, 9000, 10000, 2);
+        assertNotNull(data);
+        assertEquals(32, data.capacity());
+        assertEquals(10000, data.getLong(8));
+        assertEquals(9500, data.getLong(24));
+
+        assertNull(reader.readRange(file, 10001, 20000, 100));
+    }
+
+    @Test
+    public void testReadChunked() throws Exception {
+        List<Long> timestamps = new ArrayList<>();
+        ByteBuffer chunk = ByteBuffer.allocate(2 * FileUtils.SIZE_OF_REPORT_ENTRY);
+
+        //only latest 4 records with ts >= 2500, 2 records per chunk
+        int passed = reader.readChunked(file, 2500, 4, chunk, records -> {
+            assertTrue(records.remaining() <= 32);
+            while (records.remaining() > 0) {
+                records.getDouble();
+                timestamps.add(records.getLong());
+            }
+        });
+        assertEquals(4, passed);
+        assertEquals(List.of(7000L, 8000L, 9000L, 10000L), timestamps);
+
+        timestamps.clear();
+        passed = reader.readChunked(file, 8500, 100, chunk, records -> {
+            while (records.remaining() > 0) {
+                records.getDouble();
+                timestamps.add(records.getLong());
+            }
+        });
+        assertEquals(2, passed);
+        assertEquals(List.of(9000L, 10000L), timestamps);
+
+        assertEquals(0, reader.readChunked(file, 10001, 100, chunk, records -> {
+            throw new AssertionError();
+        }));
+    }
+
+    @Test
+    public void testReadChunkedNotSortedRecords() throws Exception {
+        //record with the same timestamp and late record of the old period
+        FileUtils.write(file, 11, 10000L);
+        FileUtils.write(file, 12, 3000L);
+        reader.invalidate(file);
+        List<Long> timestamps = new ArrayList<>();
+        ByteBuffer chunk = ByteBuffer.allocate(2 * FileUtils.SIZE_OF_REPORT_ENTRY);
+
+        int passed = reader.readChunked(file, 2500, 100, chunk, records -> {
+            while (records.remaining() > 0) {
+                records.getDouble();
+                timestamps.add(records.getLong());
+            }
+        });
+        assertEquals(10, passed);
+        assertEquals(List.of(3000L, 4000L, 5000L, 6000L, 7000L, 8000L, 9000L, 10000L, 10000L, 3000L), timestamps);
+    }
+
+    @Test
+    public void testReadChunkedWithTruncationBetweenChunks() throws Exception {
+        List<Long> timestamps = new ArrayList<>();
+        ByteBuffer chunk = ByteBuffer.allocate(2 * FileUtils.SIZE_OF_REPORT_ENTRY);
+
+        int passed = reader.readChunked(file, 0, 100, chunk, records -> {
+            while (records.remaining() > 0) {
+                records.getDouble();
+                timestamps.add(records.getLong());
+            }
+            if (timestamps.size() == 2) {
+                assertTrue(reader.truncate(file, 4));
+            }
+        });
+        assertEquals(6, passed);
+        assertEquals(List.of(1000L, 2000L, 7000L, 8000L, 9000L, 10000L), timestamps);
+    }
+
+    @Test
+    public void testAppendedRecordsAreReadWithoutInvalidation() throws Exception {
+        assertEquals(160, reader.readLast(file, 100, 0).capacity());
+        assertEquals(1, reader.size());
+
+        FileUtils.write(file, 11, 11000L);
+        ByteBuffer data = reader.readLast(file, 100, 0);
+        assertEquals(176, data.capacity());
+        assertEquals(11, data.getDouble(160), 0.0001);
+        assertEquals(11000, data.getLong(168));
+        assertEquals(1, reader.size());
+
+        //late record after the sort check was cached
+        assertNotNull(reader.readRange(file, 0, Long.MAX_VALUE, 100));
+        FileUtils.write(file, 12, 500L);
+        data = reader.readRange(file, 0, 1000, 100);
+        assertNotNull(data);
+        assertEquals(32, data.capacity());
+    }
+
+    @Test
+    public void testTruncate() throws Exception {
+        assertNotNull(reader.readLast(file, 100, 0));
+
+        assertFalse(reader.truncate(file, 10));
+        assertTrue(reader.truncate(file, 4));
+        assertEquals(64, Files.size(file));
+
+        ByteBuffer data = reader.readLast(file, 100, 0);
+        assertNotNull(data);
+        assertEquals(64, data.capacity());
+        assertEquals(7, data.getDouble(), 0.0001);
+        assertEquals(7000, data.getLong());
+    }
+
+}
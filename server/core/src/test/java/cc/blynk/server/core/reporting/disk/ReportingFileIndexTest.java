@@ -0,0 +1,123 @@
+package cc.blynk.server.core.reporting.disk;
+
+import cc.blynk.utils.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class ReportingFileIndexTest {
+
+    private Path dataFolder;
+
+    @Before
+    public void init() throws Exception {
+        dataFolder = Files.createTempDirectory("reporting_index_");
+        Path userFolder = Files.createDirectories(dataFolder.resolve("user@blynk.cc"));
+        FileUtils.write(userFolder.resolve("history_1-0_v1_minute.bin"), 1, 1000L);
+        FileUtils.write(userFolder.resolve("history_1-0_v1_minute.bin"), 2, 2000L);
+        Files.createDirectories(dataFolder.resolve("empty@blynk.cc"));
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        try (Stream<Path> paths = Files.walk(dataFolder)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(FileUtils::deleteQuietly);
+        }
+    }
+
+    @Test
+    public void testIndexIsRebuiltFromDiskWhenNotStored() {
+        ReportingFileIndex index = new ReportingFileIndex(dataFolder.toString());
+
+        assertEquals(2, index.folders().size());
+        assertTrue(index.files("empty@blynk.cc").isEmpty());
+        assertEquals(32, index.files("user@blynk.cc").get("history_1-0_v1_minute.bin").size);
+    }
+
+    @Test
+    public void testWriterUpdatesAndRemovals() {
+        ReportingFileIndex index = new ReportingFileIndex(dataFolder.toString());
+        assertEquals(2, index.folders().size());
+        index.update("user@blynk.cc", "history_1-0_v2_minute.bin", 16, 3000L);
+        index.update("user@blynk.cc", "history_1-0_v1_minute.bin", 48, 3000L);
+
+        assertEquals(2, index.files("user@blynk.cc").size());
+        assertEquals(48, index.files("user@blynk.cc").get("history_1-0_v1_minute.bin").size);
+
+        index.remove(index.path("user@blynk.cc", "history_1-0_v2_minute.bin"));
+        assertEquals(1, index.size());
+
+        assertFalse(index.removeFolderIfEmpty("user@blynk.cc"));
+        assertTrue(index.removeFolderIfEmpty("empty@blynk.cc"));
+        assertEquals(1, index.folders().size());
+    }
+
+    @Test
+    public void testStoredIndexIsLoadedOnceAndRemoved() throws Exception {
+        ReportingFileIndex index = new ReportingFileIndex(dataFolder.toString());
+        assertEquals(2, index.folders().size());
+        index.update("user@blynk.cc", "history_1-0_v1_minute.bin", 160, 3000L, true);
+        index.save();
+
+        //folder is not modified since the store, so entries are taken from the stored index
+        ReportingFileIndex loaded = new ReportingFileIndex(dataFolder.toString());
+        assertEquals(1, loaded.files("user@blynk.cc").size());
+        assertEquals(160, loaded.files("user@blynk.cc").get("history_1-0_v1_minute.bin").size);
+        assertEquals(3000L, loaded.files("user@blynk.cc").get("history_1-0_v1_minute.bin").lastWriteTs);
+        assertTrue(loaded.files("user@blynk.cc").get("history_1-0_v1_minute.bin").ring);
+
+        //stored index is consumed, so after the crash index is rebuilt from disk
+        ReportingFileIndex rebuilt = new ReportingFileIndex(dataFolder.toString());
+        assertEquals(32, rebuilt.files("user@blynk.cc").get("history_1-0_v1_minute.bin").size);
+        assertFalse(rebuilt.files("user@blynk.cc").get("history_1-0_v1_minute.bin").ring);
+    }
+
+    @Test
+    public void testFoldersModifiedAfterStoreAreRescanned() throws Exception {
+        ReportingFileIndex index = new ReportingFileIndex(dataFolder.toString());
+        assertEquals(2, index.folders().size());
+        index.update("user@blynk.cc", "history_1-0_v2_hourly.bin", 160, 3000L);
+        index.save();
+
+        //files are not written by the writer, so the stored index doesn't know them
+        FileUtils.write(dataFolder.resolve("user@blynk.cc").resolve("history_1-0_v3_minute.bin"), 1, 1000L);
+        Path newFolder = Files.createDirectories(dataFolder.resolve("new@blynk.cc"));
+        FileUtils.write(newFolder.resolve("history_1-0_v1_minute.bin"), 1, 1000L);
+        Files.delete(dataFolder.resolve("empty@blynk.cc"));
+
+        ReportingFileIndex loaded = new ReportingFileIndex(dataFolder.toString());
+        assertEquals(2, loaded.folders().size());
+        assertEquals(2, loaded.files("user@blynk.cc").size());
+        assertTrue(loaded.files("user@blynk.cc").containsKey("history_1-0_v3_minute.bin"));
+        //entry that is not on disk is dropped with the rescan
+        assertFalse(loaded.files("user@blynk.cc").containsKey("history_1-0_v2_hourly.bin"));
+        assertEquals(16, loaded.files("new@blynk.cc").get("history_1-0_v1_minute.bin").size);
+    }
+
+    @Test
+    public void testNotLoadedIndexIsNotStored() {
+        ReportingFileIndex index = new ReportingFileIndex(dataFolder.toString());
+        index.update("user@blynk.cc", "history_1-0_v2_hourly.bin", 160, 3000L);
+        index.save();
+
+        //so next start rebuilds it from disk
+        ReportingFileIndex next = new ReportingFileIndex(dataFolder.toString());
+        assertEquals(1, next.files("user@blynk.cc").size());
+        assertFalse(next.files("user@blynk.cc").containsKey("history_1-0_v2_hourly.bin"));
+    }
+
+}
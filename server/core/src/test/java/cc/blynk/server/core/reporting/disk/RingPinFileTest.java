@@ -0,0 +1,133 @@
+package cc.blynk.server.core.reporting.disk;
+
+import cc.blynk.utils.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType.MINUTE;
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class RingPinFileTest {
+
+    private Path file;
+    private ReportingDiskReader reader;
+    private ReportingFileChannels channels;
+
+    @Before
+    public void init() throws Exception {
+        file = Files.createTempDirectory("ring_").resolve("history_1-0_v1_minute.bin");
+        reader = new ReportingDiskReader(2);
+        channels = new ReportingFileChannels(2);
+    }
+
+    @After
+    public void cleanup() {
+        channels.close();
+        FileUtils.deleteQuietly(file);
+        FileUtils.deleteQuietly(file.getParent());
+    }
+
+    private long append(int capacity, long... timestamps) throws Exception {
+        ByteBuffer records = ByteBuffer.allocate(timestamps.length * SIZE_OF_REPORT_ENTRY);
+        for (long ts : timestamps) {
+            records.putDouble(ts / 1000D).putLong(ts);
+        }
+        records.flip();
+        long size = channels.appendRing(file, records, MINUTE, capacity, reader.exclusiveLock());
+        reader.invalidate(file);
+        return size;
+    }
+
+    private static List<Long> timestamps(ByteBuffer records) {
+        List<Long> result = new ArrayList<>();
+        while (records.hasRemaining()) {
+            assertEquals(records.getLong(records.position() + 8) / 1000D, records.getDouble(), 0.0001);
+            result.add(records.getLong());
+        }
+        return result;
+    }
+
+    @Test
+    public void testRingOverwritesOldestRecords() throws Exception {
+        assertEquals(48, append(4, 1000, 2000, 3000));
+        assertTrue(RingPinFile.isRingFile(file));
+        assertEquals(List.of(1000L, 2000L, 3000L), timestamps(reader.readLast(file, 10, 0)));
+
+        assertEquals(64, append(4, 4000, 5000, 6000));
+        //file is preallocated and never grows
+        assertEquals(RingPinFile.HEADER_SIZE + 4 * SIZE_OF_REPORT_ENTRY, Files.size(file));
+        assertEquals(List.of(3000L, 4000L, 5000L, 6000L), timestamps(reader.readLast(file, 10, 0)));
+        assertEquals(List.of(4000L, 5000L), timestamps(reader.readLast(file, 2, 1)));
+        assertNull(reader.readLast(file, 2, 4));
+
+        //more records than capacity, only the latest are stored
+        assertEquals(64, append(4, 7000, 8000, 9000, 10000, 11000));
+        assertEquals(List.of(8000L, 9000L, 10000L, 11000L), timestamps(reader.readLast(file, 10, 0)));
+    }
+
+    @Test
+    public void testRangeAndChunkedReadsOverWrappedRecords() throws Exception {
+        append(5, 1000, 2000, 3000, 4000);
+        append(5, 5000, 6000, 7000);
+
+        ByteBuffer range = reader.readRange(file, 3500, 6500, 100);
+        assertNotNull(range);
+        assertEquals(List.of(4000L, 5000L, 6000L), timestamps(range));
+        assertEquals(List.of(6000L, 7000L), timestamps(reader.readRange(file, 0, Long.MAX_VALUE, 2)));
+
+        List<Long> chunked = new ArrayList<>();
+        int passed = reader.readChunked(file, 4000, 100,
+                ByteBuffer.allocate(2 * SIZE_OF_REPORT_ENTRY), chunk -> chunked.addAll(timestamps(chunk)));
+        assertEquals(4, passed);
+        assertEquals(List.of(4000L, 5000L, 6000L, 7000L), chunked);
+    }
+
+    @Test
+    public void testAppendOnlyFileIsConvertedOnWrite() throws Exception {
+        Files.createDirectories(file.getParent());
+        for (int i = 1; i <= 5; i++) {
+            FileUtils.write(file, i, i * 1000L);
+        }
+        assertFalse(RingPinFile.isRingFile(file));
+
+        assertEquals(48, append(3, 6000));
+        assertTrue(RingPinFile.isRingFile(file));
+        assertEquals(List.of(4000L, 5000L, 6000L), timestamps(reader.readLast(file, 10, 0)));
+    }
+
+    @Test
+    public void testRingFileIsNotTruncated() throws Exception {
+        append(4, 1000, 2000, 3000, 4000);
+
+        assertFalse(reader.truncate(file, 2));
+        assertEquals(List.of(1000L, 2000L, 3000L, 4000L), timestamps(reader.readLast(file, 10, 0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroCapacityIsNotAllowed() {
+        ReportingDiskWriter.ringCapacity(0, 365, 3650);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRingFileIsNotCreatedWithZeroCapacity() throws Exception {
+        append(0, 1000);
+    }
+
+}
@@ -21,6 +21,7 @@ import java.util.TimeZone;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * The Blynk Project.
@@ -114,7 +115,40 @@ public class RawDataDBTest {
 
     }
 
-    //todo tests for large batches.
+    @Test
+    public void testInsertLargeBatchOfRawData() throws Exception {
+        RawDataProcessor rawDataProcessor = new RawDataProcessor(true);
+        //more than one copy chunk
+        int records = 25_000;
+        for (int i = 0; i < records; i++) {
+            rawDataProcessor.collect(new BaseReportingKey(user.email, user.appName, 1, 2, PinType.VIRTUAL, (short) 3),
+                    1111111111L + i, null, i);
+        }
+
+        reportingDBManager.reportingDBDao.insertRawData(rawDataProcessor.rawStorage);
+        assertEquals(0, rawDataProcessor.rawStorage.size());
+
+        try (Connection connection = reportingDBManager.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("select count(*), sum(doubleValue) from reporting_raw_data")) {
+            assertTrue(rs.next());
+            assertEquals(records, rs.getInt(1));
+            assertEquals((double) records * (records - 1) / 2, rs.getDouble(2), 0.0000001);
+            connection.commit();
+        }
+    }
+
+    @Test
+    public void testRawDataIsDroppedWhenStorageIsFull() {
+        RawDataProcessor rawDataProcessor = new RawDataProcessor(true, 2);
+        for (int i = 0; i < 5; i++) {
+            rawDataProcessor.collect(new BaseReportingKey(user.email, user.appName, 1, 2, PinType.VIRTUAL, (short) 3),
+                    1111111111L + i, null, i);
+        }
+        assertEquals(2, rawDataProcessor.rawStorage.size());
+        assertEquals(3, rawDataProcessor.getAndResetDropped());
+        assertEquals(0, rawDataProcessor.getAndResetDropped());
+    }
 
 
 }
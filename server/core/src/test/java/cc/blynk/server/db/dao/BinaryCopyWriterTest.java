@@ -0,0 +1,66 @@
+package cc.blynk.server.db.dao;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class BinaryCopyWriterTest {
+
+    @Test
+    public void testHeaderAndTrailer() {
+        BinaryCopyWriter writer = new BinaryCopyWriter(4);
+        writer.writeHeader();
+        writer.writeTrailer();
+
+        ByteBuffer buf = ByteBuffer.wrap(writer.toByteArray());
+        byte[] signature = new byte[11];
+        buf.get(signature);
+        assertEquals("PGCOPY\nÿ\r\n\0", new String(signature, StandardCharsets.ISO_8859_1));
+        assertEquals(0, buf.getInt());
+        assertEquals(0, buf.getInt());
+        assertEquals(-1, buf.getShort());
+        assertEquals(0, buf.remaining());
+    }
+
+    @Test
+    public void testRow() {
+        //small initial capacity to check buffer growth
+        BinaryCopyWriter writer = new BinaryCopyWriter(1);
+        writer.startRow(7);
+        writer.writeText("тест");
+        writer.writeInt2((short) 3);
+        writer.writeInt4(1);
+        writer.writeInt8(2);
+        writer.writeFloat8(1.33D);
+        writer.writeTimestamp(946_684_800_001L);
+        writer.writeNull();
+
+        ByteBuffer buf = ByteBuffer.wrap(writer.toByteArray());
+        assertEquals(7, buf.getShort());
+        byte[] text = new byte[buf.getInt()];
+        buf.get(text);
+        assertEquals("тест", new String(text, StandardCharsets.UTF_8));
+        assertEquals(2, buf.getInt());
+        assertEquals(3, buf.getShort());
+        assertEquals(4, buf.getInt());
+        assertEquals(1, buf.getInt());
+        assertEquals(8, buf.getInt());
+        assertEquals(2, buf.getLong());
+        assertEquals(8, buf.getInt());
+        assertEquals(1.33D, buf.getDouble(), 0.0000001);
+        assertEquals(8, buf.getInt());
+        //microseconds from 2000-01-01
+        assertEquals(1000, buf.getLong());
+        assertEquals(-1, buf.getInt());
+        assertEquals(0, buf.remaining());
+    }
+
+}
@@ -0,0 +1,82 @@
+package cc.blynk.server.workers;
+
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.device.BoardType;
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.server.core.model.widgets.outputs.ValueDisplay;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class ReadingScheduleTest {
+
+    private static ValueDisplay valueDisplay(long id, int deviceId, int frequency) {
+        ValueDisplay valueDisplay = new ValueDisplay();
+        valueDisplay.id = id;
+        valueDisplay.deviceId = deviceId;
+        valueDisplay.pinType = PinType.VIRTUAL;
+        valueDisplay.pin = 1;
+        valueDisplay.frequency = frequency;
+        return valueDisplay;
+    }
+
+    private static DashBoard dash(Widget... widgets) {
+        DashBoard dash = new DashBoard();
+        dash.devices = new Device[] {new Device(0, "0", BoardType.ESP8266), new Device(1, "1", BoardType.ESP8266)};
+        dash.widgets = widgets;
+        return dash;
+    }
+
+    private static int written(EmbeddedChannel channel) {
+        int count = 0;
+        while (channel.readOutbound() != null) {
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void testOnlyWidgetsOfTheDeviceAreRead() {
+        DashBoard dash = dash(valueDisplay(1, 0, 1000), valueDisplay(2, 1, 1000), valueDisplay(3, 0, 0));
+        ReadingSchedule schedule = new ReadingSchedule(0);
+        EmbeddedChannel channel = new EmbeddedChannel();
+
+        assertTrue(schedule.isDue(dash, 0));
+        assertEquals(1, schedule.process(channel, dash, 0));
+        channel.flush();
+        assertEquals(1, written(channel));
+        assertEquals(1, schedule.size());
+
+        assertFalse(schedule.isDue(dash, 999));
+        assertTrue(schedule.isDue(dash, 1000));
+        assertEquals(1, schedule.process(channel, dash, 1000));
+    }
+
+    @Test
+    public void testRebuiltOnWidgetsUpdateKeepingReadTime() {
+        DashBoard dash = dash(valueDisplay(1, 0, 1000));
+        ReadingSchedule schedule = new ReadingSchedule(0);
+        EmbeddedChannel channel = new EmbeddedChannel();
+        assertEquals(1, schedule.process(channel, dash, 0));
+
+        dash.widgets = new Widget[] {valueDisplay(1, 0, 1000), valueDisplay(2, 0, 500)};
+        assertTrue(schedule.isDue(dash, 100));
+        //updated widget keeps its read time, new one is read right away
+        assertEquals(1, schedule.process(channel, dash, 100));
+        assertEquals(2, schedule.size());
+        assertFalse(schedule.isDue(dash, 599));
+        assertEquals(1, schedule.process(channel, dash, 600));
+        assertEquals(2, schedule.process(channel, dash, 1100));
+    }
+
+}
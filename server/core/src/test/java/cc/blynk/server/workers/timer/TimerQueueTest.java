@@ -0,0 +1,90 @@
+package cc.blynk.server.workers.timer;
+
+import cc.blynk.server.core.model.widgets.others.eventor.TimerTime;
+import cc.blynk.server.core.model.widgets.others.eventor.model.action.BaseAction;
+import org.junit.Test;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class TimerQueueTest {
+
+    private static ScheduledTimer timer(int id) {
+        return new ScheduledTimer(new TimerKey(null, 1, 0, id, 0, -1, -1, new TimerTime(id)), new BaseAction[0]);
+    }
+
+    @Test
+    public void testNextTickTimeRespectsTimezoneDays() {
+        ZoneId kiev = ZoneId.of("Europe/Kiev");
+        //23:00 UTC on Sunday is 01:00 or 02:00 of Monday in Kiev
+        ZonedDateTime sunday = ZonedDateTime.of(2026, 10, 18, 12, 0, 0, 0, ZoneId.of("UTC"));
+        long from = sunday.toEpochSecond();
+        int time = 23 * 3600;
+
+        TimerTime mondayInKiev = new TimerTime(0, new int[] {1}, time, kiev);
+        assertEquals(from + 11 * 3600, mondayInKiev.nextTickTime(from));
+
+        TimerTime mondayInUtc = new TimerTime(0, new int[] {1}, time, ZoneId.of("UTC"));
+        assertEquals(from + 11 * 3600 + 86400, mondayInUtc.nextTickTime(from));
+
+        //same second is still a tick
+        assertEquals(from + 11 * 3600, mondayInKiev.nextTickTime(from + 11 * 3600));
+        assertEquals(from + 11 * 3600 + 7 * 86400, mondayInKiev.nextTickTime(from + 11 * 3600 + 1));
+
+        assertEquals(-1, new TimerTime(0, new int[0], time, kiev).nextTickTime(from));
+    }
+
+    @Test
+    public void testPollDueInOrder() {
+        TimerQueue queue = new TimerQueue();
+        List<ScheduledTimer> timers = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            ScheduledTimer timer = timer(i);
+            timers.add(timer);
+            queue.add(timer, (i * 37) % 200);
+        }
+
+        List<ScheduledTimer> due = new ArrayList<>();
+        assertEquals(100, queue.pollDue(99, due));
+        for (int i = 0; i < due.size(); i++) {
+            assertEquals(i, due.get(i).tickTime);
+            assertEquals(-1, due.get(i).index);
+        }
+        assertEquals(100, queue.size());
+    }
+
+    @Test
+    public void testRemoveAndCancel() {
+        TimerQueue queue = new TimerQueue();
+        ScheduledTimer timer1 = timer(1);
+        ScheduledTimer timer2 = timer(2);
+        ScheduledTimer timer3 = timer(3);
+        queue.add(timer1, 10);
+        queue.add(timer2, 5);
+        queue.add(timer3, 20);
+
+        queue.remove(timer2);
+        assertEquals(2, queue.size());
+
+        timer3.cancel();
+        queue.remove(timer3);
+        queue.add(timer3, 1);
+        assertEquals(1, queue.size());
+
+        List<ScheduledTimer> due = new ArrayList<>();
+        queue.pollDue(100, due);
+        assertEquals(1, due.size());
+        assertSame(timer1, due.get(0));
+    }
+
+}
@@ -1,8 +1,15 @@
 package cc.blynk.test.utils;
 
 import cc.blynk.server.core.dao.FileManager;
+import cc.blynk.server.core.dao.StartupIndex;
+import cc.blynk.server.core.dao.TokenManager;
 import cc.blynk.server.core.dao.UserKey;
+import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.device.BoardType;
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.server.core.model.widgets.controls.Timer;
 import cc.blynk.utils.AppNameUtil;
 import org.junit.Before;
 import org.junit.Test;
@@ -15,6 +22,8 @@ import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 /**
  * User: ddumanskiy
@@ -82,4 +91,33 @@ public class FileManagerIntegrationTest {
         assertNotNull(users.get(new UserKey(user1.email, AppNameUtil.BLYNK)));
     }
 
+    @Test
+    public void testStartupIndexIsBuiltWhileReading() throws IOException {
+        Device device = new Device(0, "device", BoardType.ESP8266);
+        device.token = "token";
+        Timer timer = new Timer();
+        timer.id = 1;
+        DashBoard dash = new DashBoard();
+        dash.id = 1;
+        dash.devices = new Device[] {device};
+        dash.widgets = new Widget[] {timer};
+        user1.profile.dashBoards = new DashBoard[] {dash};
+        fileManager.overrideUserFile(user1);
+        fileManager.overrideUserFile(user2);
+
+        StartupIndex index = new StartupIndex();
+        Map<UserKey, User> users = fileManager.deserializeUsers(index, 2);
+        assertEquals(2, users.size());
+        assertTrue(fileManager.getUsersLoadProgress().isListingFinished());
+        assertEquals(2, fileManager.getUsersLoadProgress().getTotal());
+        assertEquals(2, fileManager.getUsersLoadProgress().getLoaded());
+        assertTrue(fileManager.getUsersLoadProgress().isFinished());
+        assertEquals(1, index.timerWidgets.size());
+        assertEquals(0, index.reportingWidgets.size());
+
+        TokenManager tokenManager = new TokenManager(index, null, null);
+        User loaded = users.get(new UserKey(user1.email, AppNameUtil.BLYNK));
+        assertSame(loaded, tokenManager.getTokenValueByToken("token").user);
+    }
+
 }
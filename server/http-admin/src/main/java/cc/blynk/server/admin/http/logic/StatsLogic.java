@@ -10,6 +10,7 @@ import cc.blynk.server.admin.http.response.IpNameResponse;
 import cc.blynk.server.admin.http.response.RequestPerSecondResponse;
 import cc.blynk.server.core.BlockingIOProcessor;
 import cc.blynk.server.core.dao.FileManager;
+import cc.blynk.server.core.dao.ReportingDiskDao;
 import cc.blynk.server.core.dao.UserDao;
 import cc.blynk.server.core.dao.UserKey;
 import cc.blynk.server.core.model.DashBoard;
@@ -20,6 +21,7 @@ import cc.blynk.server.core.model.serialization.JsonParser;
 import cc.blynk.server.core.model.widgets.ui.reporting.ReportScheduler;
 import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.server.core.stats.model.Stat;
+import cc.blynk.server.workers.timer.TimerWorker;
 import io.netty.channel.ChannelHandler;
 
 import java.util.ArrayList;
@@ -49,6 +51,8 @@ public class StatsLogic extends CookiesBaseHttpHandler {
     private final BlockingIOProcessor blockingIOProcessor;
     private final GlobalStats globalStats;
     private final ReportScheduler reportScheduler;
+    private final ReportingDiskDao reportingDiskDao;
+    private final TimerWorker timerWorker;
 
     public StatsLogic(Holder holder, String rootPath) {
         super(holder, rootPath);
@@ -57,13 +61,16 @@ public class StatsLogic extends CookiesBaseHttpHandler {
         this.blockingIOProcessor = holder.blockingIOProcessor;
         this.globalStats = holder.stats;
         this.reportScheduler = holder.reportScheduler;
+        this.reportingDiskDao = holder.reportingDiskDao;
+        this.timerWorker = holder.timerWorker;
     }
 
     @GET
     @Path("/realtime")
     public Response getReatime() {
        return ok(Collections.singletonList(
-               new Stat(sessionDao, userDao, blockingIOProcessor, globalStats, reportScheduler, false)));
+               new Stat(sessionDao, userDao, blockingIOProcessor, globalStats, reportScheduler,
+                       reportingDiskDao, timerWorker, fileManager.getUsersLoadProgress(), false)));
     }
 
     @GET
@@ -89,7 +96,8 @@ public class StatsLogic extends CookiesBaseHttpHandler {
     public Response getMessages(@QueryParam("_sortField") String sortField,
                                     @QueryParam("_sortDir") String sortOrder) {
         return ok(sort(convertObjectToMap(
-                new Stat(sessionDao, userDao, blockingIOProcessor, globalStats, reportScheduler, false).commands),
+                new Stat(sessionDao, userDao, blockingIOProcessor, globalStats, reportScheduler,
+                        reportingDiskDao, timerWorker, fileManager.getUsersLoadProgress(), false).commands),
                 sortField, sortOrder));
     }
 
@@ -12,6 +12,7 @@ import cc.blynk.core.http.annotation.Path;
 import cc.blynk.core.http.annotation.PathParam;
 import cc.blynk.core.http.annotation.QueryParam;
 import cc.blynk.server.Holder;
+import cc.blynk.server.api.http.pojo.BatchPinData;
 import cc.blynk.server.api.http.pojo.EmailPojo;
 import cc.blynk.server.api.http.pojo.PinData;
 import cc.blynk.server.api.http.pojo.PushMessagePojo;
@@ -24,6 +25,7 @@ import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.DataStream;
 import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.device.Device;
 import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.model.enums.WidgetProperty;
 import cc.blynk.server.core.model.serialization.JsonParser;
@@ -54,6 +56,10 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 import static cc.blynk.core.http.Response.badRequest;
 import static cc.blynk.core.http.Response.ok;
@@ -281,7 +287,9 @@ public class HttpAPILogic extends TokenBaseHttpHandler {
     @Path("{token}/data/{pin}")
     @Metric(HTTP_GET_HISTORY_DATA)
     public Response getPinHistoryData(@PathParam("token") String token,
-                                      @PathParam("pin") String pinString) {
+                                      @PathParam("pin") String pinString,
+                                      @QueryParam("from") Long from,
+                                      @QueryParam("to") Long to) {
         TokenValue tokenValue = tokenManager.getTokenValueByToken(token);
 
         if (tokenValue == null) {
@@ -306,8 +314,10 @@ public class HttpAPILogic extends TokenBaseHttpHandler {
 
         //todo may be optimized
         try {
-            java.nio.file.Path path = reportingDao.csvGenerator.createCSV(
-                    user, dashId, deviceId, pinType, pin, deviceId);
+            java.nio.file.Path path = from == null && to == null
+                    ? reportingDao.csvGenerator.createCSV(user, dashId, deviceId, pinType, pin, deviceId)
+                    : reportingDao.csvGenerator.createCSVForPeriod(user, dashId, deviceId, pinType, pin,
+                            from == null ? 0 : from, to == null ? Long.MAX_VALUE : to);
             return redirect("/" + path.getFileName().toString());
         } catch (NoDataException | IllegalStateException noData) {
             log.debug(noData.getMessage());
@@ -370,6 +380,7 @@ public class HttpAPILogic extends TokenBaseHttpHandler {
             log.debug("No widget for SetWidgetProperty command.");
             return badRequest("No widget for SetWidgetProperty command.");
         }
+        dash.updatedAt = System.currentTimeMillis();
 
         Session session = sessionDao.get(new UserKey(user));
         session.sendToApps(SET_WIDGET_PROPERTY, 111, dash.id,
@@ -537,6 +548,143 @@ public class HttpAPILogic extends TokenBaseHttpHandler {
         return ok();
     }
 
+    /**
+     * Updates many pins of the many devices within the one request. Records are grouped by the dashboard,
+     * every record goes to the reporting with own timestamp, while pin storage, eventor,
+     * hardware and apps get only the latest value of the every pin, except multi value pins
+     * (terminal, lcd, table) that get all values.
+     */
+    @PUT
+    @Path("{token}/batch")
+    @Consumes(value = MediaType.APPLICATION_JSON)
+    @Metric(HTTP_UPDATE_PIN_DATA)
+    public Response updateWidgetPinDataBatch(@PathParam("token") String token,
+                                             BatchPinData[] records) {
+
+        if (records == null || records.length == 0) {
+            log.debug("No pin for update provided.");
+            return badRequest("No pin for update provided.");
+        }
+
+        TokenValue tokenValue = tokenManager.getTokenValueByToken(token);
+
+        if (tokenValue == null) {
+            log.debug("Requested token {} not found.", token);
+            return badRequest("Invalid token.");
+        }
+
+        final long now = System.currentTimeMillis();
+
+        //whole batch is validated before any update, so it is either applied or rejected
+        Map<DashBoard, PinBatch> batches = new IdentityHashMap<>();
+        for (BatchPinData record : records) {
+            if (record.token != null && record.deviceId != -1) {
+                log.debug("Device id {} is provided together with the token.", record.deviceId);
+                return badRequest("Device id can't be used together with token.");
+            }
+
+            TokenValue target = tokenValue;
+            if (record.token != null) {
+                target = tokenManager.getTokenValueByToken(record.token);
+                if (target == null) {
+                    log.debug("Requested token {} not found.", record.token);
+                    return badRequest("Invalid token.");
+                }
+            }
+
+            Device device = target.device;
+            if (record.deviceId != -1) {
+                device = target.user.profile.getDeviceById(target.dash, record.deviceId);
+                if (device == null) {
+                    log.debug("Device {} not found.", record.deviceId);
+                    return badRequest("Device not found.");
+                }
+            }
+
+            if (record.pin == null || record.pin.isEmpty()) {
+                log.debug("No pin for update provided.");
+                return badRequest("No pin for update provided.");
+            }
+
+            PinType pinType;
+            short pin;
+            try {
+                pinType = PinType.getPinType(record.pin.charAt(0));
+                pin = NumberUtil.parsePin(record.pin.substring(1));
+            } catch (NumberFormatException | IllegalCommandBodyException e) {
+                log.debug("Wrong pin format. {}", record.pin);
+                return badRequest("Wrong pin format.");
+            }
+
+            if (record.value == null) {
+                log.debug("No value for pin {} provided.", record.pin);
+                return badRequest("No value provided.");
+            }
+
+            User user = target.user;
+            batches.computeIfAbsent(target.dash, dash -> new PinBatch(user, dash))
+                    .add(device, pin, pinType, record.ts == 0 ? now : record.ts, record.value);
+        }
+
+        for (PinBatch batch : batches.values()) {
+            updateWidgetPinData(batch, now);
+        }
+
+        return ok();
+    }
+
+    private void updateWidgetPinData(PinBatch batch, long now) {
+        User user = batch.user;
+        DashBoard dash = batch.dash;
+
+        for (PinBatch.Record record : batch.records) {
+            reportingDao.process(user, dash, record.device.id, record.pin, record.pinType, record.value, record.ts);
+        }
+
+        Session session = sessionDao.get(new UserKey(user));
+
+        Collection<PinBatch.Record> toApply = batch.toApply();
+        int[] deviceIds = new int[toApply.size()];
+        String[] bodies = new String[toApply.size()];
+        int i = 0;
+        for (PinBatch.Record record : toApply) {
+            int deviceId = record.device.id;
+            user.profile.update(dash, deviceId, record.pin, record.pinType, record.value, now);
+            record.device.dataReceivedAt = now;
+
+            if (session != null) {
+                eventorProcessor.process(user, session, dash, deviceId,
+                        record.pin, record.pinType, record.value, now);
+            }
+
+            String body = makeBody(dash, deviceId, record.pin, record.pinType, record.value);
+            //widget may have no value to send, same as for the single pin update
+            if (body != null) {
+                deviceIds[i] = deviceId;
+                bodies[i] = body;
+                i++;
+            }
+        }
+
+        if (session == null) {
+            log.debug("No session for user {}.", user.email);
+            return;
+        }
+        if (i == 0) {
+            return;
+        }
+        if (i < bodies.length) {
+            deviceIds = Arrays.copyOf(deviceIds, i);
+            bodies = Arrays.copyOf(bodies, i);
+        }
+
+        session.sendMessagesToHardware(dash.id, HARDWARE, 111, deviceIds, bodies);
+
+        if (dash.isActive) {
+            session.sendToApps(HARDWARE, 111, dash.id, deviceIds, bodies);
+        }
+    }
+
     @POST
     @Path("{token}/notify")
     @Consumes(value = MediaType.APPLICATION_JSON)
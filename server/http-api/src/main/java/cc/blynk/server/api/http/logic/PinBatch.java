@@ -0,0 +1,72 @@
+package cc.blynk.server.api.http.logic;
+
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.storage.key.DashPinStorageKey;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records of the batch pin update that belong to the one dashboard.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+final class PinBatch {
+
+    final User user;
+    final DashBoard dash;
+    final List<Record> records = new ArrayList<>();
+
+    PinBatch(User user, DashBoard dash) {
+        this.user = user;
+        this.dash = dash;
+    }
+
+    void add(Device device, short pin, PinType pinType, long ts, String value) {
+        records.add(new Record(device, pin, pinType, ts, value));
+    }
+
+    /**
+     * @return every record of the multi value pins (terminal, lcd, table) and the latest record of
+     * the other pins, in order of the first appearance of the pin.
+     */
+    Collection<Record> toApply() {
+        //multi value records are keyed by the record itself, so all of them are kept
+        Map<Object, Record> toApply = new LinkedHashMap<>();
+        for (Record record : records) {
+            if (dash.getPinRoute(record.device.id, record.pin, record.pinType).multiValue) {
+                toApply.put(record, record);
+            } else {
+                toApply.merge(new DashPinStorageKey(dash.id, record.device.id, record.pinType, record.pin), record,
+                        (prev, next) -> next.ts >= prev.ts ? next : prev);
+            }
+        }
+        return toApply.values();
+    }
+
+    static final class Record {
+
+        final Device device;
+        final short pin;
+        final PinType pinType;
+        final long ts;
+        final String value;
+
+        private Record(Device device, short pin, PinType pinType, long ts, String value) {
+            this.device = device;
+            this.pin = pin;
+            this.pinType = pinType;
+            this.ts = ts;
+            this.value = value;
+        }
+    }
+
+}
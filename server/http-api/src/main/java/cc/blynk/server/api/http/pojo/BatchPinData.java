@@ -0,0 +1,27 @@
+package cc.blynk.server.api.http.pojo;
+
+/**
+ * One record of the batch pin update.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class BatchPinData {
+
+    //token of the device, when not provided device of the request token project is used
+    public String token;
+
+    //device within the project of the request token, -1 means device of the request token.
+    //can't be used together with the token of the record
+    public int deviceId = -1;
+
+    //pin in format of the http api, for example "v1"
+    public String pin;
+
+    //time of the reading, 0 means time of the request
+    public long ts;
+
+    public String value;
+
+}
@@ -22,7 +22,7 @@ public abstract class Param {
     public abstract Object get(ChannelHandlerContext ctx, URIDecoder uriDecoder);
 
     Object convertTo(String value) {
-        if (type == long.class) {
+        if (type == long.class || type == Long.class) {
             return Long.valueOf(value);
         }
         if (type == int.class || type == Integer.class) {
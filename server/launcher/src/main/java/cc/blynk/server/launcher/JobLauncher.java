@@ -40,8 +40,9 @@ final class JobLauncher {
 
         ReportingWorker reportingWorker = new ReportingWorker(
                 holder.reportingDiskDao,
-                holder.props.getReportingFolder(),
-                holder.reportingDBManager
+                holder.reportingDBManager,
+                holder.props.getIntProperty("reporting.flush.threads", ReportingWorker.DEFAULT_FLUSH_THREADS),
+                holder.props.getLongProperty("reporting.flush.deadline", ReportingWorker.DEFAULT_FLUSH_DEADLINE)
         );
 
         //to start at the beggining of an minute
@@ -50,7 +51,8 @@ final class JobLauncher {
         scheduler.scheduleAtFixedRate(reportingWorker, startDelay,
                 AverageAggregatorProcessor.MINUTE, MILLISECONDS);
 
-        var profileSaverWorker = new ProfileSaverWorker(holder.userDao, holder.fileManager, holder.dbManager);
+        var profileSaverWorker = new ProfileSaverWorker(holder.userDao, holder.fileManager,
+                holder.profileJournal, holder.dbManager);
 
         //running 1 sec later after reporting
         scheduler.scheduleAtFixedRate(profileSaverWorker, startDelay + 1000,
@@ -95,7 +97,7 @@ final class JobLauncher {
 
         //shutdown hook thread catcher
         Runtime.getRuntime().addShutdownHook(new Thread(
-                new ShutdownHookWorker(servers, holder, scheduler, profileSaverWorker)
+                new ShutdownHookWorker(servers, holder, scheduler, reportingWorker, profileSaverWorker)
         ));
     }
 
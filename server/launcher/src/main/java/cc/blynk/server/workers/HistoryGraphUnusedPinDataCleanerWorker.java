@@ -93,8 +93,9 @@ public class HistoryGraphUnusedPinDataCleanerWorker implements Runnable {
                         }
                     }
 
-                    removedFilesCounter += reportingDao.delete(user,
-                            reportingFile -> !doNotRemovePaths.contains(reportingFile.getFileName().toString()));
+                    //only files known by the reporting index are checked, user folder is not listed
+                    removedFilesCounter += reportingDao.deleteIndexed(user,
+                            fileName -> !doNotRemovePaths.contains(fileName));
                 } catch (Exception e) {
                     log.error("Error cleaning reporting record for user {}. {}", user.email, e.getMessage());
                 }
@@ -1,6 +1,7 @@
 package cc.blynk.server.workers;
 
 import cc.blynk.server.core.dao.FileManager;
+import cc.blynk.server.core.dao.ProfileJournal;
 import cc.blynk.server.core.dao.UserDao;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.serialization.JsonParser;
@@ -11,9 +12,12 @@ import org.apache.logging.log4j.Logger;
 import java.io.Closeable;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Background thread that once a minute stores all user DB to disk in case profile was changed since last saving.
+ * Pin values updated by the hardware are appended to the profile journal, so such profiles are not
+ * rewritten every minute. Journal is compacted into the user files when it is too big and on shutdown.
  *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
@@ -26,13 +30,16 @@ public class ProfileSaverWorker implements Runnable, Closeable {
     //1 min
     private final UserDao userDao;
     private final FileManager fileManager;
+    private final ProfileJournal profileJournal;
     private final DBManager dbManager;
     private long lastStart;
     private long backupTs;
 
-    public ProfileSaverWorker(UserDao userDao, FileManager fileManager, DBManager dbManager) {
+    public ProfileSaverWorker(UserDao userDao, FileManager fileManager,
+                              ProfileJournal profileJournal, DBManager dbManager) {
         this.userDao = userDao;
         this.fileManager = fileManager;
+        this.profileJournal = profileJournal;
         this.dbManager = dbManager;
         this.lastStart = System.currentTimeMillis();
         this.backupTs = 0;
@@ -45,8 +52,21 @@ public class ProfileSaverWorker implements Runnable, Closeable {
 
             final long now = System.currentTimeMillis();
 
+            //values are journaled first, so user files are never older than the journal
+            List<User> journaledUsers = journalValueChanges();
             ArrayList<User> users = saveModified();
 
+            if (profileJournal.needsCompaction()) {
+                log.info("Compacting profile journal of {} bytes.", profileJournal.size());
+                profileJournal.compact(fileManager, userDao.getUsers());
+            }
+
+            //db stores the whole profile, so users with the journaled values are saved as well
+            for (User user : journaledUsers) {
+                if (!user.isUpdated(lastStart)) {
+                    users.add(user);
+                }
+            }
             dbManager.saveUsers(users);
 
             //backup only for local mode
@@ -56,7 +76,8 @@ public class ProfileSaverWorker implements Runnable, Closeable {
 
             lastStart = now;
 
-            log.debug("Saving user db finished. Modified {} users.", users.size());
+            log.debug("Saving user db finished. Modified {} users. Journaled {} users.",
+                    users.size(), journaledUsers.size());
         } catch (Throwable t) {
             log.error("Error saving users.", t);
         }
@@ -70,7 +91,7 @@ public class ProfileSaverWorker implements Runnable, Closeable {
             for (User user : userDao.users.values()) {
                 try {
                     Path path = fileManager.generateBackupFileName(user.email, user.appName);
-                    JsonParser.writeUser(path.toFile(), user);
+                    JsonParser.writeUserWithPins(path.toFile(), user);
                 } catch (Exception e) {
                     //ignore
                 }
@@ -79,6 +100,15 @@ public class ProfileSaverWorker implements Runnable, Closeable {
         }
     }
 
+    private List<User> journalValueChanges() {
+        try {
+            return profileJournal.append(userDao.getUsers().values());
+        } catch (Exception e) {
+            log.error("Error writing profile journal.", e);
+            return List.of();
+        }
+    }
+
     private ArrayList<User> saveModified() {
         var users = new ArrayList<User>();
 
@@ -99,5 +129,6 @@ public class ProfileSaverWorker implements Runnable, Closeable {
     @Override
     public void close() {
         run();
+        profileJournal.compact(fileManager, userDao.getUsers());
     }
 }
@@ -4,61 +4,108 @@ import cc.blynk.server.core.dao.ReportingDiskDao;
 import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
 import cc.blynk.server.core.reporting.average.AggregationKey;
 import cc.blynk.server.core.reporting.average.AggregationValue;
+import cc.blynk.server.core.reporting.disk.ReportingDiskWriter;
+import cc.blynk.server.core.reporting.disk.ReportingDiskWriter.FlushCounters;
 import cc.blynk.server.db.ReportingDBManager;
-import cc.blynk.utils.FileUtils;
+import cc.blynk.utils.BlynkTPFactory;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.Closeable;
 import java.time.Instant;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import static cc.blynk.server.core.dao.ReportingDiskDao.generateFilename;
+import static cc.blynk.server.core.reporting.average.AverageAggregatorProcessor.MINUTE;
 
 /**
  * Worker that runs once a minute. During run - stores all aggregated reporting data
  * to disk. Also sends all data in batches to RDBMS in case DBManager was initialized.
  *
+ * Aggregates are flushed in shards (by the hash of the pin) in parallel. Every shard hands
+ * its flushed entries to the DB export right away, so DB export doesn't wait for the whole flush.
+ * Shard that isn't done before the deadline keeps its data in the aggregator till the next run,
+ * so a slow flush doesn't overlap with the next one.
+ *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
  * Created on 10.08.15.
  */
-public class ReportingWorker implements Runnable {
+public class ReportingWorker implements Runnable, Closeable {
 
     private static final Logger log = LogManager.getLogger(ReportingWorker.class);
 
+    public static final int DEFAULT_FLUSH_THREADS = 1;
+    public static final long DEFAULT_FLUSH_DEADLINE = 50_000;
+
+    static final int SHARDS = 16;
+
+    private static final GraphGranularityType[] GRANULARITIES = {
+            GraphGranularityType.MINUTE,
+            GraphGranularityType.HOURLY,
+            GraphGranularityType.DAILY
+    };
+
     private final ReportingDiskDao reportingDao;
-    private final String reportingPath;
     private final ReportingDBManager reportingDBManager;
+    private final ExecutorService flushExecutor;
+    private final long flushDeadline;
+    private final AtomicBoolean[] shardsInProgress;
+
+    //wall-clock minute the next run is scheduled for, modified only by the scheduler thread
+    private long scheduledMinute;
 
-    public ReportingWorker(ReportingDiskDao reportingDao,
-                           String reportingPath, ReportingDBManager reportingDBManager) {
+    public ReportingWorker(ReportingDiskDao reportingDao, ReportingDBManager reportingDBManager) {
+        this(reportingDao, reportingDBManager, DEFAULT_FLUSH_THREADS, DEFAULT_FLUSH_DEADLINE);
+    }
+
+    /**
+     * @param flushThreads - threads that flush shards in parallel, with 1 thread shards are flushed by the caller
+     * @param flushDeadline - millis after the run start, shards that are not started before it are skipped
+     */
+    public ReportingWorker(ReportingDiskDao reportingDao, ReportingDBManager reportingDBManager,
+                           int flushThreads, long flushDeadline) {
         this.reportingDao = reportingDao;
-        this.reportingPath = reportingPath;
         this.reportingDBManager = reportingDBManager;
+        this.flushExecutor = flushThreads > 1
+                ? Executors.newFixedThreadPool(flushThreads, BlynkTPFactory.build("ReportingFlush"))
+                : null;
+        this.flushDeadline = flushDeadline;
+        this.shardsInProgress = new AtomicBoolean[SHARDS];
+        for (int i = 0; i < SHARDS; i++) {
+            shardsInProgress[i] = new AtomicBoolean();
+        }
     }
 
     @Override
     public void run() {
         try {
-            Map<AggregationKey, AggregationValue> removedKeysMinute =
-                    process(reportingDao.averageAggregator.getMinute(), GraphGranularityType.MINUTE);
-            Map<AggregationKey, AggregationValue> removedKeysHour =
-                    process(reportingDao.averageAggregator.getHourly(), GraphGranularityType.HOURLY);
-            Map<AggregationKey, AggregationValue> removedKeysDay =
-                    process(reportingDao.averageAggregator.getDaily(), GraphGranularityType.DAILY);
-
-            reportingDBManager.insertReporting(removedKeysMinute, GraphGranularityType.MINUTE);
-            reportingDBManager.insertReporting(removedKeysHour, GraphGranularityType.HOURLY);
-            reportingDBManager.insertReporting(removedKeysDay, GraphGranularityType.DAILY);
+            long now = System.currentTimeMillis();
+            long currentMinute = now - now % MINUTE;
+            //delayed runs are executed one after another by the scheduler, so the lag is accumulated
+            scheduledMinute = scheduledMinute == 0
+                    ? currentMinute
+                    : Math.min(scheduledMinute + MINUTE, currentMinute);
+            long deadline = now + flushDeadline;
+
+            ReportingDiskWriter diskWriter = reportingDao.diskWriter;
+            diskWriter.beginFlush();
+            int skippedShards = flushShards(deadline);
+            long finished = System.currentTimeMillis();
+            diskWriter.completeFlush(finished - scheduledMinute, skippedShards);
+            if (skippedShards > 0) {
+                log.warn("Reporting flush skipped {} of {} shards.", skippedShards, SHARDS);
+            }
 
-            reportingDBManager.insertReportingRaw(reportingDao.rawDataProcessor.rawStorage);
+            reportingDBManager.insertReportingRaw(reportingDao.rawDataProcessor);
 
             reportingDBManager.cleanOldReportingRecords(Instant.now());
         } catch (Exception e) {
@@ -66,55 +113,81 @@ public class ReportingWorker implements Runnable {
         }
     }
 
-    /**
-     * Iterates over all reporting entries that were created during last minute.
-     * And stores all entries one by one to disk.
-     *
-     * @param map - reporting entires that were created during last minute.
-     * @param type - type of reporting. Could be minute, hourly, daily.
-     * @return - returns list of reporting entries that were successfully flushed to disk.
-     */
-    private Map<AggregationKey, AggregationValue>  process(Map<AggregationKey, AggregationValue> map,
-                                                           GraphGranularityType type) {
-        if (map.size() == 0) {
-            return Collections.emptyMap();
-        }
-
-        Set<AggregationKey> aggregationKeySet = map.keySet();
-        AggregationKey[] keys = aggregationKeySet.toArray(new AggregationKey[0]);
-        Arrays.sort(keys, AggregationKey.AGGREGATION_KEY_COMPARATOR);
-
-        var removedKeys = new HashMap<AggregationKey, AggregationValue>();
-
-        long nowTruncatedToPeriod = System.currentTimeMillis() / type.period;
-        for (AggregationKey keyToRemove : keys) {
-            //if prev hour
-            if (keyToRemove.isOutdated(nowTruncatedToPeriod)) {
-                AggregationValue value = map.get(keyToRemove);
-
+    private int flushShards(long deadline) throws InterruptedException {
+        int skippedShards = 0;
+        List<Future<Boolean>> futures = new ArrayList<>(SHARDS);
+        for (int shard = 0; shard < SHARDS; shard++) {
+            //shard of the previous run may still be running after its deadline
+            if (!shardsInProgress[shard].compareAndSet(false, true)) {
+                skippedShards++;
+                continue;
+            }
+            int shardIndex = shard;
+            if (flushExecutor == null) {
                 try {
-                    Path userReportFolder = Paths.get(reportingPath,
-                            FileUtils.getUserStorageDir(keyToRemove.getEmail(), keyToRemove.getAppName()));
-                    if (Files.notExists(userReportFolder)) {
-                        Files.createDirectories(userReportFolder);
+                    if (!flushShard(shardIndex, deadline)) {
+                        skippedShards++;
                     }
+                } catch (Exception e) {
+                    skippedShards++;
+                    log.error("Error flushing reporting shard.", e);
+                }
+            } else {
+                futures.add(flushExecutor.submit(() -> flushShard(shardIndex, deadline)));
+            }
+        }
 
-                    String fileName = generateFilename(keyToRemove.getDashId(),
-                            keyToRemove.getDeviceId(), keyToRemove.getPinType(), keyToRemove.getPin(), type);
-                    Path filePath = Paths.get(userReportFolder.toString(), fileName);
-
-                    FileUtils.write(filePath, value.calcAverage(), keyToRemove.getTs(type));
+        for (Future<Boolean> future : futures) {
+            try {
+                long timeout = Math.max(0, deadline - System.currentTimeMillis());
+                if (!future.get(timeout, TimeUnit.MILLISECONDS)) {
+                    skippedShards++;
+                }
+            } catch (TimeoutException e) {
+                //shard continues in background, it is skipped by the next run till it is done
+                skippedShards++;
+            } catch (ExecutionException e) {
+                //shard wasn't flushed fully
+                skippedShards++;
+                log.error("Error flushing reporting shard.", e.getCause());
+            }
+        }
+        return skippedShards;
+    }
 
-                    removedKeys.put(keyToRemove, value);
-                } catch (Exception ioe) {
-                    log.error("Error writing reporting file. Reason : {}", ioe.getMessage());
-                } finally {
-                    map.remove(keyToRemove);
+    /**
+     * @return - false in case the shard wasn't flushed fully before the deadline
+     */
+    private boolean flushShard(int shard, long deadline) {
+        ReportingDiskWriter diskWriter = reportingDao.diskWriter;
+        FlushCounters counters = new FlushCounters();
+        try {
+            for (GraphGranularityType type : GRANULARITIES) {
+                if (System.currentTimeMillis() > deadline) {
+                    return false;
                 }
+                Map<AggregationKey, AggregationValue> removedKeys = diskWriter.flush(
+                        reportingDao.averageAggregator.drainOutdated(type, shard, SHARDS), type, counters);
+                reportingDBManager.insertReporting(removedKeys, type);
             }
+            return true;
+        } finally {
+            diskWriter.shardFlushed(counters);
+            shardsInProgress[shard].set(false);
         }
+    }
 
-        return removedKeys;
+    @Override
+    public void close() {
+        if (flushExecutor != null) {
+            flushExecutor.shutdown();
+            try {
+                //shards in progress should be flushed before the aggregator is stored on shutdown
+                flushExecutor.awaitTermination(flushDeadline, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
 }
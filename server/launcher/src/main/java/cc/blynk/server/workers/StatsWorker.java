@@ -2,12 +2,15 @@ package cc.blynk.server.workers;
 
 import cc.blynk.server.Holder;
 import cc.blynk.server.core.BlockingIOProcessor;
+import cc.blynk.server.core.dao.FileManager;
+import cc.blynk.server.core.dao.ReportingDiskDao;
 import cc.blynk.server.core.dao.SessionDao;
 import cc.blynk.server.core.dao.UserDao;
 import cc.blynk.server.core.model.widgets.ui.reporting.ReportScheduler;
 import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.server.core.stats.model.Stat;
 import cc.blynk.server.db.ReportingDBManager;
+import cc.blynk.server.workers.timer.TimerWorker;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -31,6 +34,9 @@ public class StatsWorker implements Runnable {
     private final String region;
     private final BlockingIOProcessor blockingIOProcessor;
     private final ReportScheduler reportScheduler;
+    private final ReportingDiskDao reportingDiskDao;
+    private final TimerWorker timerWorker;
+    private final FileManager fileManager;
 
     public StatsWorker(Holder holder) {
         this.stats = holder.stats;
@@ -40,12 +46,16 @@ public class StatsWorker implements Runnable {
         this.region = holder.props.region;
         this.blockingIOProcessor = holder.blockingIOProcessor;
         this.reportScheduler = holder.reportScheduler;
+        this.reportingDiskDao = holder.reportingDiskDao;
+        this.timerWorker = holder.timerWorker;
+        this.fileManager = holder.fileManager;
     }
 
     @Override
     public void run() {
         try {
-            var stat = new Stat(sessionDao, userDao, blockingIOProcessor, stats, reportScheduler, true);
+            var stat = new Stat(sessionDao, userDao, blockingIOProcessor, stats, reportScheduler,
+                    reportingDiskDao, timerWorker, fileManager.getUsersLoadProgress(), true);
             log.info(stat);
             reportingDBManager.insertStat(this.region, stat);
         } catch (Exception e) {
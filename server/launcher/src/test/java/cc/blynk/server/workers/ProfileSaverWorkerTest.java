@@ -2,18 +2,21 @@ package cc.blynk.server.workers;
 
 import cc.blynk.server.core.BlockingIOProcessor;
 import cc.blynk.server.core.dao.FileManager;
+import cc.blynk.server.core.dao.ProfileJournal;
 import cc.blynk.server.core.dao.UserDao;
 import cc.blynk.server.core.dao.UserKey;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.server.db.DBManager;
 import cc.blynk.utils.AppNameUtil;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -44,9 +47,16 @@ public class ProfileSaverWorkerTest {
 
     private BlockingIOProcessor blockingIOProcessor = new BlockingIOProcessor(4, 1);
 
+    private ProfileJournal profileJournal;
+
+    @Before
+    public void init() throws IOException {
+        profileJournal = new ProfileJournal(Files.createTempDirectory("profile_journal_"), 1);
+    }
+
     @Test
     public void testCorrectProfilesAreSaved() throws IOException {
-        ProfileSaverWorker profileSaverWorker = new ProfileSaverWorker(userDao, fileManager, new DBManager(blockingIOProcessor, true));
+        ProfileSaverWorker profileSaverWorker = new ProfileSaverWorker(userDao, fileManager, profileJournal, new DBManager(blockingIOProcessor, true));
 
         User user1 = new User("1", "", AppNameUtil.BLYNK, "local", "127.0.0.1", false, false);
         User user2 = new User("2", "", AppNameUtil.BLYNK, "local", "127.0.0.1", false, false);
@@ -84,7 +94,7 @@ public class ProfileSaverWorkerTest {
 
         Thread.sleep(1);
 
-        ProfileSaverWorker profileSaverWorker = new ProfileSaverWorker(userDao, fileManager, new DBManager(blockingIOProcessor, true));
+        ProfileSaverWorker profileSaverWorker = new ProfileSaverWorker(userDao, fileManager, profileJournal, new DBManager(blockingIOProcessor, true));
 
         when(userDao.getUsers()).thenReturn(userMap);
         profileSaverWorker.run();
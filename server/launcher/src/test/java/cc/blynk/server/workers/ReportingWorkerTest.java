@@ -35,6 +35,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.when;
 
 /**
@@ -90,7 +92,7 @@ public class ReportingWorkerTest {
         user.email = "test";
         user.appName = AppNameUtil.BLYNK;
         ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock,
-                reportingFolder, new ReportingDBManager(blockingIOProcessor, true));
+                new ReportingDBManager(blockingIOProcessor, true));
 
         ConcurrentHashMap<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
 
@@ -103,7 +105,7 @@ public class ReportingWorkerTest {
 
         map.put(aggregationKey, aggregationValue);
 
-        when(averageAggregator.getMinute()).thenReturn(map);
+        when(averageAggregator.drainOutdated(eq(GraphGranularityType.MINUTE), anyInt(), anyInt())).thenReturn(map);
 
         reportingWorker.run();
         assertTrue(map.isEmpty());
@@ -115,7 +117,7 @@ public class ReportingWorkerTest {
         user.email = "test";
         user.appName = AppNameUtil.BLYNK;
         ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock,
-                reportingFolder, new ReportingDBManager(blockingIOProcessor, true));
+                new ReportingDBManager(blockingIOProcessor, true));
 
         ConcurrentHashMap<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
 
@@ -135,9 +137,9 @@ public class ReportingWorkerTest {
         map.put(aggregationKey2, aggregationValue2);
         map.put(aggregationKey3, aggregationValue3);
 
-        when(averageAggregator.getMinute()).thenReturn(new ConcurrentHashMap<>());
-        when(averageAggregator.getHourly()).thenReturn(map);
-        when(averageAggregator.getDaily()).thenReturn(new ConcurrentHashMap<>());
+        when(averageAggregator.drainOutdated(eq(GraphGranularityType.MINUTE), anyInt(), anyInt())).thenReturn(new ConcurrentHashMap<>());
+        when(averageAggregator.drainOutdated(eq(GraphGranularityType.HOURLY), anyInt(), anyInt())).thenReturn(map);
+        when(averageAggregator.drainOutdated(eq(GraphGranularityType.DAILY), anyInt(), anyInt())).thenReturn(new ConcurrentHashMap<>());
 
         reportingWorker.run();
 
@@ -171,7 +173,7 @@ public class ReportingWorkerTest {
     @Test
     public void testStore2() {
         ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock,
-                reportingFolder, new ReportingDBManager(blockingIOProcessor, true));
+                new ReportingDBManager(blockingIOProcessor, true));
 
         ConcurrentHashMap<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
 
@@ -191,9 +193,9 @@ public class ReportingWorkerTest {
         map.put(aggregationKey2, aggregationValue2);
         map.put(aggregationKey3, aggregationValue3);
 
-        when(averageAggregator.getMinute()).thenReturn(new ConcurrentHashMap<>());
-        when(averageAggregator.getHourly()).thenReturn(map);
-        when(averageAggregator.getDaily()).thenReturn(new ConcurrentHashMap<>());
+        when(averageAggregator.drainOutdated(eq(GraphGranularityType.MINUTE), anyInt(), anyInt())).thenReturn(new ConcurrentHashMap<>());
+        when(averageAggregator.drainOutdated(eq(GraphGranularityType.HOURLY), anyInt(), anyInt())).thenReturn(map);
+        when(averageAggregator.drainOutdated(eq(GraphGranularityType.DAILY), anyInt(), anyInt())).thenReturn(new ConcurrentHashMap<>());
 
         reportingWorker.run();
 
@@ -234,7 +236,7 @@ public class ReportingWorkerTest {
     @Test
     public void testDeleteCommand() {
         ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock,
-                reportingFolder, new ReportingDBManager(blockingIOProcessor, true));
+                new ReportingDBManager(blockingIOProcessor, true));
 
         ConcurrentHashMap<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
 
@@ -254,9 +256,9 @@ public class ReportingWorkerTest {
         map.put(aggregationKey2, aggregationValue2);
         map.put(aggregationKey3, aggregationValue3);
 
-        when(averageAggregator.getMinute()).thenReturn(new ConcurrentHashMap<>());
-        when(averageAggregator.getHourly()).thenReturn(map);
-        when(averageAggregator.getDaily()).thenReturn(new ConcurrentHashMap<>());
+        when(averageAggregator.drainOutdated(eq(GraphGranularityType.MINUTE), anyInt(), anyInt())).thenReturn(new ConcurrentHashMap<>());
+        when(averageAggregator.drainOutdated(eq(GraphGranularityType.HOURLY), anyInt(), anyInt())).thenReturn(map);
+        when(averageAggregator.drainOutdated(eq(GraphGranularityType.DAILY), anyInt(), anyInt())).thenReturn(new ConcurrentHashMap<>());
         when(properties.getProperty("data.folder")).thenReturn(System.getProperty("java.io.tmpdir"));
 
         reportingWorker.run();
@@ -272,6 +274,96 @@ public class ReportingWorkerTest {
         assertFalse(Files.exists(Paths.get(reportingFolder, "test", generateFilename(1, 0, PinType.ANALOG, (short) 1, GraphGranularityType.HOURLY))));
     }
 
+    @Test
+    public void testStoreWithPooledChannelAndDelete() {
+        ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock,
+                new ReportingDBManager(blockingIOProcessor, true));
+
+        long ts = getTS() / AverageAggregatorProcessor.HOUR;
+
+        ConcurrentHashMap<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
+        when(averageAggregator.drainOutdated(eq(GraphGranularityType.MINUTE), anyInt(), anyInt())).thenReturn(new ConcurrentHashMap<>());
+        when(averageAggregator.drainOutdated(eq(GraphGranularityType.HOURLY), anyInt(), anyInt())).thenReturn(map);
+        when(averageAggregator.drainOutdated(eq(GraphGranularityType.DAILY), anyInt(), anyInt())).thenReturn(new ConcurrentHashMap<>());
+
+        AggregationValue aggregationValue = new AggregationValue();
+        aggregationValue.update(100);
+        map.put(new AggregationKey("test", AppNameUtil.BLYNK, 1, 0, PinType.ANALOG, (short) 1, ts - 1),
+                aggregationValue);
+        reportingWorker.run();
+
+        AggregationValue aggregationValue2 = new AggregationValue();
+        aggregationValue2.update(200);
+        map.put(new AggregationKey("test", AppNameUtil.BLYNK, 1, 0, PinType.ANALOG, (short) 1, ts),
+                aggregationValue2);
+        reportingWorker.run();
+
+        assertEquals(1, reportingDaoMock.diskWriter.getLastFlushFiles());
+        assertEquals(1, reportingDaoMock.diskWriter.getOpenFiles());
+
+        User user = new User();
+        user.email = "test";
+        user.appName = AppNameUtil.BLYNK;
+
+        ByteBuffer data = reportingDaoMock.getByteBufferFromDisk(user, 1, 0, PinType.ANALOG, (short) 1, 24, GraphGranularityType.HOURLY, 0);
+        assertNotNull(data);
+        assertEquals(32, data.capacity());
+
+        reportingDaoMock.delete(user, 1, 0, PinType.ANALOG, (short) 1);
+        assertFalse(Files.exists(Paths.get(reportingFolder, "test", generateFilename(1, 0, PinType.ANALOG, (short) 1, GraphGranularityType.HOURLY))));
+        assertEquals(0, reportingDaoMock.diskWriter.getOpenFiles());
+
+        AggregationValue aggregationValue3 = new AggregationValue();
+        aggregationValue3.update(300);
+        map.put(new AggregationKey("test", AppNameUtil.BLYNK, 1, 0, PinType.ANALOG, (short) 1, ts + 1),
+                aggregationValue3);
+        reportingWorker.run();
+
+        data = reportingDaoMock.getByteBufferFromDisk(user, 1, 0, PinType.ANALOG, (short) 1, 24, GraphGranularityType.HOURLY, 0);
+        assertNotNull(data);
+        assertEquals(16, data.capacity());
+        assertEquals(300.0, data.getDouble(), 0.001);
+        assertEquals((ts + 1) * AverageAggregatorProcessor.HOUR, data.getLong());
+    }
+
+    @Test
+    public void testShardsAreFlushedInParallel() {
+        ReportingDiskDao reportingDao = new ReportingDiskDao(reportingFolder, true);
+        long ts = System.currentTimeMillis() - 2 * AverageAggregatorProcessor.DAY;
+        for (short pin = 0; pin < 100; pin++) {
+            reportingDao.averageAggregator.collect("test", AppNameUtil.BLYNK, 1, 0, PinType.VIRTUAL, pin, ts, pin);
+        }
+
+        //shards are not started after the deadline, data is kept till the next run
+        ReportingWorker expiredWorker = new ReportingWorker(reportingDao,
+                new ReportingDBManager(blockingIOProcessor, true), 4, -1);
+        expiredWorker.run();
+        expiredWorker.close();
+        assertEquals(ReportingWorker.SHARDS, reportingDao.diskWriter.getLastSkippedShards());
+        assertEquals(0, reportingDao.diskWriter.getLastFlushFiles());
+        assertEquals(100, reportingDao.averageAggregator.size(GraphGranularityType.MINUTE));
+
+        ReportingWorker reportingWorker = new ReportingWorker(reportingDao,
+                new ReportingDBManager(blockingIOProcessor, true), 4, ReportingWorker.DEFAULT_FLUSH_DEADLINE);
+        reportingWorker.run();
+        reportingWorker.close();
+        assertEquals(0, reportingDao.diskWriter.getLastSkippedShards());
+        assertEquals(300, reportingDao.diskWriter.getLastFlushFiles());
+        assertEquals(0, reportingDao.averageAggregator.size(GraphGranularityType.MINUTE));
+        assertTrue(reportingDao.diskWriter.getLastFlushLag() >= 0);
+
+        User user = new User();
+        user.email = "test";
+        user.appName = AppNameUtil.BLYNK;
+        for (short pin = 0; pin < 100; pin++) {
+            ByteBuffer data = reportingDao.getByteBufferFromDisk(user, 1, 0, PinType.VIRTUAL, pin, 1,
+                    GraphGranularityType.MINUTE, 0);
+            assertNotNull(data);
+            assertEquals(pin, data.getDouble(), 0.001);
+        }
+        reportingDao.diskWriter.close();
+    }
+
     private long getTS() {
         SimpleDateFormat formatter = new SimpleDateFormat("MMM dd, yyyy HH:mm:ss");
         String dateInString = "Aug 10, 2015 12:10:56";
@@ -59,6 +59,7 @@ import cc.blynk.server.application.handlers.main.logic.sharing.MobileRefreshShar
 import cc.blynk.server.application.handlers.main.logic.sharing.MobileShareLogic;
 import cc.blynk.server.common.BaseSimpleChannelInboundHandler;
 import cc.blynk.server.common.handlers.logic.PingLogic;
+import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
 import cc.blynk.server.core.session.StateHolderBase;
 import io.netty.channel.ChannelHandlerContext;
@@ -359,6 +360,15 @@ public class MobileHandler extends BaseSimpleChannelInboundHandler<StringMessage
                 MobileExportReportLogic.messageReceived(holder, ctx, state.user, msg);
                 break;
         }
+
+        //dashboard may be changed, so reading widgets are rechecked on the next tick.
+        //pin writes and pings are the most of the app traffic and don't change reading widgets
+        if (msg.command != HARDWARE && msg.command != PING) {
+            Session session = holder.sessionDao.get(state.userKey);
+            if (session != null) {
+                holder.readingWidgetsWorker.wakeUp(session);
+            }
+        }
     }
 
     @Override
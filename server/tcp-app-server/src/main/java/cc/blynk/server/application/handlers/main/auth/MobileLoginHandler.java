@@ -205,6 +205,7 @@ public class MobileLoginHandler extends SimpleChannelInboundHandler<LoginMessage
         user.lastLoggedAt = System.currentTimeMillis();
 
         session.addAppChannel(channel);
+        holder.readingWidgetsWorker.wakeUp(session);
         channel.writeAndFlush(ok(msgId), channel.voidPromise());
         for (DashBoard dashBoard : user.profile.dashBoards) {
             if (dashBoard.isAppConnectedOn && dashBoard.isActive) {
@@ -1,13 +1,13 @@
 package cc.blynk.server.application.handlers.main.logic;
 
+import cc.blynk.server.Holder;
 import cc.blynk.server.application.handlers.sharing.auth.MobileShareStateHolder;
 import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.Profile;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
 import io.netty.channel.ChannelHandlerContext;
 
-import static cc.blynk.server.core.model.serialization.JsonParser.gzipDashRestrictive;
-import static cc.blynk.server.core.model.serialization.JsonParser.gzipProfileRestrictive;
+import static cc.blynk.server.core.model.serialization.JsonParser.gzipProfileCached;
 
 /**
  * The Blynk Project.
@@ -20,21 +20,26 @@ public final class LoadSharedProfileGzippedLogic {
     private LoadSharedProfileGzippedLogic() {
     }
 
-    public static void messageReceived(ChannelHandlerContext ctx, MobileShareStateHolder state, StringMessage message) {
-        byte[] data;
+    public static void messageReceived(Holder holder, ChannelHandlerContext ctx,
+                                       MobileShareStateHolder state, StringMessage message) {
         var user = state.user;
         if (message.body.length() == 0) {
             var dash = user.profile.getDashByIdOrThrow(state.dashId);
             var profile = new Profile();
-            profile.dashBoards = new DashBoard[] {dash};
-            data = gzipProfileRestrictive(profile);
+            var dashes = new DashBoard[] {dash};
+            profile.dashBoards = dashes;
+            if (MobileLoadProfileGzippedLogic.hasCompressedJson(dashes, true)) {
+                MobileLoadProfileGzippedLogic.write(ctx, gzipProfileCached(profile, dashes, true), message.id);
+            } else {
+                holder.blockingIOProcessor.execute(() ->
+                        MobileLoadProfileGzippedLogic.write(ctx, gzipProfileCached(profile, dashes, true), message.id));
+            }
         } else {
             //load specific by id
             var dashId = Integer.parseInt(message.body);
             var dash = user.profile.getDashByIdOrThrow(dashId);
-            data = gzipDashRestrictive(dash);
+            MobileLoadProfileGzippedLogic.writeDash(holder, ctx, dash, message.id, true);
         }
-        MobileLoadProfileGzippedLogic.write(ctx, data, message.id);
     }
 
 }
@@ -76,6 +76,7 @@ public final class MobileAddPushLogic {
                 notification.iOSTokens.put(uid, token);
                 break;
         }
+        dash.updatedAt = System.currentTimeMillis();
 
         ctx.writeAndFlush(ok(message.id), ctx.voidPromise());
     }
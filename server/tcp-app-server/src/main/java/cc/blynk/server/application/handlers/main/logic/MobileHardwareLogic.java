@@ -14,6 +14,7 @@ import cc.blynk.server.core.model.widgets.ui.DeviceSelector;
 import cc.blynk.server.core.processors.BaseProcessorHandler;
 import cc.blynk.server.core.processors.WebhookProcessor;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.workers.ReadingWidgetsWorker;
 import cc.blynk.utils.NumberUtil;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
@@ -44,6 +45,7 @@ public class MobileHardwareLogic extends BaseProcessorHandler {
     private static final Logger log = LogManager.getLogger(MobileHardwareLogic.class);
 
     private final SessionDao sessionDao;
+    private final ReadingWidgetsWorker readingWidgetsWorker;
 
     public MobileHardwareLogic(Holder holder, String email) {
         super(holder.eventorProcessor, new WebhookProcessor(holder.asyncHttpClient,
@@ -53,6 +55,7 @@ public class MobileHardwareLogic extends BaseProcessorHandler {
                 holder.stats,
                 email));
         this.sessionDao = holder.sessionDao;
+        this.readingWidgetsWorker = holder.readingWidgetsWorker;
     }
 
     public void messageReceived(ChannelHandlerContext ctx, MobileStateHolder state, StringMessage message) {
@@ -109,7 +112,8 @@ public class MobileHardwareLogic extends BaseProcessorHandler {
             case 'u' :
                 //splitting "vu 200000 1"
                 String[] splitBody = split3(split[1]);
-                processDeviceSelectorCommand(ctx, session, state.user.profile, dash, message, splitBody);
+                processDeviceSelectorCommand(ctx, session, state.user.profile, dash, message, splitBody,
+                        readingWidgetsWorker);
                 break;
             case 'w' :
                 splitBody = split3(split[1]);
@@ -150,13 +154,18 @@ public class MobileHardwareLogic extends BaseProcessorHandler {
 
     public static void processDeviceSelectorCommand(ChannelHandlerContext ctx,
                                                     Session session, Profile profile, DashBoard dash,
-                                                    StringMessage message, String[] splitBody) {
+                                                    StringMessage message, String[] splitBody,
+                                                    ReadingWidgetsWorker readingWidgetsWorker) {
         //in format "vu 200000 1"
         long widgetId = Long.parseLong(splitBody[1]);
         Widget deviceSelector = dash.getWidgetByIdOrThrow(widgetId);
         if (deviceSelector instanceof DeviceSelector) {
             int selectedDeviceId = Integer.parseInt(splitBody[2]);
             ((DeviceSelector) deviceSelector).value = selectedDeviceId;
+            //selected device is a part of the dashboard json, so cached json of the dashboard is outdated
+            dash.valuesUpdatedAt = System.currentTimeMillis();
+            //widgets of the selector read from the selected device now
+            readingWidgetsWorker.wakeUp(session);
             ctx.write(ok(message.id), ctx.voidPromise());
 
             //sending to shared dashes and master-master apps
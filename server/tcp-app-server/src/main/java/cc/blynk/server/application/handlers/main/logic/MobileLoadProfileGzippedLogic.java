@@ -14,9 +14,9 @@ import io.netty.channel.ChannelHandlerContext;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import static cc.blynk.server.core.model.serialization.JsonParser.gzipDash;
+import static cc.blynk.server.core.model.serialization.JsonParser.gzipDashCached;
 import static cc.blynk.server.core.model.serialization.JsonParser.gzipDashRestrictive;
-import static cc.blynk.server.core.model.serialization.JsonParser.gzipProfile;
+import static cc.blynk.server.core.model.serialization.JsonParser.gzipProfileCached;
 import static cc.blynk.server.core.protocol.enums.Command.LOAD_PROFILE_GZIPPED;
 import static cc.blynk.server.internal.CommonByteBufUtil.illegalCommand;
 import static cc.blynk.server.internal.CommonByteBufUtil.makeBinaryMessage;
@@ -42,7 +42,14 @@ public final class MobileLoadProfileGzippedLogic {
 
         if (message.body.length() == 0) {
             Profile profile = state.user.profile;
-            write(ctx, gzipProfile(profile), msgId);
+            DashBoard[] dashes = profile.dashBoards;
+            if (hasCompressedJson(dashes, false)) {
+                write(ctx, gzipProfileCached(profile, dashes, false), msgId);
+            } else {
+                //serialization of the big profile takes a while, so it is done outside of the event loop
+                holder.blockingIOProcessor.execute(() ->
+                        write(ctx, gzipProfileCached(profile, dashes, false), msgId));
+            }
             return;
         }
 
@@ -51,7 +58,7 @@ public final class MobileLoadProfileGzippedLogic {
             //load specific by id
             int dashId = Integer.parseInt(message.body);
             DashBoard dash = state.user.profile.getDashByIdOrThrow(dashId);
-            write(ctx, gzipDash(dash), msgId);
+            writeDash(holder, ctx, dash, msgId, false);
         } else {
             String token = parts[0];
             int dashId = Integer.parseInt(parts[1]);
@@ -79,6 +86,23 @@ public final class MobileLoadProfileGzippedLogic {
         }
     }
 
+    static void writeDash(Holder holder, ChannelHandlerContext ctx, DashBoard dash, int msgId, boolean restrictive) {
+        if (dash.hasCompressedJson(restrictive)) {
+            write(ctx, gzipDashCached(dash, restrictive), msgId);
+        } else {
+            holder.blockingIOProcessor.execute(() -> write(ctx, gzipDashCached(dash, restrictive), msgId));
+        }
+    }
+
+    static boolean hasCompressedJson(DashBoard[] dashes, boolean restrictive) {
+        for (DashBoard dash : dashes) {
+            if (!dash.hasCompressedJson(restrictive)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public static void write(ChannelHandlerContext ctx, byte[] data, int msgId) {
         if (ctx.channel().isWritable()) {
             var outputMsg = makeResponse(data, msgId);
@@ -38,6 +38,7 @@ public final class MobileLogoutLogic {
                     notification.androidTokens.remove(uid);
                     notification.iOSTokens.remove(uid);
                 }
+                dash.updatedAt = System.currentTimeMillis();
             }
         }
 
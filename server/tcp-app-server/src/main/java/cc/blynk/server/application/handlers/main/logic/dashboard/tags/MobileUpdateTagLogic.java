@@ -56,7 +56,8 @@ public final class MobileUpdateTagLogic {
         }
 
         existingTag.update(newTag);
-        user.lastModifiedTs = System.currentTimeMillis();
+        dash.updatedAt = System.currentTimeMillis();
+        user.lastModifiedTs = dash.updatedAt;
 
         ctx.writeAndFlush(ok(message.id), ctx.voidPromise());
     }
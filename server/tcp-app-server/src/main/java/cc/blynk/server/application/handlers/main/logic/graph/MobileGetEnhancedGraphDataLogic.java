@@ -2,6 +2,7 @@ package cc.blynk.server.application.handlers.main.logic.graph;
 
 import cc.blynk.server.Holder;
 import cc.blynk.server.application.handlers.main.auth.MobileStateHolder;
+import cc.blynk.server.core.dao.ReportingDiskDao;
 import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.Profile;
 import cc.blynk.server.core.model.auth.User;
@@ -16,6 +17,7 @@ import cc.blynk.server.core.model.widgets.ui.tiles.DeviceTiles;
 import cc.blynk.server.core.protocol.exceptions.IllegalCommandException;
 import cc.blynk.server.core.protocol.exceptions.NoDataException;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.reporting.GraphDataCache;
 import cc.blynk.server.core.reporting.GraphPinRequest;
 import cc.blynk.utils.StringUtils;
 import io.netty.channel.Channel;
@@ -120,15 +122,16 @@ public final class MobileGetEnhancedGraphDataLogic {
             i++;
         }
 
-        readGraphData(holder, ctx.channel(), state.user, requestedPins, message.id);
+        GraphDataCache.Key cacheKey = new GraphDataCache.Key(state.user, dashId, widgetId,
+                graphPeriod, page, targetId, requestedPins);
+        readGraphData(holder, ctx.channel(), state.user, requestedPins, cacheKey, message.id);
     }
 
     private static void readGraphData(Holder holder, Channel channel, User user,
-                                      GraphPinRequest[] requestedPins, int msgId) {
+                                      GraphPinRequest[] requestedPins, GraphDataCache.Key cacheKey, int msgId) {
         holder.blockingIOProcessor.executeHistory(() -> {
             try {
-                byte[][] data = holder.reportingDiskDao.getReportingData(user, requestedPins);
-                byte[] compressed = compress(requestedPins[0].dashId, data);
+                byte[] compressed = readCompressed(holder.reportingDiskDao, user, requestedPins, cacheKey);
 
                 if (channel.isWritable()) {
                     channel.writeAndFlush(
@@ -145,4 +148,25 @@ public final class MobileGetEnhancedGraphDataLogic {
         });
     }
 
+    private static byte[] readCompressed(ReportingDiskDao reportingDiskDao, User user,
+                                         GraphPinRequest[] requestedPins, GraphDataCache.Key cacheKey)
+            throws Exception {
+        GraphDataCache cache = reportingDiskDao.graphDataCache;
+        //epoch is taken before the read, so data flushed during the read invalidates the entry
+        long epoch = cache.isEnabled() ? reportingDiskDao.getSeriesEpoch(user, requestedPins) : -1;
+        if (epoch != -1) {
+            byte[] cached = cache.get(cacheKey, epoch);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        byte[][] data = reportingDiskDao.getReportingData(user, requestedPins);
+        byte[] compressed = compress(requestedPins[0].dashId, data);
+        if (epoch != -1) {
+            cache.put(cacheKey, epoch, compressed);
+        }
+        return compressed;
+    }
+
 }
@@ -56,7 +56,7 @@ public class MobileShareHandler extends BaseSimpleChannelInboundHandler<StringMe
                 hardwareApp.messageReceived(ctx, state, msg);
                 break;
             case LOAD_PROFILE_GZIPPED :
-                LoadSharedProfileGzippedLogic.messageReceived(ctx, state, msg);
+                LoadSharedProfileGzippedLogic.messageReceived(holder, ctx, state, msg);
                 break;
             case ADD_PUSH_TOKEN :
                 mobileAddPushLogic.messageReceived(ctx, state, msg);
@@ -104,6 +104,7 @@ public class MobileShareLoginHandler extends SimpleChannelInboundHandler<ShareLo
 
     private void completeLogin(Channel channel, Session session, String userName, int msgId) {
         session.addAppChannel(channel);
+        holder.readingWidgetsWorker.wakeUp(session);
         channel.writeAndFlush(ok(msgId), channel.voidPromise());
         log.info("Shared {} app joined.", userName);
     }
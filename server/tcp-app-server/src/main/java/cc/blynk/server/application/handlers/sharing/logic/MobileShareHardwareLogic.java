@@ -14,8 +14,8 @@ import cc.blynk.server.core.model.widgets.ui.DeviceSelector;
 import cc.blynk.server.core.processors.BaseProcessorHandler;
 import cc.blynk.server.core.processors.WebhookProcessor;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.workers.ReadingWidgetsWorker;
 import cc.blynk.utils.NumberUtil;
-import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -24,7 +24,6 @@ import static cc.blynk.server.core.protocol.enums.Command.APP_SYNC;
 import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
 import static cc.blynk.server.internal.CommonByteBufUtil.deviceNotInNetwork;
 import static cc.blynk.server.internal.CommonByteBufUtil.illegalCommandBody;
-import static cc.blynk.server.internal.CommonByteBufUtil.makeUTF8StringMessage;
 import static cc.blynk.server.internal.CommonByteBufUtil.notAllowed;
 import static cc.blynk.utils.StringUtils.split2;
 import static cc.blynk.utils.StringUtils.split2Device;
@@ -41,6 +40,7 @@ public class MobileShareHardwareLogic extends BaseProcessorHandler {
     private static final Logger log = LogManager.getLogger(MobileShareHardwareLogic.class);
 
     private final SessionDao sessionDao;
+    private final ReadingWidgetsWorker readingWidgetsWorker;
 
     public MobileShareHardwareLogic(Holder holder, String email) {
         super(holder.eventorProcessor, new WebhookProcessor(holder.asyncHttpClient,
@@ -50,6 +50,7 @@ public class MobileShareHardwareLogic extends BaseProcessorHandler {
                 holder.stats,
                 email));
         this.sessionDao = holder.sessionDao;
+        this.readingWidgetsWorker = holder.readingWidgetsWorker;
     }
 
     public void messageReceived(ChannelHandlerContext ctx, MobileShareStateHolder state, StringMessage message) {
@@ -111,7 +112,8 @@ public class MobileShareHardwareLogic extends BaseProcessorHandler {
             case 'u' :
                 //splitting "vu 200000 1"
                 String[] splitBody = split3(split[1]);
-                MobileHardwareLogic.processDeviceSelectorCommand(ctx, session, user.profile, dash, message, splitBody);
+                MobileHardwareLogic.processDeviceSelectorCommand(ctx, session, user.profile, dash, message, splitBody,
+                        readingWidgetsWorker);
                 break;
             case 'w' :
                 splitBody = split3(split[1]);
@@ -138,14 +140,7 @@ public class MobileShareHardwareLogic extends BaseProcessorHandler {
 
                 String sharedToken = state.token;
                 if (sharedToken != null) {
-                    for (Channel appChannel : session.appChannels) {
-                        if (appChannel != ctx.channel() && appChannel.isWritable()
-                                && Session.needSync(appChannel, sharedToken)) {
-                            appChannel.writeAndFlush(
-                                    makeUTF8StringMessage(APP_SYNC, message.id, message.body),
-                                    appChannel.voidPromise());
-                        }
-                    }
+                    session.sendToSharedApps(ctx.channel(), sharedToken, APP_SYNC, message.id, message.body);
                 }
 
                 if (session.sendMessageToHardware(dashId, HARDWARE, message.id, split[1], deviceIds)
@@ -3,7 +3,9 @@ package cc.blynk.server.hardware.handlers.hardware;
 import cc.blynk.server.Holder;
 import cc.blynk.server.common.BaseSimpleChannelInboundHandler;
 import cc.blynk.server.common.handlers.logic.PingLogic;
+import cc.blynk.server.core.protocol.model.messages.MessageBase;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.protocol.model.messages.common.HardwareByteBufMessage;
 import cc.blynk.server.core.session.HardwareStateHolder;
 import cc.blynk.server.core.session.StateHolderBase;
 import cc.blynk.server.hardware.handlers.hardware.logic.BlynkInternalLogic;
@@ -39,7 +41,7 @@ import static cc.blynk.server.internal.CommonByteBufUtil.illegalCommand;
  * Created by Dmitriy Dumanskiy.
  * Created on 29.07.15.
  */
-public class HardwareHandler extends BaseSimpleChannelInboundHandler<StringMessage> {
+public class HardwareHandler extends BaseSimpleChannelInboundHandler<MessageBase> {
 
     private final HardwareStateHolder state;
     private final Holder holder;
@@ -53,7 +55,7 @@ public class HardwareHandler extends BaseSimpleChannelInboundHandler<StringMessa
     private SmsLogic sms;
 
     public HardwareHandler(Holder holder, HardwareStateHolder stateHolder) {
-        super(StringMessage.class);
+        super(MessageBase.class);
         this.state = stateHolder;
         this.holder = holder;
 
@@ -63,10 +65,18 @@ public class HardwareHandler extends BaseSimpleChannelInboundHandler<StringMessa
     }
 
     @Override
-    public void messageReceived(ChannelHandlerContext ctx, StringMessage msg) {
+    public void messageReceived(ChannelHandlerContext ctx, MessageBase msg) {
+        if (msg instanceof HardwareByteBufMessage) {
+            hardware.messageReceived(ctx, state, (HardwareByteBufMessage) msg);
+        } else if (msg instanceof StringMessage) {
+            messageReceived(ctx, (StringMessage) msg);
+        }
+    }
+
+    private void messageReceived(ChannelHandlerContext ctx, StringMessage msg) {
         switch (msg.command) {
             case HARDWARE:
-                hardware.messageReceived(ctx, state, msg);
+                hardware.messageReceived(ctx, msg, state.userKey, state.user, state.dash, state.device);
                 break;
             case PING:
                 PingLogic.messageReceived(ctx, msg.id);
@@ -96,7 +106,7 @@ public class HardwareHandler extends BaseSimpleChannelInboundHandler<StringMessa
                 sms.messageReceived(ctx, state, msg);
                 break;
             case HARDWARE_SYNC:
-                HardwareSyncLogic.messageReceived(ctx, state, msg);
+                HardwareSyncLogic.messageReceived(holder.stats, ctx, state, msg);
                 break;
             case BLYNK_INTERNAL:
                 BlynkInternalLogic.messageReceived(holder, ctx, state, msg);
@@ -7,10 +7,13 @@ import cc.blynk.server.core.session.StateHolderBase;
 import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.server.hardware.handlers.hardware.mqtt.logic.MqttHardwareLogic;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.mqtt.MqttFixedHeader;
 import io.netty.handler.codec.mqtt.MqttMessage;
 import io.netty.handler.codec.mqtt.MqttMessageFactory;
+import io.netty.handler.codec.mqtt.MqttMessageIdVariableHeader;
 import io.netty.handler.codec.mqtt.MqttMessageType;
 import io.netty.handler.codec.mqtt.MqttPublishMessage;
+import io.netty.handler.codec.mqtt.MqttQoS;
 
 /**
  * The Blynk Project.
@@ -22,6 +25,7 @@ public class MqttHardwareHandler extends BaseSimpleChannelInboundHandler<MqttMes
     public final HardwareStateHolder state;
     private final MqttHardwareLogic hardware;
     private final GlobalStats stats;
+    private boolean pubAckPending;
 
     public MqttHardwareHandler(Holder holder, HardwareStateHolder stateHolder) {
         super(MqttMessage.class);
@@ -38,14 +42,13 @@ public class MqttHardwareHandler extends BaseSimpleChannelInboundHandler<MqttMes
         switch (messageType) {
             case PUBLISH :
                 MqttPublishMessage publishMessage = (MqttPublishMessage) msg;
-                String topic = publishMessage.variableHeader().topicName();
+                hardware.messageReceived(state, publishMessage);
 
-                switch (topic.toLowerCase()) {
-                    case "hardware" :
-                        hardware.messageReceived(state, publishMessage);
-                        break;
+                if (msg.fixedHeader().qosLevel() == MqttQoS.AT_LEAST_ONCE) {
+                    //acks of all publishes within the one read are flushed together
+                    ctx.write(pubAck(publishMessage.variableHeader().packetId()), ctx.voidPromise());
+                    pubAckPending = true;
                 }
-
                 break;
 
             case PINGREQ :
@@ -61,6 +64,21 @@ public class MqttHardwareHandler extends BaseSimpleChannelInboundHandler<MqttMes
         }
     }
 
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        if (pubAckPending) {
+            pubAckPending = false;
+            ctx.flush();
+        }
+        ctx.fireChannelReadComplete();
+    }
+
+    private static MqttMessage pubAck(int packetId) {
+        MqttFixedHeader fixedHeader =
+                new MqttFixedHeader(MqttMessageType.PUBACK, false, MqttQoS.AT_MOST_ONCE, false, 0);
+        return MqttMessageFactory.newMessage(fixedHeader, MqttMessageIdVariableHeader.from(packetId), null);
+    }
+
     @Override
     public StateHolderBase getState() {
         return state;
@@ -72,6 +72,7 @@ public class HardwareLoginHandler extends SimpleChannelInboundHandler<LoginMessa
         log.debug("completeLogin. {}", channel);
 
         session.addHardChannel(channel);
+        holder.readingWidgetsWorker.register(channel, session);
         channel.write(ok(msgId));
 
         String body = dash.buildPMMessage(device.id);
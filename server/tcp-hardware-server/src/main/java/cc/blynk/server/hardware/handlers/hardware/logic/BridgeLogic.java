@@ -20,7 +20,6 @@ import static cc.blynk.server.internal.CommonByteBufUtil.deviceNotInNetwork;
 import static cc.blynk.server.internal.CommonByteBufUtil.illegalCommand;
 import static cc.blynk.server.internal.CommonByteBufUtil.notAllowed;
 import static cc.blynk.server.internal.CommonByteBufUtil.ok;
-import static cc.blynk.server.internal.StateHolderUtil.getHardState;
 import static cc.blynk.utils.StringUtils.split3;
 
 /**
@@ -113,14 +112,10 @@ public class BridgeLogic {
 
             if (session.hardwareChannels.size() > 1) {
                 var messageWasSent = false;
-                for (Channel channel : session.hardwareChannels) {
+                for (Channel channel : session.getHardwareChannels(targetDashId, targetDeviceId)) {
                     if (channel != ctx.channel() && channel.isWritable()) {
-                        HardwareStateHolder hardwareState = getHardState(channel);
-                        if (hardwareState != null
-                                && hardwareState.isSameDashAndDeviceId(targetDashId, targetDeviceId)) {
-                            messageWasSent = true;
-                            channel.writeAndFlush(bridgeMessage, channel.voidPromise());
-                        }
+                        messageWasSent = true;
+                        channel.writeAndFlush(bridgeMessage, channel.voidPromise());
                     }
                 }
                 if (!messageWasSent) {
@@ -12,6 +12,7 @@ import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.processors.BaseProcessorHandler;
 import cc.blynk.server.core.processors.WebhookProcessor;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.protocol.model.messages.common.HardwareByteBufMessage;
 import cc.blynk.server.core.session.HardwareStateHolder;
 import cc.blynk.utils.NumberUtil;
 import io.netty.channel.ChannelHandlerContext;
@@ -50,8 +51,36 @@ public class HardwareLogic extends BaseProcessorHandler {
         return body.charAt(1) == 'w';
     }
 
-    public void messageReceived(ChannelHandlerContext ctx, HardwareStateHolder state, StringMessage message) {
-        messageReceived(ctx, message, state.userKey, state.user, state.dash, state.device);
+    public void messageReceived(ChannelHandlerContext ctx, HardwareStateHolder state,
+                                HardwareByteBufMessage message) {
+        //minimum command - "ar 1"
+        if (message.length() < 4) {
+            log.debug("HardwareLogic command body too short.");
+            ctx.writeAndFlush(illegalCommand(message.id), ctx.voidPromise());
+            return;
+        }
+
+        if (message.isWriteOperation()) {
+            DashBoard dash = state.dash;
+            Device device = state.device;
+            if (!message.isValidWrite()) {
+                log.debug("Write command is wrong {} for {} and deviceId {}.", message, state.user.email, device.id);
+                ctx.writeAndFlush(illegalCommand(message.id), ctx.voidPromise());
+                return;
+            }
+
+            PinType pinType = message.getPinType();
+            short pin = message.getPin();
+            String value = message.getValue();
+
+            Session session = process(state.userKey, state.user, dash, device, pin, pinType, value);
+
+            if (dash.isActive) {
+                session.sendToApps(HARDWARE, message.id, dash.id, device.id, message.body);
+            } else {
+                log.trace("No active dashboard.");
+            }
+        }
     }
 
     public void messageReceived(ChannelHandlerContext ctx, StringMessage message,
@@ -77,22 +106,29 @@ public class HardwareLogic extends BaseProcessorHandler {
             PinType pinType = PinType.getPinType(splitBody[0].charAt(0));
             short pin = NumberUtil.parsePin(splitBody[1]);
             String value = splitBody[2];
-            long now = System.currentTimeMillis();
-            int deviceId = device.id;
 
-            reportingDao.process(user, dash, deviceId, pin, pinType, value, now);
-            user.profile.update(dash, deviceId, pin, pinType, value, now);
-            device.dataReceivedAt = now;
-
-            Session session = sessionDao.get(userKey);
-            processEventorAndWebhook(user, dash, deviceId, session, pin, pinType, value, now);
+            Session session = process(userKey, user, dash, device, pin, pinType, value);
 
             if (dash.isActive) {
-                session.sendToApps(HARDWARE, message.id, dash.id, deviceId, body);
+                session.sendToApps(HARDWARE, message.id, dash.id, device.id, body);
             } else {
                 log.trace("No active dashboard.");
             }
         }
     }
 
+    private Session process(UserKey userKey, User user, DashBoard dash, Device device,
+                            short pin, PinType pinType, String value) {
+        long now = System.currentTimeMillis();
+        int deviceId = device.id;
+
+        reportingDao.process(user, dash, deviceId, pin, pinType, value, now);
+        user.profile.update(dash, deviceId, pin, pinType, value, now);
+        device.dataReceivedAt = now;
+
+        Session session = sessionDao.get(userKey);
+        processEventorAndWebhook(user, dash, deviceId, session, pin, pinType, value, now);
+        return session;
+    }
+
 }
@@ -9,9 +9,10 @@ import cc.blynk.server.core.model.storage.key.DashPinStorageKey;
 import cc.blynk.server.core.model.storage.value.PinStorageValue;
 import cc.blynk.server.core.model.widgets.HardwareSyncWidget;
 import cc.blynk.server.core.model.widgets.Widget;
-import cc.blynk.server.core.model.widgets.others.rtc.RTC;
+import cc.blynk.server.core.protocol.model.messages.MessageBatch;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
 import cc.blynk.server.core.session.HardwareStateHolder;
+import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.utils.NumberUtil;
 import cc.blynk.utils.StringUtils;
 import io.netty.channel.ChannelHandlerContext;
@@ -20,9 +21,11 @@ import java.util.Map;
 
 import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
 import static cc.blynk.server.internal.CommonByteBufUtil.illegalCommand;
-import static cc.blynk.server.internal.CommonByteBufUtil.makeUTF8StringMessage;
 
 /**
+ * Sends state of the widgets and pin storage of the device back to the device.
+ * Whole state is encoded into the single buffer and written at once.
+ *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
  * Created on 2/1/2015.
@@ -33,45 +36,45 @@ public final class HardwareSyncLogic {
     private HardwareSyncLogic() {
     }
 
-    public static void messageReceived(ChannelHandlerContext ctx, HardwareStateHolder state, StringMessage message) {
+    public static void messageReceived(GlobalStats stats, ChannelHandlerContext ctx,
+                                       HardwareStateHolder state, StringMessage message) {
         int deviceId = state.device.id;
         DashBoard dash = state.dash;
 
         if (message.body.length() == 0) {
-            syncAll(ctx, message.id, state.user.profile, dash, deviceId);
+            syncAll(new MessageBatch(ctx, stats), message.id, state.user.profile, dash, deviceId);
         } else {
-            syncSpecificPins(ctx, message.body, message.id, state.user.profile, dash, deviceId);
+            syncSpecificPins(ctx, new MessageBatch(ctx, stats),
+                    message.body, message.id, state.user.profile, dash, deviceId);
         }
     }
 
-    private static void syncAll(ChannelHandlerContext ctx, int msgId, Profile profile, DashBoard dash, int deviceId) {
-        //return all widgets state
-        for (Widget widget : dash.widgets) {
-            //one exclusion, no need to sync RTC
-            if (widget instanceof HardwareSyncWidget && !(widget instanceof RTC) && ctx.channel().isWritable()) {
-                ((HardwareSyncWidget) widget).sendHardSync(ctx, msgId, deviceId);
-            }
+    private static void syncAll(MessageBatch batch, int msgId, Profile profile, DashBoard dash, int deviceId) {
+        if (!batch.isWritable()) {
+            return;
+        }
+
+        //return all widgets state, widgets of other devices and RTC are not in the index
+        for (HardwareSyncWidget widget : dash.getHardwareSyncWidgets(deviceId)) {
+            widget.sendHardSync(batch, msgId, deviceId);
         }
 
-        for (Map.Entry<DashPinStorageKey, PinStorageValue> entry : profile.pinsStorage.entrySet()) {
+        for (Map.Entry<DashPinStorageKey, PinStorageValue> entry
+                : profile.pinsStorage.getDeviceValues(dash.id, deviceId).entrySet()) {
             DashPinStorageKey key = entry.getKey();
-            if (deviceId == key.deviceId
-                    && dash.id == key.dashId
-                    && !(key instanceof DashPinPropertyStorageKey)
-                    && ctx.channel().isWritable()) {
+            if (!(key instanceof DashPinPropertyStorageKey)) {
                 for (String value : entry.getValue().values()) {
-                    String body = key.makeHardwareBody(value);
-                    ctx.write(makeUTF8StringMessage(HARDWARE, msgId, body), ctx.voidPromise());
+                    batch.add(HARDWARE, msgId, key.makeHardwareBody(value));
                 }
             }
         }
 
-        ctx.flush();
+        batch.flush();
     }
 
     //message format is "vr 22 33"
     //return specific widget state
-    private static void syncSpecificPins(ChannelHandlerContext ctx, String messageBody,
+    private static void syncSpecificPins(ChannelHandlerContext ctx, MessageBatch batch, String messageBody,
                                          int msgId, Profile profile, DashBoard dash, int deviceId) {
         String[] bodyParts = messageBody.split(StringUtils.BODY_SEPARATOR_STRING);
 
@@ -82,26 +85,23 @@ public final class HardwareSyncLogic {
 
         PinType pinType = PinType.getPinType(bodyParts[0].charAt(0));
 
-        if (StringUtils.isReadOperation(bodyParts[0])) {
+        if (StringUtils.isReadOperation(bodyParts[0]) && batch.isWritable()) {
             for (int i = 1; i < bodyParts.length; i++) {
                 short pin = NumberUtil.parsePin(bodyParts[i]);
                 Widget widget = dash.findWidgetByPin(deviceId, pin, pinType);
-                if (ctx.channel().isWritable()) {
-                    if (widget == null) {
-                        PinStorageValue pinStorageValue =
-                                profile.pinsStorage.get(new DashPinStorageKey(dash.id, deviceId, pinType, pin));
-                        if (pinStorageValue != null) {
-                            for (String value : pinStorageValue.values()) {
-                                String body = DataStream.makeHardwareBody(pinType, pin, value);
-                                ctx.write(makeUTF8StringMessage(HARDWARE, msgId, body), ctx.voidPromise());
-                            }
+                if (widget == null) {
+                    PinStorageValue pinStorageValue =
+                            profile.pinsStorage.get(new DashPinStorageKey(dash.id, deviceId, pinType, pin));
+                    if (pinStorageValue != null) {
+                        for (String value : pinStorageValue.values()) {
+                            batch.add(HARDWARE, msgId, DataStream.makeHardwareBody(pinType, pin, value));
                         }
-                    } else if (widget instanceof HardwareSyncWidget) {
-                        ((HardwareSyncWidget) widget).sendHardSync(ctx, msgId, deviceId);
                     }
+                } else if (widget instanceof HardwareSyncWidget) {
+                    ((HardwareSyncWidget) widget).sendHardSync(batch, msgId, deviceId);
                 }
             }
-            ctx.flush();
+            batch.flush();
         }
     }
 
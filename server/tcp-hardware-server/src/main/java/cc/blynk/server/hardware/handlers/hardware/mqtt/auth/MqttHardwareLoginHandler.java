@@ -53,11 +53,12 @@ public class MqttHardwareLoginHandler extends SimpleChannelInboundHandler<MqttCo
         this.holder = holder;
     }
 
-    private static void completeLogin(Channel channel, Session session, User user,
-                                      DashBoard dash, Device device, int msgId) {
+    private void completeLogin(Channel channel, Session session, User user,
+                               DashBoard dash, Device device, int msgId) {
         log.debug("completeLogin. {}", channel);
 
         session.addHardChannel(channel);
+        holder.readingWidgetsWorker.register(channel, session);
         channel.writeAndFlush(ACCEPTED);
 
         String responseBody = String.valueOf(dash.id) + DEVICE_SEPARATOR + device.id;
@@ -3,10 +3,15 @@ package cc.blynk.server.hardware.handlers.hardware.mqtt.logic;
 import cc.blynk.server.core.dao.ReportingDiskDao;
 import cc.blynk.server.core.dao.SessionDao;
 import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.DataStream;
 import cc.blynk.server.core.model.auth.Session;
+import cc.blynk.server.core.model.device.Device;
 import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.protocol.model.messages.common.HardwareByteBufMessage;
 import cc.blynk.server.core.session.HardwareStateHolder;
 import cc.blynk.utils.NumberUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.handler.codec.mqtt.MqttPublishMessage;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -14,13 +19,17 @@ import org.apache.logging.log4j.Logger;
 import java.nio.charset.StandardCharsets;
 
 import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
-import static cc.blynk.utils.StringUtils.split3;
+import static cc.blynk.utils.StringUtils.BODY_SEPARATOR;
 
 /**
  * Handler responsible for forwarding messages from hardware to applications.
  * Also handler stores all incoming hardware commands to disk in order to export and
  * analyze data.
  *
+ * Supports 2 kinds of the publish topics :
+ * "hardware" with the hardware command as payload, like "vw 1 100";
+ * "pinType/pin", like "v/1", with the value of the pin as payload.
+ *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
  * Created on 2/1/2015.
@@ -30,6 +39,8 @@ public class MqttHardwareLogic {
 
     private static final Logger log = LogManager.getLogger(MqttHardwareLogic.class);
 
+    private static final String HARDWARE_TOPIC = "hardware";
+
     private final ReportingDiskDao reportingDao;
     private final SessionDao sessionDao;
 
@@ -38,59 +49,121 @@ public class MqttHardwareLogic {
         this.reportingDao = reportingDao;
     }
 
-    private static boolean isWriteOperation(String body) {
-        return body.charAt(1) == 'w';
+    //payload is the slice of the inbound buffer, so separators are replaced in place
+    private static void replaceSpaces(ByteBuf payload) {
+        for (int i = payload.readerIndex(); i < payload.writerIndex(); i++) {
+            if (payload.getByte(i) == ' ') {
+                payload.setByte(i, BODY_SEPARATOR);
+            }
+        }
     }
 
     public void messageReceived(HardwareStateHolder state, MqttPublishMessage msg) {
-        Session session = sessionDao.get(state.userKey);
-
-        String body = msg.payload().readSlice(msg.payload().capacity()).toString(StandardCharsets.UTF_8);
+        String topic = msg.variableHeader().topicName();
+        int msgId = msg.variableHeader().packetId();
 
-        //just temp solution to simplify demo
-        body = body.replace(" ", "\0").replace(" ", "\0");
+        if (HARDWARE_TOPIC.equalsIgnoreCase(topic)) {
+            hardwareCommand(state, msgId, msg.payload());
+        } else {
+            pinWrite(state, msgId, topic, msg.payload());
+        }
+    }
 
+    private void hardwareCommand(HardwareStateHolder state, int msgId, ByteBuf payload) {
         //minimum command - "aw 1"
-        if (body.length() < 4) {
-            //throw new IllegalCommandException("HardwareLogic command body too short.");
+        if (payload.readableBytes() < 4) {
+            log.debug("MqttHardwareLogic command body too short.");
             return;
         }
 
-        int dashId = state.dash.id;
-        int deviceId = state.device.id;
+        replaceSpaces(payload);
+        HardwareByteBufMessage message = new HardwareByteBufMessage(msgId, payload);
 
-        DashBoard dash = state.dash;
-
-        if (isWriteOperation(body)) {
-            //" |\0" - to simplify demonstration
-            String[] splitBody = split3(body);
-
-            if (splitBody.length < 3 || splitBody[0].length() == 0) {
-                //throw new IllegalCommandException("Write command is wrong.");
+        if (message.isWriteOperation()) {
+            if (!message.isValidWrite()) {
+                log.debug("Write command is wrong {} for {} and deviceId {}.",
+                        message, state.user.email, state.device.id);
                 return;
             }
 
-            PinType pinType = PinType.getPinType(splitBody[0].charAt(0));
-            short pin = NumberUtil.parsePin(splitBody[1]);
-            String value = splitBody[2];
-
-            if (value.length() == 0) {
-                //throw new IllegalCommandException("Hardware write command doesn't have value for pin.");
+            PinType pinType;
+            short pin;
+            try {
+                pinType = message.getPinType();
+                pin = message.getPin();
+            } catch (NumberFormatException e) {
+                log.debug("Wrong pin format. {}", message);
                 return;
             }
 
-            long now = System.currentTimeMillis();
+            process(state, pin, pinType, message.getValue());
+        }
 
-            reportingDao.process(state.user, dash, deviceId, pin, pinType, value, now);
+        DashBoard dash = state.dash;
+        if (dash.isActive) {
+            Session session = sessionDao.get(state.userKey);
+            session.sendToApps(HARDWARE, msgId, dash.id, state.device.id, payload);
+        } else {
+            log.debug("No active dashboard.");
+        }
+    }
+
+    private void pinWrite(HardwareStateHolder state, int msgId, String topic, ByteBuf payload) {
+        PinType pinType;
+        short pin;
+        try {
+            if (topic.length() < 3 || topic.charAt(1) != '/') {
+                throw new NumberFormatException("Invalid topic.");
+            }
+            pinType = PinType.getPinType(topic.charAt(0));
+            pin = NumberUtil.parsePin(topic.substring(2));
+        } catch (NumberFormatException e) {
+            log.debug("Unsupported mqtt topic {}.", topic);
+            return;
+        }
 
-            state.user.profile.update(dash, 0, pin, pinType, value, now);
+        if (!payload.isReadable()) {
+            log.debug("Mqtt publish to {} doesn't have value for pin.", topic);
+            return;
         }
 
+        //number is parsed right from the payload, string is made only for the pin storage
+        double doubleVal = HardwareByteBufMessage.parseDouble(payload);
+        String value = payload.toString(StandardCharsets.UTF_8);
+        process(state, pin, pinType, value, doubleVal);
+
+        DashBoard dash = state.dash;
         if (dash.isActive) {
-            session.sendToApps(HARDWARE, msg.variableHeader().packetId(), dashId, deviceId, body);
+            Session session = sessionDao.get(state.userKey);
+            if (session.isAppConnected()) {
+                //payload is forwarded to the apps as it is, after the "vw pin " prefix
+                ByteBuf prefix = Unpooled.copiedBuffer(
+                        DataStream.makeHardwareBody(pinType, pin, ""), StandardCharsets.US_ASCII);
+                ByteBuf body = Unpooled.wrappedBuffer(prefix, payload.retainedSlice());
+                try {
+                    session.sendToApps(HARDWARE, msgId, dash.id, state.device.id, body);
+                } finally {
+                    body.release();
+                }
+            }
         } else {
             log.debug("No active dashboard.");
         }
     }
 
+    private void process(HardwareStateHolder state, short pin, PinType pinType, String value) {
+        process(state, pin, pinType, value, NumberUtil.parseDouble(value));
+    }
+
+    private void process(HardwareStateHolder state, short pin, PinType pinType, String value, double doubleVal) {
+        long now = System.currentTimeMillis();
+        DashBoard dash = state.dash;
+        Device device = state.device;
+
+        reportingDao.process(state.user, dash, device.id, pin, pinType, value, now, doubleVal);
+        //pin storage keeps the last value of the every topic, even when there is no widget for it
+        state.user.profile.update(dash, device.id, pin, pinType, value, now);
+        device.dataReceivedAt = now;
+    }
+
 }
@@ -1,5 +1,6 @@
 package cc.blynk.server.tools;
 
+import cc.blynk.server.core.reporting.disk.RingPinFile;
 import cc.blynk.utils.FileUtils;
 
 import java.io.File;
@@ -67,11 +68,16 @@ public final class ReportingDataCleaner {
                         System.out.println("Found " + file.getPath() + ". Size : " + fileSize);
                         try {
                             Path path = file.toPath();
-                            ByteBuffer userReportingData = FileUtils.read(path, count);
-                            write(file, userReportingData);
-                            System.out.println("Successfully copied. Truncated : "
-                                    + (fileSize - userReportingData.position()));
-                            overrideCount++;
+                            //ring files keep fixed number of records and can't be truncated
+                            if (RingPinFile.isRingFile(path)) {
+                                System.out.println("Ring file. Skipping.");
+                            } else {
+                                ByteBuffer userReportingData = FileUtils.read(path, count);
+                                write(file, userReportingData);
+                                System.out.println("Successfully copied. Truncated : "
+                                        + (fileSize - userReportingData.position()));
+                                overrideCount++;
+                            }
                         } catch (Exception e) {
                             System.out.println("Error reading file " + file.getAbsolutePath());
                             System.out.println("Skipping.");
@@ -13,8 +13,6 @@ import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
-import java.time.Instant;
-import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
 import java.util.EnumSet;
 
@@ -125,68 +123,6 @@ public final class FileUtils {
         }
     }
 
-    public static boolean writeBufToCsvFilterAndFormat(BufferedWriter writer, ByteBuffer onePinData,
-                                                      String pin, String deviceName,
-                                                      long startFrom, DateTimeFormatter formatter) throws IOException {
-        boolean hasData = false;
-        while (onePinData.remaining() > 0) {
-            double value = onePinData.getDouble();
-            long ts = onePinData.getLong();
-
-            if (startFrom <= ts) {
-                String formattedTs = formatTS(formatter, ts);
-                writer.write(formattedTs + ',' + pin + ',' + deviceName + ',' + value + '\n');
-                hasData = true;
-            }
-        }
-        if (hasData) {
-            writer.flush();
-        }
-        return hasData;
-    }
-
-    public static boolean writeBufToCsvFilterAndFormat(BufferedWriter writer, ByteBuffer onePinData, String pin,
-                                                      long startFrom, DateTimeFormatter formatter) throws IOException {
-        boolean hasData = false;
-        while (onePinData.remaining() > 0) {
-            double value = onePinData.getDouble();
-            long ts = onePinData.getLong();
-
-            if (startFrom <= ts) {
-                String formattedTs = formatTS(formatter, ts);
-                writer.write(formattedTs + ',' + pin + ',' + value + '\n');
-                hasData = true;
-            }
-        }
-        if (hasData) {
-            writer.flush();
-        }
-        return hasData;
-    }
-
-    public static String writeBufToCsvFilterAndFormat(ByteBuffer onePinData,
-                                                    long startFrom, DateTimeFormatter formatter) {
-        StringBuilder sb = new StringBuilder(onePinData.capacity() * 3);
-        while (onePinData.remaining() > 0) {
-            double value = onePinData.getDouble();
-            long ts = onePinData.getLong();
-
-            if (startFrom <= ts) {
-                String formattedTs = formatTS(formatter, ts);
-                sb.append(formattedTs).append(',')
-                        .append(value).append('\n');
-            }
-        }
-        return sb.toString();
-    }
-
-    private static String formatTS(DateTimeFormatter formatter, long ts) {
-        if (formatter == null) {
-            return String.valueOf(ts);
-        }
-        return formatter.format(Instant.ofEpochMilli(ts));
-    }
-
     public static void writeBufToCsv(BufferedWriter writer, ByteBuffer onePinData, int deviceId) throws Exception {
         while (onePinData.remaining() > 0) {
             double value = onePinData.getDouble();
@@ -31,7 +31,7 @@ public final class NumberUtil {
     }
 
     // Calculate the value of the specified exponent - reuse a precalculated value if possible
-    private static double getPow10(final int exp) {
+    public static double getPow10(final int exp) {
         if (exp > -POW_RANGE) {
             if (exp <= 0) {
                 return NEG_EXPS[-exp];